@@ -13,9 +13,30 @@ import java.lang.annotation.Target;
 @Target(ElementType.FIELD)
 public @interface Index {
 
-  /** todo: not implemented */
+  /**
+   * Number of entities per key.
+   * 0..1 and 1 creates a unique index, where 1 also requires all entities to have a key.
+   * Fields sharing the same name must not declare different multiplicities, the default does not count.
+   * Not supported by sorted indices.
+   */
   public abstract String multiplicity() default "0..*";
 
-  /** todo: can be shared between several fields in order to create a composite key class */
+  /**
+   * Name of the secondary index.
+   * Fields sharing the same name are combined in a composite key, ordered by {@link #position()}.
+   */
   public abstract String name();
+
+  /** position of the field in a composite key, fields with the same position are ordered by name */
+  public abstract int position() default 0;
+
+  /** if the index is ordered by the key, allowing left prefix queries on composite keys */
+  public abstract boolean sorted() default false;
+
+  /**
+   * Dotted bean property path below the annotated field, e.g. address.city on a contact information field.
+   * Collections and arrays in the path fan out to their elements, posting the entity with each value.
+   * Only supported by indices on a single field that are neither sorted nor unique.
+   */
+  public abstract String path() default "";
 }
@@ -0,0 +1,688 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Secondary key to set of values map where the set representation adapts to the number of values:
+ * <ul>
+ * <li>a single value is stored as is,</li>
+ * <li>up to {@link #INLINE_MAX} values in an array,</li>
+ * <li>then in a {@link HashSet},</li>
+ * <li>and from {@link #BITMAP_MIN} values, if all values are entities in the store,
+ * in a {@link CompressedBitmap} of {@link EntityOrdinals}.</li>
+ * </ul>
+ * Keys are kept in an open addressing table, i.e. no entry instance per key.
+ * <p/>
+ * Values are compared using equals in all representations.
+ * Sets returned by {@link #get(Object)} are read only views of the current values of the key.
+ * Not thread safe.
+ */
+public class AdaptivePostings<V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  static final int INLINE_MAX = 8;
+  static final int BITMAP_MIN = 64;
+
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private static final Object REMOVED = new Object();
+
+  private transient Object[] keys;
+  private transient Object[] postings;
+  private transient int size;
+  private transient int used;
+
+  private transient Object nullKeyPosting;
+
+  /** source of ordinals, or null if only references should be used */
+  private EntityStoreImpl store;
+  private EntityOrdinals ordinals;
+
+  /** if the last add or remove changed the postings */
+  private transient boolean changed;
+
+  public AdaptivePostings() {
+    this(null);
+  }
+
+  /**
+   * @param store store that supplies ordinals once the first bitmap is needed,
+   *              or null if only references should be used
+   */
+  public AdaptivePostings(EntityStoreImpl store) {
+    this.store = store;
+    allocate(16);
+  }
+
+  private void allocate(int capacity) {
+    keys = new Object[capacity];
+    postings = new Object[capacity];
+    used = size;
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private int indexOf(Object key) {
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    Object current;
+    while ((current = keys[index]) != null) {
+      if (current != REMOVED && current.equals(key)) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  private Object getPosting(Object key) {
+    if (key == null) {
+      return nullKeyPosting;
+    }
+    int index = indexOf(key);
+    return index < 0 ? null : postings[index];
+  }
+
+  /**
+   * @param posting new posting of key, or null to remove key
+   */
+  private void setPosting(Object key, Object posting) {
+    if (key == null) {
+      nullKeyPosting = posting;
+      return;
+    }
+    int index = indexOf(key);
+    if (index >= 0) {
+      if (posting == null) {
+        keys[index] = REMOVED;
+        postings[index] = null;
+        size--;
+      } else {
+        postings[index] = posting;
+      }
+      return;
+    }
+    if (posting == null) {
+      return;
+    }
+    int mask = keys.length - 1;
+    index = hash(key) & mask;
+    Object current;
+    while ((current = keys[index]) != null && current != REMOVED) {
+      index = (index + 1) & mask;
+    }
+    if (current == null) {
+      used++;
+    }
+    keys[index] = key;
+    postings[index] = posting;
+    size++;
+    if (used > keys.length * LOAD_FACTOR) {
+      rehash(size * 2 > keys.length * LOAD_FACTOR ? keys.length << 1 : keys.length);
+    }
+  }
+
+  private void rehash(int capacity) {
+    Object[] oldKeys = keys;
+    Object[] oldPostings = postings;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      Object key = oldKeys[i];
+      if (key != null && key != REMOVED) {
+        int index = hash(key) & mask;
+        while (keys[index] != null) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        postings[index] = oldPostings[i];
+      }
+    }
+  }
+
+  /**
+   * @return true if value was not already associated with key
+   */
+  public boolean add(Object key, V value) {
+    Object posting = getPosting(key);
+    Object updated = addToPosting(posting, value);
+    if (updated != posting) {
+      setPosting(key, updated);
+    }
+    return changed;
+  }
+
+  /**
+   * @return true if value was associated with key
+   */
+  public boolean remove(Object key, V value) {
+    Object posting = getPosting(key);
+    if (posting == null) {
+      return false;
+    }
+    Object updated = removeFromPosting(posting, value);
+    if (updated != posting) {
+      setPosting(key, updated);
+    }
+    return changed;
+  }
+
+  /**
+   * Removes value from all keys, i.e. visits all postings.
+   *
+   * @return true if value was associated with any key
+   */
+  public boolean removeValue(V value) {
+    boolean removed = false;
+    if (nullKeyPosting != null) {
+      removed = remove(null, value);
+    }
+    for (int i = 0; i < keys.length; i++) {
+      Object key = keys[i];
+      if (key != null && key != REMOVED) {
+        Object posting = postings[i];
+        Object updated = removeFromPosting(posting, value);
+        if (changed) {
+          removed = true;
+          if (updated == null) {
+            keys[i] = REMOVED;
+            postings[i] = null;
+            size--;
+          } else {
+            postings[i] = updated;
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * @return read only view of values associated with key, or null if none
+   */
+  public Set<V> get(Object key) {
+    return getPosting(key) == null ? null : new PostingSet(key);
+  }
+
+  /**
+   * @return number of keys
+   */
+  public int size() {
+    return size + (nullKeyPosting != null ? 1 : 0);
+  }
+
+  public void clear() {
+    size = 0;
+    allocate(16);
+    nullKeyPosting = null;
+  }
+
+  /**
+   * @return ordinals of the store, or null if there is no store
+   */
+  private EntityOrdinals getOrdinals() {
+    if (ordinals == null && store != null) {
+      ordinals = store.getEntityOrdinals();
+    }
+    return ordinals;
+  }
+
+  private transient Map<Object, Set<V>> mapView;
+
+  /**
+   * @return read only map view of this postings
+   */
+  public Map<Object, Set<V>> asMap() {
+    if (mapView == null) {
+      mapView = new AbstractMap<Object, Set<V>>() {
+        @Override
+        public Set<V> get(Object key) {
+          return AdaptivePostings.this.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+          return getPosting(key) != null;
+        }
+
+        @Override
+        public Set<Entry<Object, Set<V>>> entrySet() {
+          return new AbstractSet<Entry<Object, Set<V>>>() {
+            @Override
+            public Iterator<Entry<Object, Set<V>>> iterator() {
+              return new Iterator<Entry<Object, Set<V>>>() {
+
+                private boolean nullKey = nullKeyPosting != null;
+                private int next = advance(0);
+
+                private int advance(int index) {
+                  while (index < keys.length && (keys[index] == null || keys[index] == REMOVED)) {
+                    index++;
+                  }
+                  return index;
+                }
+
+                @Override
+                public boolean hasNext() {
+                  return nullKey || next < keys.length;
+                }
+
+                @Override
+                public Entry<Object, Set<V>> next() {
+                  Object key;
+                  if (nullKey) {
+                    nullKey = false;
+                    key = null;
+                  } else if (next < keys.length) {
+                    key = keys[next];
+                    next = advance(next + 1);
+                  } else {
+                    throw new NoSuchElementException();
+                  }
+                  return new SimpleImmutableEntry<Object, Set<V>>(key, new PostingSet(key));
+                }
+
+                @Override
+                public void remove() {
+                  throw new UnsupportedOperationException();
+                }
+              };
+            }
+
+            @Override
+            public int size() {
+              return AdaptivePostings.this.size();
+            }
+          };
+        }
+      };
+    }
+    return mapView;
+  }
+
+  // posting representations
+
+  private Object addToPosting(Object posting, Object value) {
+    if (posting == null) {
+      changed = true;
+      return value;
+    }
+    if (!(posting instanceof AdaptivePostings.Posting)) {
+      if (posting.equals(value)) {
+        changed = false;
+        return posting;
+      }
+      changed = true;
+      Inline inline = new Inline();
+      inline.values[0] = posting;
+      inline.values[1] = value;
+      inline.size = 2;
+      return inline;
+    }
+    return ((Posting) posting).add(value);
+  }
+
+  private Object removeFromPosting(Object posting, Object value) {
+    if (!(posting instanceof AdaptivePostings.Posting)) {
+      changed = posting.equals(value);
+      return changed ? null : posting;
+    }
+    return ((Posting) posting).remove(value);
+  }
+
+  private int size(Object posting) {
+    return posting instanceof AdaptivePostings.Posting ? ((Posting) posting).size() : 1;
+  }
+
+  private abstract class Posting implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    abstract int size();
+
+    abstract boolean contains(Object value);
+
+    /**
+     * @return this or the new posting
+     */
+    abstract Object add(Object value);
+
+    /**
+     * @return this, the new posting or null if empty
+     */
+    abstract Object remove(Object value);
+
+    abstract Iterator<Object> iterator();
+
+    /**
+     * @return values in an inline posting, or the single value
+     */
+    Object shrink() {
+      if (size() == 1) {
+        return iterator().next();
+      }
+      Inline inline = new Inline();
+      for (Iterator<Object> it = iterator(); it.hasNext();) {
+        inline.values[inline.size++] = it.next();
+      }
+      return inline;
+    }
+  }
+
+  private final class Inline extends Posting {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Object[] values = new Object[INLINE_MAX];
+    private int size;
+
+    private int indexOf(Object value) {
+      for (int i = 0; i < size; i++) {
+        if (values[i].equals(value)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    int size() {
+      return size;
+    }
+
+    @Override
+    boolean contains(Object value) {
+      return indexOf(value) >= 0;
+    }
+
+    @Override
+    Object add(Object value) {
+      if (indexOf(value) >= 0) {
+        changed = false;
+        return this;
+      }
+      changed = true;
+      if (size < INLINE_MAX) {
+        values[size++] = value;
+        return this;
+      }
+      Hashed hashed = new Hashed();
+      hashed.set.addAll(Arrays.asList(values));
+      hashed.set.add(value);
+      return hashed;
+    }
+
+    @Override
+    Object remove(Object value) {
+      int index = indexOf(value);
+      if (index < 0) {
+        changed = false;
+        return this;
+      }
+      changed = true;
+      System.arraycopy(values, index + 1, values, index, size - index - 1);
+      values[--size] = null;
+      return size == 1 ? values[0] : this;
+    }
+
+    @Override
+    Iterator<Object> iterator() {
+      return Arrays.asList(values).subList(0, size).iterator();
+    }
+  }
+
+  private final class Hashed extends Posting {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Set<Object> set = new HashSet<Object>();
+
+    /** size at which this posting failed to become a bitmap as not all values were entities */
+    private int bitmapRefusedAt;
+
+    @Override
+    int size() {
+      return set.size();
+    }
+
+    @Override
+    boolean contains(Object value) {
+      return set.contains(value);
+    }
+
+    @Override
+    Object add(Object value) {
+      changed = set.add(value);
+      if (changed && set.size() >= BITMAP_MIN && set.size() >= bitmapRefusedAt * 2
+          && getOrdinals() != null) {
+        Bitmap bitmap = new Bitmap();
+        for (Object member : set) {
+          int ordinal = ordinals.ordinalOf(member);
+          if (ordinal < 0) {
+            bitmapRefusedAt = set.size();
+            return this;
+          }
+          bitmap.bitmap.add(ordinal);
+        }
+        return bitmap;
+      }
+      return this;
+    }
+
+    @Override
+    Object remove(Object value) {
+      changed = set.remove(value);
+      if (changed && set.size() <= INLINE_MAX / 2) {
+        return shrink();
+      }
+      return this;
+    }
+
+    @Override
+    Iterator<Object> iterator() {
+      return set.iterator();
+    }
+  }
+
+  private final class Bitmap extends Posting {
+
+    private static final long serialVersionUID = 1l;
+
+    private final CompressedBitmap bitmap = new CompressedBitmap();
+
+    @Override
+    int size() {
+      return bitmap.cardinality();
+    }
+
+    /**
+     * Members are entity instances of the store, and entities of different identities are expected not to be equal.
+     * A value that is not an entity instance of the store is compared to the members using equals,
+     * as in the other representations.
+     *
+     * @return ordinal of the member equal to value, or -1 if none
+     */
+    private int ordinalOfMember(Object value) {
+      int ordinal = ordinals.ordinalOf(value);
+      if (ordinal >= 0) {
+        return bitmap.contains(ordinal) ? ordinal : -1;
+      }
+      for (CompressedBitmap.Iterator it = bitmap.iterator(); it.hasNext();) {
+        int member = it.next();
+        if (value.equals(ordinals.entityAt(member))) {
+          return member;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    boolean contains(Object value) {
+      return ordinalOfMember(value) >= 0;
+    }
+
+    @Override
+    Object add(Object value) {
+      int ordinal = ordinals.ordinalOf(value);
+      if (ordinal >= 0) {
+        changed = bitmap.add(ordinal);
+        return this;
+      }
+      if (ordinalOfMember(value) >= 0) {
+        changed = false;
+        return this;
+      }
+      // not an entity, fall back on references
+      Hashed hashed = new Hashed();
+      for (Iterator<Object> it = iterator(); it.hasNext();) {
+        hashed.set.add(it.next());
+      }
+      hashed.bitmapRefusedAt = Integer.MAX_VALUE / 2;
+      changed = hashed.set.add(value);
+      return hashed;
+    }
+
+    @Override
+    Object remove(Object value) {
+      int ordinal = ordinalOfMember(value);
+      changed = ordinal >= 0 && bitmap.remove(ordinal);
+      if (changed && bitmap.cardinality() <= INLINE_MAX / 2) {
+        return bitmap.isEmpty() ? null : shrink();
+      }
+      return this;
+    }
+
+    @Override
+    Iterator<Object> iterator() {
+      final CompressedBitmap.Iterator iterator = bitmap.iterator();
+      return new Iterator<Object>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public Object next() {
+          return ordinals.entityAt(iterator.next());
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  /**
+   * Read only view of the current values of a key.
+   */
+  private class PostingSet extends AbstractSet<V> {
+
+    private final Object key;
+
+    private PostingSet(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<V> iterator() {
+      Object posting = getPosting(key);
+      if (posting == null) {
+        return Collections.<V>emptySet().iterator();
+      } else if (posting instanceof AdaptivePostings.Posting) {
+        final Iterator<Object> iterator = ((Posting) posting).iterator();
+        return new Iterator<V>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public V next() {
+            return (V) iterator.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      } else {
+        return Collections.singleton((V) posting).iterator();
+      }
+    }
+
+    @Override
+    public boolean contains(Object value) {
+      Object posting = getPosting(key);
+      if (posting == null || value == null) {
+        return false;
+      } else if (posting instanceof AdaptivePostings.Posting) {
+        return ((Posting) posting).contains(value);
+      } else {
+        return posting.equals(value);
+      }
+    }
+
+    @Override
+    public int size() {
+      Object posting = getPosting(key);
+      return posting == null ? 0 : AdaptivePostings.this.size(posting);
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(nullKeyPosting);
+    out.writeInt(size);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null && keys[i] != REMOVED) {
+        out.writeObject(keys[i]);
+        out.writeObject(postings[i]);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    nullKeyPosting = in.readObject();
+    int size = in.readInt();
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR <= size) {
+      capacity <<= 1;
+    }
+    this.size = 0;
+    allocate(capacity);
+    for (int i = 0; i < size; i++) {
+      Object key = in.readObject();
+      setPosting(key, in.readObject());
+    }
+  }
+
+}
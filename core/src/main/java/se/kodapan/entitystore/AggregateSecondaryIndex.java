@@ -0,0 +1,339 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Secondary index that groups entities by the secondary key
+ * and keeps count, sum, minimum and maximum of a numeric value and an approximate count of distinct values per group,
+ * e.g. number of legal persons per country.
+ * <p/>
+ * The aggregates are updated as entities are put and removed, so reading them costs no iteration.
+ * The value and distinct value each entity was put with are recorded, as the entity might have been modified when removed.
+ * <p/>
+ * Distinct values are counted using {@link HyperLogLog} that can not forget values,
+ * the sketch of a group is rebuilt from its entities when read after an entity was removed from it.
+ */
+public abstract class AggregateSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private Map<Object, Aggregate> aggregates = new HashMap<Object, Aggregate>();
+
+  /** what each instance was put with */
+  private Map<EntityType, Contribution> contributionsByEntity = new IdentityHashMap<EntityType, Contribution>();
+
+  private long totalCount;
+  private double totalSum;
+
+  protected AggregateSecondaryIndex() {
+  }
+
+  protected AggregateSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    super(name, primaryIndex);
+  }
+
+  /**
+   * @return value summed and compared in the group of the entity, or null if none
+   */
+  protected abstract Number getValue(EntityType entity);
+
+  /**
+   * @return value counted distinctly in the group of the entity, or null if none
+   */
+  protected Object getDistinctValue(EntityType entity) {
+    return null;
+  }
+
+  @Override
+  public void reconstruct() {
+    aggregates.clear();
+    contributionsByEntity.clear();
+    totalCount = 0;
+    totalSum = 0;
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  /**
+   * Puts the entity with its current group, value and distinct value.
+   * If the very same instance already is in the index it is moved if any of them has changed,
+   * otherwise nothing happens.
+   */
+  @Override
+  public void put(EntityType entity) {
+    Number value = getValue(entity);
+    Contribution contribution = new Contribution(getSecondaryKey(entity), value == null ? null : value.doubleValue(), getDistinctValue(entity));
+    Contribution previous = contributionsByEntity.get(entity);
+    if (previous != null) {
+      if (previous.equals(contribution)) {
+        return;
+      }
+      subtract(entity, previous);
+    }
+    Aggregate aggregate = aggregates.get(contribution.secondaryKey);
+    if (aggregate == null) {
+      aggregate = new Aggregate();
+      aggregates.put(contribution.secondaryKey, aggregate);
+    }
+    aggregate.add(entity, contribution);
+    totalCount++;
+    if (contribution.value != null) {
+      totalSum += contribution.value;
+    }
+    contributionsByEntity.put(entity, contribution);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    Contribution contribution = contributionsByEntity.remove(entity);
+    if (contribution != null) {
+      subtract(entity, contribution);
+    }
+  }
+
+  private void subtract(EntityType entity, Contribution contribution) {
+    Aggregate aggregate = aggregates.get(contribution.secondaryKey);
+    aggregate.subtract(entity, contribution);
+    if (aggregate.getCount() == 0) {
+      aggregates.remove(contribution.secondaryKey);
+    }
+    totalCount--;
+    if (contribution.value != null) {
+      totalSum -= contribution.value;
+    }
+  }
+
+  @Override
+  public Set<EntityType> list(Object... parameters) {
+    Aggregate aggregate = aggregates.get(getSecondaryKey(parameters));
+    return aggregate == null ? null : Collections.unmodifiableSet(aggregate.entities);
+  }
+
+  /**
+   * @return aggregate of the group, or null if no entities
+   */
+  public Aggregate getAggregate(Object... parameters) {
+    return aggregates.get(getSecondaryKey(parameters));
+  }
+
+  /**
+   * @return aggregates of all groups by secondary key
+   */
+  public Map<Object, Aggregate> getAggregates() {
+    return Collections.unmodifiableMap(aggregates);
+  }
+
+  /**
+   * @return number of entities in all groups
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @return sum of the values in all groups
+   */
+  public double getTotalSum() {
+    return totalSum;
+  }
+
+  /**
+   * @return approximate number of distinct values in all groups
+   */
+  public long getTotalDistinctCount() {
+    HyperLogLog union = new HyperLogLog();
+    for (Aggregate aggregate : aggregates.values()) {
+      if (aggregate.getDistinctSketch() != null) {
+        union.merge(aggregate.getDistinctSketch());
+      }
+    }
+    return union.cardinality();
+  }
+
+  /**
+   * What an entity was put with.
+   */
+  private static final class Contribution implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Object secondaryKey;
+    private final Double value;
+    private final Object distinctValue;
+
+    private Contribution(Object secondaryKey, Double value, Object distinctValue) {
+      this.secondaryKey = secondaryKey;
+      this.value = value;
+      this.distinctValue = distinctValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Contribution that = (Contribution) o;
+
+      if (secondaryKey != null ? !secondaryKey.equals(that.secondaryKey) : that.secondaryKey != null) return false;
+      if (value != null ? !value.equals(that.value) : that.value != null) return false;
+      if (distinctValue != null ? !distinctValue.equals(that.distinctValue) : that.distinctValue != null) return false;
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = secondaryKey != null ? secondaryKey.hashCode() : 0;
+      result = 31 * result + (value != null ? value.hashCode() : 0);
+      result = 31 * result + (distinctValue != null ? distinctValue.hashCode() : 0);
+      return result;
+    }
+  }
+
+  /**
+   * Aggregated values of the entities in a group.
+   */
+  public final class Aggregate implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    /** identity set, as the contributions are kept per instance */
+    private Set<EntityType> entities = Collections.newSetFromMap(new IdentityHashMap<EntityType, Boolean>(4));
+
+    /** number of entities with a value */
+    private int valueCount;
+    private double sum;
+
+    /** number of entities by value, null until an entity has a value */
+    private TreeMap<Double, Integer> valueCounts;
+
+    /** null until an entity has a distinct value */
+    private HyperLogLog distinctSketch;
+    /** true if a distinct value was removed since the sketch was built */
+    private boolean distinctSketchStale;
+
+    private Aggregate() {
+    }
+
+    private void add(EntityType entity, Contribution contribution) {
+      entities.add(entity);
+      if (contribution.value != null) {
+        valueCount++;
+        sum += contribution.value;
+        if (valueCounts == null) {
+          valueCounts = new TreeMap<Double, Integer>();
+        }
+        Integer count = valueCounts.get(contribution.value);
+        valueCounts.put(contribution.value, count == null ? 1 : count + 1);
+      }
+      if (contribution.distinctValue != null) {
+        if (distinctSketch == null) {
+          distinctSketch = new HyperLogLog();
+        }
+        distinctSketch.add(contribution.distinctValue);
+      }
+    }
+
+    private void subtract(EntityType entity, Contribution contribution) {
+      entities.remove(entity);
+      if (contribution.value != null) {
+        valueCount--;
+        sum -= contribution.value;
+        Integer count = valueCounts.get(contribution.value);
+        if (count == 1) {
+          valueCounts.remove(contribution.value);
+        } else {
+          valueCounts.put(contribution.value, count - 1);
+        }
+      }
+      if (contribution.distinctValue != null) {
+        distinctSketchStale = true;
+      }
+    }
+
+    /**
+     * @return entities in the group
+     */
+    public int getCount() {
+      return entities.size();
+    }
+
+    /**
+     * @return number of entities in the group with a value
+     */
+    public int getValueCount() {
+      return valueCount;
+    }
+
+    public double getSum() {
+      return sum;
+    }
+
+    /**
+     * @return mean of the values, or null if none
+     */
+    public Double getAverage() {
+      return valueCount == 0 ? null : sum / valueCount;
+    }
+
+    /**
+     * @return smallest value, or null if none
+     */
+    public Double getMin() {
+      return valueCounts == null || valueCounts.isEmpty() ? null : valueCounts.firstKey();
+    }
+
+    /**
+     * @return largest value, or null if none
+     */
+    public Double getMax() {
+      return valueCounts == null || valueCounts.isEmpty() ? null : valueCounts.lastKey();
+    }
+
+    /**
+     * @return approximate number of distinct values
+     */
+    public long getDistinctCount() {
+      HyperLogLog sketch = getDistinctSketch();
+      return sketch == null ? 0 : sketch.cardinality();
+    }
+
+    /**
+     * @return sketch of the distinct values, to be merged with other sketches without modifying it, or null if none
+     */
+    public HyperLogLog getDistinctSketch() {
+      if (distinctSketchStale) {
+        distinctSketch.clear();
+        for (EntityType entity : entities) {
+          Object distinctValue = contributionsByEntity.get(entity).distinctValue;
+          if (distinctValue != null) {
+            distinctSketch.add(distinctValue);
+          }
+        }
+        distinctSketchStale = false;
+      }
+      return distinctSketch;
+    }
+  }
+
+}
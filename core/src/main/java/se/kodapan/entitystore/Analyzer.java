@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Splits text in terms for {@link FullTextSecondaryIndex}.
+ * The same analyzer is used for both indexed text and queries.
+ */
+public interface Analyzer extends Serializable {
+
+  /**
+   * @param text text to analyze, never null
+   * @return terms in order of appearance, may contain duplicates
+   */
+  public abstract List<String> analyze(String text);
+
+}
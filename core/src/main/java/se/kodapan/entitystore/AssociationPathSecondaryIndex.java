@@ -0,0 +1,383 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import se.kodapan.lang.reflect.ReflectionUtil;
+import se.kodapan.lang.reflect.augmentation.BinaryAssociationEnd;
+import se.kodapan.lang.reflect.augmentation.Mirror;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Secondary index of entities by a value reached through a path of binary associations,
+ * e.g. humans by the name of their employers, <code>new AssociationPathSecondaryIndex(name, humans, "employments.name")</code>.
+ * <p/>
+ * Each segment of the path but the last is the name of a {@link BinaryAssociationEnd} in the {@link Mirror}
+ * of the instance at that point. Association class instances are passed through to the other end of the association.
+ * The last segment is either an association end, in which case the reached instances are the secondary keys,
+ * or a bean property of the reached instances. Null values are not indexed,
+ * and an entity reaching several values is available using any of them.
+ * <p/>
+ * The index keeps track of the instances each entity reached.
+ * When any entity is put or removed the entities that reached it,
+ * or that reach it now when navigating the path backwards, are reindexed.
+ * An association class instance is not an entity,
+ * changes to one is noticed when an entity at either end of it is put.
+ * <p/>
+ * Qualified associations are not supported.
+ */
+public class AssociationPathSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType>
+    implements DependentSecondaryIndex {
+
+  private static final long serialVersionUID = 1l;
+
+  private String[] segments;
+
+  /** classes of the instances found at each segment, used to navigate backwards */
+  private List<Set<Class>> classesBySegment;
+
+  private Map<Object, Set<EntityType>> postings = new HashMap<Object, Set<EntityType>>();
+
+  /** secondary keys each instance was put with */
+  private Map<EntityType, Set<Object>> secondaryKeysByEntity = new IdentityHashMap<EntityType, Set<Object>>();
+
+  /** instances reached by each entity, if any */
+  private Map<EntityType, Set<Object>> reachedByEntity = new IdentityHashMap<EntityType, Set<Object>>();
+
+  /** entities that reached each instance */
+  private Map<Object, Set<EntityType>> dependentsByInstance = new IdentityHashMap<Object, Set<EntityType>>();
+
+  private transient Map<Class, Method> gettersByClass;
+
+  protected AssociationPathSecondaryIndex() {
+  }
+
+  /**
+   * @param path association end names separated by dots, optionally ending with a bean property name
+   */
+  public AssociationPathSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, String path) {
+    super(name, primaryIndex);
+    segments = path.split("\\.");
+    classesBySegment = new ArrayList<Set<Class>>(segments.length);
+    for (String segment : segments) {
+      classesBySegment.add(new HashSet<Class>());
+    }
+  }
+
+  /**
+   * @return the secondary keys reached by the entity
+   */
+  @Override
+  public Object getSecondaryKey(EntityType entity) {
+    return evaluate(entity, null);
+  }
+
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return parameters[0];
+  }
+
+  public String getPath() {
+    StringBuilder sb = new StringBuilder();
+    for (String segment : segments) {
+      if (sb.length() > 0) {
+        sb.append('.');
+      }
+      sb.append(segment);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public void reconstruct() {
+    postings.clear();
+    secondaryKeysByEntity.clear();
+    reachedByEntity.clear();
+    dependentsByInstance.clear();
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  /**
+   * @param entity  instance to start at
+   * @param reached if not null, populated with the instances passed on the way
+   * @return distinct non null values at the end of the path
+   */
+  private Set<Object> evaluate(Object entity, Set<Object> reached) {
+    Set<Object> secondaryKeys = new HashSet<Object>();
+    Set<Object> instances = Collections.singleton(entity);
+    for (int i = 0; i < segments.length && !instances.isEmpty(); i++) {
+      boolean last = i == segments.length - 1;
+      Set<Object> next = newIdentitySet();
+      for (Object instance : instances) {
+        classesBySegment.get(i).add(instance.getClass());
+        BinaryAssociationEnd end = getAssociationEnd(instance.getClass(), segments[i]);
+        if (end != null) {
+          navigate(instance, end, reached, next);
+        } else if (last) {
+          Object value = getProperty(instance);
+          if (value != null) {
+            secondaryKeys.add(value);
+          }
+        } else {
+          throw new IllegalArgumentException("No association end " + segments[i] + " in " + instance.getClass().getName() + " of path " + getPath());
+        }
+      }
+      if (last) {
+        // reached by an association end at the end of the path
+        secondaryKeys.addAll(next);
+      }
+      if (reached != null) {
+        reached.addAll(next);
+      }
+      instances = next;
+    }
+    return secondaryKeys;
+  }
+
+  private static BinaryAssociationEnd getAssociationEnd(Class type, String name) {
+    BinaryAssociationEnd end = Mirror.reflect(type).getBinaryAssociationEnds().get(name);
+    return end != null && end.isNavigatable() ? end : null;
+  }
+
+  /**
+   * Adds the instances at the other end of the association to next,
+   * and any association class instances to reached.
+   */
+  private static void navigate(Object instance, BinaryAssociationEnd end, Set<Object> reached, Set<Object> next) {
+    Object value = end.getAccessor().get(instance);
+    if (value == null) {
+      return;
+    }
+    if (end.getQualification() != null) {
+      throw new UnsupportedOperationException("Qualified associations are not supported: " + end.toString());
+    }
+    Collection values = end.getMultiplicity().isMaximumOne() ? Collections.singleton(value) : (Collection) value;
+    boolean associationClass = end.getBinaryAssociation().getAssociationClassEnds() != null;
+    for (Object otherEndValue : values) {
+      if (associationClass) {
+        if (reached != null) {
+          reached.add(otherEndValue);
+        }
+        otherEndValue = end.getOtherEnd().getAssociationClassEnd().getAccessor().get(otherEndValue);
+      }
+      if (otherEndValue != null) {
+        next.add(otherEndValue);
+      }
+    }
+  }
+
+  /**
+   * @return value of the bean property named as the last segment of the path
+   */
+  protected Object getProperty(Object instance) {
+    if (gettersByClass == null) {
+      gettersByClass = new HashMap<Class, Method>();
+    }
+    Method getter = gettersByClass.get(instance.getClass());
+    try {
+      if (getter == null) {
+        getter = ReflectionUtil.getGetter(instance.getClass(), segments[segments.length - 1]);
+        gettersByClass.put(instance.getClass(), getter);
+      }
+      return getter.invoke(instance);
+    } catch (Exception e) {
+      throw new RuntimeException("Could not read " + segments[segments.length - 1] + " of " + instance.getClass().getName() + " in path " + getPath(), e);
+    }
+  }
+
+  /**
+   * @return entities that reach the instance when navigating the path backwards
+   */
+  @SuppressWarnings("unchecked")
+  private Set<Object> navigateBackwards(Object instance) {
+    Set<Object> roots = newIdentitySet();
+    for (int i = segments.length - 1; i >= 0; i--) {
+      Set<Object> instances = Collections.singleton(instance);
+      for (int j = i; j >= 0 && !instances.isEmpty(); j--) {
+        Set<Object> previous = newIdentitySet();
+        for (Object current : instances) {
+          for (Class type : classesBySegment.get(j)) {
+            BinaryAssociationEnd end = getAssociationEnd(type, segments[j]);
+            if (end != null && end.getOtherEnd().isNavigatable()
+                && Mirror.reflect(current.getClass()).getBinaryAssociationEnds().containsValue(end.getOtherEnd())) {
+              navigate(current, end.getOtherEnd(), null, previous);
+            }
+          }
+        }
+        instances = previous;
+      }
+      roots.addAll(instances);
+    }
+    return roots;
+  }
+
+  /**
+   * Updates the secondary keys and reached instances of the entity.
+   */
+  private void reindex(EntityType entity) {
+    Set<Object> reached = newIdentitySet();
+    Set<Object> secondaryKeys = evaluate(entity, reached);
+    reached.remove(entity);
+
+    Set<Object> previousSecondaryKeys = secondaryKeysByEntity.put(entity, secondaryKeys);
+    if (previousSecondaryKeys != null) {
+      for (Object secondaryKey : previousSecondaryKeys) {
+        if (!secondaryKeys.contains(secondaryKey)) {
+          removePosting(secondaryKey, entity);
+        }
+      }
+    }
+    for (Object secondaryKey : secondaryKeys) {
+      if (previousSecondaryKeys == null || !previousSecondaryKeys.contains(secondaryKey)) {
+        Set<EntityType> entities = postings.get(secondaryKey);
+        if (entities == null) {
+          entities = new HashSet<EntityType>(4);
+          postings.put(secondaryKey, entities);
+        }
+        entities.add(entity);
+      }
+    }
+
+    Set<Object> previousReached = reached.isEmpty() ? reachedByEntity.remove(entity) : reachedByEntity.put(entity, reached);
+    if (previousReached != null) {
+      for (Object instance : previousReached) {
+        if (!reached.contains(instance)) {
+          removeDependent(instance, entity);
+        }
+      }
+    }
+    for (Object instance : reached) {
+      if (previousReached == null || !previousReached.contains(instance)) {
+        Set<EntityType> dependents = dependentsByInstance.get(instance);
+        if (dependents == null) {
+          dependents = newIdentitySet();
+          dependentsByInstance.put(instance, dependents);
+        }
+        dependents.add(entity);
+      }
+    }
+  }
+
+  private void removePosting(Object secondaryKey, EntityType entity) {
+    Set<EntityType> entities = postings.get(secondaryKey);
+    if (entities != null && entities.remove(entity) && entities.isEmpty()) {
+      postings.remove(secondaryKey);
+    }
+  }
+
+  private void removeDependent(Object instance, EntityType entity) {
+    Set<EntityType> dependents = dependentsByInstance.get(instance);
+    if (dependents != null && dependents.remove(entity) && dependents.isEmpty()) {
+      dependentsByInstance.remove(instance);
+    }
+  }
+
+  /**
+   * Puts the entity with the secondary keys it currently reaches.
+   * If the very same instance already is in the index it is moved to its current secondary keys.
+   */
+  @Override
+  public void put(EntityType entity) {
+    reindex(entity);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    Set<Object> secondaryKeys = secondaryKeysByEntity.remove(entity);
+    if (secondaryKeys == null) {
+      return;
+    }
+    for (Object secondaryKey : secondaryKeys) {
+      removePosting(secondaryKey, entity);
+    }
+    Set<Object> reached = reachedByEntity.remove(entity);
+    if (reached != null) {
+      for (Object instance : reached) {
+        removeDependent(instance, entity);
+      }
+    }
+  }
+
+  /**
+   * Reindexes the entities that reached the previous instance or the entity, or that reaches the entity now.
+   */
+  @Override
+  public void dependencyPut(Object previous, Object entity) {
+    Set<Object> affected = newIdentitySet();
+    if (previous != null && previous != entity && dependentsByInstance.containsKey(previous)) {
+      affected.addAll(dependentsByInstance.get(previous));
+    }
+    if (dependentsByInstance.containsKey(entity)) {
+      affected.addAll(dependentsByInstance.get(entity));
+    }
+    affected.addAll(navigateBackwards(entity));
+    reindexAffected(affected);
+  }
+
+  /**
+   * Reindexes the entities that reached the removed entity.
+   */
+  @Override
+  public void dependencyRemoved(Object entity) {
+    if (dependentsByInstance.containsKey(entity)) {
+      reindexAffected(newIdentitySet(dependentsByInstance.get(entity)));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void reindexAffected(Set<?> affected) {
+    for (Object instance : affected) {
+      // only entities that are in the index
+      if (secondaryKeysByEntity.containsKey(instance)) {
+        reindex((EntityType) instance);
+      }
+    }
+  }
+
+  @Override
+  public Set<EntityType> list(Object... parameters) {
+    Set<EntityType> entities = postings.get(getSecondaryKey(parameters));
+    if (entities == null) {
+      return null;
+    }
+    return Collections.unmodifiableSet(entities);
+  }
+
+  /**
+   * @return secondary keys the entity was put with, or null if not in the index
+   */
+  public Set<Object> getSecondaryKeys(EntityType entity) {
+    Set<Object> secondaryKeys = secondaryKeysByEntity.get(entity);
+    return secondaryKeys == null ? null : Collections.unmodifiableSet(secondaryKeys);
+  }
+
+  private static <T> Set<T> newIdentitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+  }
+
+  private static <T> Set<T> newIdentitySet(Collection<? extends T> values) {
+    Set<T> set = newIdentitySet();
+    set.addAll(values);
+    return set;
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mutable map that publishes a new {@link PersistentHashMap} root on each update.
+ * <p/>
+ * Readers never lock. Iterators and views read the root that was current when they were created,
+ * so they never throw {@link ConcurrentModificationException}.
+ * {@link #snapshot()} is O(1).
+ * <p/>
+ * Null keys and null values are not allowed.
+ */
+public class AtomicPersistentHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private final AtomicReference<PersistentHashMap<K, V>> root;
+
+  public AtomicPersistentHashMap() {
+    this(PersistentHashMap.<K, V>empty());
+  }
+
+  public AtomicPersistentHashMap(PersistentHashMap<K, V> root) {
+    this.root = new AtomicReference<PersistentHashMap<K, V>>(root);
+  }
+
+  /**
+   * @return the current immutable root
+   */
+  public PersistentHashMap<K, V> snapshot() {
+    return root.get();
+  }
+
+  @Override
+  public V get(Object key) {
+    return root.get().get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return root.get().containsKey(key);
+  }
+
+  @Override
+  public V put(K key, V value) {
+    while (true) {
+      PersistentHashMap<K, V> current = root.get();
+      if (root.compareAndSet(current, current.plus(key, value))) {
+        return current.get(key);
+      }
+    }
+  }
+
+  @Override
+  public V remove(Object key) {
+    while (true) {
+      PersistentHashMap<K, V> current = root.get();
+      PersistentHashMap<K, V> next = current.minus(key);
+      if (next == current) {
+        return null;
+      }
+      if (root.compareAndSet(current, next)) {
+        return current.get(key);
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    root.set(PersistentHashMap.<K, V>empty());
+  }
+
+  @Override
+  public int size() {
+    return root.get().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return root.get().isEmpty();
+  }
+
+  private transient Set<Entry<K, V>> entrySetView;
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySetView == null) {
+      entrySetView = new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          final Iterator<Entry<K, V>> iterator = root.get().entrySet().iterator();
+          return new Iterator<Entry<K, V>>() {
+
+            private Entry<K, V> current;
+
+            @Override
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            @Override
+            public Entry<K, V> next() {
+              return current = iterator.next();
+            }
+
+            @Override
+            public void remove() {
+              if (current == null) {
+                throw new IllegalStateException();
+              }
+              AtomicPersistentHashMap.this.remove(current.getKey());
+              current = null;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return AtomicPersistentHashMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+          AtomicPersistentHashMap.this.clear();
+        }
+      };
+    }
+    return entrySetView;
+  }
+
+}
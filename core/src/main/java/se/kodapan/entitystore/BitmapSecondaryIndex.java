@@ -0,0 +1,181 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.*;
+
+/**
+ * Secondary index for attributes with few distinct values,
+ * where each secondary key is associated with a {@link CompressedBitmap} of {@link EntityOrdinals}.
+ * <p/>
+ * Bitmaps of several bitmap indices in the same store can be combined using
+ * {@link CompressedBitmap#and(CompressedBitmap, CompressedBitmap)},
+ * {@link CompressedBitmap#or(CompressedBitmap, CompressedBitmap)} and
+ * {@link CompressedBitmap#andNot(CompressedBitmap, CompressedBitmap)},
+ * and counted using the cardinality methods without resolving any entities.
+ * {@link #getEntities(CompressedBitmap)} resolves the entities of a bitmap.
+ */
+public abstract class BitmapSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType>
+    implements UpdatableSecondaryIndex<EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private Map<Object, CompressedBitmap> bitmapsByKey = new HashMap<Object, CompressedBitmap>();
+
+  /** secondary key each ordinal was put with */
+  private Object[] secondaryKeysByOrdinal = new Object[16];
+
+  private EntityOrdinals ordinals;
+
+  protected BitmapSecondaryIndex() {
+  }
+
+  protected BitmapSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    super(name, primaryIndex);
+  }
+
+  public EntityOrdinals getOrdinals() {
+    if (ordinals == null) {
+      ordinals = getPrimaryIndex().getStore().getEntityOrdinals();
+    }
+    return ordinals;
+  }
+
+  @Override
+  public void reconstruct() {
+    bitmapsByKey.clear();
+    secondaryKeysByOrdinal = new Object[16];
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  private int ordinalOf(EntityType entity) {
+    int ordinal = getOrdinals().ordinalOf(entity);
+    if (ordinal < 0) {
+      throw new InconsistencyException("Entity " + entity.toString() + " is not in the store of " + this.toString());
+    }
+    return ordinal;
+  }
+
+  private boolean isIndexed(int ordinal) {
+    if (ordinal >= secondaryKeysByOrdinal.length) {
+      return false;
+    }
+    CompressedBitmap bitmap = bitmapsByKey.get(secondaryKeysByOrdinal[ordinal]);
+    return bitmap != null && bitmap.contains(ordinal);
+  }
+
+  /**
+   * Puts the entity with its current secondary key, or moves it if the secondary key has changed.
+   */
+  @Override
+  public void put(EntityType entity) {
+    Object secondaryKey = getSecondaryKey(entity);
+    int ordinal = ordinalOf(entity);
+    if (isIndexed(ordinal)) {
+      Object previousSecondaryKey = secondaryKeysByOrdinal[ordinal];
+      if (previousSecondaryKey == null ? secondaryKey == null : previousSecondaryKey.equals(secondaryKey)) {
+        return;
+      }
+      removeOrdinal(ordinal);
+    }
+    CompressedBitmap bitmap = bitmapsByKey.get(secondaryKey);
+    if (bitmap == null) {
+      bitmap = new CompressedBitmap();
+      bitmapsByKey.put(secondaryKey, bitmap);
+    }
+    bitmap.add(ordinal);
+    if (ordinal >= secondaryKeysByOrdinal.length) {
+      secondaryKeysByOrdinal = Arrays.copyOf(secondaryKeysByOrdinal, Math.max(ordinal + 1, secondaryKeysByOrdinal.length * 2));
+    }
+    secondaryKeysByOrdinal[ordinal] = secondaryKey;
+  }
+
+  /**
+   * A replacing instance has the same ordinal as the previous instance,
+   * so it is moved only if its secondary key differs from the one of the previous instance.
+   */
+  @Override
+  public void update(EntityType previous, EntityType entity) {
+    if (previous != null && previous != entity
+        && getOrdinals().ordinalOf(previous) != getOrdinals().ordinalOf(entity)) {
+      remove(previous);
+    }
+    put(entity);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    int ordinal = getOrdinals().ordinalOf(entity);
+    if (ordinal >= 0 && isIndexed(ordinal)) {
+      removeOrdinal(ordinal);
+    }
+  }
+
+  private void removeOrdinal(int ordinal) {
+    Object secondaryKey = secondaryKeysByOrdinal[ordinal];
+    CompressedBitmap bitmap = bitmapsByKey.get(secondaryKey);
+    bitmap.remove(ordinal);
+    if (bitmap.isEmpty()) {
+      bitmapsByKey.remove(secondaryKey);
+    }
+    secondaryKeysByOrdinal[ordinal] = null;
+  }
+
+  /**
+   * @return copy of the bitmap of the entities with the secondary key, empty if none.
+   *         Modifying it does not affect this index.
+   */
+  public CompressedBitmap getBitmap(Object... parameters) {
+    CompressedBitmap bitmap = bitmapsByKey.get(getSecondaryKey(parameters));
+    return bitmap == null ? new CompressedBitmap() : bitmap.copy();
+  }
+
+  /**
+   * @return number of entities with the secondary key
+   */
+  public int count(Object... parameters) {
+    CompressedBitmap bitmap = bitmapsByKey.get(getSecondaryKey(parameters));
+    return bitmap == null ? 0 : bitmap.cardinality();
+  }
+
+  /**
+   * @return distinct secondary keys
+   */
+  public Set<Object> getSecondaryKeys() {
+    return Collections.unmodifiableSet(bitmapsByKey.keySet());
+  }
+
+  /**
+   * @param bitmap ordinals of entities in the store of this index
+   * @return read only view of the entities, resolved while iterating
+   */
+  @SuppressWarnings("unchecked")
+  public Set<EntityType> getEntities(CompressedBitmap bitmap) {
+    return (Set<EntityType>) getOrdinals().getEntities(bitmap);
+  }
+
+  @Override
+  public Set<EntityType> list(Object... parameters) {
+    CompressedBitmap bitmap = bitmapsByKey.get(getSecondaryKey(parameters));
+    return bitmap == null ? null : getEntities(bitmap);
+  }
+
+}
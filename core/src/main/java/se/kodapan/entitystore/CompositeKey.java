@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable tuple used as secondary key of indices on several attributes.
+ * <p/>
+ * Wraps the array passed to the constructor without copying it,
+ * so a lookup using the varargs of {@link SecondaryIndex#list(Object...)} allocates a single small object.
+ * <p/>
+ * Keys are ordered component by component in their natural order, nulls first,
+ * and a key is ordered before all keys it is a prefix of.
+ * {@link #upperBound(Object...)} creates a key ordered after all keys it is a prefix of,
+ * i.e. all keys starting with a prefix are in the range [new CompositeKey(prefix), upperBound(prefix)).
+ */
+public final class CompositeKey implements Comparable<CompositeKey>, Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private final Object[] components;
+  private final boolean upperBound;
+  private final int hashCode;
+
+  /**
+   * @param components not copied, must not be modified after this call
+   */
+  public CompositeKey(Object... components) {
+    this(components, false);
+  }
+
+  private CompositeKey(Object[] components, boolean upperBound) {
+    this.components = components;
+    this.upperBound = upperBound;
+    this.hashCode = Arrays.hashCode(components);
+  }
+
+  /**
+   * @return key ordered after all keys starting with prefix
+   */
+  public static CompositeKey upperBound(Object... prefix) {
+    return new CompositeKey(prefix, true);
+  }
+
+  public int size() {
+    return components.length;
+  }
+
+  public Object get(int index) {
+    return components[index];
+  }
+
+  /**
+   * @return true if the first components of this key equal prefix
+   */
+  public boolean startsWith(Object... prefix) {
+    if (prefix.length > components.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (prefix[i] == null ? components[i] != null : !prefix[i].equals(components[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int compareTo(CompositeKey that) {
+    int length = Math.min(components.length, that.components.length);
+    for (int i = 0; i < length; i++) {
+      Object component = components[i];
+      Object thatComponent = that.components[i];
+      if (component != thatComponent) {
+        if (component == null) {
+          return -1;
+        } else if (thatComponent == null) {
+          return 1;
+        }
+        int comparison = ((Comparable) component).compareTo(thatComponent);
+        if (comparison != 0) {
+          return comparison;
+        }
+      }
+    }
+    if (components.length == that.components.length) {
+      return upperBound == that.upperBound ? 0 : upperBound ? 1 : -1;
+    }
+    if (components.length < that.components.length) {
+      return upperBound ? 1 : -1;
+    }
+    return that.upperBound ? -1 : 1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    CompositeKey that = (CompositeKey) o;
+    return hashCode == that.hashCode
+        && upperBound == that.upperBound
+        && Arrays.equals(components, that.components);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(components);
+  }
+}
@@ -0,0 +1,691 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed set of non negative ints, in the style of Roaring bitmaps.
+ * <p/>
+ * Values are partitioned on the high 16 bits in containers of the low 16 bits.
+ * A container with at most 4096 values is a sorted char array, a larger container is a 8KB bitmap.
+ */
+public class CompressedBitmap implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  /** largest number of values in an array container */
+  static final int ARRAY_CONTAINER_MAX = 4096;
+
+  /** high 16 bits of the containers, sorted */
+  private char[] keys = new char[4];
+  private Container[] containers = new Container[4];
+  private int size;
+
+  private int cardinality;
+
+  public CompressedBitmap() {
+  }
+
+  private static char high(int value) {
+    return (char) (value >>> 16);
+  }
+
+  private static char low(int value) {
+    return (char) value;
+  }
+
+  private int indexOfContainer(char key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      char middleKey = keys[middle];
+      if (middleKey < key) {
+        low = middle + 1;
+      } else if (middleKey > key) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @return true if value was not already in the bitmap
+   */
+  public boolean add(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative values are not allowed");
+    }
+    char key = high(value);
+    int index = indexOfContainer(key);
+    if (index < 0) {
+      index = -index - 1;
+      insertContainer(index, key, new ArrayContainer());
+    }
+    Container container = containers[index];
+    int before = container.cardinality();
+    container = container.add(low(value));
+    containers[index] = container;
+    if (container.cardinality() != before) {
+      cardinality++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true if value was in the bitmap
+   */
+  public boolean remove(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int index = indexOfContainer(high(value));
+    if (index < 0) {
+      return false;
+    }
+    Container container = containers[index];
+    int before = container.cardinality();
+    container = container.remove(low(value));
+    if (container.cardinality() == before) {
+      return false;
+    }
+    cardinality--;
+    if (container.cardinality() == 0) {
+      removeContainer(index);
+    } else {
+      containers[index] = container;
+    }
+    return true;
+  }
+
+  public boolean contains(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int index = indexOfContainer(high(value));
+    return index >= 0 && containers[index].contains(low(value));
+  }
+
+  public int cardinality() {
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(containers, 0, size, null);
+    size = 0;
+    cardinality = 0;
+  }
+
+  /**
+   * @return a new bitmap with the same values
+   */
+  public CompressedBitmap copy() {
+    CompressedBitmap copy = new CompressedBitmap();
+    int capacity = Math.max(size, 4);
+    copy.keys = Arrays.copyOf(keys, capacity);
+    copy.containers = new Container[capacity];
+    for (int i = 0; i < size; i++) {
+      copy.containers[i] = containers[i].copy();
+    }
+    copy.size = size;
+    copy.cardinality = cardinality;
+    return copy;
+  }
+
+  private void insertContainer(int index, char key, Container container) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size << 1);
+      containers = Arrays.copyOf(containers, size << 1);
+    }
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(containers, index, containers, index + 1, size - index);
+    keys[index] = key;
+    containers[index] = container;
+    size++;
+  }
+
+  private void removeContainer(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+    size--;
+    containers[size] = null;
+  }
+
+  /**
+   * @return a new bitmap with the values in both a and b
+   */
+  public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+    CompressedBitmap result = new CompressedBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < a.size && j < b.size) {
+      if (a.keys[i] < b.keys[j]) {
+        i++;
+      } else if (a.keys[i] > b.keys[j]) {
+        j++;
+      } else {
+        result.append(a.keys[i], a.containers[i].and(b.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return a new bitmap with the values in a or b
+   */
+  public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+    CompressedBitmap result = new CompressedBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < a.size || j < b.size) {
+      if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+        result.append(a.keys[i], a.containers[i].copy());
+        i++;
+      } else if (i == a.size || a.keys[i] > b.keys[j]) {
+        result.append(b.keys[j], b.containers[j].copy());
+        j++;
+      } else {
+        result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return a new bitmap with the values in a that are not in b
+   */
+  public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+    CompressedBitmap result = new CompressedBitmap();
+    int j = 0;
+    for (int i = 0; i < a.size; i++) {
+      while (j < b.size && b.keys[j] < a.keys[i]) {
+        j++;
+      }
+      if (j < b.size && b.keys[j] == a.keys[i]) {
+        result.append(a.keys[i], a.containers[i].andNot(b.containers[j]));
+      } else {
+        result.append(a.keys[i], a.containers[i].copy());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return number of values in both a and b, without creating a new bitmap
+   */
+  public static int andCardinality(CompressedBitmap a, CompressedBitmap b) {
+    int cardinality = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.size && j < b.size) {
+      if (a.keys[i] < b.keys[j]) {
+        i++;
+      } else if (a.keys[i] > b.keys[j]) {
+        j++;
+      } else {
+        cardinality += a.containers[i].andCardinality(b.containers[j]);
+        i++;
+        j++;
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * @return number of values in a or b, without creating a new bitmap
+   */
+  public static int orCardinality(CompressedBitmap a, CompressedBitmap b) {
+    return a.cardinality + b.cardinality - andCardinality(a, b);
+  }
+
+  /**
+   * @return number of values in a that are not in b, without creating a new bitmap
+   */
+  public static int andNotCardinality(CompressedBitmap a, CompressedBitmap b) {
+    return a.cardinality - andCardinality(a, b);
+  }
+
+  /**
+   * Appends a container with a key greater than all current keys, unless empty.
+   */
+  private void append(char key, Container container) {
+    if (container.cardinality() > 0) {
+      insertContainer(size, key, container);
+      cardinality += container.cardinality();
+    }
+  }
+
+  /**
+   * @return an iterator of the values in ascending order
+   */
+  public Iterator iterator() {
+    return new Iterator();
+  }
+
+  /**
+   * Iterates the values in ascending order without boxing them.
+   */
+  public class Iterator {
+
+    private int containerIndex = 0;
+    /** next low 16 bits to look for in current container */
+    private int nextLow = 0;
+    private int next = -1;
+
+    private Iterator() {
+      advance();
+    }
+
+    private void advance() {
+      next = -1;
+      while (containerIndex < size) {
+        int low = nextLow <= 0xFFFF ? containers[containerIndex].nextValue(nextLow) : -1;
+        if (low >= 0) {
+          next = (keys[containerIndex] << 16) | low;
+          nextLow = low + 1;
+          return;
+        }
+        containerIndex++;
+        nextLow = 0;
+      }
+    }
+
+    public boolean hasNext() {
+      return next >= 0;
+    }
+
+    public int next() {
+      if (next < 0) {
+        throw new NoSuchElementException();
+      }
+      int value = next;
+      advance();
+      return value;
+    }
+  }
+
+  /**
+   * The low 16 bits of the values with the same high 16 bits.
+   */
+  abstract static class Container implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    /**
+     * @return this or a new container of another type containing the value
+     */
+    abstract Container add(char value);
+
+    /**
+     * @return this or a new container of another type not containing the value
+     */
+    abstract Container remove(char value);
+
+    abstract boolean contains(char value);
+
+    abstract int cardinality();
+
+    /**
+     * @return the smallest value equal to or greater than from, or -1 if none
+     */
+    abstract int nextValue(int from);
+
+    abstract Container copy();
+
+    /**
+     * @return a new container with the values in both containers
+     */
+    abstract Container and(Container other);
+
+    /**
+     * @return a new container with the values in any of the containers
+     */
+    abstract Container or(Container other);
+
+    /**
+     * @return a new container with the values in this container that are not in other
+     */
+    abstract Container andNot(Container other);
+
+    abstract int andCardinality(Container other);
+  }
+
+  static final class ArrayContainer extends Container {
+
+    private static final long serialVersionUID = 1l;
+
+    private char[] values = new char[4];
+    private int cardinality;
+
+    @Override
+    Container add(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        return this;
+      }
+      if (cardinality == ARRAY_CONTAINER_MAX) {
+        return new BitmapContainer(this).add(value);
+      }
+      index = -index - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX, cardinality + (cardinality >> 1) + 1));
+      }
+      System.arraycopy(values, index, values, index + 1, cardinality - index);
+      values[index] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    int nextValue(int from) {
+      int index = Arrays.binarySearch(values, 0, cardinality, (char) from);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      return index < cardinality ? values[index] : -1;
+    }
+
+    @Override
+    Container copy() {
+      ArrayContainer copy = new ArrayContainer();
+      copy.values = Arrays.copyOf(values, Math.max(cardinality, 1));
+      copy.cardinality = cardinality;
+      return copy;
+    }
+
+    @Override
+    Container and(Container other) {
+      ArrayContainer result = new ArrayContainer();
+      result.values = new char[Math.max(Math.min(cardinality, other.cardinality()), 1)];
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        int i = 0;
+        int j = 0;
+        while (i < cardinality && j < that.cardinality) {
+          if (values[i] < that.values[j]) {
+            i++;
+          } else if (values[i] > that.values[j]) {
+            j++;
+          } else {
+            result.values[result.cardinality++] = values[i];
+            i++;
+            j++;
+          }
+        }
+      } else {
+        for (int i = 0; i < cardinality; i++) {
+          if (other.contains(values[i])) {
+            result.values[result.cardinality++] = values[i];
+          }
+        }
+      }
+      return result;
+    }
+
+    @Override
+    Container or(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.or(this);
+      }
+      ArrayContainer that = (ArrayContainer) other;
+      char[] merged = new char[cardinality + that.cardinality];
+      int length = 0;
+      int i = 0;
+      int j = 0;
+      while (i < cardinality || j < that.cardinality) {
+        if (j == that.cardinality || (i < cardinality && values[i] < that.values[j])) {
+          merged[length++] = values[i++];
+        } else if (i == cardinality || values[i] > that.values[j]) {
+          merged[length++] = that.values[j++];
+        } else {
+          merged[length++] = values[i];
+          i++;
+          j++;
+        }
+      }
+      ArrayContainer result = new ArrayContainer();
+      result.values = merged;
+      result.cardinality = length;
+      if (length > ARRAY_CONTAINER_MAX) {
+        return new BitmapContainer(result);
+      }
+      return result;
+    }
+
+    @Override
+    Container andNot(Container other) {
+      ArrayContainer result = new ArrayContainer();
+      result.values = new char[Math.max(cardinality, 1)];
+      for (int i = 0; i < cardinality; i++) {
+        if (!other.contains(values[i])) {
+          result.values[result.cardinality++] = values[i];
+        }
+      }
+      return result;
+    }
+
+    @Override
+    int andCardinality(Container other) {
+      int cardinality = 0;
+      for (int i = 0; i < this.cardinality; i++) {
+        if (other.contains(values[i])) {
+          cardinality++;
+        }
+      }
+      return cardinality;
+    }
+  }
+
+  static final class BitmapContainer extends Container {
+
+    private static final long serialVersionUID = 1l;
+
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer() {
+      words = new long[1 << 10];
+    }
+
+    private BitmapContainer(long[] words) {
+      this.words = words;
+      for (long word : words) {
+        cardinality += Long.bitCount(word);
+      }
+    }
+
+    BitmapContainer(ArrayContainer arrayContainer) {
+      this();
+      for (int i = 0; i < arrayContainer.cardinality; i++) {
+        char value = arrayContainer.values[i];
+        words[value >>> 6] |= 1l << value;
+      }
+      cardinality = arrayContainer.cardinality;
+    }
+
+    @Override
+    Container add(char value) {
+      long word = words[value >>> 6];
+      long bit = 1l << value;
+      if ((word & bit) == 0) {
+        words[value >>> 6] = word | bit;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      long word = words[value >>> 6];
+      long bit = 1l << value;
+      if ((word & bit) != 0) {
+        words[value >>> 6] = word & ~bit;
+        cardinality--;
+        if (cardinality <= ARRAY_CONTAINER_MAX / 2) {
+          return toArrayContainer();
+        }
+      }
+      return this;
+    }
+
+    private ArrayContainer toArrayContainer() {
+      ArrayContainer arrayContainer = new ArrayContainer();
+      arrayContainer.values = new char[cardinality];
+      for (int value = nextValue(0); value >= 0; value = nextValue(value + 1)) {
+        arrayContainer.values[arrayContainer.cardinality++] = (char) value;
+      }
+      return arrayContainer;
+    }
+
+    /**
+     * @return this, or an array container if few enough values
+     */
+    private Container optimize() {
+      return cardinality <= ARRAY_CONTAINER_MAX ? toArrayContainer() : this;
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(words.clone());
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.and(this);
+      }
+      long[] thatWords = ((BitmapContainer) other).words;
+      long[] result = new long[words.length];
+      for (int i = 0; i < words.length; i++) {
+        result[i] = words[i] & thatWords[i];
+      }
+      return new BitmapContainer(result).optimize();
+    }
+
+    @Override
+    Container or(Container other) {
+      long[] result = words.clone();
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        for (int i = 0; i < that.cardinality; i++) {
+          char value = that.values[i];
+          result[value >>> 6] |= 1l << value;
+        }
+      } else {
+        long[] thatWords = ((BitmapContainer) other).words;
+        for (int i = 0; i < words.length; i++) {
+          result[i] |= thatWords[i];
+        }
+      }
+      return new BitmapContainer(result);
+    }
+
+    @Override
+    Container andNot(Container other) {
+      long[] result = words.clone();
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        for (int i = 0; i < that.cardinality; i++) {
+          char value = that.values[i];
+          result[value >>> 6] &= ~(1l << value);
+        }
+      } else {
+        long[] thatWords = ((BitmapContainer) other).words;
+        for (int i = 0; i < words.length; i++) {
+          result[i] &= ~thatWords[i];
+        }
+      }
+      return new BitmapContainer(result).optimize();
+    }
+
+    @Override
+    int andCardinality(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.andCardinality(this);
+      }
+      long[] thatWords = ((BitmapContainer) other).words;
+      int cardinality = 0;
+      for (int i = 0; i < words.length; i++) {
+        cardinality += Long.bitCount(words[i] & thatWords[i]);
+      }
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1l << value)) != 0;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    int nextValue(int from) {
+      if (from > 0xFFFF) {
+        return -1;
+      }
+      int index = from >>> 6;
+      long word = words[index] & (-1l << from);
+      while (true) {
+        if (word != 0) {
+          return (index << 6) + Long.numberOfTrailingZeros(word);
+        }
+        if (++index == words.length) {
+          return -1;
+        }
+        word = words[index];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import se.kodapan.lang.reflect.ReflectionUtil;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Secondary index with a secondary key computed from declared bean properties of the entity,
+ * e.g. a normalized full name from first names and last name.
+ * <p/>
+ * The values of the input properties each entity was put with are recorded.
+ * When an entity is put again, or replaced by an instance with equal input values,
+ * the key function is not evaluated and the entity is not reindexed.
+ * The input values are compared using {@link Object#equals(Object)} with the recorded values,
+ * so a mutable value modified in place is not noticed.
+ */
+public abstract class ComputedSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private String[] inputProperties;
+  private transient Method[] getters;
+
+  /** input values and secondary key each instance was put with, null after freeze */
+  private Map<EntityType, Computed> computedByEntity = new IdentityHashMap<EntityType, Computed>();
+
+  protected ComputedSecondaryIndex() {
+  }
+
+  /**
+   * @param inputProperties names of the bean properties the secondary key is computed from
+   */
+  protected ComputedSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, String... inputProperties) {
+    super(name, primaryIndex);
+    this.inputProperties = inputProperties;
+  }
+
+  /**
+   * The key function.
+   *
+   * @param inputs values of the input properties, in declared order
+   * @return secondary key
+   */
+  protected abstract Object computeSecondaryKey(Object[] inputs);
+
+  /**
+   * @return the key function of the current input values of the entity
+   */
+  @Override
+  public Object getSecondaryKey(EntityType entity) {
+    return computeSecondaryKey(getInputs(entity));
+  }
+
+  /**
+   * @param parameters values of the input properties, in declared order
+   * @return the key function of the parameters
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    if (parameters.length != inputProperties.length) {
+      throw new RuntimeException("Expected " + inputProperties.length + " parameters " + Arrays.toString(inputProperties));
+    }
+    return computeSecondaryKey(parameters);
+  }
+
+  private Object[] getInputs(EntityType entity) {
+    try {
+      if (getters == null) {
+        Method[] getters = new Method[inputProperties.length];
+        for (int i = 0; i < inputProperties.length; i++) {
+          getters[i] = ReflectionUtil.getGetter(getPrimaryIndex().getEntityType(), inputProperties[i]);
+        }
+        this.getters = getters;
+      }
+      Object[] inputs = new Object[getters.length];
+      for (int i = 0; i < getters.length; i++) {
+        inputs[i] = getters[i].invoke(entity);
+      }
+      return inputs;
+    } catch (Exception e) {
+      throw new RuntimeException("Could not read input properties " + Arrays.toString(inputProperties) + " of " + entity.toString(), e);
+    }
+  }
+
+  /**
+   * Computes the secondary key unless the input values are equal to those the entity was put with.
+   */
+  @Override
+  public void put(EntityType entity) {
+    assertNotFrozen();
+    Object[] inputs = getInputs(entity);
+    Computed computed = computedByEntity.get(entity);
+    if (computed != null && Arrays.equals(computed.inputs, inputs)) {
+      return;
+    }
+    putComputed(entity, new Computed(inputs, computeSecondaryKey(inputs)));
+  }
+
+  private void putComputed(EntityType entity, Computed computed) {
+    put(entity, computed.secondaryKey);
+    computedByEntity.put(entity, computed);
+  }
+
+  /**
+   * A replacing instance with the same input values as the previous instance reuses its secondary key.
+   */
+  @Override
+  public void update(EntityType previous, EntityType entity) {
+    if (previous != null && previous != entity) {
+      Computed computed = computedByEntity.get(previous);
+      remove(previous);
+      if (computed != null) {
+        Object[] inputs = getInputs(entity);
+        if (Arrays.equals(computed.inputs, inputs)) {
+          putComputed(entity, computed);
+          return;
+        }
+      }
+    }
+    put(entity);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    super.remove(entity);
+    computedByEntity.remove(entity);
+  }
+
+  @Override
+  protected void clearPostings() {
+    super.clearPostings();
+    computedByEntity.clear();
+  }
+
+  @Override
+  public void freeze() {
+    super.freeze();
+    computedByEntity = null;
+  }
+
+  public String[] getInputProperties() {
+    return inputProperties;
+  }
+
+  /**
+   * Input values and the secondary key computed from them.
+   */
+  private static final class Computed implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Object[] inputs;
+    private final Object secondaryKey;
+
+    private Computed(Object[] inputs, Object secondaryKey) {
+      this.inputs = inputs;
+      this.secondaryKey = secondaryKey;
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link DeterministicUIDHandler} without monitor on the hot path.
+ * <p/>
+ * Each thread atomically claims a block of sequence numbers for the current execution time
+ * and then hands them out without any synchronization, encoding the identity straight into a thread local buffer.
+ * <p/>
+ * Used by a single thread this produces exactly the same identities as {@link DeterministicUIDHandler}.
+ * Used by several threads every identity is still unique and the execution time can still not go backwards,
+ * but sequences are handed out in blocks, so identities created by different threads interleave
+ * and there will be gaps in the sequence when the execution time changes.
+ */
+public class ConcurrentDeterministicUIDHandler extends DeterministicUIDHandler {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    blocks = new ThreadLocal<Block>();
+  }
+
+  private static class Epoch implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final long executionTime;
+    /** last claimed sequence */
+    private final AtomicInteger sequence = new AtomicInteger(0);
+
+    private Epoch(long executionTime) {
+      this.executionTime = executionTime;
+    }
+  }
+
+  /**
+   * Sequences claimed by a thread.
+   */
+  private static class Block {
+    private Epoch epoch;
+    private int next;
+    private int remaining;
+    private final char[] chars = new char[24];
+  }
+
+  private int blockSize;
+
+  private AtomicReference<Epoch> epoch = new AtomicReference<Epoch>(new Epoch(0));
+
+  private transient ThreadLocal<Block> blocks = new ThreadLocal<Block>();
+
+  public ConcurrentDeterministicUIDHandler() {
+    this(64);
+  }
+
+  /**
+   * @param blockSize number of sequences claimed by a thread at the time
+   */
+  public ConcurrentDeterministicUIDHandler(int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be at least 1");
+    }
+    this.blockSize = blockSize;
+  }
+
+  @Override
+  public String nextIdentity(Date executionTime) {
+    Block block = getBlock();
+    long time = executionTime.getTime();
+    encode(time, nextSequence(block, time), block.chars, 0);
+    return new String(block.chars);
+  }
+
+  @Override
+  protected int nextSequence(Date executionTime) {
+    return nextSequence(getBlock(), executionTime.getTime());
+  }
+
+  private Block getBlock() {
+    Block block = blocks.get();
+    if (block == null) {
+      block = new Block();
+      blocks.set(block);
+    }
+    return block;
+  }
+
+  private int nextSequence(Block block, long executionTime) {
+    if (block.remaining > 0
+        && block.epoch.executionTime == executionTime
+        && block.epoch == epoch.get()) {
+      block.remaining--;
+      return block.next++;
+    }
+    return claim(block, executionTime);
+  }
+
+  private int claim(Block block, long executionTime) {
+    while (true) {
+      Epoch current = epoch.get();
+      if (current.executionTime == executionTime) {
+        int last = current.sequence.getAndAdd(blockSize);
+        if (last < 0 || last > Integer.MAX_VALUE - blockSize) {
+          throw new RuntimeException("This transaction (executionTime) can not create more unique identities. Please create a new transaction or update the sequence counter to long rather than int.");
+        }
+        block.epoch = current;
+        block.next = last + 2;
+        block.remaining = blockSize - 1;
+        return last + 1;
+      } else if (current.executionTime < executionTime) {
+        epoch.compareAndSet(current, new Epoch(executionTime));
+      } else {
+        throw new RuntimeException("Execution time was less than previous execution time");
+      }
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+}
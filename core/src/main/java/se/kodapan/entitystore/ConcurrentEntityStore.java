@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entity store that allows writers in several threads.
+ * <p/>
+ * All primary indices are {@link ConcurrentPrimaryIndex}, so reads never lock.
+ * {@link #put(Object, Object)} and {@link #remove(Class, Object)} lock the stripe of the identity,
+ * which is the same lock for all primary indices of the entity,
+ * so writes of different identities execute in parallel
+ * while writes of the same identity are serialized across the whole type hierarchy.
+ * Each secondary index is updated while holding the monitor of that secondary index,
+ * readers of secondary indices should hold the same monitor while writers are active.
+ * {@link ConcurrentSimpleMapSetSecondaryIndex} is thread safe and is updated without holding the monitor.
+ * <p/>
+ * Decoupling modifies the associated instances, so concurrent writes of associated entities
+ * still have to be coordinated by the caller.
+ */
+public class ConcurrentEntityStore extends EntityStoreImpl {
+
+  private static final long serialVersionUID = 1l;
+
+  private StripedLock writeLocks;
+
+  public ConcurrentEntityStore() {
+    this(64);
+  }
+
+  /**
+   * @param stripes number of write locks
+   */
+  public ConcurrentEntityStore(int stripes) {
+    writeLocks = new StripedLock(stripes);
+  }
+
+  @Override
+  protected <IdentityType, EntityType> PrimaryIndex<IdentityType, EntityType> createPrimaryIndex(Class<IdentityType> identityType, Class<EntityType> entityType) {
+    return new ConcurrentPrimaryIndex<IdentityType, EntityType>(this, identityType, entityType);
+  }
+
+  @Override
+  public <IdentityType, EntityType> EntityType put(IdentityType identity, EntityType entity) {
+    if (identity == null) {
+      return super.put(identity, entity);
+    }
+    ReentrantLock lock = writeLocks.get(identity);
+    lock.lock();
+    try {
+      return putConstrained(getRoute(entity.getClass()).getConstrainedSecondaryIndices(), 0, identity, entity);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Holds the monitor of each constrained secondary index from validation until the index is updated,
+   * so two writers of different identities can not both pass validation of the same unique secondary key.
+   * Monitors are entered in name order, as routes of different classes might share the indices.
+   *
+   * @param constrained indices to hold the monitor of, ordered by name
+   * @param index       position in constrained of the next monitor to enter
+   */
+  private <IdentityType, EntityType> EntityType putConstrained(SecondaryIndex[] constrained, int index, IdentityType identity, EntityType entity) {
+    if (index == constrained.length) {
+      return super.put(identity, entity);
+    }
+    synchronized (constrained[index]) {
+      return putConstrained(constrained, index + 1, identity, entity);
+    }
+  }
+
+  /**
+   * @return removed entity, or null if none or if identity is null
+   */
+  @Override
+  public <IdentityType, EntityType> EntityType remove(Class<EntityType> entityType, IdentityType identity) {
+    if (identity == null) {
+      // the concurrent primary indices does not accept null keys, there is nothing to remove.
+      assertNotFrozen();
+      return null;
+    }
+    ReentrantLock lock = writeLocks.get(identity);
+    lock.lock();
+    try {
+      return super.remove(entityType, identity);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void updateSecondaryIndices(Route route, Object previous, Object entity) {
+    for (SecondaryIndex secondaryIndex : route.getSecondaryIndices()) {
+      if (secondaryIndex instanceof ConcurrentSimpleMapSetSecondaryIndex) {
+        updateSecondaryIndex(secondaryIndex, previous, entity);
+      } else {
+        synchronized (secondaryIndex) {
+          updateSecondaryIndex(secondaryIndex, previous, entity);
+        }
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void removeFromSecondaryIndices(Route route, Object entity) {
+    for (SecondaryIndex secondaryIndex : route.getSecondaryIndices()) {
+      if (secondaryIndex instanceof ConcurrentSimpleMapSetSecondaryIndex) {
+        secondaryIndex.remove(entity);
+      } else {
+        synchronized (secondaryIndex) {
+          secondaryIndex.remove(entity);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void updateDependentSecondaryIndices(Object previous, Object entity) {
+    for (DependentSecondaryIndex dependentSecondaryIndex : getDependentSecondaryIndices()) {
+      synchronized (dependentSecondaryIndex) {
+        dependentSecondaryIndex.dependencyPut(previous, entity);
+      }
+    }
+  }
+
+  @Override
+  protected void removeFromDependentSecondaryIndices(Object entity) {
+    for (DependentSecondaryIndex dependentSecondaryIndex : getDependentSecondaryIndices()) {
+      synchronized (dependentSecondaryIndex) {
+        dependentSecondaryIndex.dependencyRemoved(entity);
+      }
+    }
+  }
+
+  public StripedLock getWriteLocks() {
+    return writeLocks;
+  }
+
+}
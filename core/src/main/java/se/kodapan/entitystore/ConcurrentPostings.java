@@ -0,0 +1,304 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safe postings of a secondary index.
+ * <p/>
+ * Each posting is immutable: a single reference, an inline array or a {@link PersistentHashMap}.
+ * Writers lock the stripe of the key and publish a new posting,
+ * so readers never lock and {@link #get(Object)} returns a stable snapshot
+ * that is not affected by later writes, without copying anything.
+ * Iterating several keys is weakly consistent.
+ */
+public class ConcurrentPostings<V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  static final int INLINE_MAX = 8;
+
+  private final ConcurrentHashMap<Object, Object> postingsByKey = new ConcurrentHashMap<Object, Object>();
+  private volatile Object nullKeyPosting;
+
+  private final StripedLock locks;
+  private final ReentrantLock nullKeyLock = new ReentrantLock();
+
+  public ConcurrentPostings() {
+    this(64);
+  }
+
+  /**
+   * @param stripes number of write locks
+   */
+  public ConcurrentPostings(int stripes) {
+    locks = new StripedLock(stripes);
+  }
+
+  private ReentrantLock lock(Object key) {
+    return key == null ? nullKeyLock : locks.get(key);
+  }
+
+  private Object getPosting(Object key) {
+    return key == null ? nullKeyPosting : postingsByKey.get(key);
+  }
+
+  /**
+   * @param posting new posting of key, or null to remove key
+   */
+  private void setPosting(Object key, Object posting) {
+    if (key == null) {
+      nullKeyPosting = posting;
+    } else if (posting == null) {
+      postingsByKey.remove(key);
+    } else {
+      postingsByKey.put(key, posting);
+    }
+  }
+
+  /**
+   * @return true if value was not already associated with key
+   */
+  public boolean add(Object key, V value) {
+    ReentrantLock lock = lock(key);
+    lock.lock();
+    try {
+      Object posting = getPosting(key);
+      Object updated = plus(posting, value);
+      if (updated == posting) {
+        return false;
+      }
+      setPosting(key, updated);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if value was associated with key
+   */
+  public boolean remove(Object key, V value) {
+    ReentrantLock lock = lock(key);
+    lock.lock();
+    try {
+      Object posting = getPosting(key);
+      if (posting == null) {
+        return false;
+      }
+      Object updated = minus(posting, value);
+      if (updated == posting) {
+        return false;
+      }
+      setPosting(key, updated);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes value from all keys, i.e. visits all postings.
+   *
+   * @return true if value was associated with any key
+   */
+  public boolean removeValue(V value) {
+    boolean removed = remove(null, value);
+    for (Object key : postingsByKey.keySet()) {
+      removed |= remove(key, value);
+    }
+    return removed;
+  }
+
+  /**
+   * @return immutable snapshot of values associated with key, or null if none
+   */
+  public Set<V> get(Object key) {
+    Object posting = getPosting(key);
+    return posting == null ? null : new PostingSet(posting);
+  }
+
+  /**
+   * @return number of keys
+   */
+  public int size() {
+    return postingsByKey.size() + (nullKeyPosting != null ? 1 : 0);
+  }
+
+  /**
+   * Not atomic in respect to concurrent writers.
+   */
+  public void clear() {
+    postingsByKey.clear();
+    nullKeyPosting = null;
+  }
+
+  /**
+   * @return weakly consistent copy of all postings
+   */
+  public Map<Object, Set<V>> snapshot() {
+    Map<Object, Set<V>> snapshot = new HashMap<Object, Set<V>>(postingsByKey.size() * 2);
+    Object posting = nullKeyPosting;
+    if (posting != null) {
+      snapshot.put(null, new PostingSet(posting));
+    }
+    for (Map.Entry<Object, Object> entry : postingsByKey.entrySet()) {
+      snapshot.put(entry.getKey(), new PostingSet(entry.getValue()));
+    }
+    return snapshot;
+  }
+
+  // immutable posting representations
+
+  /**
+   * @return posting containing value, the same posting if value already was in it
+   */
+  @SuppressWarnings("unchecked")
+  private static Object plus(Object posting, Object value) {
+    if (posting == null) {
+      return value;
+    }
+    if (posting instanceof Inline) {
+      Object[] values = ((Inline) posting).values;
+      if (indexOf(values, value) >= 0) {
+        return posting;
+      }
+      if (values.length < INLINE_MAX) {
+        Object[] updated = Arrays.copyOf(values, values.length + 1);
+        updated[values.length] = value;
+        return new Inline(updated);
+      }
+      PersistentHashMap<Object, Object> map = PersistentHashMap.empty();
+      for (Object member : values) {
+        map = map.plus(member, member);
+      }
+      return map.plus(value, value);
+    }
+    if (posting instanceof PersistentHashMap) {
+      PersistentHashMap<Object, Object> map = (PersistentHashMap<Object, Object>) posting;
+      return map.containsKey(value) ? map : map.plus(value, value);
+    }
+    if (posting.equals(value)) {
+      return posting;
+    }
+    return new Inline(new Object[]{posting, value});
+  }
+
+  /**
+   * @return posting without value, the same posting if value was not in it, or null if empty
+   */
+  @SuppressWarnings("unchecked")
+  private static Object minus(Object posting, Object value) {
+    if (posting instanceof Inline) {
+      Object[] values = ((Inline) posting).values;
+      int index = indexOf(values, value);
+      if (index < 0) {
+        return posting;
+      }
+      if (values.length == 2) {
+        return values[1 - index];
+      }
+      Object[] updated = new Object[values.length - 1];
+      System.arraycopy(values, 0, updated, 0, index);
+      System.arraycopy(values, index + 1, updated, index, updated.length - index);
+      return new Inline(updated);
+    }
+    if (posting instanceof PersistentHashMap) {
+      PersistentHashMap<Object, Object> map = ((PersistentHashMap<Object, Object>) posting).minus(value);
+      if (map.size() > INLINE_MAX / 2) {
+        return map;
+      }
+      return new Inline(map.keySet().toArray());
+    }
+    return posting.equals(value) ? null : posting;
+  }
+
+  private static int indexOf(Object[] values, Object value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i].equals(value)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Two or more values.
+   */
+  private static final class Inline implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Object[] values;
+
+    private Inline(Object[] values) {
+      this.values = values;
+    }
+  }
+
+  /**
+   * Read only view of an immutable posting.
+   */
+  private final class PostingSet extends AbstractSet<V> {
+
+    private final Object posting;
+
+    private PostingSet(Object posting) {
+      this.posting = posting;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<V> iterator() {
+      if (posting instanceof Inline) {
+        return (Iterator<V>) Collections.unmodifiableList(Arrays.asList(((Inline) posting).values)).iterator();
+      }
+      if (posting instanceof PersistentHashMap) {
+        return (Iterator<V>) Collections.unmodifiableSet(((PersistentHashMap<Object, Object>) posting).keySet()).iterator();
+      }
+      return (Iterator<V>) Collections.singleton(posting).iterator();
+    }
+
+    @Override
+    public boolean contains(Object value) {
+      if (posting instanceof Inline) {
+        return indexOf(((Inline) posting).values, value) >= 0;
+      }
+      if (posting instanceof PersistentHashMap) {
+        return ((PersistentHashMap) posting).containsKey(value);
+      }
+      return posting.equals(value);
+    }
+
+    @Override
+    public int size() {
+      if (posting instanceof Inline) {
+        return ((Inline) posting).values.length;
+      }
+      if (posting instanceof PersistentHashMap) {
+        return ((PersistentHashMap) posting).size();
+      }
+      return 1;
+    }
+  }
+
+}
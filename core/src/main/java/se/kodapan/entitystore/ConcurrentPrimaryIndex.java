@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Primary index backed by a {@link ConcurrentHashMap}, also for the reverse map used by {@link #getIdentity(Object)}.
+ * <p/>
+ * Reads never lock and may execute at the same time as writes.
+ * Writes of different identities may execute at the same time,
+ * writes of the same identity must be serialized by the caller.
+ * <p/>
+ * Created by {@link ConcurrentEntityStore}.
+ */
+public class ConcurrentPrimaryIndex<IdentityType, EntityType> extends PrimaryIndex<IdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    reconstructIdentitiesByEntity();
+  }
+
+  private ConcurrentHashMap<IdentityType, EntityType> concurrentEntitiesById;
+
+  private transient ConcurrentHashMap<InstanceKey, IdentityType> concurrentIdentitiesByEntity;
+
+  public ConcurrentPrimaryIndex() {
+  }
+
+  public ConcurrentPrimaryIndex(EntityStoreImpl store, Class<IdentityType> identityType, Class<EntityType> entityType) {
+    this(store, identityType, entityType, new ConcurrentHashMap<IdentityType, EntityType>());
+  }
+
+  public ConcurrentPrimaryIndex(EntityStoreImpl store, Class<IdentityType> identityType, Class<EntityType> entityType, ConcurrentHashMap<IdentityType, EntityType> entitiesById) {
+    super(store, identityType, entityType, entitiesById);
+  }
+
+  @Override
+  public EntityType get(IdentityType identity) {
+    return concurrentEntitiesById.get(identity);
+  }
+
+  /**
+   * Keeps the concurrent map, reads never lock anyway.
+   */
+  @Override
+  protected void freezeEntitiesById() {
+  }
+
+  @Override
+  public void setEntitiesById(Map<IdentityType, EntityType> entitiesById) {
+    if (entitiesById != null && !(entitiesById instanceof ConcurrentHashMap)) {
+      entitiesById = new ConcurrentHashMap<IdentityType, EntityType>(entitiesById);
+    }
+    concurrentEntitiesById = (ConcurrentHashMap<IdentityType, EntityType>) entitiesById;
+    super.setEntitiesById(entitiesById);
+  }
+
+  public ConcurrentHashMap<IdentityType, EntityType> getConcurrentEntitiesById() {
+    return concurrentEntitiesById;
+  }
+
+  @Override
+  public IdentityType getIdentity(EntityType entity) {
+    return concurrentIdentitiesByEntity.get(new InstanceKey(entity));
+  }
+
+  @Override
+  protected void reconstructIdentitiesByEntity() {
+    // also invoked when the super class is deserialized, before the fields of this class are read.
+    if (concurrentEntitiesById == null) {
+      return;
+    }
+    concurrentIdentitiesByEntity = new ConcurrentHashMap<InstanceKey, IdentityType>(concurrentEntitiesById.size());
+    for (Map.Entry<IdentityType, EntityType> entry : concurrentEntitiesById.entrySet()) {
+      concurrentIdentitiesByEntity.put(new InstanceKey(entry.getValue()), entry.getKey());
+    }
+  }
+
+  @Override
+  protected void identityPut(IdentityType identity, EntityType previous, EntityType entity) {
+    if (previous != entity) {
+      if (previous != null) {
+        concurrentIdentitiesByEntity.remove(new InstanceKey(previous));
+      }
+      concurrentIdentitiesByEntity.put(new InstanceKey(entity), identity);
+    }
+  }
+
+  @Override
+  protected void identityRemoved(IdentityType identity, EntityType removed) {
+    concurrentIdentitiesByEntity.remove(new InstanceKey(removed), identity);
+  }
+
+  @Override
+  protected void clearIdentitiesByEntity() {
+    concurrentIdentitiesByEntity.clear();
+  }
+
+}
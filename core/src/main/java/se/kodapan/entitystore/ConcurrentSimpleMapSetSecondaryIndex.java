@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thread safe {@link SimpleMapSetSecondaryIndex} with postings in {@link ConcurrentPostings}.
+ * <p/>
+ * {@link #list(Object...)} and {@link #get(Object...)} never lock and the sets returned by
+ * {@link #list(Object...)} are immutable snapshots, i.e. readers scale with the number of cores while writers are active.
+ * Writers of different secondary keys execute in parallel.
+ * Writes of the very same entity must be serialized by the caller, as done by {@link ConcurrentEntityStore}.
+ */
+public abstract class ConcurrentSimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, EntityType> extends SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private ConcurrentPostings<EntityType> concurrentPostings = new ConcurrentPostings<EntityType>();
+
+  protected ConcurrentSimpleMapSetSecondaryIndex() {
+  }
+
+  protected ConcurrentSimpleMapSetSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> entityTypePrimaryIndex) {
+    super(name, entityTypePrimaryIndex);
+  }
+
+  @Override
+  protected Map<EntityType, Object> createSecondaryKeysByEntity() {
+    return Collections.synchronizedMap(new IdentityHashMap<EntityType, Object>());
+  }
+
+  @Override
+  protected Set<EntityType> getPostings(Object secondaryKey) {
+    assertNotFrozen();
+    return concurrentPostings.get(secondaryKey);
+  }
+
+  @Override
+  protected boolean addPosting(Object secondaryKey, EntityType value) {
+    assertNotFrozen();
+    return concurrentPostings.add(secondaryKey, value);
+  }
+
+  @Override
+  protected boolean removePosting(Object secondaryKey, EntityType value) {
+    assertNotFrozen();
+    return concurrentPostings.remove(secondaryKey, value);
+  }
+
+  @Override
+  protected boolean removePostingValue(EntityType value) {
+    assertNotFrozen();
+    return concurrentPostings.removeValue(value);
+  }
+
+  @Override
+  protected void clearPostings() {
+    assertNotFrozen();
+    concurrentPostings.clear();
+    super.clearPostings();
+  }
+
+  @Override
+  protected Map<Object, ? extends Set<EntityType>> getPostingsMap() {
+    return concurrentPostings.snapshot();
+  }
+
+  @Override
+  public void freeze() {
+    super.freeze();
+    concurrentPostings = null;
+  }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * A secondary index that can refuse an entity, e.g. as its secondary key is already used by another entity.
+ * <p/>
+ * The store validates the entity with all constrained secondary indices before anything is written,
+ * so a refused put leaves the primary and secondary indices untouched.
+ */
+public interface ConstrainedSecondaryIndex<EntityType> {
+
+  /**
+   * Called before an entity is put to the store. Must not modify the index.
+   *
+   * @param previous instance currently associated with the identity of entity, or null
+   * @param entity   instance about to be put to the store
+   * @throws InconsistencyException if the entity would violate a constraint of the index
+   */
+  public abstract void validate(EntityType previous, EntityType entity) throws InconsistencyException;
+
+}
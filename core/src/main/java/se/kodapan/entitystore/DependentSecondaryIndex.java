@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * A secondary index with secondary keys that depend on other instances than the entity itself,
+ * e.g. on entities reached through associations.
+ * <p/>
+ * In addition to being updated as any other secondary index when entities of its primary index are put or removed,
+ * the store notifies it when any entity is put or removed.
+ */
+public interface DependentSecondaryIndex {
+
+  /**
+   * Called after an entity was put to the store,
+   * once any previous instance has been decoupled and the secondary indices of the entity has been updated.
+   *
+   * @param previous instance previously associated with the identity of entity, or null
+   * @param entity   instance put to the store
+   */
+  public abstract void dependencyPut(Object previous, Object entity);
+
+  /**
+   * Called after an entity was removed from the store and decoupled.
+   *
+   * @param entity instance removed from the store
+   */
+  public abstract void dependencyRemoved(Object entity);
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.DeterministicUIDHandler.DeterministicUID;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Produces binary {@link DeterministicUID} identities rather than the hex strings of {@link DeterministicUIDHandler}.
+ */
+public class DeterministicUIDFactory implements IdentityFactory<DeterministicUID>, Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private DeterministicUIDHandler handler;
+
+  public DeterministicUIDFactory() {
+    this(new DeterministicUIDHandler());
+  }
+
+  /**
+   * @param handler handler to share sequence with
+   */
+  public DeterministicUIDFactory(DeterministicUIDHandler handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public DeterministicUID nextIdentity(Date executionTime) {
+    return handler.nextUID(executionTime);
+  }
+
+  public DeterministicUIDHandler getHandler() {
+    return handler;
+  }
+
+}
@@ -37,46 +37,49 @@ public class DeterministicUIDHandler implements IdentityFactory<String>, Seriali
   private int previousExecutionTimeSequence = 0;
 
   @Override
-  public synchronized String nextIdentity(Date executionTime) {
+  public String nextIdentity(Date executionTime) {
+    char[] chars = new char[24];
+    nextIdentity(executionTime, chars, 0);
+    return new String(chars);
+  }
+
+  /**
+   * Writes the 24 character hex representation of the next identity to a buffer.
+   *
+   * @param executionTime transaction execution time
+   * @param chars         buffer to write to
+   * @param offset        position of first character in buffer
+   */
+  public void nextIdentity(Date executionTime, char[] chars, int offset) {
+    encode(executionTime.getTime(), nextSequence(executionTime), chars, offset);
+  }
+
+  /**
+   * Same as {@link #nextIdentity(java.util.Date)} but without encoding the identity to hex.
+   * Both methods share the same sequence.
+   *
+   * @param executionTime transaction execution time
+   * @return next identity
+   */
+  public DeterministicUID nextUID(Date executionTime) {
+    return new DeterministicUID(executionTime.getTime(), nextSequence(executionTime));
+  }
+
+  protected synchronized int nextSequence(Date executionTime) {
 
     if (previousExecutionTimeSequence == Integer.MAX_VALUE) {
       throw new RuntimeException("This transaction (executionTime) can not create more unique identities. Please create a new transaction or update the sequence counter to long rather than int.");
     }
 
-    int sequence;
     if (!executionTime.equals(previousExecutionTime)) {
       if (previousExecutionTime.getTime() > executionTime.getTime()) {
         throw new RuntimeException("Execution time was less than previous execution time");
       }
       previousExecutionTime = executionTime;
-      sequence = previousExecutionTimeSequence = 1;
+      return previousExecutionTimeSequence = 1;
     } else {
-      sequence = ++previousExecutionTimeSequence;
+      return ++previousExecutionTimeSequence;
     }
-
-    byte[] duid = new byte[12];
-
-    byte[] timeBytes = longToByteArray(previousExecutionTime.getTime());
-    byte[] sequenceBytes = intToByteArray(sequence);
-    int index = 0;
-
-    duid[index++] = timeBytes[7];
-    duid[index++] = timeBytes[6];
-    duid[index++] = timeBytes[5];
-    duid[index++] = timeBytes[4];
-
-    duid[index++] = timeBytes[1];
-    duid[index++] = timeBytes[0];
-
-    duid[index++] = sequenceBytes[0];
-    duid[index++] = sequenceBytes[1];
-    duid[index++] = sequenceBytes[2];
-    duid[index++] = sequenceBytes[3];
-
-    duid[index++] = timeBytes[3];
-    duid[index++] = timeBytes[2];
-
-    return toHex(duid);
   }
 
   public static byte[] longToByteArray(long l) {
@@ -170,14 +173,41 @@ public class DeterministicUIDHandler implements IdentityFactory<String>, Seriali
     return new DeterministicUID(executionTime, sequence);
   }
 
-  public static class DeterministicUID implements Serializable {
+  /**
+   * The 12 bytes of a deterministic identity packed in a long and an int,
+   * with precomputed hash code and ordered by execution time and then sequence.
+   * <p/>
+   * Use {@link #toHex()} and {@link DeterministicUIDHandler#decode(String)} to convert to and from the hex representation.
+   */
+  public static class DeterministicUID implements Serializable, Comparable<DeterministicUID> {
+
+    private static final long serialVersionUID = 1l;
 
-    private Date executionTime;
-    private int sequence;
+    private final long executionTime;
+    private final int sequence;
+    private final transient int hashCode;
 
     public DeterministicUID(Date executionTime, int sequence) {
+      this(executionTime.getTime(), sequence);
+    }
+
+    public DeterministicUID(long executionTime, int sequence) {
       this.executionTime = executionTime;
       this.sequence = sequence;
+      this.hashCode = hashCode(executionTime, sequence);
+    }
+
+    private Object readResolve() {
+      // recalculates transient hash code
+      return new DeterministicUID(executionTime, sequence);
+    }
+
+    /**
+     * @return the hash code a DeterministicUID with the given parameters would have.
+     */
+    public static int hashCode(long executionTime, int sequence) {
+      long h = (executionTime * 31 + sequence) * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
     }
 
     @Override
@@ -187,28 +217,87 @@ public class DeterministicUIDHandler implements IdentityFactory<String>, Seriali
 
       DeterministicUID that = (DeterministicUID) o;
 
-      if (sequence != that.sequence) return false;
-      if (executionTime != null ? !executionTime.equals(that.executionTime) : that.executionTime != null) return false;
-
-      return true;
+      return executionTime == that.executionTime && sequence == that.sequence;
     }
 
     @Override
     public int hashCode() {
-      int result = executionTime != null ? executionTime.hashCode() : 0;
-      result = 31 * result + sequence;
-      return result;
+      return hashCode;
+    }
+
+    @Override
+    public int compareTo(DeterministicUID that) {
+      if (executionTime != that.executionTime) {
+        return executionTime < that.executionTime ? -1 : 1;
+      }
+      if (sequence != that.sequence) {
+        return sequence < that.sequence ? -1 : 1;
+      }
+      return 0;
+    }
+
+    /**
+     * @return the same 24 character hex representation as produced by {@link DeterministicUIDHandler#nextIdentity(java.util.Date)}
+     */
+    public String toHex() {
+      char[] chars = new char[24];
+      encode(executionTime, sequence, chars, 0);
+      return new String(chars);
     }
 
     public final Date getExecutionTime() {
+      return new Date(executionTime);
+    }
+
+    public final long getExecutionTimeMillis() {
       return executionTime;
     }
 
     public final int getSequence() {
       return sequence;
     }
+
+    @Override
+    public String toString() {
+      return toHex();
+    }
+  }
+
+  private static final char[] hexChars = "0123456789abcdef".toCharArray();
+
+  /**
+   * Writes the 24 character hex representation of an identity without creating any intermediate objects.
+   *
+   * @param executionTime execution time
+   * @param sequence      sequence within execution time
+   * @param chars         buffer to write to
+   * @param offset        position of first character in buffer
+   */
+  public static void encode(long executionTime, int sequence, char[] chars, int offset) {
+    offset = encode((int) executionTime, chars, offset);
+    offset = encodeByte((int) (executionTime >>> 48), chars, offset);
+    offset = encodeByte((int) (executionTime >>> 56), chars, offset);
+    offset = encodeByte(sequence >>> 24, chars, offset);
+    offset = encodeByte(sequence >>> 16, chars, offset);
+    offset = encodeByte(sequence >>> 8, chars, offset);
+    offset = encodeByte(sequence, chars, offset);
+    offset = encodeByte((int) (executionTime >>> 32), chars, offset);
+    encodeByte((int) (executionTime >>> 40), chars, offset);
   }
 
+  /** little endian */
+  private static int encode(int value, char[] chars, int offset) {
+    offset = encodeByte(value, chars, offset);
+    offset = encodeByte(value >>> 8, chars, offset);
+    offset = encodeByte(value >>> 16, chars, offset);
+    return encodeByte(value >>> 24, chars, offset);
+  }
+
+  private static int encodeByte(int value, char[] chars, int offset) {
+    chars[offset++] = hexChars[(value >>> 4) & 0xf];
+    chars[offset++] = hexChars[value & 0xf];
+    return offset;
+  }
 
   private static final String hexVal = "0123456789ABCDEF";
 
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.DeterministicUIDHandler.DeterministicUID;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Open addressing map with {@link DeterministicUID} keys stored inline in flat primitive arrays,
+ * i.e. no key instance and no entry instance is kept per entry.
+ * <p/>
+ * Removed slots are marked with a tombstone so that iterators can remove while iterating.
+ * Null values are not allowed.
+ */
+public class DeterministicUIDHashMap<V> extends OpenAddressingHashMap<DeterministicUID, V> {
+
+  private static final long serialVersionUID = 1l;
+
+  private transient long[] executionTimes;
+  private transient int[] sequences;
+
+  public DeterministicUIDHashMap() {
+    this(16);
+  }
+
+  public DeterministicUIDHashMap(int expectedSize) {
+    super(expectedSize);
+  }
+
+  @Override
+  protected void allocateKeys(int capacity) {
+    executionTimes = new long[capacity];
+    sequences = new int[capacity];
+  }
+
+  @Override
+  protected void moveKeys(int capacity, int[] targets) {
+    long[] oldExecutionTimes = executionTimes;
+    int[] oldSequences = sequences;
+    allocateKeys(capacity);
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] >= 0) {
+        executionTimes[targets[i]] = oldExecutionTimes[i];
+        sequences[targets[i]] = oldSequences[i];
+      }
+    }
+  }
+
+  @Override
+  protected int hashAt(int slot) {
+    return DeterministicUID.hashCode(executionTimes[slot], sequences[slot]);
+  }
+
+  /**
+   * Creates a new key instance.
+   */
+  @Override
+  protected DeterministicUID keyAt(int slot) {
+    return new DeterministicUID(executionTimes[slot], sequences[slot]);
+  }
+
+  /**
+   * @return slot of key, or -1 if not in map
+   */
+  private int indexOf(long executionTime, int sequence, int hashCode) {
+    int mask = mask();
+    int index = hashCode & mask;
+    while (!isFree(index)) {
+      if (!isRemoved(index) && executionTimes[index] == executionTime && sequences[index] == sequence) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  @Override
+  protected int indexOfKey(Object key) {
+    if (!(key instanceof DeterministicUID)) {
+      return -1;
+    }
+    DeterministicUID uid = (DeterministicUID) key;
+    return indexOf(uid.getExecutionTimeMillis(), uid.getSequence(), uid.hashCode());
+  }
+
+  public boolean containsKey(long executionTime, int sequence) {
+    return indexOf(executionTime, sequence, DeterministicUID.hashCode(executionTime, sequence)) >= 0;
+  }
+
+  /**
+   * Looks up a value without creating a key instance.
+   */
+  public V get(long executionTime, int sequence) {
+    return valueAt(indexOf(executionTime, sequence, DeterministicUID.hashCode(executionTime, sequence)));
+  }
+
+  public V put(long executionTime, int sequence, V value) {
+    return put(executionTime, sequence, DeterministicUID.hashCode(executionTime, sequence), value);
+  }
+
+  private V put(long executionTime, int sequence, int hashCode, V value) {
+    assertValue(value);
+    int mask = mask();
+    int index = hashCode & mask;
+    int tombstone = -1;
+    while (!isFree(index)) {
+      if (isRemoved(index)) {
+        if (tombstone < 0) {
+          tombstone = index;
+        }
+      } else if (executionTimes[index] == executionTime && sequences[index] == sequence) {
+        return replaceValue(index, value);
+      }
+      index = (index + 1) & mask;
+    }
+    index = claimSlot(index, tombstone);
+    executionTimes[index] = executionTime;
+    sequences[index] = sequence;
+    insertValue(index, value);
+    return null;
+  }
+
+  public V remove(long executionTime, int sequence) {
+    return removeAt(indexOf(executionTime, sequence, DeterministicUID.hashCode(executionTime, sequence)));
+  }
+
+  @Override
+  public V put(DeterministicUID key, V value) {
+    return put(key.getExecutionTimeMillis(), key.getSequence(), key.hashCode(), value);
+  }
+
+  @Override
+  protected void writeKey(ObjectOutputStream out, int slot) throws IOException {
+    out.writeLong(executionTimes[slot]);
+    out.writeInt(sequences[slot]);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void readEntry(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    long executionTime = in.readLong();
+    int sequence = in.readInt();
+    put(executionTime, sequence, (V) in.readObject());
+  }
+
+}
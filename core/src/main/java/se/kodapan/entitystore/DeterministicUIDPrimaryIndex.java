@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.DeterministicUIDHandler.DeterministicUID;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Primary index with {@link DeterministicUID} identities backed by a {@link DeterministicUIDHashMap}.
+ * <p/>
+ * Selected by {@link EntityStoreImpl#getPrimaryIndex(Class, Class)} when the identity type is DeterministicUID.
+ */
+public class DeterministicUIDPrimaryIndex<EntityType> extends PrimaryIndex<DeterministicUID, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    reconstructIdentitiesByEntity();
+  }
+
+  private DeterministicUIDHashMap<EntityType> uidEntitiesById;
+
+  private transient IdentityDeterministicUIDHashMap<EntityType> uidIdentitiesByEntity;
+
+  public DeterministicUIDPrimaryIndex() {
+  }
+
+  public DeterministicUIDPrimaryIndex(EntityStoreImpl store, Class<EntityType> entityType) {
+    this(store, entityType, new DeterministicUIDHashMap<EntityType>());
+  }
+
+  public DeterministicUIDPrimaryIndex(EntityStoreImpl store, Class<EntityType> entityType, DeterministicUIDHashMap<EntityType> entitiesById) {
+    super(store, DeterministicUID.class, entityType, entitiesById);
+  }
+
+  /**
+   * Looks up an entity without creating an identity instance.
+   */
+  public EntityType get(long executionTime, int sequence) {
+    return uidEntitiesById.get(executionTime, sequence);
+  }
+
+  /**
+   * Keeps the specialized map, it is already compact.
+   */
+  @Override
+  protected void freezeEntitiesById() {
+  }
+
+  @Override
+  public void setEntitiesById(Map<DeterministicUID, EntityType> entitiesById) {
+    if (entitiesById != null && !(entitiesById instanceof DeterministicUIDHashMap)) {
+      DeterministicUIDHashMap<EntityType> map = new DeterministicUIDHashMap<EntityType>(entitiesById.size());
+      map.putAll(entitiesById);
+      entitiesById = map;
+    }
+    uidEntitiesById = (DeterministicUIDHashMap<EntityType>) entitiesById;
+    super.setEntitiesById(entitiesById);
+  }
+
+  public DeterministicUIDHashMap<EntityType> getUIDEntitiesById() {
+    return uidEntitiesById;
+  }
+
+  @Override
+  public DeterministicUID getIdentity(EntityType entity) {
+    int index = uidIdentitiesByEntity.indexOf(entity);
+    return index < 0 ? null : uidIdentitiesByEntity.valueAt(index);
+  }
+
+  @Override
+  protected void reconstructIdentitiesByEntity() {
+    // also invoked when the super class is deserialized, before the fields of this class are read.
+    if (uidEntitiesById == null) {
+      return;
+    }
+    uidIdentitiesByEntity = new IdentityDeterministicUIDHashMap<EntityType>(uidEntitiesById.size());
+    for (Map.Entry<DeterministicUID, EntityType> entry : uidEntitiesById.entrySet()) {
+      uidIdentitiesByEntity.put(entry.getValue(), entry.getKey().getExecutionTimeMillis(), entry.getKey().getSequence());
+    }
+  }
+
+  @Override
+  protected void identityPut(DeterministicUID identity, EntityType previous, EntityType entity) {
+    if (previous != entity) {
+      if (previous != null) {
+        uidIdentitiesByEntity.remove(previous);
+      }
+      uidIdentitiesByEntity.put(entity, identity.getExecutionTimeMillis(), identity.getSequence());
+    }
+  }
+
+  @Override
+  protected void identityRemoved(DeterministicUID identity, EntityType removed) {
+    int index = uidIdentitiesByEntity.indexOf(removed);
+    if (index >= 0
+        && uidIdentitiesByEntity.executionTimeAt(index) == identity.getExecutionTimeMillis()
+        && uidIdentitiesByEntity.sequenceAt(index) == identity.getSequence()) {
+      uidIdentitiesByEntity.remove(removed);
+    }
+  }
+
+  @Override
+  protected void clearIdentitiesByEntity() {
+    uidIdentitiesByEntity.clear();
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Dense ordinals of all entities in a store, one per identity,
+ * used by indices that keep bitmaps rather than references to entities.
+ * <p/>
+ * Maintained by {@link EntityStoreImpl} once any index asked for it using {@link EntityStoreImpl#getEntityOrdinals()}.
+ * When an entity is replaced by a new instance the ordinal is kept,
+ * and the previous instance resolves to the same ordinal until the secondary indices have been updated.
+ * Ordinals of removed identities are reused.
+ */
+public class EntityOrdinals implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    retiring = new IdentityLongHashMap<Object>();
+  }
+
+  private final EntityTable table = new EntityTable();
+
+  /** replaced instances that might still be in secondary indices */
+  private transient IdentityLongHashMap<Object> retiring = new IdentityLongHashMap<Object>();
+
+  /**
+   * @return ordinal of identity
+   */
+  public synchronized int put(Object identity, Object entity) {
+    int ordinal = table.ordinalOf(identity);
+    if (ordinal < 0) {
+      ordinal = table.put(identity, entity);
+      table.retain(ordinal);
+    } else {
+      Object current = table.entityAt(ordinal);
+      if (current != entity) {
+        retiring.put(current, ordinal);
+        table.put(identity, entity);
+      }
+    }
+    return ordinal;
+  }
+
+  /**
+   * Called when a replaced instance has been removed from all secondary indices.
+   */
+  public synchronized void retired(Object instance) {
+    retiring.remove(instance);
+  }
+
+  public synchronized void remove(Object identity) {
+    int ordinal = table.ordinalOf(identity);
+    if (ordinal >= 0) {
+      table.release(ordinal);
+    }
+  }
+
+  /**
+   * @return ordinal of the very same instance, or -1 if not an entity in the store
+   */
+  public synchronized int ordinalOf(Object instance) {
+    int ordinal = table.ordinalOfEntity(instance);
+    if (ordinal < 0 && retiring.size() > 0) {
+      int index = retiring.indexOf(instance);
+      if (index >= 0) {
+        ordinal = (int) retiring.valueAt(index);
+      }
+    }
+    return ordinal;
+  }
+
+  /**
+   * @return current instance with ordinal
+   */
+  public synchronized Object entityAt(int ordinal) {
+    return table.entityAt(ordinal);
+  }
+
+  public synchronized int size() {
+    return table.size();
+  }
+
+  /**
+   * @param bitmap ordinals of entities
+   * @return read only view of the entities, resolved while iterating
+   */
+  public Set<Object> getEntities(final CompressedBitmap bitmap) {
+    return new AbstractSet<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        final CompressedBitmap.Iterator iterator = bitmap.iterator();
+        return new Iterator<Object>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Object next() {
+            return entityAt(iterator.next());
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        int ordinal = ordinalOf(o);
+        return ordinal >= 0 && bitmap.contains(ordinal);
+      }
+
+      @Override
+      public int size() {
+        return bitmap.cardinality();
+      }
+    };
+  }
+
+}
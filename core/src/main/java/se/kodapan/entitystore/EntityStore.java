@@ -44,7 +44,9 @@ public interface EntityStore {
    * Retrieves primary index for the given parameters,
    * or register and creates it if not yet existing.
    *
-   * It might not be safe to register the same index from two threads at the same time.
+   * It is safe to register the same index from several threads at the same time,
+   * also while other threads use the store, as registration is synchronized
+   * and the registries read by other operations are concurrent collections.
    *
    * @param identityType must be of the top level implementation class when registering the primary index, but when registered this parameters can be any super class or interfaces of the identity.
    * @param entityType
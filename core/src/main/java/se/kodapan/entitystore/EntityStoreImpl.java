@@ -41,19 +41,93 @@ public class EntityStoreImpl implements EntityStore, Serializable {
   private void readObject(java.io.ObjectInputStream in)
       throws IOException, ClassNotFoundException {
       in.defaultReadObject();
-      primaryIndexClassesByClass = new HashMap<Class, Set<Class>>();
+      routesByClass = new ConcurrentHashMap<Class, Route>();
   }
 
 
   private Map<Class, PrimaryIndex> primaryIndices = new ConcurrentHashMap<Class, PrimaryIndex>();
-  private Map<String, SecondaryIndex> secondaryIndicesByName = new HashMap<String, SecondaryIndex>();
+  private Map<String, SecondaryIndex> secondaryIndicesByName = new ConcurrentHashMap<String, SecondaryIndex>();
 
   /**
    * any class that is allowed to have a primary index
    * must either be available in this set
    * or be annotated at class level with @Entity
+   * <p/>
+   * Concurrent as it is read by routing without synchronization while types are registered.
    */
-  private Set<Class> entityTypes = new HashSet<Class>();
+  private Set<Class> entityTypes = new EntityTypes(createEntityTypesSet());
+
+  private volatile boolean frozen = false;
+
+  /** created when first requested by an index */
+  private volatile EntityOrdinals entityOrdinals;
+
+  /** created on first put, or when first needed after deserialization */
+  private transient volatile ReverseAssociationIndex reverseAssociationIndex;
+
+  /**
+   * Decorates the entity types and invalidates the routes when it is modified.
+   */
+  private class EntityTypes extends AbstractSet<Class> implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private Set<Class> decorated;
+
+    private EntityTypes(Set<Class> decorated) {
+      this.decorated = decorated;
+    }
+
+    @Override
+    public boolean add(Class entityType) {
+      if (decorated.add(entityType)) {
+        invalidateRoutes();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean remove(Object entityType) {
+      if (decorated.remove(entityType)) {
+        invalidateRoutes();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean contains(Object entityType) {
+      return decorated.contains(entityType);
+    }
+
+    @Override
+    public int size() {
+      return decorated.size();
+    }
+
+    @Override
+    public Iterator<Class> iterator() {
+      final Iterator<Class> iterator = decorated.iterator();
+      return new Iterator<Class>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public Class next() {
+          return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+          iterator.remove();
+          invalidateRoutes();
+        }
+      };
+    }
+  }
 
   /**
    * Adds a secondary index to the store.
@@ -63,7 +137,8 @@ public class EntityStoreImpl implements EntityStore, Serializable {
    * @param secondaryIndex
    * @return
    */
-  public boolean registerSecondaryIndex(SecondaryIndex secondaryIndex) {
+  public synchronized boolean registerSecondaryIndex(SecondaryIndex secondaryIndex) {
+    assertNotFrozen();
     SecondaryIndex previous = getSecondaryIndicesByName().get(secondaryIndex.getName());
     if (previous != null) {
       log.warn("A secondary index named " + secondaryIndex.getName() + " already exists.");
@@ -74,7 +149,7 @@ public class EntityStoreImpl implements EntityStore, Serializable {
 
     getSecondaryIndicesByName().put(secondaryIndex.getName(), secondaryIndex);
     secondaryIndex.getPrimaryIndex().getSecondaryIndicesByName().put(secondaryIndex.getName(), secondaryIndex);
-
+    invalidateRoutes();
 
     return true;
   }
@@ -90,7 +165,142 @@ public class EntityStoreImpl implements EntityStore, Serializable {
     return entityTypes.contains(entityType);
   }
 
-  private transient Map<Class, Set<Class>> primaryIndexClassesByClass = new HashMap<Class, Set<Class>>();
+  /**
+   * The primary and secondary indices an instance of a class is written to,
+   * resolved once per class by {@link #getRoute(Class)}.
+   */
+  protected static class Route {
+
+    private final PrimaryIndex[] primaryIndices;
+    private final SecondaryIndex[] secondaryIndices;
+    private final SecondaryIndex[] constrainedSecondaryIndices;
+    private final PrimaryIndex primaryIndex;
+    private final BinaryAssociationEnd[] oneDirectionalEnds;
+
+    protected Route(PrimaryIndex[] primaryIndices, SecondaryIndex[] secondaryIndices, PrimaryIndex primaryIndex, BinaryAssociationEnd[] oneDirectionalEnds) {
+      this.primaryIndices = primaryIndices;
+      this.secondaryIndices = secondaryIndices;
+      this.primaryIndex = primaryIndex;
+      this.oneDirectionalEnds = oneDirectionalEnds;
+      List<SecondaryIndex> constrained = new ArrayList<SecondaryIndex>();
+      for (SecondaryIndex secondaryIndex : secondaryIndices) {
+        if (secondaryIndex instanceof ConstrainedSecondaryIndex) {
+          constrained.add(secondaryIndex);
+        }
+      }
+      Collections.sort(constrained, new Comparator<SecondaryIndex>() {
+        @Override
+        public int compare(SecondaryIndex secondaryIndex, SecondaryIndex secondaryIndex1) {
+          return secondaryIndex.getName().compareTo(secondaryIndex1.getName());
+        }
+      });
+      constrainedSecondaryIndices = constrained.toArray(new SecondaryIndex[constrained.size()]);
+    }
+
+    /**
+     * @return primary indices of all entity classes associated with the class
+     */
+    public PrimaryIndex[] getPrimaryIndices() {
+      return primaryIndices;
+    }
+
+    /**
+     * @return secondary indices of all {@link #getPrimaryIndices()}, each one only once
+     */
+    public SecondaryIndex[] getSecondaryIndices() {
+      return secondaryIndices;
+    }
+
+    /**
+     * @return the {@link ConstrainedSecondaryIndex} instances of {@link #getSecondaryIndices()}, ordered by name
+     */
+    public SecondaryIndex[] getConstrainedSecondaryIndices() {
+      return constrainedSecondaryIndices;
+    }
+
+    /**
+     * @return primary index of the class itself, or null if the class has no primary index
+     */
+    public PrimaryIndex getPrimaryIndex() {
+      return primaryIndex;
+    }
+
+    /**
+     * @return association ends of the class tracked by the {@link ReverseAssociationIndex}, empty if none
+     */
+    public BinaryAssociationEnd[] getOneDirectionalEnds() {
+      return oneDirectionalEnds;
+    }
+
+    public boolean hasOneDirectionalEnds() {
+      return oneDirectionalEnds.length > 0;
+    }
+  }
+
+  private transient Map<Class, Route> routesByClass = new ConcurrentHashMap<Class, Route>();
+  private transient volatile int routesVersion = 0;
+
+  /** resolved when first needed after indices are registered */
+  private transient volatile DependentSecondaryIndex[] dependentSecondaryIndices;
+
+  /** if any entity type has one-directional association ends, resolved when first needed after entity types are registered */
+  private transient volatile Boolean oneDirectionalEntityTypes;
+
+  /**
+   * @param _class class of entity
+   * @return primary indices instances of parameter _class are written to
+   */
+  protected Route getRoute(Class _class) {
+    Route route = routesByClass.get(_class);
+    if (route == null) {
+      int version = routesVersion;
+      Set<Class> entityClasses = gatherEntityObjectClasses(_class);
+      PrimaryIndex[] primaryIndices = new PrimaryIndex[entityClasses.size()];
+      Set<SecondaryIndex> secondaryIndices = new LinkedHashSet<SecondaryIndex>();
+      int i = 0;
+      for (Class entityClass : entityClasses) {
+        PrimaryIndex primaryIndex = getPrimaryIndex(entityClass);
+        primaryIndices[i++] = primaryIndex;
+        secondaryIndices.addAll(primaryIndex.getSecondaryIndicesByName().values());
+      }
+      route = new Route(primaryIndices,
+          secondaryIndices.toArray(new SecondaryIndex[secondaryIndices.size()]),
+          isEntityType(_class) ? getPrimaryIndices().get(_class) : null,
+          ReverseAssociationIndex.getOneDirectionalEnds(this, _class));
+      if (version == routesVersion) {
+        routesByClass.put(_class, route);
+      }
+    }
+    return route;
+  }
+
+  /**
+   * Called when entity types or indices are registered.
+   */
+  protected void invalidateRoutes() {
+    routesVersion++;
+    routesByClass.clear();
+    dependentSecondaryIndices = null;
+    oneDirectionalEntityTypes = null;
+  }
+
+  /**
+   * @return all registered secondary indices that depend on other entities than their own
+   */
+  protected DependentSecondaryIndex[] getDependentSecondaryIndices() {
+    DependentSecondaryIndex[] dependentSecondaryIndices = this.dependentSecondaryIndices;
+    if (dependentSecondaryIndices == null) {
+      List<DependentSecondaryIndex> found = new ArrayList<DependentSecondaryIndex>();
+      for (SecondaryIndex secondaryIndex : getSecondaryIndicesByName().values()) {
+        if (secondaryIndex instanceof DependentSecondaryIndex) {
+          found.add((DependentSecondaryIndex) secondaryIndex);
+        }
+      }
+      dependentSecondaryIndices = found.toArray(new DependentSecondaryIndex[found.size()]);
+      this.dependentSecondaryIndices = dependentSecondaryIndices;
+    }
+    return dependentSecondaryIndices;
+  }
 
   /**
    * one index per class,
@@ -105,28 +315,21 @@ public class EntityStoreImpl implements EntityStore, Serializable {
    * @return all entity classes associated with the class of parameter _class.
    */
   private Set<Class> gatherEntityObjectClasses(Class _class) {
-
-    Set<Class> allClasses = primaryIndexClassesByClass.get(_class);
-    if (allClasses == null) {
-      allClasses = new HashSet<Class>();
-      while (_class != Object.class) {
-        allClasses.add(_class);
-        gatherInterfaces(allClasses, _class);
-        _class = _class.getSuperclass();
-      }
-      for (Iterator<Class> it = allClasses.iterator(); it.hasNext();) {
-        Class type = it.next();
-        if (!isEntityType(type)) {
-          it.remove();
-        }
+    Set<Class> allClasses = new LinkedHashSet<Class>();
+    while (_class != null && _class != Object.class) {
+      allClasses.add(_class);
+      gatherInterfaces(allClasses, _class);
+      _class = _class.getSuperclass();
+    }
+    for (Iterator<Class> it = allClasses.iterator(); it.hasNext();) {
+      Class type = it.next();
+      if (!isEntityType(type)) {
+        it.remove();
       }
-      primaryIndexClassesByClass.put(_class, allClasses);
     }
     return allClasses;
   }
 
-
-
   private void gatherInterfaces(Set<Class> superInterfaces, Class _class) {
     if (_class.getInterfaces() != null) {
       for (Class superInterface : _class.getInterfaces()) {
@@ -156,18 +359,45 @@ public class EntityStoreImpl implements EntityStore, Serializable {
   public <IdentityType, EntityType> PrimaryIndex<IdentityType, EntityType> getPrimaryIndex(Class<IdentityType> identityType, Class<EntityType> entityType) {
     PrimaryIndex<IdentityType, EntityType> index = (PrimaryIndex<IdentityType, EntityType>) getPrimaryIndices().get(entityType);
     if (index == null) {
-      if (!isEntityType(entityType)) {
-        getEntityTypes().add(entityType);
+      synchronized (this) {
+        index = (PrimaryIndex<IdentityType, EntityType>) getPrimaryIndices().get(entityType);
+        if (index == null) {
+          assertNotFrozen();
+          if (!isEntityType(entityType)) {
+            getEntityTypes().add(entityType);
+          }
+          index = createPrimaryIndex(identityType, entityType);
+          getPrimaryIndices().put(entityType, index);
+          invalidateRoutes();
+        }
       }
-      index = new PrimaryIndex<IdentityType, EntityType>(this, identityType, entityType);
-      getPrimaryIndices().put(entityType, index);
     }
     return index;
   }
 
+  /**
+   * Creates a new primary index, specialized on the identity type when possible.
+   *
+   * @param identityType class of identity
+   * @param entityType class of entity
+   * @return a new primary index
+   */
+  @SuppressWarnings("unchecked")
+  protected <IdentityType, EntityType> PrimaryIndex<IdentityType, EntityType> createPrimaryIndex(Class<IdentityType> identityType, Class<EntityType> entityType) {
+    if (identityType == Long.class) {
+      return (PrimaryIndex<IdentityType, EntityType>) new LongPrimaryIndex<EntityType>(this, entityType);
+    } else if (identityType == DeterministicUIDHandler.DeterministicUID.class) {
+      return (PrimaryIndex<IdentityType, EntityType>) new DeterministicUIDPrimaryIndex<EntityType>(this, entityType);
+    }
+    return new PrimaryIndex<IdentityType, EntityType>(this, identityType, entityType);
+  }
+
 
   /**
    * Adds object to all class indices.
+   * <p/>
+   * All primary indices are updated before the previous instance is decoupled,
+   * each secondary index is updated once and listeners are notified once.
    *
    * @param identity
    * @param entity
@@ -179,55 +409,452 @@ public class EntityStoreImpl implements EntityStore, Serializable {
   @Override
   public <IdentityType, EntityType> EntityType put(IdentityType identity, EntityType entity) {
 
+    assertNotFrozen();
+
     if (identity == null) {
       throw new NullPointerException("No entity object identity in " + entity.toString());
     }
 
-    boolean seen = false;
-    EntityType previous = null;
-    for (Class entityClass : gatherEntityObjectClasses(entity.getClass())) {
-      EntityType value = (EntityType) getPrimaryIndex(entityClass).put((IdentityType) identity, entity);
-      if (seen) {
-        if ((previous != null && !previous.equals(value))
-            || (value != null && !value.equals(previous))) {
-          throw new InconsistencyException("At least two different instances was found in different primary indices using the same identity! You most likely found a new bug in the kodapan entity store project.");
-        }
-      }
-      previous = value;
-      seen = true;
+    Route route = getRoute(entity.getClass());
+
+    EntityType previous = (EntityType) getFromPrimaryIndices(route, identity);
+
+    validateSecondaryIndices(route, previous, entity);
+
+    putToPrimaryIndices(route, identity, entity);
+
+    entityOrdinalPut(identity, entity);
+
+    if (previous != null && previous != entity) {
+      // remove composite parts and decouple from associations
+      decouple(previous);
+    }
+
+    if (route.hasOneDirectionalEnds()) {
+      getReverseAssociationIndex().put(entity);
+    }
+
+    updateSecondaryIndices(route, previous, entity);
+
+    updateDependentSecondaryIndices(previous, entity);
+
+    if (previous != null && previous != entity) {
+      entityOrdinalRetired(previous);
     }
+
+    fireCreatedOrUpdated(route, identity, previous, entity);
+
     return previous;
   }
 
 
   @Override
+  @SuppressWarnings("unchecked")
   public <IdentityType, EntityType> EntityType get(Class<EntityType> entityType, IdentityType identity) {
-    return getPrimaryIndex(entityType).get(identity);
+    PrimaryIndex primaryIndex = getRoute(entityType).getPrimaryIndex();
+    if (primaryIndex == null) {
+      // throws the appropriate exception
+      return getPrimaryIndex(entityType).get(identity);
+    }
+    return (EntityType) primaryIndex.get(identity);
   }
 
   /**
-   * You really need to use the top class level entity type or the object might not be removed from all primary indices.
+   * Removes the entity from the primary indices of its concrete class,
+   * even if parameter entityType is a super class or interface of the entity.
+   * <p/>
+   * All primary indices are updated before the instance is decoupled,
+   * each secondary index is updated once and listeners are notified once.
    *
    * @param entityType
    * @param identity
    * @param <IdentityType>
    * @param <EntityType>
-   * @return
+   * @return removed instance, or null if not in store
    */
   @Override
   @SuppressWarnings("unchecked")
   public <IdentityType, EntityType> EntityType remove(Class<EntityType> entityType, IdentityType identity) {
-    // todo first gather all that contains, make sure there is no inconsistency, then make the run again and remove.
-    EntityType object = null;
-    for (Class entityClass : gatherEntityObjectClasses(entityType)) {
-      object = (EntityType) getPrimaryIndex(entityClass).getEntitiesById().remove(identity);
+
+    assertNotFrozen();
+
+    EntityType entity = null;
+    for (PrimaryIndex primaryIndex : getRoute(entityType).getPrimaryIndices()) {
+      entity = (EntityType) primaryIndex.get(identity);
+      if (entity != null) {
+        break;
+      }
+    }
+    if (entity == null) {
+      return null;
+    }
+
+    Route route = getRoute(entity.getClass());
+
+    removeFromPrimaryIndices(route, identity, entity);
+
+    removeFromSecondaryIndices(route, entity);
+
+    entityOrdinalRemoved(identity);
+
+    // remove composite parts and decouple from associations
+    decouple(entity);
+
+    removeFromDependentSecondaryIndices(entity);
+
+    fireDeleted(route, identity, entity);
+
+    return entity;
+  }
+
+  /**
+   * Reads the instance associated with the identity from all primary indices of the route,
+   * in order to validate the primary indices before anything is written.
+   *
+   * @return instance associated with the identity, or null
+   * @throws InconsistencyException if the primary indices did not agree on the instance
+   */
+  @SuppressWarnings("unchecked")
+  protected Object getFromPrimaryIndices(Route route, Object identity) {
+    PrimaryIndex[] primaryIndices = route.getPrimaryIndices();
+    Object previous = null;
+    for (int i = 0; i < primaryIndices.length; i++) {
+      Object value = primaryIndices[i].get(identity);
+      if (i > 0 && value != previous) {
+        throw new InconsistencyException("At least two different instances was found in different primary indices using the same identity! You most likely found a new bug in the kodapan entity store project.");
+      }
+      previous = value;
+    }
+    return previous;
+  }
+
+  /**
+   * Puts entity to all primary indices of the route.
+   * Called once {@link #getFromPrimaryIndices(Route, Object)} has validated the primary indices.
+   */
+  @SuppressWarnings("unchecked")
+  protected void putToPrimaryIndices(Route route, Object identity, Object entity) {
+    for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+      primaryIndex.putToBackingMap(identity, entity);
+    }
+  }
+
+  /**
+   * Removes entity from all primary indices of the route.
+   * All primary indices are validated before any of them is modified.
+   *
+   * @throws InconsistencyException if another instance was associated with the identity
+   */
+  @SuppressWarnings("unchecked")
+  protected void removeFromPrimaryIndices(Route route, Object identity, Object entity) {
+    for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+      Object current = primaryIndex.get(identity);
+      if (current != null && current != entity) {
+        throw new InconsistencyException("At least two different instances was found in different primary indices using the same identity! You most likely found a new bug in the kodapan entity store project.");
+      }
+    }
+    for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+      primaryIndex.removeFromBackingMap(identity);
     }
-    return object;
-    // todo return gathered removed instance
   }
 
   /**
-   * Removes an instance from other end of all bi-directional associations.
+   * Makes the store read only.
+   * <p/>
+   * All primary indices and all {@link MapSetSecondaryIndex} are replaced by immutable compact structures.
+   * Any further put, remove or registration throws {@link FrozenException}.
+   * Reads of a frozen store need no locks.
+   */
+  public synchronized void freeze() {
+    if (frozen) {
+      return;
+    }
+    frozen = true;
+    for (PrimaryIndex primaryIndex : getPrimaryIndices().values()) {
+      primaryIndex.freeze();
+    }
+    for (SecondaryIndex secondaryIndex : getSecondaryIndicesByName().values()) {
+      if (secondaryIndex instanceof MapSetSecondaryIndex) {
+        ((MapSetSecondaryIndex) secondaryIndex).freeze();
+      }
+    }
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Ordinals are maintained from the first call and on, i.e. indices that does not need them cost nothing.
+   *
+   * @return dense ordinals of all entities in the store
+   */
+  public EntityOrdinals getEntityOrdinals() {
+    EntityOrdinals ordinals = entityOrdinals;
+    if (ordinals == null) {
+      synchronized (this) {
+        ordinals = entityOrdinals;
+        if (ordinals == null) {
+          ordinals = new EntityOrdinals();
+          for (PrimaryIndex<Object, Object> primaryIndex : getPrimaryIndices().values()) {
+            for (Map.Entry<Object, Object> entry : primaryIndex.getEntitiesById().entrySet()) {
+              ordinals.put(entry.getKey(), entry.getValue());
+            }
+          }
+          entityOrdinals = ordinals;
+        }
+      }
+    }
+    return ordinals;
+  }
+
+  /**
+   * @return true if instances of any entity type might refer to other entities through one-directional associations,
+   *         i.e. if the {@link ReverseAssociationIndex} is required in order to decouple an instance
+   *         even though no such instance has been put since the store was created or deserialized.
+   */
+  boolean hasOneDirectionalEntityTypes() {
+    Boolean oneDirectional = oneDirectionalEntityTypes;
+    if (oneDirectional == null) {
+      oneDirectional = Boolean.FALSE;
+      for (Class entityType : getPrimaryIndices().keySet()) {
+        if (getRoute(entityType).hasOneDirectionalEnds()) {
+          oneDirectional = Boolean.TRUE;
+          break;
+        }
+      }
+      oneDirectionalEntityTypes = oneDirectional;
+    }
+    return oneDirectional;
+  }
+
+  /**
+   * Created and populated from all primary indices when first needed,
+   * i.e. when an instance of a class with one-directional associations is put or might be referred to.
+   *
+   * @return entities referring to other entities through one-directional associations
+   */
+  public ReverseAssociationIndex getReverseAssociationIndex() {
+    ReverseAssociationIndex index = reverseAssociationIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = reverseAssociationIndex;
+        if (index == null) {
+          index = new ReverseAssociationIndex(this);
+          Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+          for (PrimaryIndex<Object, Object> primaryIndex : getPrimaryIndices().values()) {
+            for (Object entity : primaryIndex.getEntitiesById().values()) {
+              if (seen.add(entity)) {
+                index.put(entity);
+              }
+            }
+          }
+          reverseAssociationIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * @return distinct entities with a one-directional association to the target
+   */
+  public Set<Object> getReferrers(Object target) {
+    return getReverseAssociationIndex().getReferrers(target);
+  }
+
+  /**
+   * @return true if the instance is of a class that has a primary index
+   */
+  boolean isEntity(Object instance) {
+    return getRoute(instance.getClass()).getPrimaryIndices().length > 0;
+  }
+
+  /**
+   * @return true if instances of the class, or of a subclass, might be of an entity type
+   */
+  boolean mayBeEntityClass(Class type) {
+    for (Class entityType : entityTypes) {
+      if (entityType.isAssignableFrom(type) || type.isAssignableFrom(entityType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if entity ordinals are maintained, i.e. if callers with primitive identities must box them
+   */
+  boolean hasEntityOrdinals() {
+    return entityOrdinals != null;
+  }
+
+  void entityOrdinalPut(Object identity, Object entity) {
+    EntityOrdinals ordinals = entityOrdinals;
+    if (ordinals != null) {
+      ordinals.put(identity, entity);
+    }
+  }
+
+  /**
+   * @param previous replaced instance that no longer is in any secondary index
+   */
+  void entityOrdinalRetired(Object previous) {
+    EntityOrdinals ordinals = entityOrdinals;
+    if (ordinals != null) {
+      ordinals.retired(previous);
+    }
+  }
+
+  void entityOrdinalRemoved(Object identity) {
+    EntityOrdinals ordinals = entityOrdinals;
+    if (ordinals != null) {
+      ordinals.remove(identity);
+    }
+  }
+
+  /**
+   * @throws FrozenException if the store is frozen
+   */
+  protected void assertNotFrozen() throws FrozenException {
+    if (frozen) {
+      throw new FrozenException("Entity store is frozen");
+    }
+  }
+
+  /**
+   * Validates entity with all {@link ConstrainedSecondaryIndex} of the route before anything is written.
+   *
+   * @param previous instance currently associated with the identity of entity, or null
+   * @throws InconsistencyException if a secondary index refuses the entity
+   */
+  @SuppressWarnings("unchecked")
+  protected void validateSecondaryIndices(Route route, Object previous, Object entity) {
+    for (SecondaryIndex secondaryIndex : route.getConstrainedSecondaryIndices()) {
+      ((ConstrainedSecondaryIndex) secondaryIndex).validate(previous, entity);
+    }
+  }
+
+  /**
+   * Replaces previous with entity in all secondary indices of the route.
+   *
+   * @param previous instance previously associated with the identity of entity, or null
+   */
+  @SuppressWarnings("unchecked")
+  protected void updateSecondaryIndices(Route route, Object previous, Object entity) {
+    for (SecondaryIndex secondaryIndex : route.getSecondaryIndices()) {
+      updateSecondaryIndex(secondaryIndex, previous, entity);
+    }
+  }
+
+  /**
+   * Replaces previous with entity in a secondary index.
+   *
+   * @param previous instance previously associated with the identity of entity, or null
+   */
+  @SuppressWarnings("unchecked")
+  static void updateSecondaryIndex(SecondaryIndex secondaryIndex, Object previous, Object entity) {
+    if (secondaryIndex instanceof UpdatableSecondaryIndex) {
+      ((UpdatableSecondaryIndex) secondaryIndex).update(previous, entity);
+    } else {
+      if (previous != null) {
+        secondaryIndex.remove(previous);
+      }
+      secondaryIndex.put(entity);
+    }
+  }
+
+  /**
+   * Removes entity from all secondary indices of the route.
+   */
+  @SuppressWarnings("unchecked")
+  protected void removeFromSecondaryIndices(Route route, Object entity) {
+    for (SecondaryIndex secondaryIndex : route.getSecondaryIndices()) {
+      secondaryIndex.remove(entity);
+    }
+  }
+
+  /**
+   * Notifies the dependent secondary indices that an entity was put.
+   *
+   * @param previous instance previously associated with the identity of entity, or null
+   */
+  protected void updateDependentSecondaryIndices(Object previous, Object entity) {
+    for (DependentSecondaryIndex dependentSecondaryIndex : getDependentSecondaryIndices()) {
+      dependentSecondaryIndex.dependencyPut(previous, entity);
+    }
+  }
+
+  /**
+   * Notifies the dependent secondary indices that an entity was removed.
+   */
+  protected void removeFromDependentSecondaryIndices(Object entity) {
+    for (DependentSecondaryIndex dependentSecondaryIndex : getDependentSecondaryIndices()) {
+      dependentSecondaryIndex.dependencyRemoved(entity);
+    }
+  }
+
+  /**
+   * Notifies the listeners of all primary indices in the route in a single new thread.
+   */
+  @SuppressWarnings("unchecked")
+  private void fireCreatedOrUpdated(Route route, final Object identity, final Object previous, final Object entity) {
+    final Set<PrimaryIndexListener> listeners = gatherListeners(route);
+    if (listeners == null) {
+      return;
+    }
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (PrimaryIndexListener listener : listeners) {
+          if (previous == null) {
+            listener.created(identity, entity);
+          } else {
+            listener.updated(identity, entity);
+          }
+        }
+      }
+    }).start();
+  }
+
+  /**
+   * Notifies the listeners of all primary indices in the route in a single new thread.
+   */
+  @SuppressWarnings("unchecked")
+  private void fireDeleted(Route route, final Object identity, final Object entity) {
+    final Set<PrimaryIndexListener> listeners = gatherListeners(route);
+    if (listeners == null) {
+      return;
+    }
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (PrimaryIndexListener listener : listeners) {
+          listener.deleted(identity, entity);
+        }
+      }
+    }).start();
+  }
+
+  /**
+   * @return distinct listeners of all primary indices in the route, or null if there are none
+   */
+  private Set<PrimaryIndexListener> gatherListeners(Route route) {
+    Set<PrimaryIndexListener> listeners = null;
+    for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+      if (primaryIndex.hasListeners()) {
+        if (listeners == null) {
+          listeners = new LinkedHashSet<PrimaryIndexListener>();
+        }
+        listeners.addAll(primaryIndex.getListeners());
+      }
+    }
+    return listeners;
+  }
+
+  /**
+   * Removes an instance from other end of all bi-directional associations,
+   * and from the associations of all entities pointing at it through one-directional associations.
    * This is automatically done when an entity is removed from a primary index.
    *
    * @param instance object to be decoupled
@@ -325,6 +952,15 @@ public class EntityStoreImpl implements EntityStore, Serializable {
       }
     }
 
+    // entities pointing at the instance through associations it can not navigate
+    ReverseAssociationIndex reverseAssociationIndex = this.reverseAssociationIndex;
+    if (reverseAssociationIndex == null && hasOneDirectionalEntityTypes()) {
+      reverseAssociationIndex = getReverseAssociationIndex();
+    }
+    if (reverseAssociationIndex != null) {
+      reverseAssociationIndex.decoupleReferrers(instance);
+      reverseAssociationIndex.remove(instance);
+    }
 
   }
 
@@ -412,6 +1048,7 @@ public class EntityStoreImpl implements EntityStore, Serializable {
 
   public void setPrimaryIndices(Map<Class, PrimaryIndex> primaryIndices) {
     this.primaryIndices = primaryIndices;
+    invalidateRoutes();
   }
 
   public Map<String, SecondaryIndex> getSecondaryIndicesByName() {
@@ -426,7 +1063,17 @@ public class EntityStoreImpl implements EntityStore, Serializable {
     return entityTypes;
   }
 
+  /**
+   * @param entityTypes copied to a concurrent set
+   */
   public void setEntityTypes(Set<Class> entityTypes) {
-    this.entityTypes = entityTypes;
+    Set<Class> decorated = createEntityTypesSet();
+    decorated.addAll(entityTypes);
+    this.entityTypes = new EntityTypes(decorated);
+    invalidateRoutes();
+  }
+
+  private static Set<Class> createEntityTypesSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<Class, Boolean>());
   }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Identity to entity table shared by all primary indices of an {@link EntityTableStore}.
+ * <p/>
+ * Each entity is stored once, in a dense ordinal that is reused when the entity is removed.
+ * The primary indices are {@link EntityTableView}s that only keep the ordinals of their members.
+ * An ordinal is retained once per view that contains it and is released when no view contains it anymore.
+ */
+public class EntityTable implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    ordinalsByEntity = new IdentityLongHashMap<Object>(size);
+    for (int ordinal = 0; ordinal < ordinals; ordinal++) {
+      if (entities[ordinal] != null) {
+        ordinalsByEntity.put(entities[ordinal], ordinal);
+      }
+    }
+  }
+
+  private static final int FREE = 0;
+  private static final int REMOVED = -1;
+
+  private static final float LOAD_FACTOR = 0.6f;
+
+  /** open addressing hash table of ordinal + 1 keyed by identity, or {@link #FREE} or {@link #REMOVED} */
+  private int[] slots;
+  private int usedSlots;
+
+  private Object[] identities;
+  private Object[] entities;
+  private int[] references;
+
+  /** ordinals ever allocated */
+  private int ordinals;
+  /** released ordinals available for reuse */
+  private int[] freeOrdinals = new int[16];
+  private int freeOrdinalsSize;
+
+  private int size;
+
+  private transient IdentityLongHashMap<Object> ordinalsByEntity;
+
+  public EntityTable() {
+    this(16);
+  }
+
+  public EntityTable(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR <= expectedSize) {
+      capacity <<= 1;
+    }
+    slots = new int[capacity];
+    identities = new Object[Math.max(16, expectedSize)];
+    entities = new Object[identities.length];
+    references = new int[identities.length];
+    ordinalsByEntity = new IdentityLongHashMap<Object>(expectedSize);
+  }
+
+  private static int hash(Object identity) {
+    int h = identity.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return ordinal of identity, or -1 if not in table
+   */
+  public int ordinalOf(Object identity) {
+    int mask = slots.length - 1;
+    int index = hash(identity) & mask;
+    int slot;
+    while ((slot = slots[index]) != FREE) {
+      if (slot != REMOVED && identity.equals(identities[slot - 1])) {
+        return slot - 1;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * @return ordinal of the very same instance, or -1 if not in table
+   */
+  public int ordinalOfEntity(Object entity) {
+    int index = ordinalsByEntity.indexOf(entity);
+    return index < 0 ? -1 : (int) ordinalsByEntity.valueAt(index);
+  }
+
+  public Object identityAt(int ordinal) {
+    return identities[ordinal];
+  }
+
+  public Object entityAt(int ordinal) {
+    return entities[ordinal];
+  }
+
+  /**
+   * Associates identity with entity, replacing any previous instance for all views.
+   *
+   * @return ordinal of identity
+   */
+  public int put(Object identity, Object entity) {
+    if (entity == null) {
+      throw new NullPointerException("Null entities are not allowed");
+    }
+    int ordinal = ordinalOf(identity);
+    if (ordinal < 0) {
+      ordinal = allocate(identity);
+    } else if (entities[ordinal] != entity) {
+      ordinalsByEntity.remove(entities[ordinal]);
+    }
+    entities[ordinal] = entity;
+    ordinalsByEntity.put(entity, ordinal);
+    return ordinal;
+  }
+
+  private int allocate(Object identity) {
+    int ordinal;
+    if (freeOrdinalsSize > 0) {
+      ordinal = freeOrdinals[--freeOrdinalsSize];
+    } else {
+      ordinal = ordinals++;
+      if (ordinal == identities.length) {
+        int capacity = identities.length << 1;
+        identities = Arrays.copyOf(identities, capacity);
+        entities = Arrays.copyOf(entities, capacity);
+        references = Arrays.copyOf(references, capacity);
+      }
+    }
+    identities[ordinal] = identity;
+    size++;
+
+    int mask = slots.length - 1;
+    int index = hash(identity) & mask;
+    while (slots[index] > FREE) {
+      index = (index + 1) & mask;
+    }
+    if (slots[index] == FREE) {
+      usedSlots++;
+    }
+    slots[index] = ordinal + 1;
+    if (usedSlots > slots.length * LOAD_FACTOR) {
+      rehash(size > slots.length * LOAD_FACTOR / 2 ? slots.length << 1 : slots.length);
+    }
+    return ordinal;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldSlots = slots;
+    slots = new int[capacity];
+    usedSlots = 0;
+    int mask = capacity - 1;
+    for (int slot : oldSlots) {
+      if (slot > FREE) {
+        int index = hash(identities[slot - 1]) & mask;
+        while (slots[index] != FREE) {
+          index = (index + 1) & mask;
+        }
+        slots[index] = slot;
+        usedSlots++;
+      }
+    }
+  }
+
+  /**
+   * Called when a view adds the ordinal.
+   */
+  public void retain(int ordinal) {
+    references[ordinal]++;
+  }
+
+  /**
+   * Called when a view removes the ordinal.
+   * Removes the identity from the table when no view contains it.
+   */
+  public void release(int ordinal) {
+    if (--references[ordinal] > 0) {
+      return;
+    }
+    Object identity = identities[ordinal];
+    int mask = slots.length - 1;
+    int index = hash(identity) & mask;
+    while (slots[index] != ordinal + 1) {
+      index = (index + 1) & mask;
+    }
+    slots[index] = REMOVED;
+    ordinalsByEntity.remove(entities[ordinal]);
+    identities[ordinal] = null;
+    entities[ordinal] = null;
+    if (freeOrdinalsSize == freeOrdinals.length) {
+      freeOrdinals = Arrays.copyOf(freeOrdinals, freeOrdinalsSize << 1);
+    }
+    freeOrdinals[freeOrdinalsSize++] = ordinal;
+    size--;
+  }
+
+  /**
+   * @return number of identities in table
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return upper bound (exclusive) of ordinals in use
+   */
+  public int getOrdinals() {
+    return ordinals;
+  }
+
+}
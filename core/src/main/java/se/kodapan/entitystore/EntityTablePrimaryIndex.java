@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.util.Map;
+
+/**
+ * Primary index backed by an {@link EntityTableView}.
+ * The identity of an entity is resolved by the shared {@link EntityTable}
+ * rather than by a reverse map per primary index.
+ * <p/>
+ * Created by {@link EntityTableStore}.
+ */
+public class EntityTablePrimaryIndex<IdentityType, EntityType> extends PrimaryIndex<IdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private EntityTableView<IdentityType, EntityType> view;
+
+  public EntityTablePrimaryIndex() {
+  }
+
+  public EntityTablePrimaryIndex(EntityStoreImpl store, Class<IdentityType> identityType, Class<EntityType> entityType, EntityTable table) {
+    this(store, identityType, entityType, new EntityTableView<IdentityType, EntityType>(table));
+  }
+
+  public EntityTablePrimaryIndex(EntityStoreImpl store, Class<IdentityType> identityType, Class<EntityType> entityType, EntityTableView<IdentityType, EntityType> view) {
+    super(store, identityType, entityType, view);
+  }
+
+  @Override
+  public EntityType get(IdentityType identity) {
+    return view.get(identity);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public IdentityType getIdentity(EntityType entity) {
+    int ordinal = view.getTable().ordinalOfEntity(entity);
+    return ordinal >= 0 && view.isMember(ordinal) ? (IdentityType) view.getTable().identityAt(ordinal) : null;
+  }
+
+  /**
+   * Keeps the view, the entity table is shared with the other primary indices.
+   */
+  @Override
+  protected void freezeEntitiesById() {
+  }
+
+  @Override
+  public void setEntitiesById(Map<IdentityType, EntityType> entitiesById) {
+    if (entitiesById != null && !(entitiesById instanceof EntityTableView)) {
+      throw new IllegalArgumentException("Entities must be an " + EntityTableView.class.getName());
+    }
+    view = (EntityTableView<IdentityType, EntityType>) entitiesById;
+    super.setEntitiesById(entitiesById);
+  }
+
+  public EntityTableView<IdentityType, EntityType> getView() {
+    return view;
+  }
+
+  @Override
+  protected void reconstructIdentitiesByEntity() {
+  }
+
+  @Override
+  protected void identityPut(IdentityType identity, EntityType previous, EntityType entity) {
+  }
+
+  @Override
+  protected void identityRemoved(IdentityType identity, EntityType removed) {
+  }
+
+  @Override
+  protected void clearIdentitiesByEntity() {
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.util.Arrays;
+
+/**
+ * Entity store that keeps each entity once, in a single {@link EntityTable},
+ * no matter how many primary indices the entity is a member of.
+ * <p/>
+ * All primary indices are {@link EntityTablePrimaryIndex}, views of the table with a membership bitset.
+ * Compared to {@link EntityStoreImpl} an entity in N primary indices
+ * costs one table entry and N bits rather than N hash map entries and N reverse map entries.
+ * <p/>
+ * Writes should be made via the store.
+ * Writing directly to a primary index also replaces the instance in all other primary indices containing the identity.
+ */
+public class EntityTableStore extends EntityStoreImpl {
+
+  private static final long serialVersionUID = 1l;
+
+  private EntityTable table = new EntityTable();
+
+  @Override
+  protected <IdentityType, EntityType> PrimaryIndex<IdentityType, EntityType> createPrimaryIndex(Class<IdentityType> identityType, Class<EntityType> entityType) {
+    return new EntityTablePrimaryIndex<IdentityType, EntityType>(this, identityType, entityType, table);
+  }
+
+  /**
+   * Reads the instance from the table and validates that the route has the same primary indices
+   * as the instance has been put to.
+   */
+  @Override
+  protected Object getFromPrimaryIndices(Route route, Object identity) {
+    int ordinal = table.ordinalOf(identity);
+    Object previous = ordinal < 0 ? null : table.entityAt(ordinal);
+    if (previous != null) {
+      Route previousRoute = getRoute(previous.getClass());
+      if (previousRoute != route && !Arrays.equals(previousRoute.getPrimaryIndices(), route.getPrimaryIndices())) {
+        throw new InconsistencyException("Identity " + identity + " is already used by a " + previous.getClass().getName() + " in other primary indices");
+      }
+      for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+        if (!((EntityTablePrimaryIndex) primaryIndex).getView().isMember(ordinal)) {
+          throw new InconsistencyException("Instance with identity " + identity + " was found in the entity table but not in primary index of " + primaryIndex.getEntityType().getName());
+        }
+      }
+    }
+    return previous;
+  }
+
+  /**
+   * Writes the entity to the table once and adds it as member to the primary indices of the route.
+   */
+  @Override
+  protected void putToPrimaryIndices(Route route, Object identity, Object entity) {
+    int ordinal = table.put(identity, entity);
+    for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+      ((EntityTablePrimaryIndex) primaryIndex).getView().addMember(ordinal);
+    }
+  }
+
+  @Override
+  protected void removeFromPrimaryIndices(Route route, Object identity, Object entity) {
+    int ordinal = table.ordinalOf(identity);
+    if (ordinal < 0) {
+      return;
+    }
+    if (table.entityAt(ordinal) != entity) {
+      throw new InconsistencyException("At least two different instances was found in different primary indices using the same identity! You most likely found a new bug in the kodapan entity store project.");
+    }
+    for (PrimaryIndex primaryIndex : route.getPrimaryIndices()) {
+      ((EntityTablePrimaryIndex) primaryIndex).getView().removeMember(ordinal);
+    }
+  }
+
+  public EntityTable getTable() {
+    return table;
+  }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The entities of a single primary index in an {@link EntityTable},
+ * i.e. a bitset of the ordinals of its members.
+ * <p/>
+ * A put replaces the instance in the shared table and thus in all views that contains the identity.
+ */
+public class EntityTableView<K, V> extends AbstractMap<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private EntityTable table;
+  private BitSet members = new BitSet();
+  private int size;
+
+  public EntityTableView() {
+  }
+
+  public EntityTableView(EntityTable table) {
+    this.table = table;
+  }
+
+  public EntityTable getTable() {
+    return table;
+  }
+
+  public boolean isMember(int ordinal) {
+    return members.get(ordinal);
+  }
+
+  /**
+   * @return true if ordinal was not already a member
+   */
+  public boolean addMember(int ordinal) {
+    if (members.get(ordinal)) {
+      return false;
+    }
+    members.set(ordinal);
+    table.retain(ordinal);
+    size++;
+    return true;
+  }
+
+  /**
+   * @return true if ordinal was a member
+   */
+  public boolean removeMember(int ordinal) {
+    if (!members.get(ordinal)) {
+      return false;
+    }
+    members.clear(ordinal);
+    size--;
+    table.release(ordinal);
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object identity) {
+    int ordinal = table.ordinalOf(identity);
+    return ordinal >= 0 && members.get(ordinal) ? (V) table.entityAt(ordinal) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object identity) {
+    int ordinal = table.ordinalOf(identity);
+    return ordinal >= 0 && members.get(ordinal);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V put(K identity, V entity) {
+    int ordinal = table.ordinalOf(identity);
+    V previous = ordinal >= 0 && members.get(ordinal) ? (V) table.entityAt(ordinal) : null;
+    addMember(table.put(identity, entity));
+    return previous;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V remove(Object identity) {
+    int ordinal = table.ordinalOf(identity);
+    if (ordinal < 0 || !members.get(ordinal)) {
+      return null;
+    }
+    V removed = (V) table.entityAt(ordinal);
+    removeMember(ordinal);
+    return removed;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public void clear() {
+    for (int ordinal = members.nextSetBit(0); ordinal >= 0; ordinal = members.nextSetBit(ordinal + 1)) {
+      removeMember(ordinal);
+    }
+  }
+
+  private transient Set<Entry<K, V>> entrySetView;
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySetView == null) {
+      entrySetView = new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          return new Iterator<Entry<K, V>>() {
+
+            private int next = members.nextSetBit(0);
+            private int current = -1;
+
+            @Override
+            public boolean hasNext() {
+              return next >= 0;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Entry<K, V> next() {
+              if (next < 0) {
+                throw new NoSuchElementException();
+              }
+              current = next;
+              next = members.nextSetBit(next + 1);
+              return new SimpleImmutableEntry<K, V>((K) table.identityAt(current), (V) table.entityAt(current));
+            }
+
+            @Override
+            public void remove() {
+              if (current < 0) {
+                throw new IllegalStateException();
+              }
+              removeMember(current);
+              current = -1;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          EntityTableView.this.clear();
+        }
+      };
+    }
+    return entrySetView;
+  }
+
+}
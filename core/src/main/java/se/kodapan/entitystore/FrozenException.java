@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+/**
+ * Thrown when writing to a store or index that has been frozen.
+ *
+ * @see EntityStoreImpl#freeze()
+ */
+public class FrozenException extends EntityStoreException {
+
+  private static long serialVersionUID = 1l;
+
+  public FrozenException() {
+  }
+
+  public FrozenException(String s) {
+    super(s);
+  }
+
+  public FrozenException(String s, Throwable throwable) {
+    super(s, throwable);
+  }
+
+  public FrozenException(Throwable throwable) {
+    super(throwable);
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable map with primitive long keys in a sorted array, looked up using binary search.
+ * <p/>
+ * Also resolves the key of a value instance (compared using ==) using a sorted array of identity hash codes,
+ * i.e. in total 20 bytes per entry (with compressed references).
+ * <p/>
+ * Used by {@link LongPrimaryIndex#freeze()}. All mutators throws {@link FrozenException}.
+ */
+public class FrozenLongObjectMap<V> extends AbstractMap<Long, V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    positionsByInstance = indexInstances(values);
+  }
+
+  private final long[] keys;
+  private final Object[] values;
+
+  /** identity hash code in the high bits and position in the low bits, sorted */
+  private transient long[] positionsByInstance;
+
+  public FrozenLongObjectMap(LongObjectHashMap<V> map) {
+    int size = map.size();
+    long[] sortedKeys = new long[size];
+    int i = 0;
+    for (LongObjectHashMap<V>.KeyIterator it = map.keyIterator(); it.hasNext();) {
+      sortedKeys[i++] = it.nextLong();
+    }
+    Arrays.sort(sortedKeys);
+    keys = sortedKeys;
+    values = new Object[size];
+    for (i = 0; i < size; i++) {
+      values[i] = map.get(keys[i]);
+    }
+    positionsByInstance = indexInstances(values);
+  }
+
+  private static long[] indexInstances(Object[] values) {
+    long[] positionsByInstance = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      positionsByInstance[i] = ((long) System.identityHashCode(values[i]) << 32) | i;
+    }
+    Arrays.sort(positionsByInstance);
+    return positionsByInstance;
+  }
+
+  public boolean containsKey(long key) {
+    return Arrays.binarySearch(keys, key) >= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int index = Arrays.binarySearch(keys, key);
+    return index < 0 ? null : (V) values[index];
+  }
+
+  /**
+   * @return position of the very same instance, or -1 if not in map
+   * @see #keyAt(int)
+   */
+  public int indexOfInstance(Object value) {
+    long hash = System.identityHashCode(value);
+    int index = Arrays.binarySearch(positionsByInstance, hash << 32);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    for (; index < positionsByInstance.length && positionsByInstance[index] >> 32 == hash; index++) {
+      int position = (int) positionsByInstance[index];
+      if (values[position] == value) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  public long keyAt(int position) {
+    return keys[position];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Long && containsKey(((Long) key).longValue());
+  }
+
+  @Override
+  public V get(Object key) {
+    return key instanceof Long ? get(((Long) key).longValue()) : null;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public V put(Long key, V value) {
+    throw new FrozenException("Map is frozen");
+  }
+
+  @Override
+  public V remove(Object key) {
+    throw new FrozenException("Map is frozen");
+  }
+
+  @Override
+  public void clear() {
+    throw new FrozenException("Map is frozen");
+  }
+
+  private transient Set<Entry<Long, V>> entrySetView;
+
+  @Override
+  public Set<Entry<Long, V>> entrySet() {
+    if (entrySetView == null) {
+      entrySetView = new AbstractSet<Entry<Long, V>>() {
+        @Override
+        public Iterator<Entry<Long, V>> iterator() {
+          return new Iterator<Entry<Long, V>>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < keys.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Entry<Long, V> next() {
+              if (next >= keys.length) {
+                throw new NoSuchElementException();
+              }
+              Entry<Long, V> entry = new SimpleImmutableEntry<Long, V>(keys[next], (V) values[next]);
+              next++;
+              return entry;
+            }
+
+            @Override
+            public void remove() {
+              throw new FrozenException("Map is frozen");
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return keys.length;
+        }
+      };
+    }
+    return entrySetView;
+  }
+
+}
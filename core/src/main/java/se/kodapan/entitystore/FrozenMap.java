@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable open addressing map with keys and values in a single array,
+ * i.e. no entry instances and no spare capacity for future writes.
+ * <p/>
+ * All mutators throws {@link FrozenException}.
+ */
+public class FrozenMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  /** key at even and value at odd positions */
+  private final Object[] table;
+  private final int size;
+
+  public FrozenMap(Map<K, V> map) {
+    size = map.size();
+    int capacity = 2;
+    while (capacity * 3 < size * 4) {
+      capacity <<= 1;
+    }
+    table = new Object[capacity * 2];
+    int mask = capacity - 1;
+    for (Map.Entry<K, V> entry : map.entrySet()) {
+      if (entry.getKey() == null || entry.getValue() == null) {
+        throw new NullPointerException("Null keys and values are not allowed");
+      }
+      int index = hash(entry.getKey()) & mask;
+      while (table[index << 1] != null) {
+        index = (index + 1) & mask;
+      }
+      table[index << 1] = entry.getKey();
+      table[(index << 1) + 1] = entry.getValue();
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    if (key == null) {
+      return null;
+    }
+    int mask = (table.length >> 1) - 1;
+    int index = hash(key) & mask;
+    Object current;
+    while ((current = table[index << 1]) != null) {
+      if (key.equals(current)) {
+        return (V) table[(index << 1) + 1];
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public V put(K key, V value) {
+    throw new FrozenException("Map is frozen");
+  }
+
+  @Override
+  public V remove(Object key) {
+    throw new FrozenException("Map is frozen");
+  }
+
+  @Override
+  public void clear() {
+    throw new FrozenException("Map is frozen");
+  }
+
+  private transient Set<Entry<K, V>> entrySetView;
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySetView == null) {
+      entrySetView = new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          return new Iterator<Entry<K, V>>() {
+
+            private int next = advance(0);
+
+            private int advance(int position) {
+              while (position < table.length && table[position] == null) {
+                position += 2;
+              }
+              return position;
+            }
+
+            @Override
+            public boolean hasNext() {
+              return next < table.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Entry<K, V> next() {
+              if (next >= table.length) {
+                throw new NoSuchElementException();
+              }
+              Entry<K, V> entry = new SimpleImmutableEntry<K, V>((K) table[next], (V) table[next + 1]);
+              next = advance(next + 2);
+              return entry;
+            }
+
+            @Override
+            public void remove() {
+              throw new FrozenException("Map is frozen");
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+    return entrySetView;
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable secondary key to set of values map,
+ * with all values packed in a single array and the sets being views of a range in that array.
+ * <p/>
+ * Used by {@link MapSetSecondaryIndex#freeze()}.
+ */
+public class FrozenPostings<V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  /** open addressing hash table of secondary keys */
+  private final Object[] keys;
+  /** postings of keys[i] are postings[starts[i]] to postings[starts[i + 1]] */
+  private final int[] starts;
+  private final Object[] postings;
+  /** postings of the null key are postings[starts[keys.length]] to postings[postings.length] */
+  private final boolean containsNullKey;
+
+  public FrozenPostings(Map<?, ? extends Set<V>> setsByKey) {
+    int capacity = 2;
+    while (capacity * 3 < setsByKey.size() * 4) {
+      capacity <<= 1;
+    }
+    keys = new Object[capacity];
+    int mask = capacity - 1;
+    List<Set<V>> setsBySlot = new ArrayList<Set<V>>(Collections.<Set<V>>nCopies(capacity, null));
+    Set<V> nullKeySet = null;
+    int numberOfPostings = 0;
+    for (Map.Entry<?, ? extends Set<V>> entry : setsByKey.entrySet()) {
+      if (entry.getValue() == null || entry.getValue().isEmpty()) {
+        continue;
+      }
+      numberOfPostings += entry.getValue().size();
+      if (entry.getKey() == null) {
+        nullKeySet = entry.getValue();
+        continue;
+      }
+      int index = hash(entry.getKey()) & mask;
+      while (keys[index] != null) {
+        index = (index + 1) & mask;
+      }
+      keys[index] = entry.getKey();
+      setsBySlot.set(index, entry.getValue());
+    }
+    starts = new int[capacity + 1];
+    postings = new Object[numberOfPostings];
+    int position = 0;
+    for (int slot = 0; slot < capacity; slot++) {
+      starts[slot] = position;
+      Set<V> set = setsBySlot.get(slot);
+      if (set != null) {
+        for (V value : set) {
+          postings[position++] = value;
+        }
+      }
+    }
+    starts[capacity] = position;
+    containsNullKey = nullKeySet != null;
+    if (containsNullKey) {
+      for (V value : nullKeySet) {
+        postings[position++] = value;
+      }
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return immutable set of values with secondary key, or null if none
+   */
+  public Set<V> get(Object key) {
+    if (key == null) {
+      return containsNullKey ? new PostingSet(starts[keys.length], postings.length) : null;
+    }
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    Object current;
+    while ((current = keys[index]) != null) {
+      if (current.equals(key)) {
+        return new PostingSet(starts[index], starts[index + 1]);
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  private class PostingSet extends AbstractSet<V> {
+
+    private final int start;
+    private final int end;
+
+    private PostingSet(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return new Iterator<V>() {
+
+        private int next = start;
+
+        @Override
+        public boolean hasNext() {
+          return next < end;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+          if (next >= end) {
+            throw new NoSuchElementException();
+          }
+          return (V) postings[next++];
+        }
+
+        @Override
+        public void remove() {
+          throw new FrozenException("Postings are frozen");
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+
+}
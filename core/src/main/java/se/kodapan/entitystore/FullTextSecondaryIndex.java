@@ -0,0 +1,541 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Inverted index of text, where the secondary key of an entity is its text.
+ * <p/>
+ * The text is split in terms by an {@link Analyzer}.
+ * Each term has a posting list of delta encoded {@link EntityOrdinals} and term frequencies.
+ * Removed ordinals are masked until enough of a posting list is removed to make it worth rewriting.
+ * When the text of an entity changes only the posting lists of terms added, removed
+ * or with a changed frequency are touched, and an unchanged text touches nothing.
+ * <p/>
+ * {@link #list(Object...)} returns the entities that contain all terms of the query.
+ * {@link #search(String, boolean, int)} also supports any of the terms and ranks the results by tf-idf.
+ */
+public abstract class FullTextSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType>
+    implements UpdatableSecondaryIndex<EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private Analyzer analyzer;
+
+  private Map<String, TermPostings> postingsByTerm = new HashMap<String, TermPostings>();
+
+  /** text each ordinal was put with, reanalyzed when removed */
+  private String[] textsByOrdinal = new String[16];
+
+  /** number of entities with text, used for idf */
+  private int documents;
+
+  private EntityOrdinals ordinals;
+
+  protected FullTextSecondaryIndex() {
+    this(null, null, new SimpleAnalyzer());
+  }
+
+  protected FullTextSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    this(name, primaryIndex, new SimpleAnalyzer());
+  }
+
+  protected FullTextSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, Analyzer analyzer) {
+    super(name, primaryIndex);
+    this.analyzer = analyzer;
+  }
+
+  /**
+   * @return the text to index, or null if none
+   */
+  @Override
+  public abstract Object getSecondaryKey(EntityType entity);
+
+  /**
+   * @return the parameters joined by space, used as query
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    StringBuilder sb = new StringBuilder();
+    for (Object parameter : parameters) {
+      if (parameter != null) {
+        if (sb.length() > 0) {
+          sb.append(' ');
+        }
+        sb.append(parameter);
+      }
+    }
+    return sb.toString();
+  }
+
+  public EntityOrdinals getOrdinals() {
+    if (ordinals == null) {
+      ordinals = getPrimaryIndex().getStore().getEntityOrdinals();
+    }
+    return ordinals;
+  }
+
+  @Override
+  public void reconstruct() {
+    postingsByTerm.clear();
+    textsByOrdinal = new String[16];
+    documents = 0;
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  /**
+   * @return frequency of each distinct term in text
+   */
+  private Map<String, Integer> termFrequencies(String text) {
+    Map<String, Integer> termFrequencies = new HashMap<String, Integer>();
+    for (String term : analyzer.analyze(text)) {
+      Integer frequency = termFrequencies.get(term);
+      termFrequencies.put(term, frequency == null ? 1 : frequency + 1);
+    }
+    return termFrequencies;
+  }
+
+  /**
+   * Puts the entity with its current text, or reindexes the terms that changed if the text has changed.
+   */
+  @Override
+  public void put(EntityType entity) {
+    Object secondaryKey = getSecondaryKey(entity);
+    String text = secondaryKey == null ? null : secondaryKey.toString();
+    int ordinal = getOrdinals().ordinalOf(entity);
+    if (ordinal < 0) {
+      throw new InconsistencyException("Entity " + entity.toString() + " is not in the store of " + this.toString());
+    }
+    String previousText = ordinal < textsByOrdinal.length ? textsByOrdinal[ordinal] : null;
+    if (previousText == null ? text == null : previousText.equals(text)) {
+      return;
+    }
+    Map<String, Integer> previousTermFrequencies = previousText == null ? Collections.<String, Integer>emptyMap() : termFrequencies(previousText);
+    Map<String, Integer> termFrequencies = text == null ? Collections.<String, Integer>emptyMap() : termFrequencies(text);
+    for (String term : previousTermFrequencies.keySet()) {
+      if (!termFrequencies.containsKey(term)) {
+        removePosting(term, ordinal);
+      }
+    }
+    for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+      Integer previousTermFrequency = previousTermFrequencies.get(entry.getKey());
+      if (previousTermFrequency == null) {
+        TermPostings postings = postingsByTerm.get(entry.getKey());
+        if (postings == null) {
+          postings = new TermPostings();
+          postingsByTerm.put(entry.getKey(), postings);
+        }
+        postings.add(ordinal, entry.getValue());
+      } else if (!previousTermFrequency.equals(entry.getValue())) {
+        postingsByTerm.get(entry.getKey()).replace(ordinal, entry.getValue());
+      }
+    }
+    if (text != null && ordinal >= textsByOrdinal.length) {
+      textsByOrdinal = Arrays.copyOf(textsByOrdinal, Math.max(ordinal + 1, textsByOrdinal.length * 2));
+    }
+    if (previousText == null) {
+      documents++;
+    } else if (text == null) {
+      documents--;
+    }
+    if (ordinal < textsByOrdinal.length) {
+      textsByOrdinal[ordinal] = text;
+    }
+  }
+
+  /**
+   * A replacing instance has the same ordinal as the previous instance,
+   * so it is reindexed only if its text differs from the text of the previous instance.
+   */
+  @Override
+  public void update(EntityType previous, EntityType entity) {
+    if (previous != null && previous != entity
+        && getOrdinals().ordinalOf(previous) != getOrdinals().ordinalOf(entity)) {
+      remove(previous);
+    }
+    put(entity);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    int ordinal = getOrdinals().ordinalOf(entity);
+    if (ordinal >= 0 && ordinal < textsByOrdinal.length && textsByOrdinal[ordinal] != null) {
+      removeOrdinal(ordinal);
+    }
+  }
+
+  private void removeOrdinal(int ordinal) {
+    for (String term : termFrequencies(textsByOrdinal[ordinal]).keySet()) {
+      removePosting(term, ordinal);
+    }
+    textsByOrdinal[ordinal] = null;
+    documents--;
+  }
+
+  private void removePosting(String term, int ordinal) {
+    TermPostings postings = postingsByTerm.get(term);
+    postings.remove(ordinal);
+    if (postings.size() == 0) {
+      postingsByTerm.remove(term);
+    }
+  }
+
+  /**
+   * @param parameters query, joined by space
+   * @return entities containing all terms of the query, or null if none
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<EntityType> list(Object... parameters) {
+    Hits hits = evaluate(getSecondaryKey(parameters).toString(), true);
+    if (hits.size == 0) {
+      return null;
+    }
+    CompressedBitmap bitmap = new CompressedBitmap();
+    for (int i = 0; i < hits.size; i++) {
+      bitmap.add(hits.ordinals[i]);
+    }
+    return (Set<EntityType>) getOrdinals().getEntities(bitmap);
+  }
+
+  /**
+   * @param query       text to search for
+   * @param conjunctive if all terms of the query must match, otherwise any term
+   * @return number of matching entities
+   */
+  public int count(String query, boolean conjunctive) {
+    return evaluate(query, conjunctive).size;
+  }
+
+  /**
+   * @param query       text to search for
+   * @param conjunctive if all terms of the query must match, otherwise any term
+   * @param limit       maximum number of results
+   * @return matching entities with the highest scores first
+   */
+  @SuppressWarnings("unchecked")
+  public List<Hit<EntityType>> search(String query, boolean conjunctive, int limit) {
+    Hits hits = evaluate(query, conjunctive);
+    // the best hits in a min heap
+    PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, Math.min(limit, hits.size)), hits);
+    for (int i = 0; i < hits.size; i++) {
+      if (best.size() < limit) {
+        best.add(i);
+      } else if (limit > 0 && hits.scores[i] > hits.scores[best.peek()]) {
+        best.poll();
+        best.add(i);
+      }
+    }
+    Hit<EntityType>[] results = new Hit[best.size()];
+    for (int i = results.length - 1; i >= 0; i--) {
+      int hit = best.poll();
+      results[i] = new Hit<EntityType>((EntityType) getOrdinals().entityAt(hits.ordinals[hit]), hits.scores[hit]);
+    }
+    return Arrays.asList(results);
+  }
+
+  private Hits evaluate(String query, boolean conjunctive) {
+    Set<String> terms = new LinkedHashSet<String>(analyzer.analyze(query));
+    List<Hits> termHits = new ArrayList<Hits>(terms.size());
+    int documents = this.documents;
+    for (String term : terms) {
+      TermPostings postings = postingsByTerm.get(term);
+      if (postings == null) {
+        if (conjunctive) {
+          return new Hits(0);
+        }
+      } else {
+        termHits.add(postings.decode(documents));
+      }
+    }
+    if (termHits.isEmpty()) {
+      return new Hits(0);
+    }
+    if (conjunctive) {
+      // the rarest term first keeps the intermediate results small
+      Collections.sort(termHits, new Comparator<Hits>() {
+        @Override
+        public int compare(Hits hits, Hits hits1) {
+          return hits.size - hits1.size;
+        }
+      });
+    }
+    Hits result = termHits.get(0);
+    for (int i = 1; i < termHits.size(); i++) {
+      result = conjunctive ? result.and(termHits.get(i)) : result.or(termHits.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * An entity and its score.
+   */
+  public static class Hit<EntityType> implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final EntityType entity;
+    private final float score;
+
+    public Hit(EntityType entity, float score) {
+      this.entity = entity;
+      this.score = score;
+    }
+
+    public EntityType getEntity() {
+      return entity;
+    }
+
+    public float getScore() {
+      return score;
+    }
+
+    @Override
+    public String toString() {
+      return "Hit{" +
+          "entity=" + entity +
+          ", score=" + score +
+          '}';
+    }
+  }
+
+  /**
+   * Ordinals in ascending order with scores.
+   * Compares positions by score in order to be used by a heap.
+   */
+  private static final class Hits implements Comparator<Integer> {
+
+    private final int[] ordinals;
+    private final float[] scores;
+    private int size;
+
+    private Hits(int capacity) {
+      ordinals = new int[capacity];
+      scores = new float[capacity];
+    }
+
+    private Hits and(Hits other) {
+      Hits result = new Hits(Math.min(size, other.size));
+      int i = 0;
+      int j = 0;
+      while (i < size && j < other.size) {
+        if (ordinals[i] < other.ordinals[j]) {
+          i++;
+        } else if (ordinals[i] > other.ordinals[j]) {
+          j++;
+        } else {
+          result.ordinals[result.size] = ordinals[i];
+          result.scores[result.size++] = scores[i++] + other.scores[j++];
+        }
+      }
+      return result;
+    }
+
+    private Hits or(Hits other) {
+      Hits result = new Hits(size + other.size);
+      int i = 0;
+      int j = 0;
+      while (i < size || j < other.size) {
+        if (j == other.size || (i < size && ordinals[i] < other.ordinals[j])) {
+          result.ordinals[result.size] = ordinals[i];
+          result.scores[result.size++] = scores[i++];
+        } else if (i == size || ordinals[i] > other.ordinals[j]) {
+          result.ordinals[result.size] = other.ordinals[j];
+          result.scores[result.size++] = other.scores[j++];
+        } else {
+          result.ordinals[result.size] = ordinals[i];
+          result.scores[result.size++] = scores[i++] + other.scores[j++];
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public int compare(Integer position, Integer position1) {
+      return Float.compare(scores[position], scores[position1]);
+    }
+  }
+
+  /**
+   * Ordinals in ascending order, each followed by the term frequency,
+   * as variable length encoded deltas.
+   */
+  private static final class TermPostings implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private byte[] bytes = new byte[4];
+    private int length;
+    /** number of encoded ordinals, including removed */
+    private int count;
+    private int lastOrdinal = -1;
+
+    /** encoded ordinals that has been removed, or null if none */
+    private CompressedBitmap removed;
+
+    private int size() {
+      return count - (removed == null ? 0 : removed.cardinality());
+    }
+
+    /**
+     * A masked ordinal is always at most the last ordinal,
+     * so it is dropped when the postings are rewritten to add the ordinal in order.
+     */
+    private void add(int ordinal, int termFrequency) {
+      if (ordinal > lastOrdinal) {
+        append(ordinal, termFrequency);
+        return;
+      }
+      // reused ordinal, rewrite in order
+      int[] ordinals = new int[count + 1];
+      int[] termFrequencies = new int[count + 1];
+      int size = decode(ordinals, termFrequencies);
+      clear();
+      boolean added = false;
+      for (int i = 0; i < size; i++) {
+        if (!added && ordinals[i] > ordinal) {
+          append(ordinal, termFrequency);
+          added = true;
+        }
+        append(ordinals[i], termFrequencies[i]);
+      }
+      if (!added) {
+        append(ordinal, termFrequency);
+      }
+    }
+
+    private void remove(int ordinal) {
+      mask(ordinal);
+      if (removed.cardinality() * 4 > count) {
+        compact();
+      }
+    }
+
+    /**
+     * Replaces the term frequency of an ordinal in the postings, rewriting them once.
+     */
+    private void replace(int ordinal, int termFrequency) {
+      mask(ordinal);
+      add(ordinal, termFrequency);
+    }
+
+    private void mask(int ordinal) {
+      if (removed == null) {
+        removed = new CompressedBitmap();
+      }
+      removed.add(ordinal);
+    }
+
+    /**
+     * Rewrites the postings without the removed ordinals.
+     */
+    private void compact() {
+      int[] ordinals = new int[count];
+      int[] termFrequencies = new int[count];
+      int size = decode(ordinals, termFrequencies);
+      clear();
+      for (int i = 0; i < size; i++) {
+        append(ordinals[i], termFrequencies[i]);
+      }
+      if (length < bytes.length / 2) {
+        bytes = Arrays.copyOf(bytes, Math.max(4, length));
+      }
+    }
+
+    private void clear() {
+      length = 0;
+      count = 0;
+      lastOrdinal = -1;
+      removed = null;
+    }
+
+    private void append(int ordinal, int termFrequency) {
+      if (length + 10 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(length + 10, bytes.length + (bytes.length >> 1)));
+      }
+      length = writeVariableInt(bytes, length, ordinal - lastOrdinal);
+      length = writeVariableInt(bytes, length, termFrequency);
+      lastOrdinal = ordinal;
+      count++;
+    }
+
+    /**
+     * @return number of ordinals decoded in to the arrays, excluding removed
+     */
+    private int decode(int[] ordinals, int[] termFrequencies) {
+      int size = 0;
+      int ordinal = -1;
+      int[] position = new int[]{0};
+      while (position[0] < length) {
+        ordinal += readVariableInt(bytes, position);
+        int termFrequency = readVariableInt(bytes, position);
+        if (removed == null || !removed.contains(ordinal)) {
+          ordinals[size] = ordinal;
+          termFrequencies[size++] = termFrequency;
+        }
+      }
+      return size;
+    }
+
+    /**
+     * @param documents number of entities in the index
+     * @return ordinals with tf-idf scores
+     */
+    private Hits decode(int documents) {
+      int[] termFrequencies = new int[count];
+      Hits hits = new Hits(count);
+      hits.size = decode(hits.ordinals, termFrequencies);
+      float idf = (float) Math.log(1d + (double) documents / (hits.size + 1));
+      for (int i = 0; i < hits.size; i++) {
+        hits.scores[i] = (1f + (float) Math.log(termFrequencies[i])) * idf;
+      }
+      return hits;
+    }
+  }
+
+  private static int writeVariableInt(byte[] bytes, int position, int value) {
+    while ((value & ~0x7f) != 0) {
+      bytes[position++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    bytes[position++] = (byte) value;
+    return position;
+  }
+
+  private static int readVariableInt(byte[] bytes, int[] position) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[position[0]++];
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  public Analyzer getAnalyzer() {
+    return analyzer;
+  }
+
+}
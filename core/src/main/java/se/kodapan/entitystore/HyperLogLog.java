@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Approximate count of distinct values in constant space.
+ * <p/>
+ * Values are hashed to one of 2^precision registers that keeps the longest run of leading zeros seen.
+ * The relative standard error is about 1.04 / sqrt(2^precision), i.e. about 3% with the default precision.
+ * Two sketches with the same precision can be merged to the sketch of the union of their values.
+ * Values can not be removed.
+ */
+public class HyperLogLog implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private final int precision;
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this(10);
+  }
+
+  /**
+   * @param precision 4 to 16, number of bits used to select a register
+   */
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 16) {
+      throw new IllegalArgumentException("Precision must be between 4 and 16, was " + precision);
+    }
+    this.precision = precision;
+    registers = new byte[1 << precision];
+  }
+
+  private HyperLogLog(HyperLogLog sketch) {
+    precision = sketch.precision;
+    registers = sketch.registers.clone();
+  }
+
+  /**
+   * @param value value with a well distributed {@link Object#hashCode()}
+   */
+  public void add(Object value) {
+    long hash = hash(value == null ? 0 : value.hashCode());
+    int register = (int) (hash >>> (64 - precision));
+    // position of the first one bit in the remaining bits, the sentinel bounds it
+    byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1l << (precision - 1))) + 1);
+    if (rank > registers[register]) {
+      registers[register] = rank;
+    }
+  }
+
+  /**
+   * Spreads the bits of a hash code over a long, using the finalizer of MurmurHash3.
+   */
+  private static long hash(int hashCode) {
+    long hash = hashCode;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * @return estimated number of distinct values added
+   */
+  public long cardinality() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1d / (1l << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // linear counting is more accurate for small cardinalities
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Adds the values of another sketch to this one.
+   *
+   * @throws IllegalArgumentException if the precisions differ
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("Can not merge sketches of precision " + precision + " and " + other.precision);
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return a new sketch of the union of the values of both sketches
+   */
+  public static HyperLogLog merge(HyperLogLog a, HyperLogLog b) {
+    HyperLogLog merged = new HyperLogLog(a);
+    merged.merge(b);
+    return merged;
+  }
+
+  public void clear() {
+    Arrays.fill(registers, (byte) 0);
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+}
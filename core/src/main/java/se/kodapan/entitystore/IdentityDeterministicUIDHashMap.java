@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.DeterministicUIDHandler.DeterministicUID;
+
+/**
+ * Open addressing map from object instance (compared using ==) to the parts of a {@link DeterministicUID},
+ * i.e. no identity instance is kept per entry.
+ * <p/>
+ * Used as reverse map entity -> identity by {@link DeterministicUIDPrimaryIndex}.
+ */
+public class IdentityDeterministicUIDHashMap<K> extends IdentityOpenAddressingHashMap<K> {
+
+  private long[] executionTimes;
+  private int[] sequences;
+
+  public IdentityDeterministicUIDHashMap() {
+    this(16);
+  }
+
+  public IdentityDeterministicUIDHashMap(int expectedSize) {
+    super(expectedSize);
+  }
+
+  @Override
+  protected void allocateValues(int capacity) {
+    executionTimes = new long[capacity];
+    sequences = new int[capacity];
+  }
+
+  @Override
+  protected void moveValues(int capacity, int[] targets) {
+    long[] oldExecutionTimes = executionTimes;
+    int[] oldSequences = sequences;
+    allocateValues(capacity);
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] >= 0) {
+        executionTimes[targets[i]] = oldExecutionTimes[i];
+        sequences[targets[i]] = oldSequences[i];
+      }
+    }
+  }
+
+  /**
+   * @param index slot returned by {@link #indexOf(Object)}
+   */
+  public long executionTimeAt(int index) {
+    return executionTimes[index];
+  }
+
+  /**
+   * @param index slot returned by {@link #indexOf(Object)}
+   */
+  public int sequenceAt(int index) {
+    return sequences[index];
+  }
+
+  /**
+   * @param index slot returned by {@link #indexOf(Object)}
+   * @return new identity instance of the value in slot
+   */
+  public DeterministicUID valueAt(int index) {
+    return new DeterministicUID(executionTimes[index], sequences[index]);
+  }
+
+  public void put(K key, long executionTime, int sequence) {
+    int index = claimSlot(key);
+    executionTimes[index] = executionTime;
+    sequences[index] = sequence;
+    inserted();
+  }
+
+}
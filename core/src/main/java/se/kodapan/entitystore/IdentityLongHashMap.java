@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * Open addressing map from object instance (compared using ==) to primitive long.
+ * <p/>
+ * Used as reverse map entity -> identity by {@link LongPrimaryIndex}.
+ */
+public class IdentityLongHashMap<K> extends IdentityOpenAddressingHashMap<K> {
+
+  private long[] values;
+
+  public IdentityLongHashMap() {
+    this(16);
+  }
+
+  public IdentityLongHashMap(int expectedSize) {
+    super(expectedSize);
+  }
+
+  @Override
+  protected void allocateValues(int capacity) {
+    values = new long[capacity];
+  }
+
+  @Override
+  protected void moveValues(int capacity, int[] targets) {
+    long[] oldValues = values;
+    allocateValues(capacity);
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] >= 0) {
+        values[targets[i]] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * @param index slot returned by {@link #indexOf(Object)}
+   * @return value in slot
+   */
+  public long valueAt(int index) {
+    return values[index];
+  }
+
+  public void put(K key, long value) {
+    int index = claimSlot(key);
+    values[index] = value;
+    inserted();
+  }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from object instance (compared using ==) to a value
+ * that subclasses keep inline in flat primitive arrays parallel to the key table.
+ * <p/>
+ * Subclasses insert with {@link #claimSlot(Object)} followed by writing the value and {@link #inserted()},
+ * and move their values when the table is rehashed.
+ */
+public abstract class IdentityOpenAddressingHashMap<K> {
+
+  private static final Object REMOVED = new Object();
+
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private Object[] keys;
+
+  private int size;
+  /** number of slots that are not free, i.e. entries and tombstones */
+  private int used;
+  private int threshold;
+
+  protected IdentityOpenAddressingHashMap(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR <= expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new Object[capacity];
+    allocateValues(capacity);
+    threshold = (int) (capacity * LOAD_FACTOR);
+    used = size;
+  }
+
+  /**
+   * Allocates new empty value arrays.
+   * Called from the constructor of this class, so implementations must not depend on initialized fields.
+   *
+   * @param capacity number of slots
+   */
+  protected abstract void allocateValues(int capacity);
+
+  /**
+   * @param capacity number of slots in the new value arrays
+   * @param targets  new slot of the value in each old slot, or -1 if the old slot held no entry
+   */
+  protected abstract void moveValues(int capacity, int[] targets);
+
+  private static int hash(Object key) {
+    int h = System.identityHashCode(key);
+    // identity hash codes are not spread well in the low bits
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return slot of key, or -1 if not in map
+   */
+  public int indexOf(Object key) {
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    Object current;
+    while ((current = keys[index]) != null) {
+      if (current == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * Finds the slot of key, or inserts the key in a new slot.
+   * The value must be written to the slot before {@link #inserted()} is called.
+   *
+   * @return slot of key
+   */
+  protected final int claimSlot(K key) {
+    if (key == null) {
+      throw new NullPointerException("Null keys are not allowed");
+    }
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    int tombstone = -1;
+    Object current;
+    while ((current = keys[index]) != null) {
+      if (current == REMOVED) {
+        if (tombstone < 0) {
+          tombstone = index;
+        }
+      } else if (current == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    if (tombstone >= 0) {
+      index = tombstone;
+    } else {
+      used++;
+    }
+    keys[index] = key;
+    size++;
+    return index;
+  }
+
+  /**
+   * Completes a put after the value was written to the slot from {@link #claimSlot(Object)},
+   * possibly rehashing the table.
+   */
+  protected final void inserted() {
+    if (used > threshold) {
+      rehash(size * 2 > threshold ? keys.length << 1 : keys.length);
+    }
+  }
+
+  /**
+   * @return true if key was removed
+   */
+  public boolean remove(Object key) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return false;
+    }
+    keys[index] = REMOVED;
+    size--;
+    return true;
+  }
+
+  private void rehash(int capacity) {
+    Object[] oldKeys = keys;
+    int[] targets = new int[oldKeys.length];
+    keys = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+    used = size;
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      Object key = oldKeys[i];
+      if (key != null && key != REMOVED) {
+        int index = hash(key) & mask;
+        while (keys[index] != null) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        targets[i] = index;
+      } else {
+        targets[i] = -1;
+      }
+    }
+    moveValues(capacity, targets);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, null);
+    size = 0;
+    used = 0;
+  }
+
+}
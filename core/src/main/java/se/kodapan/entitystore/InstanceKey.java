@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * Map key that compares the wrapped instance using == rather than equals.
+ * <p/>
+ * Used for the concurrent reverse maps entity -> identity of {@link ConcurrentPrimaryIndex} and {@link PersistentPrimaryIndex},
+ * and by {@link ReverseAssociationIndex}.
+ */
+final class InstanceKey {
+
+  private final Object instance;
+
+  InstanceKey(Object instance) {
+    this.instance = instance;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof InstanceKey && ((InstanceKey) o).instance == instance;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(instance);
+  }
+}
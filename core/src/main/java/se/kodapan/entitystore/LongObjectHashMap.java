@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Open addressing map with primitive long keys,
+ * i.e. no boxed key, no entry instance and a single table slot per entry.
+ * <p/>
+ * Removed slots are marked with a tombstone so that iterators can remove while iterating.
+ * Null values are not allowed.
+ */
+public class LongObjectHashMap<V> extends OpenAddressingHashMap<Long, V> {
+
+  private static final long serialVersionUID = 1l;
+
+  private transient long[] keys;
+
+  public LongObjectHashMap() {
+    this(16);
+  }
+
+  public LongObjectHashMap(int expectedSize) {
+    super(expectedSize);
+  }
+
+  @Override
+  protected void allocateKeys(int capacity) {
+    keys = new long[capacity];
+  }
+
+  @Override
+  protected void moveKeys(int capacity, int[] targets) {
+    long[] oldKeys = keys;
+    keys = new long[capacity];
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] >= 0) {
+        keys[targets[i]] = oldKeys[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @Override
+  protected int hashAt(int slot) {
+    return hash(keys[slot]);
+  }
+
+  @Override
+  protected Long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * @return slot of key, or -1 if not in map
+   */
+  private int indexOf(long key) {
+    int mask = mask();
+    int index = hash(key) & mask;
+    while (!isFree(index)) {
+      if (!isRemoved(index) && keys[index] == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  @Override
+  protected int indexOfKey(Object key) {
+    return key instanceof Long ? indexOf(((Long) key).longValue()) : -1;
+  }
+
+  public boolean containsKey(long key) {
+    return indexOf(key) >= 0;
+  }
+
+  public V get(long key) {
+    return valueAt(indexOf(key));
+  }
+
+  public V put(long key, V value) {
+    assertValue(value);
+    int mask = mask();
+    int index = hash(key) & mask;
+    int tombstone = -1;
+    while (!isFree(index)) {
+      if (isRemoved(index)) {
+        if (tombstone < 0) {
+          tombstone = index;
+        }
+      } else if (keys[index] == key) {
+        return replaceValue(index, value);
+      }
+      index = (index + 1) & mask;
+    }
+    index = claimSlot(index, tombstone);
+    keys[index] = key;
+    insertValue(index, value);
+    return null;
+  }
+
+  public V remove(long key) {
+    return removeAt(indexOf(key));
+  }
+
+  @Override
+  public V put(Long key, V value) {
+    return put(key.longValue(), value);
+  }
+
+  /**
+   * Iterates the keys without boxing them.
+   */
+  public class KeyIterator extends SlotIterator<Long> {
+
+    public long nextLong() {
+      return keys[nextSlot()];
+    }
+
+    @Override
+    public Long next() {
+      return nextLong();
+    }
+  }
+
+  public KeyIterator keyIterator() {
+    return new KeyIterator();
+  }
+
+  @Override
+  protected void writeKey(ObjectOutputStream out, int slot) throws IOException {
+    out.writeLong(keys[slot]);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void readEntry(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    long key = in.readLong();
+    put(key, (V) in.readObject());
+  }
+
+}
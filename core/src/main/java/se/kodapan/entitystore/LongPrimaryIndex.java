@@ -0,0 +1,222 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Primary index with Long identities backed by a {@link LongObjectHashMap}.
+ * <p/>
+ * Selected by {@link EntityStoreImpl#getPrimaryIndex(Class, Class)} when the identity type is Long.
+ * The primitive methods does not box the identity unless there are listeners to notify or entity ordinals to maintain.
+ */
+public class LongPrimaryIndex<EntityType> extends PrimaryIndex<Long, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    reconstructIdentitiesByEntity();
+  }
+
+  private LongObjectHashMap<EntityType> longEntitiesById;
+
+  private transient IdentityLongHashMap<EntityType> longIdentitiesByEntity;
+
+  /** replaces {@link #longEntitiesById} and {@link #longIdentitiesByEntity} when frozen */
+  private FrozenLongObjectMap<EntityType> frozenEntitiesById;
+
+  public LongPrimaryIndex() {
+  }
+
+  public LongPrimaryIndex(EntityStoreImpl store, Class<EntityType> entityType) {
+    this(store, entityType, new LongObjectHashMap<EntityType>());
+  }
+
+  public LongPrimaryIndex(EntityStoreImpl store, Class<EntityType> entityType, LongObjectHashMap<EntityType> entitiesById) {
+    super(store, Long.class, entityType, entitiesById);
+  }
+
+  public EntityType get(long identity) {
+    if (frozenEntitiesById != null) {
+      return frozenEntitiesById.get(identity);
+    }
+    return longEntitiesById.get(identity);
+  }
+
+  public EntityType put(long identity, EntityType entity) {
+    assertNotFrozen();
+    validatePut(longEntitiesById.get(identity), entity);
+    EntityType previous = longEntitiesById.put(identity, entity);
+    longIdentityPut(identity, previous, entity);
+    if (getStore().hasEntityOrdinals()) {
+      getStore().entityOrdinalPut(identity, entity);
+    }
+    entityPut(previous, entity);
+    if (previous != null && previous != entity) {
+      getStore().entityOrdinalRetired(previous);
+    }
+    if (hasListeners()) {
+      fireCreatedOrUpdated(identity, previous, entity);
+    }
+    return previous;
+  }
+
+  public EntityType remove(long identity) {
+    assertNotFrozen();
+    EntityType removed = longEntitiesById.remove(identity);
+    if (removed != null) {
+      longIdentityRemoved(identity, removed);
+      entityRemoved(removed);
+      if (getStore().hasEntityOrdinals()) {
+        getStore().entityOrdinalRemoved(identity);
+      }
+      if (hasListeners()) {
+        fireDeleted(identity, removed);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * @return entity with identity, or null if none or if identity is null
+   */
+  @Override
+  public EntityType get(Long identity) {
+    return identity == null ? null : get(identity.longValue());
+  }
+
+  @Override
+  public EntityType put(Long identity, EntityType entity) {
+    return put(identity.longValue(), entity);
+  }
+
+  /**
+   * @return removed entity, or null if none or if identity is null
+   */
+  @Override
+  public EntityType remove(Long identity) {
+    return identity == null ? null : remove(identity.longValue());
+  }
+
+  @Override
+  protected EntityType putToBackingMap(Long identity, EntityType entity) {
+    assertNotFrozen();
+    long longIdentity = identity.longValue();
+    EntityType previous = longEntitiesById.put(longIdentity, entity);
+    longIdentityPut(longIdentity, previous, entity);
+    return previous;
+  }
+
+  @Override
+  protected EntityType removeFromBackingMap(Long identity) {
+    assertNotFrozen();
+    long longIdentity = identity.longValue();
+    EntityType removed = longEntitiesById.remove(longIdentity);
+    if (removed != null) {
+      longIdentityRemoved(longIdentity, removed);
+    }
+    return removed;
+  }
+
+  /**
+   * Replaces the primitive hash maps with sorted primitive arrays.
+   */
+  @Override
+  protected void freezeEntitiesById() {
+    frozenEntitiesById = new FrozenLongObjectMap<EntityType>(longEntitiesById);
+    longEntitiesById = null;
+    longIdentitiesByEntity = null;
+    super.setEntitiesById(frozenEntitiesById);
+  }
+
+  @Override
+  public void setEntitiesById(Map<Long, EntityType> entitiesById) {
+    if (entitiesById != null && !(entitiesById instanceof LongObjectHashMap)) {
+      LongObjectHashMap<EntityType> map = new LongObjectHashMap<EntityType>(entitiesById.size());
+      map.putAll(entitiesById);
+      entitiesById = map;
+    }
+    longEntitiesById = (LongObjectHashMap<EntityType>) entitiesById;
+    super.setEntitiesById(entitiesById);
+  }
+
+  /**
+   * @return the primitive map, or null if frozen
+   */
+  public LongObjectHashMap<EntityType> getLongEntitiesById() {
+    return longEntitiesById;
+  }
+
+  @Override
+  public Long getIdentity(EntityType entity) {
+    if (frozenEntitiesById != null) {
+      int position = frozenEntitiesById.indexOfInstance(entity);
+      return position < 0 ? null : frozenEntitiesById.keyAt(position);
+    }
+    int index = longIdentitiesByEntity.indexOf(entity);
+    return index < 0 ? null : longIdentitiesByEntity.valueAt(index);
+  }
+
+  @Override
+  protected void reconstructIdentitiesByEntity() {
+    // also invoked when the super class is deserialized, before the fields of this class are read.
+    // not needed when frozen.
+    if (longEntitiesById == null) {
+      return;
+    }
+    longIdentitiesByEntity = new IdentityLongHashMap<EntityType>(longEntitiesById.size());
+    for (LongObjectHashMap<EntityType>.KeyIterator it = longEntitiesById.keyIterator(); it.hasNext();) {
+      long identity = it.nextLong();
+      longIdentitiesByEntity.put(longEntitiesById.get(identity), identity);
+    }
+  }
+
+  @Override
+  protected void identityPut(Long identity, EntityType previous, EntityType entity) {
+    longIdentityPut(identity, previous, entity);
+  }
+
+  @Override
+  protected void identityRemoved(Long identity, EntityType removed) {
+    longIdentityRemoved(identity, removed);
+  }
+
+  @Override
+  protected void clearIdentitiesByEntity() {
+    longIdentitiesByEntity.clear();
+  }
+
+  private void longIdentityPut(long identity, EntityType previous, EntityType entity) {
+    if (previous != entity) {
+      if (previous != null) {
+        longIdentitiesByEntity.remove(previous);
+      }
+      longIdentitiesByEntity.put(entity, identity);
+    }
+  }
+
+  private void longIdentityRemoved(long identity, EntityType removed) {
+    int index = longIdentitiesByEntity.indexOf(removed);
+    if (index >= 0 && longIdentitiesByEntity.valueAt(index) == identity) {
+      longIdentitiesByEntity.remove(removed);
+    }
+  }
+
+}
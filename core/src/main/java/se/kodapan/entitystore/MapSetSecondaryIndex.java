@@ -22,10 +22,13 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ConcurrentModificationException;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * MapSet based secondary index.
+ * <p/>
+ * Postings are kept in {@link AdaptivePostings}, unless a {@link SetMap} is passed to the constructor.
  *
  * @param <ResultType>   response class type, usually the same as the entity type
  * @param <PrimaryIndexIdentityType> class of identity in entity
@@ -34,11 +37,19 @@ import java.util.Set;
  * @since 2010-jul-10 00:37:11
  */
 public abstract class MapSetSecondaryIndex<ResultType, PrimaryIndexIdentityType, EntityType>
-    extends AbstractSecondaryIndex<ResultType, PrimaryIndexIdentityType, EntityType> {
+    extends AbstractSecondaryIndex<ResultType, PrimaryIndexIdentityType, EntityType>
+    implements UpdatableSecondaryIndex<EntityType> {
 
   private static final long serialVersionUID = 1l;
 
-  private SetMap<Object, ResultType> mapSet = new SetMap<Object, ResultType>();
+  /** postings if supplied by the user, otherwise null */
+  private SetMap<Object, ResultType> mapSet;
+
+  /** postings unless {@link #mapSet} was supplied */
+  private AdaptivePostings<ResultType> postings;
+
+  /** replaces {@link #mapSet} or {@link #postings} when frozen */
+  private FrozenPostings<ResultType> frozenPostings;
 
   protected MapSetSecondaryIndex() {
   }
@@ -60,7 +71,7 @@ public abstract class MapSetSecondaryIndex<ResultType, PrimaryIndexIdentityType,
    */
   public void reconstruct() throws ConcurrentModificationException {
     // todo lock put and delete in primary index
-    getMapSet().clear();
+    clearPostings();
     for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
       put(entity);
     }
@@ -71,7 +82,7 @@ public abstract class MapSetSecondaryIndex<ResultType, PrimaryIndexIdentityType,
   @Override
   public Set<ResultType> list(Object... parameters) {
     Object secondaryKey = getSecondaryKey(parameters);
-    Set<ResultType> results = getMapSet().get(secondaryKey);
+    Set<ResultType> results = frozenPostings != null ? frozenPostings.get(secondaryKey) : getPostings(secondaryKey);
     if (results == null || results.size() == 0) {
       return null;
     }
@@ -79,7 +90,128 @@ public abstract class MapSetSecondaryIndex<ResultType, PrimaryIndexIdentityType,
   }
 
 
-  public SetMap<Object, ResultType> getMapSet() {
+  private AdaptivePostings<ResultType> getAdaptivePostings() {
+    if (postings == null) {
+      postings = new AdaptivePostings<ResultType>(getPrimaryIndex() == null ? null : getPrimaryIndex().getStore());
+    }
+    return postings;
+  }
+
+  /**
+   * @return values associated with the secondary key, or null if none
+   * @throws FrozenException if the secondary index is frozen
+   */
+  protected Set<ResultType> getPostings(Object secondaryKey) {
+    if (mapSet != null) {
+      return mapSet.get(secondaryKey);
+    }
+    assertNotFrozen();
+    return getAdaptivePostings().get(secondaryKey);
+  }
+
+  /**
+   * @return true if value was not already associated with the secondary key
+   * @throws FrozenException if the secondary index is frozen
+   */
+  protected boolean addPosting(Object secondaryKey, ResultType value) {
+    if (mapSet != null) {
+      return mapSet.add(secondaryKey, value);
+    }
+    assertNotFrozen();
+    return getAdaptivePostings().add(secondaryKey, value);
+  }
+
+  /**
+   * @return true if value was associated with the secondary key
+   * @throws FrozenException if the secondary index is frozen
+   */
+  protected boolean removePosting(Object secondaryKey, ResultType value) {
+    if (mapSet != null) {
+      return mapSet.removeSetValue(secondaryKey, value);
+    }
+    assertNotFrozen();
+    return getAdaptivePostings().remove(secondaryKey, value);
+  }
+
+  /**
+   * Removes value from all secondary keys, i.e. visits all postings.
+   *
+   * @return true if value was associated with any secondary key
+   * @throws FrozenException if the secondary index is frozen
+   */
+  protected boolean removePostingValue(ResultType value) {
+    if (mapSet != null) {
+      return mapSet.removeSetValue(value);
+    }
+    assertNotFrozen();
+    return getAdaptivePostings().removeValue(value);
+  }
+
+  /**
+   * @throws FrozenException if the secondary index is frozen
+   */
+  protected void clearPostings() {
+    if (mapSet != null) {
+      mapSet.clear();
+    } else {
+      assertNotFrozen();
+      getAdaptivePostings().clear();
+    }
+  }
+
+  /**
+   * @return all postings, used to create the frozen postings
+   */
+  protected Map<Object, ? extends Set<ResultType>> getPostingsMap() {
+    return mapSet != null ? mapSet : getAdaptivePostings().asMap();
+  }
+
+  @Override
+  public void update(EntityType previous, EntityType entity) {
+    if (previous != null) {
+      remove(previous);
+    }
+    put(entity);
+  }
+
+  protected void assertNotFrozen() throws FrozenException {
+    if (frozenPostings != null) {
+      throw new FrozenException("Secondary index " + getName() + " is frozen");
+    }
+  }
+
+  /**
+   * Replaces the map set with immutable packed postings.
+   *
+   * @see EntityStoreImpl#freeze()
+   */
+  public void freeze() {
+    if (frozenPostings == null) {
+      frozenPostings = new FrozenPostings<ResultType>(getPostingsMap());
+      mapSet = null;
+      postings = null;
+    }
+  }
+
+  public boolean isFrozen() {
+    return frozenPostings != null;
+  }
+
+  /**
+   * @return map set passed to the constructor or {@link #setMapSet(SetMap)}
+   * @throws FrozenException if the secondary index is frozen
+   * @throws UnsupportedOperationException if postings are kept in {@link AdaptivePostings}, which is the default
+   * @deprecated postings are no longer kept in a map set unless one is supplied,
+   *             use {@link #list(Object...)} to read postings
+   */
+  @Deprecated
+  public SetMap<Object, ResultType> getMapSet() throws UnsupportedOperationException {
+    assertNotFrozen();
+    if (mapSet == null) {
+      throw new UnsupportedOperationException("Postings of secondary index " + getName()
+          + " are kept in AdaptivePostings rather than in a SetMap, use list(Object...) to read postings"
+          + " or supply a SetMap to the constructor.");
+    }
     return mapSet;
   }
 
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.*;
+
+/**
+ * Secondary index for substring queries on a textual secondary key,
+ * where each n-gram of the secondary key is associated with a {@link CompressedBitmap} of {@link EntityOrdinals}.
+ * <p/>
+ * The secondary key is padded with a begin and an end marker before it is split in n-grams,
+ * so prefix and suffix queries use the same posting lists as contains queries.
+ * A query intersects the bitmaps of its n-grams, rarest first,
+ * and then verifies each candidate against the secondary key it was put with.
+ * <p/>
+ * Queries shorter than the n-gram length can not be answered by the n-grams
+ * and are verified against all secondary keys.
+ */
+public abstract class NGramSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType>
+    implements UpdatableSecondaryIndex<EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private static final char BEGIN = '\u0002';
+  private static final char END = '\u0003';
+
+  private int n;
+
+  private Map<String, CompressedBitmap> bitmapsByGram = new HashMap<String, CompressedBitmap>();
+
+  /** normalized secondary key each ordinal was put with */
+  private String[] secondaryKeysByOrdinal = new String[16];
+
+  /** ordinals with a secondary key, scanned by queries shorter than n */
+  private CompressedBitmap indexed = new CompressedBitmap();
+
+  private EntityOrdinals ordinals;
+
+  protected NGramSecondaryIndex() {
+    this(null, null, 3);
+  }
+
+  protected NGramSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    this(name, primaryIndex, 3);
+  }
+
+  /**
+   * @param n length of the n-grams, 3 is a good trade off between the number of postings and the selectivity.
+   */
+  protected NGramSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, int n) {
+    super(name, primaryIndex);
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be positive, was " + n);
+    }
+    this.n = n;
+  }
+
+  /**
+   * @return text to be searched, or null if the entity should not be indexed
+   */
+  @Override
+  public abstract Object getSecondaryKey(EntityType entity);
+
+  /**
+   * @return the substring passed to {@link #list(Object...)}
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return parameters[0];
+  }
+
+  /**
+   * Applied to both secondary keys and queries, e.g. in order to ignore case or punctuation.
+   *
+   * @return text as is
+   */
+  protected String normalize(String text) {
+    return text;
+  }
+
+  public EntityOrdinals getOrdinals() {
+    if (ordinals == null) {
+      ordinals = getPrimaryIndex().getStore().getEntityOrdinals();
+    }
+    return ordinals;
+  }
+
+  @Override
+  public void reconstruct() {
+    bitmapsByGram.clear();
+    secondaryKeysByOrdinal = new String[16];
+    indexed = new CompressedBitmap();
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  /**
+   * @return distinct n-grams of text, or text itself if shorter than n
+   */
+  private Set<String> grams(String text) {
+    Set<String> grams = new HashSet<String>();
+    if (text.length() < n) {
+      grams.add(text);
+    } else {
+      for (int i = 0; i + n <= text.length(); i++) {
+        grams.add(text.substring(i, i + n));
+      }
+    }
+    return grams;
+  }
+
+  private static String pad(String text) {
+    return BEGIN + text + END;
+  }
+
+  /**
+   * Puts the entity with its current secondary key, or reindexes it if the secondary key has changed.
+   */
+  @Override
+  public void put(EntityType entity) {
+    Object secondaryKey = getSecondaryKey(entity);
+    String text = secondaryKey == null ? null : normalize(secondaryKey.toString());
+    int ordinal = getOrdinals().ordinalOf(entity);
+    if (ordinal < 0) {
+      throw new InconsistencyException("Entity " + entity.toString() + " is not in the store of " + this.toString());
+    }
+    if (indexed.contains(ordinal)) {
+      if (secondaryKeysByOrdinal[ordinal].equals(text)) {
+        return;
+      }
+      removeOrdinal(ordinal);
+    }
+    if (text == null) {
+      return;
+    }
+    for (String gram : grams(pad(text))) {
+      CompressedBitmap bitmap = bitmapsByGram.get(gram);
+      if (bitmap == null) {
+        bitmap = new CompressedBitmap();
+        bitmapsByGram.put(gram, bitmap);
+      }
+      bitmap.add(ordinal);
+    }
+    if (ordinal >= secondaryKeysByOrdinal.length) {
+      secondaryKeysByOrdinal = Arrays.copyOf(secondaryKeysByOrdinal, Math.max(ordinal + 1, secondaryKeysByOrdinal.length * 2));
+    }
+    secondaryKeysByOrdinal[ordinal] = text;
+    indexed.add(ordinal);
+  }
+
+  /**
+   * A replacing instance has the same ordinal as the previous instance,
+   * so it is reindexed only if its normalized secondary key differs from the one of the previous instance.
+   */
+  @Override
+  public void update(EntityType previous, EntityType entity) {
+    if (previous != null && previous != entity
+        && getOrdinals().ordinalOf(previous) != getOrdinals().ordinalOf(entity)) {
+      remove(previous);
+    }
+    put(entity);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    int ordinal = getOrdinals().ordinalOf(entity);
+    if (ordinal >= 0 && indexed.contains(ordinal)) {
+      removeOrdinal(ordinal);
+    }
+  }
+
+  private void removeOrdinal(int ordinal) {
+    for (String gram : grams(pad(secondaryKeysByOrdinal[ordinal]))) {
+      CompressedBitmap bitmap = bitmapsByGram.get(gram);
+      bitmap.remove(ordinal);
+      if (bitmap.isEmpty()) {
+        bitmapsByGram.remove(gram);
+      }
+    }
+    secondaryKeysByOrdinal[ordinal] = null;
+    indexed.remove(ordinal);
+  }
+
+  /**
+   * @return entities with a secondary key containing the substring, or null if none
+   */
+  @Override
+  public Set<EntityType> list(Object... parameters) {
+    Set<EntityType> entities = contains(getSecondaryKey(parameters).toString());
+    return entities.isEmpty() ? null : entities;
+  }
+
+  /**
+   * @return read only view of the entities with a secondary key containing the substring
+   */
+  public Set<EntityType> contains(String substring) {
+    return getEntities(search(normalize(substring), false, false));
+  }
+
+  /**
+   * @return read only view of the entities with a secondary key starting with the prefix
+   */
+  public Set<EntityType> startsWith(String prefix) {
+    return getEntities(search(normalize(prefix), true, false));
+  }
+
+  /**
+   * @return read only view of the entities with a secondary key ending with the suffix
+   */
+  public Set<EntityType> endsWith(String suffix) {
+    return getEntities(search(normalize(suffix), false, true));
+  }
+
+  /**
+   * @return number of entities with a secondary key containing the substring
+   */
+  public int count(String substring) {
+    return search(normalize(substring), false, false).cardinality();
+  }
+
+  /**
+   * @return ordinals of the entities matching the query, verified against their secondary keys
+   */
+  private CompressedBitmap search(String query, boolean anchoredAtBegin, boolean anchoredAtEnd) {
+    String anchored = (anchoredAtBegin ? BEGIN : "") + query + (anchoredAtEnd ? END : "");
+    CompressedBitmap candidates;
+    if (anchored.length() < n) {
+      candidates = indexed;
+    } else {
+      List<CompressedBitmap> bitmaps = new ArrayList<CompressedBitmap>();
+      for (String gram : grams(anchored)) {
+        CompressedBitmap bitmap = bitmapsByGram.get(gram);
+        if (bitmap == null) {
+          return new CompressedBitmap();
+        }
+        bitmaps.add(bitmap);
+      }
+      Collections.sort(bitmaps, new Comparator<CompressedBitmap>() {
+        @Override
+        public int compare(CompressedBitmap bitmap, CompressedBitmap bitmap1) {
+          return bitmap.cardinality() - bitmap1.cardinality();
+        }
+      });
+      candidates = bitmaps.get(0);
+      for (int i = 1; i < bitmaps.size() && !candidates.isEmpty(); i++) {
+        candidates = CompressedBitmap.and(candidates, bitmaps.get(i));
+      }
+    }
+    CompressedBitmap matches = new CompressedBitmap();
+    for (CompressedBitmap.Iterator it = candidates.iterator(); it.hasNext();) {
+      int ordinal = it.next();
+      String text = secondaryKeysByOrdinal[ordinal];
+      if (anchoredAtBegin ? text.startsWith(query) && (!anchoredAtEnd || text.length() == query.length())
+          : anchoredAtEnd ? text.endsWith(query) : text.contains(query)) {
+        matches.add(ordinal);
+      }
+    }
+    return matches;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Set<EntityType> getEntities(CompressedBitmap bitmap) {
+    return (Set<EntityType>) getOrdinals().getEntities(bitmap);
+  }
+
+  public int getN() {
+    return n;
+  }
+
+}
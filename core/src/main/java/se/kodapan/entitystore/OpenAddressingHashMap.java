@@ -0,0 +1,385 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Open addressing map with linear probing,
+ * where subclasses keep the keys inline in flat primitive arrays parallel to the value table,
+ * i.e. no key instance and no entry instance is kept per entry.
+ * <p/>
+ * Subclasses probe for their keys using {@link #isFree(int)} and {@link #isRemoved(int)},
+ * insert with {@link #claimSlot(int, int)} followed by {@link #insertValue(int, Object)}
+ * and move their keys when the table is rehashed.
+ * <p/>
+ * Removed slots are marked with a tombstone so that iterators can remove while iterating.
+ * Null values are not allowed.
+ */
+public abstract class OpenAddressingHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private static final Object REMOVED = new Object();
+
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private transient Object[] values;
+
+  private transient int size;
+  /** number of slots that are not free, i.e. entries and tombstones */
+  private transient int used;
+  private transient int threshold;
+  private transient int modCount;
+
+  protected OpenAddressingHashMap(int expectedSize) {
+    allocate(tableSizeFor(expectedSize));
+  }
+
+  private static int tableSizeFor(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR <= expectedSize) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    values = new Object[capacity];
+    allocateKeys(capacity);
+    threshold = (int) (capacity * LOAD_FACTOR);
+    used = size;
+  }
+
+  /**
+   * Allocates new empty key arrays.
+   * Called from the constructor of this class, so implementations must not depend on initialized fields.
+   *
+   * @param capacity number of slots
+   */
+  protected abstract void allocateKeys(int capacity);
+
+  /**
+   * @param capacity number of slots in the new key arrays
+   * @param targets  new slot of the key in each old slot, or -1 if the old slot held no entry
+   */
+  protected abstract void moveKeys(int capacity, int[] targets);
+
+  /**
+   * @return hash code of the key in the slot
+   */
+  protected abstract int hashAt(int slot);
+
+  /**
+   * @return key instance of the key in the slot
+   */
+  protected abstract K keyAt(int slot);
+
+  /**
+   * @return slot of the key, or -1 if not in map or not a key of this map
+   */
+  protected abstract int indexOfKey(Object key);
+
+  protected abstract void writeKey(ObjectOutputStream out, int slot) throws IOException;
+
+  /**
+   * Reads a key written by {@link #writeKey(ObjectOutputStream, int)} followed by its value, and puts them.
+   */
+  protected abstract void readEntry(ObjectInputStream in) throws IOException, ClassNotFoundException;
+
+  /**
+   * @return mask of the table size, i.e. hash & mask is the first slot to probe
+   */
+  protected final int mask() {
+    return values.length - 1;
+  }
+
+  protected final boolean isFree(int slot) {
+    return values[slot] == null;
+  }
+
+  protected final boolean isRemoved(int slot) {
+    return values[slot] == REMOVED;
+  }
+
+  private static boolean isEntry(Object value) {
+    return value != null && value != REMOVED;
+  }
+
+  @SuppressWarnings("unchecked")
+  protected final V valueAt(int slot) {
+    return slot < 0 ? null : (V) values[slot];
+  }
+
+  /**
+   * @return the value previously at the slot
+   */
+  protected final V replaceValue(int slot, V value) {
+    assertValue(value);
+    V previous = valueAt(slot);
+    values[slot] = value;
+    return previous;
+  }
+
+  protected static void assertValue(Object value) {
+    if (value == null) {
+      throw new NullPointerException("Null values are not allowed");
+    }
+  }
+
+  /**
+   * @param slot      the free slot the probe ended at
+   * @param tombstone the first tombstone passed while probing, or -1
+   * @return slot to insert the key at
+   */
+  protected final int claimSlot(int slot, int tombstone) {
+    if (tombstone >= 0) {
+      return tombstone;
+    }
+    used++;
+    return slot;
+  }
+
+  /**
+   * Completes an insert in a slot from {@link #claimSlot(int, int)} after the key was written,
+   * possibly rehashing the table.
+   */
+  protected final void insertValue(int slot, V value) {
+    assertValue(value);
+    values[slot] = value;
+    size++;
+    modCount++;
+    if (used > threshold) {
+      rehash(size * 2 > threshold ? values.length << 1 : values.length);
+    }
+  }
+
+  /**
+   * @return the removed value, or null if slot is negative
+   */
+  protected final V removeAt(int slot) {
+    if (slot < 0) {
+      return null;
+    }
+    V removed = valueAt(slot);
+    values[slot] = REMOVED;
+    size--;
+    modCount++;
+    return removed;
+  }
+
+  private void rehash(int capacity) {
+    Object[] oldValues = values;
+    int[] targets = new int[oldValues.length];
+    values = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+    used = size;
+    int mask = capacity - 1;
+    for (int i = 0; i < oldValues.length; i++) {
+      Object value = oldValues[i];
+      if (isEntry(value)) {
+        int index = hashAt(i) & mask;
+        while (values[index] != null) {
+          index = (index + 1) & mask;
+        }
+        values[index] = value;
+        targets[i] = index;
+      } else {
+        targets[i] = -1;
+      }
+    }
+    moveKeys(capacity, targets);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOfKey(key) >= 0;
+  }
+
+  @Override
+  public V get(Object key) {
+    return valueAt(indexOfKey(key));
+  }
+
+  @Override
+  public V remove(Object key) {
+    return removeAt(indexOfKey(key));
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+    used = 0;
+    modCount++;
+  }
+
+  protected abstract class SlotIterator<T> implements Iterator<T> {
+
+    private int next = -1;
+    private int current = -1;
+    private int expectedModCount = modCount;
+
+    protected SlotIterator() {
+      advance();
+    }
+
+    private void advance() {
+      next++;
+      while (next < values.length && !isEntry(values[next])) {
+        next++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < values.length;
+    }
+
+    protected int nextSlot() {
+      if (expectedModCount != modCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= values.length) {
+        throw new NoSuchElementException();
+      }
+      current = next;
+      advance();
+      return current;
+    }
+
+    @Override
+    public void remove() {
+      if (current < 0) {
+        throw new IllegalStateException();
+      }
+      if (expectedModCount != modCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(current);
+      expectedModCount = modCount;
+      current = -1;
+    }
+  }
+
+  private transient Collection<V> valuesView;
+
+  @Override
+  public Collection<V> values() {
+    if (valuesView == null) {
+      valuesView = new AbstractCollection<V>() {
+        @Override
+        public Iterator<V> iterator() {
+          return new SlotIterator<V>() {
+            @Override
+            public V next() {
+              return valueAt(nextSlot());
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          OpenAddressingHashMap.this.clear();
+        }
+      };
+    }
+    return valuesView;
+  }
+
+  private transient Set<Entry<K, V>> entrySetView;
+
+  /**
+   * Creates a new key instance per entry.
+   */
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySetView == null) {
+      entrySetView = new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          return new SlotIterator<Entry<K, V>>() {
+            @Override
+            public Entry<K, V> next() {
+              final int slot = nextSlot();
+              return new SimpleEntry<K, V>(keyAt(slot), valueAt(slot)) {
+                @Override
+                public V setValue(V value) {
+                  replaceValue(slot, value);
+                  return super.setValue(value);
+                }
+              };
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          OpenAddressingHashMap.this.clear();
+        }
+      };
+    }
+    return entrySetView;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size);
+    for (int i = 0; i < values.length; i++) {
+      if (isEntry(values[i])) {
+        writeKey(out, i);
+        out.writeObject(values[i]);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int size = in.readInt();
+    this.size = 0;
+    allocate(tableSizeFor(size));
+    for (int i = 0; i < size; i++) {
+      readEntry(in);
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entity store where all primary indices are {@link PersistentPrimaryIndex}.
+ * <p/>
+ * {@link #snapshot()} captures the current root of each primary index without stopping writers,
+ * i.e. the cost depends on the number of primary indices and not on the number of entities.
+ */
+public class PersistentEntityStore extends EntityStoreImpl {
+
+  private static final long serialVersionUID = 1l;
+
+  @Override
+  protected <IdentityType, EntityType> PrimaryIndex<IdentityType, EntityType> createPrimaryIndex(Class<IdentityType> identityType, Class<EntityType> entityType) {
+    return new PersistentPrimaryIndex<IdentityType, EntityType>(this, identityType, entityType);
+  }
+
+  /**
+   * Each primary index in the snapshot is a point in time view of that index.
+   * A put or remove that is executing while the snapshot is taken
+   * might be visible in some of the primary indices of the entity but not yet in others.
+   *
+   * @return immutable view of all primary indices
+   */
+  @SuppressWarnings("unchecked")
+  public Snapshot snapshot() {
+    Map<Class, PersistentHashMap<Object, Object>> entitiesByIdByType = new HashMap<Class, PersistentHashMap<Object, Object>>();
+    for (Map.Entry<Class, PrimaryIndex> entry : getPrimaryIndices().entrySet()) {
+      entitiesByIdByType.put(entry.getKey(), ((PersistentPrimaryIndex<Object, Object>) entry.getValue()).snapshot());
+    }
+    return new Snapshot(entitiesByIdByType);
+  }
+
+  public static class Snapshot implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Map<Class, PersistentHashMap<Object, Object>> entitiesByIdByType;
+
+    private Snapshot(Map<Class, PersistentHashMap<Object, Object>> entitiesByIdByType) {
+      this.entitiesByIdByType = entitiesByIdByType;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <IdentityType, EntityType> EntityType get(Class<EntityType> entityType, IdentityType identity) {
+      return (EntityType) getEntitiesById(entityType).get(identity);
+    }
+
+    /**
+     * @return immutable map identity -> entity of the primary index of entity type at the time of the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    public <IdentityType, EntityType> PersistentHashMap<IdentityType, EntityType> getEntitiesById(Class<EntityType> entityType) {
+      PersistentHashMap entitiesById = entitiesByIdByType.get(entityType);
+      if (entitiesById == null) {
+        throw new NotRegisteredAsPrimaryIndexException(entityType);
+      }
+      return entitiesById;
+    }
+
+    public Set<Class> getEntityTypes() {
+      return entitiesByIdByType.keySet();
+    }
+  }
+
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable hash array mapped trie.
+ * <p/>
+ * {@link #plus(Object, Object)} and {@link #minus(Object)} return a new map
+ * that shares all but the path to the modified entry with this map,
+ * i.e. O(log32 n) new nodes per update and any instance is a point in time snapshot.
+ * <p/>
+ * Null keys and null values are not allowed.
+ * The {@link Map} mutators throws {@link UnsupportedOperationException}.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  private transient Node root;
+  private transient int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    if (root == null || key == null) {
+      return null;
+    }
+    return (V) root.find(0, hash(key), key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @return a map with key associated with value, or this map if value already was associated with key
+   */
+  public PersistentHashMap<K, V> plus(K key, V value) {
+    if (key == null) {
+      throw new NullPointerException("Null keys are not allowed");
+    }
+    if (value == null) {
+      throw new NullPointerException("Null values are not allowed");
+    }
+    boolean[] added = new boolean[1];
+    Node node = (root == null ? BitmapIndexedNode.EMPTY : root).assoc(0, hash(key), key, value, added);
+    if (node == root) {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(node, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * @return a map without key, or this map if key was not in the map
+   */
+  public PersistentHashMap<K, V> minus(Object key) {
+    if (root == null || key == null) {
+      return this;
+    }
+    Node node = root.without(0, hash(key), key);
+    if (node == root) {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(node, size - 1);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private transient Set<Entry<K, V>> entrySetView;
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySetView == null) {
+      entrySetView = new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          return new EntryIterator<K, V>(root);
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+    return entrySetView;
+  }
+
+  /**
+   * Depth first traversal of the trie.
+   * Does not support remove.
+   */
+  static class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+    /** seven levels of bitmap nodes and one collision node */
+    private final Object[][] arrays = new Object[8][];
+    private final int[] positions = new int[8];
+    private int depth;
+
+    private Object nextKey;
+    private Object nextValue;
+
+    EntryIterator(Node root) {
+      if (root == null) {
+        depth = -1;
+      } else {
+        arrays[0] = root.array;
+        depth = 0;
+      }
+      advance();
+    }
+
+    private void advance() {
+      nextKey = null;
+      while (depth >= 0) {
+        Object[] array = arrays[depth];
+        int position = positions[depth];
+        if (position >= array.length) {
+          arrays[depth] = null;
+          positions[depth] = 0;
+          depth--;
+          continue;
+        }
+        positions[depth] = position + 2;
+        if (array[position] != null) {
+          nextKey = array[position];
+          nextValue = array[position + 1];
+          return;
+        }
+        depth++;
+        arrays[depth] = ((Node) array[position + 1]).array;
+        positions[depth] = 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextKey != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Entry<K, V> next() {
+      if (nextKey == null) {
+        throw new NoSuchElementException();
+      }
+      Entry<K, V> entry = new SimpleImmutableEntry<K, V>((K) nextKey, (V) nextValue);
+      advance();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Key and value pairs in {@link #array}.
+   * A null key in a {@link BitmapIndexedNode} means the value is a sub node.
+   */
+  abstract static class Node implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    final Object[] array;
+
+    protected Node(Object[] array) {
+      this.array = array;
+    }
+
+    /**
+     * @return value, or null if not found
+     */
+    abstract Object find(int shift, int hash, Object key);
+
+    /**
+     * @return this if nothing changed
+     */
+    abstract Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+
+    /**
+     * @return this if key was not found, null if node became empty
+     */
+    abstract Node without(int shift, int hash, Object key);
+  }
+
+  static final class BitmapIndexedNode extends Node {
+
+    private static final long serialVersionUID = 1l;
+
+    static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(0, new Object[0]);
+
+    private final int bitmap;
+
+    BitmapIndexedNode(int bitmap, Object[] array) {
+      super(array);
+      this.bitmap = bitmap;
+    }
+
+    private static int bitpos(int hash, int shift) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      int index = index(bit) << 1;
+      Object keyOrNull = array[index];
+      Object valueOrNode = array[index + 1];
+      if (keyOrNull == null) {
+        return ((Node) valueOrNode).find(shift + BITS, hash, key);
+      }
+      return key.equals(keyOrNull) ? valueOrNode : null;
+    }
+
+    @Override
+    Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+      int bit = bitpos(hash, shift);
+      int index = index(bit) << 1;
+      if ((bitmap & bit) != 0) {
+        Object keyOrNull = array[index];
+        Object valueOrNode = array[index + 1];
+        if (keyOrNull == null) {
+          Node node = ((Node) valueOrNode).assoc(shift + BITS, hash, key, value, added);
+          if (node == valueOrNode) {
+            return this;
+          }
+          return new BitmapIndexedNode(bitmap, cloneAndSet(array, index + 1, node));
+        }
+        if (key.equals(keyOrNull)) {
+          if (value == valueOrNode) {
+            return this;
+          }
+          return new BitmapIndexedNode(bitmap, cloneAndSet(array, index + 1, value));
+        }
+        added[0] = true;
+        Object[] newArray = cloneAndSet(array, index + 1, createNode(shift + BITS, keyOrNull, valueOrNode, hash, key, value));
+        newArray[index] = null;
+        return new BitmapIndexedNode(bitmap, newArray);
+      }
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      newArray[index] = key;
+      newArray[index + 1] = value;
+      System.arraycopy(array, index, newArray, index + 2, array.length - index);
+      added[0] = true;
+      return new BitmapIndexedNode(bitmap | bit, newArray);
+    }
+
+    @Override
+    Node without(int shift, int hash, Object key) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int index = index(bit) << 1;
+      Object keyOrNull = array[index];
+      Object valueOrNode = array[index + 1];
+      if (keyOrNull == null) {
+        Node node = ((Node) valueOrNode).without(shift + BITS, hash, key);
+        if (node == valueOrNode) {
+          return this;
+        }
+        if (node != null) {
+          return new BitmapIndexedNode(bitmap, cloneAndSet(array, index + 1, node));
+        }
+      } else if (!key.equals(keyOrNull)) {
+        return this;
+      }
+      if (bitmap == bit) {
+        return null;
+      }
+      return new BitmapIndexedNode(bitmap ^ bit, removePair(array, index));
+    }
+
+    private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+      }
+      boolean[] added = new boolean[1];
+      return EMPTY
+          .assoc(shift, hash1, key1, value1, added)
+          .assoc(shift, hash2, key2, value2, added);
+    }
+  }
+
+  /**
+   * Keys with the very same hash.
+   */
+  static final class CollisionNode extends Node {
+
+    private static final long serialVersionUID = 1l;
+
+    private final int hash;
+
+    CollisionNode(int hash, Object[] array) {
+      super(array);
+      this.hash = hash;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int index = indexOf(key);
+      return index < 0 ? null : array[index + 1];
+    }
+
+    @Override
+    Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+      if (hash == this.hash) {
+        int index = indexOf(key);
+        if (index >= 0) {
+          if (array[index + 1] == value) {
+            return this;
+          }
+          return new CollisionNode(hash, cloneAndSet(array, index + 1, value));
+        }
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        newArray[array.length] = key;
+        newArray[array.length + 1] = value;
+        added[0] = true;
+        return new CollisionNode(hash, newArray);
+      }
+      // nest this node in a bitmap node and try again
+      return new BitmapIndexedNode(BitmapIndexedNode.bitpos(this.hash, shift), new Object[]{null, this})
+          .assoc(shift, hash, key, value, added);
+    }
+
+    @Override
+    Node without(int shift, int hash, Object key) {
+      int index = indexOf(key);
+      if (index < 0) {
+        return this;
+      }
+      if (array.length == 2) {
+        return null;
+      }
+      return new CollisionNode(hash, removePair(array, index));
+    }
+  }
+
+  private static Object[] cloneAndSet(Object[] array, int index, Object value) {
+    Object[] clone = array.clone();
+    clone[index] = value;
+    return clone;
+  }
+
+  private static Object[] removePair(Object[] array, int index) {
+    Object[] newArray = new Object[array.length - 2];
+    System.arraycopy(array, 0, newArray, 0, index);
+    System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+    return newArray;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size);
+    for (Entry<K, V> entry : entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeObject(entry.getValue());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int size = in.readInt();
+    PersistentHashMap<K, V> map = empty();
+    for (int i = 0; i < size; i++) {
+      map = map.plus((K) in.readObject(), (V) in.readObject());
+    }
+    this.root = map.root;
+    this.size = map.size;
+  }
+
+}
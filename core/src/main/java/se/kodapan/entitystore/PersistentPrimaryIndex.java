@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Primary index backed by an {@link AtomicPersistentHashMap}.
+ * <p/>
+ * Writers publish a new immutable root atomically,
+ * so {@link #get(Object)} never locks and {@link #iterator()} iterates the root
+ * that was current when it was created without ever throwing a ConcurrentModificationException.
+ * {@link #snapshot()} is O(1) and does not block writers.
+ * The reverse map used by {@link #getIdentity(Object)} is a {@link ConcurrentHashMap} for the same reason.
+ * <p/>
+ * Created by {@link PersistentEntityStore}.
+ */
+public class PersistentPrimaryIndex<IdentityType, EntityType> extends PrimaryIndex<IdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    reconstructIdentitiesByEntity();
+  }
+
+  private AtomicPersistentHashMap<IdentityType, EntityType> persistentEntitiesById;
+
+  private transient ConcurrentHashMap<InstanceKey, IdentityType> concurrentIdentitiesByEntity;
+
+  public PersistentPrimaryIndex() {
+  }
+
+  public PersistentPrimaryIndex(EntityStoreImpl store, Class<IdentityType> identityType, Class<EntityType> entityType) {
+    this(store, identityType, entityType, new AtomicPersistentHashMap<IdentityType, EntityType>());
+  }
+
+  public PersistentPrimaryIndex(EntityStoreImpl store, Class<IdentityType> identityType, Class<EntityType> entityType, AtomicPersistentHashMap<IdentityType, EntityType> entitiesById) {
+    super(store, identityType, entityType, entitiesById);
+  }
+
+  /**
+   * @return immutable point in time view of this index
+   */
+  public PersistentHashMap<IdentityType, EntityType> snapshot() {
+    return persistentEntitiesById.snapshot();
+  }
+
+  @Override
+  public Iterator<EntityType> iterator() {
+    return snapshot().values().iterator();
+  }
+
+  @Override
+  public EntityType get(IdentityType identity) {
+    return persistentEntitiesById.get(identity);
+  }
+
+  /**
+   * Keeps the persistent map, reads never lock anyway.
+   */
+  @Override
+  protected void freezeEntitiesById() {
+  }
+
+  @Override
+  public void setEntitiesById(Map<IdentityType, EntityType> entitiesById) {
+    if (entitiesById != null && !(entitiesById instanceof AtomicPersistentHashMap)) {
+      AtomicPersistentHashMap<IdentityType, EntityType> map = new AtomicPersistentHashMap<IdentityType, EntityType>();
+      map.putAll(entitiesById);
+      entitiesById = map;
+    }
+    persistentEntitiesById = (AtomicPersistentHashMap<IdentityType, EntityType>) entitiesById;
+    super.setEntitiesById(entitiesById);
+  }
+
+  public AtomicPersistentHashMap<IdentityType, EntityType> getPersistentEntitiesById() {
+    return persistentEntitiesById;
+  }
+
+  @Override
+  public IdentityType getIdentity(EntityType entity) {
+    return concurrentIdentitiesByEntity.get(new InstanceKey(entity));
+  }
+
+  @Override
+  protected void reconstructIdentitiesByEntity() {
+    // also invoked when the super class is deserialized, before the fields of this class are read.
+    if (persistentEntitiesById == null) {
+      return;
+    }
+    concurrentIdentitiesByEntity = new ConcurrentHashMap<InstanceKey, IdentityType>(persistentEntitiesById.size());
+    for (Map.Entry<IdentityType, EntityType> entry : persistentEntitiesById.snapshot().entrySet()) {
+      concurrentIdentitiesByEntity.put(new InstanceKey(entry.getValue()), entry.getKey());
+    }
+  }
+
+  @Override
+  protected void identityPut(IdentityType identity, EntityType previous, EntityType entity) {
+    if (previous != entity) {
+      if (previous != null) {
+        concurrentIdentitiesByEntity.remove(new InstanceKey(previous));
+      }
+      concurrentIdentitiesByEntity.put(new InstanceKey(entity), identity);
+    }
+  }
+
+  @Override
+  protected void identityRemoved(IdentityType identity, EntityType removed) {
+    concurrentIdentitiesByEntity.remove(new InstanceKey(removed), identity);
+  }
+
+  @Override
+  protected void clearIdentitiesByEntity() {
+    concurrentIdentitiesByEntity.clear();
+  }
+
+}
@@ -22,6 +22,7 @@ import se.kodapan.collections.DecoratedMap;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -37,6 +38,7 @@ public class PrimaryIndex<IdentityType, EntityType>
       throws IOException, ClassNotFoundException {
       in.defaultReadObject();
       listeners = new HashSet<PrimaryIndexListener<IdentityType, EntityType>>();
+      reconstructIdentitiesByEntity();
   }
 
   public static Logger log = LoggerFactory.getLogger(PrimaryIndex.class);
@@ -50,12 +52,24 @@ public class PrimaryIndex<IdentityType, EntityType>
 
   private EntityStoreImpl store;
 
-  private Map<IdentityType, SecondaryIndex<Object, IdentityType, EntityType>> secondaryIndicesByName = new HashMap<IdentityType, SecondaryIndex<Object, IdentityType, EntityType>>();
+  private Map<IdentityType, SecondaryIndex<Object, IdentityType, EntityType>> secondaryIndicesByName = new ConcurrentHashMap<IdentityType, SecondaryIndex<Object, IdentityType, EntityType>>();
 
   private Map<IdentityType, EntityType> entitiesById;
+
+  /** the map decorated by {@link #entitiesById} */
+  private Map<IdentityType, EntityType> backingEntitiesById;
+
+  /**
+   * Reverse of {@link #entitiesById}, keyed on entity instance rather than entity equality.
+   * Kept in step by {@link EntitiesMap} and rebuilt when deserialized.
+   */
+  private transient Map<EntityType, IdentityType> identitiesByEntity = new IdentityHashMap<EntityType, IdentityType>();
+
   private Class<EntityType> entityType;
   private Class<IdentityType> identityType;
 
+  private volatile boolean frozen = false;
+
   public PrimaryIndex() {
   }
 
@@ -70,13 +84,82 @@ public class PrimaryIndex<IdentityType, EntityType>
     setEntitiesById(entitiesById);
   }
 
+  /**
+   * @param entity instance in this primary index
+   * @return identity the very same instance was put with, or null if the instance is not in this primary index
+   */
   public IdentityType getIdentity(EntityType entity) {
-    for (Map.Entry<IdentityType, EntityType> entry : new ArrayList<Map.Entry<IdentityType, EntityType>>(getEntitiesById().entrySet())) {
-      if (entity.equals(entry.getValue())) {
-        return entry.getKey();
+    return identitiesByEntity.get(entity);
+  }
+
+  /**
+   * Rebuilds the reverse map used by {@link #getIdentity(Object)} from the backing map.
+   */
+  protected void reconstructIdentitiesByEntity() {
+    identitiesByEntity = new IdentityHashMap<EntityType, IdentityType>();
+    if (entitiesById != null) {
+      for (Map.Entry<IdentityType, EntityType> entry : entitiesById.entrySet()) {
+        identitiesByEntity.put(entry.getValue(), entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Keeps the reverse map in step with a put to the backing map.
+   */
+  protected void identityPut(IdentityType identity, EntityType previous, EntityType entity) {
+    if (previous != entity) {
+      if (previous != null) {
+        identitiesByEntity.remove(previous);
       }
+      identitiesByEntity.put(entity, identity);
+    }
+  }
+
+  /**
+   * Keeps the reverse map in step with a remove from the backing map.
+   */
+  protected void identityRemoved(IdentityType identity, EntityType removed) {
+    if (identity.equals(identitiesByEntity.get(removed))) {
+      identitiesByEntity.remove(removed);
+    }
+  }
+
+  protected void clearIdentitiesByEntity() {
+    identitiesByEntity.clear();
+  }
+
+  /**
+   * Makes this primary index read only and compacts the backing map.
+   *
+   * @see EntityStoreImpl#freeze()
+   */
+  public void freeze() {
+    if (!frozen) {
+      freezeEntitiesById();
+      frozen = true;
+    }
+  }
+
+  /**
+   * Replaces the backing map with an immutable compact copy.
+   * Specialized primary indices override this in order to keep their own backing map.
+   */
+  protected void freezeEntitiesById() {
+    setEntitiesById(new FrozenMap<IdentityType, EntityType>(backingEntitiesById));
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * @throws FrozenException if this primary index is frozen
+   */
+  protected void assertNotFrozen() throws FrozenException {
+    if (frozen) {
+      throw new FrozenException("Primary index of " + entityType.getName() + " is frozen");
     }
-    return null;
   }
 
   public Class<IdentityType> getIdentityType() {
@@ -104,21 +187,138 @@ public class PrimaryIndex<IdentityType, EntityType>
     return getEntitiesById().get(id);
   }
 
+  /**
+   * Puts to the backing map and keeps the reverse map in step,
+   * but leaves associations, secondary indices and listeners to the caller.
+   * <p/>
+   * Used by {@link EntityStoreImpl} that handles those once for all primary indices of an entity.
+   *
+   * @return instance previously associated with the identity, or null
+   */
+  protected EntityType putToBackingMap(IdentityType identity, EntityType entity) {
+    assertNotFrozen();
+    EntityType previous = backingEntitiesById.put(identity, entity);
+    identityPut(identity, previous, entity);
+    return previous;
+  }
+
+  /**
+   * Removes from the backing map and keeps the reverse map in step,
+   * but leaves associations, secondary indices and listeners to the caller.
+   *
+   * @return instance removed, or null
+   * @see #putToBackingMap(Object, Object)
+   */
+  protected EntityType removeFromBackingMap(IdentityType identity) {
+    assertNotFrozen();
+    EntityType removed = backingEntitiesById.remove(identity);
+    if (removed != null) {
+      identityRemoved(identity, removed);
+    }
+    return removed;
+  }
+
   private void removeFromSecondaryIndices(EntityType entity) {
     for (SecondaryIndex<Object, IdentityType, EntityType> secondaryIndex : getSecondaryIndicesByName().values()) {
       secondaryIndex.remove(entity);
     }
   }
 
+  /**
+   * Called before an entity is put to the backing map.
+   * Validates it with the {@link ConstrainedSecondaryIndex}es of this primary index.
+   *
+   * @param previous instance currently associated with the same identity, or null
+   * @param entity   instance about to be put to the backing map
+   * @throws InconsistencyException if a secondary index refuses the entity
+   */
+  @SuppressWarnings("unchecked")
+  protected void validatePut(EntityType previous, EntityType entity) {
+    for (SecondaryIndex<Object, IdentityType, EntityType> secondaryIndex : getSecondaryIndicesByName().values()) {
+      if (secondaryIndex instanceof ConstrainedSecondaryIndex) {
+        ((ConstrainedSecondaryIndex<EntityType>) secondaryIndex).validate(previous, entity);
+      }
+    }
+  }
+
+  /**
+   * Called after an entity has been put to the backing map.
+   * Decouples the previous instance with the same identity and updates the secondary indices.
+   *
+   * @param previous instance previously associated with the same identity, or null
+   * @param entity   instance put to the backing map
+   */
+  protected void entityPut(EntityType previous, EntityType entity) {
+    if (previous != null && previous != entity) {
+      // remove composite parts and decouple from associations
+      getStore().decouple(previous);
+    }
+    if (getStore().getRoute(entity.getClass()).hasOneDirectionalEnds()) {
+      getStore().getReverseAssociationIndex().put(entity);
+    }
+
+    // replace in secondary indices
+    for (SecondaryIndex<Object, IdentityType, EntityType> secondaryIndex : getSecondaryIndicesByName().values()) {
+      EntityStoreImpl.updateSecondaryIndex(secondaryIndex, previous, entity);
+    }
+    getStore().updateDependentSecondaryIndices(previous, entity);
+  }
+
+  /**
+   * Called after an entity has been removed from the backing map.
+   * Removes it from the secondary indices and decouples it.
+   *
+   * @param removed instance removed from the backing map
+   */
+  protected void entityRemoved(EntityType removed) {
+    // remove in secondary indices
+    removeFromSecondaryIndices(removed);
+    // remove composite parts and decouple from associations
+    getStore().decouple(removed);
+    getStore().removeFromDependentSecondaryIndices(removed);
+  }
+
+  protected boolean hasListeners() {
+    return !listeners.isEmpty();
+  }
+
+  protected void fireCreatedOrUpdated(final IdentityType identity, final EntityType previous, final EntityType entity) {
+    for (final PrimaryIndexListener<IdentityType, EntityType> listener : listeners) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          if (previous == null) {
+            listener.created(identity, entity);
+          } else {
+            listener.updated(identity, entity);
+          }
+        }
+      }).start();
+    }
+  }
+
+  protected void fireDeleted(final IdentityType identity, final EntityType removed) {
+    for (final PrimaryIndexListener<IdentityType, EntityType> listener : listeners) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          listener.deleted(identity, removed);
+        }
+      }).start();
+    }
+  }
+
   public Map<IdentityType, EntityType> getEntitiesById() {
     return entitiesById;
   }
 
   public void setEntitiesById(Map<IdentityType, EntityType> entitiesById) {
+    backingEntitiesById = entitiesById;
     if (entitiesById != null) {
       entitiesById = new EntitiesMap(entitiesById);
     }
     this.entitiesById = entitiesById;
+    reconstructIdentitiesByEntity();
   }
 
   public Class<EntityType> getEntityType() {
@@ -188,66 +388,41 @@ public class PrimaryIndex<IdentityType, EntityType>
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public EntityType remove(final Object identity) {
+      assertNotFrozen();
       final EntityType removed = super.remove(identity);
       if (removed != null) {
-        // remove in secondary indices
-        removeFromSecondaryIndices(removed);
-        // remove composite parts and decouple from associations
-        getStore().decouple(removed);
-
-        for (final PrimaryIndexListener<IdentityType, EntityType> listener : listeners) {
-          new Thread(new Runnable() {
-            @Override
-            public void run() {
-              listener.deleted((IdentityType) identity, removed);
-            }
-          }).start();
-        }
-
+        identityRemoved((IdentityType) identity, removed);
+        entityRemoved(removed);
+        getStore().entityOrdinalRemoved(identity);
+        fireDeleted((IdentityType) identity, removed);
       }
       return removed;
     }
 
     @Override
     public EntityType put(final IdentityType identity, final EntityType entity) {
+      assertNotFrozen();
+      validatePut(super.get(identity), entity);
       final EntityType previous = super.put(identity, entity);
+      identityPut(identity, previous, entity);
+      getStore().entityOrdinalPut(identity, entity);
+      entityPut(previous, entity);
       if (previous != null && previous != entity) {
-        // remove composite parts and decouple from associations
-        getStore().decouple(previous);
-      }
-
-      if (previous != null) {
-        // remove in secondary indices
-        removeFromSecondaryIndices(previous);
+        getStore().entityOrdinalRetired(previous);
       }
-
-      // add in secondary indices
-      for (SecondaryIndex<Object, IdentityType, EntityType> secondaryIndex : getSecondaryIndicesByName().values()) {
-        secondaryIndex.put(entity);
-      }
-
-      for (final PrimaryIndexListener<IdentityType, EntityType> listener : listeners) {
-        new Thread(new Runnable() {
-          @Override
-          public void run() {
-            if (previous == null) {
-              listener.created(identity, entity);
-            } else {
-              listener.updated(identity, entity);
-            }
-          }
-        }).start();
-      }
-
+      fireCreatedOrUpdated(identity, previous, entity);
       return previous;
     }
 
     @Override
     public void clear() {
+      assertNotFrozen();
       for (Iterator<Map.Entry<IdentityType, EntityType>> it = entrySet().iterator(); it.hasNext();) {
         it.remove();
       }
+      clearIdentitiesByEntity();
     }
   }
 
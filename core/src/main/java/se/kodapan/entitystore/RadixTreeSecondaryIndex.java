@@ -0,0 +1,432 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Secondary index for prefix queries on a textual secondary key, e.g. type ahead,
+ * where the secondary keys are stored in a compressed radix tree that shares common prefixes.
+ * <p/>
+ * Each node keeps the number of entities below it,
+ * so {@link #count(String)} is proportional to the length of the prefix
+ * and {@link #startsWith(String, int)} to the length of the prefix plus the number of results.
+ * Results are ordered by secondary key, entities with equal secondary keys in the order they were put.
+ */
+public abstract class RadixTreeSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private static final char[] NO_CHARS = new char[0];
+  private static final Node[] NO_NODES = new Node[0];
+
+  private Node root = new Node("");
+
+  /** normalized secondary key each instance was put with */
+  private Map<EntityType, String> secondaryKeysByEntity = new IdentityHashMap<EntityType, String>();
+
+  protected RadixTreeSecondaryIndex() {
+  }
+
+  protected RadixTreeSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    super(name, primaryIndex);
+  }
+
+  /**
+   * @return text to be looked up by prefix, or null if the entity should not be indexed
+   */
+  @Override
+  public abstract Object getSecondaryKey(EntityType entity);
+
+  /**
+   * @return the secondary key passed to {@link #list(Object...)}
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return parameters[0];
+  }
+
+  /**
+   * Applied to both secondary keys and queries, e.g. in order to ignore case.
+   *
+   * @return text as is
+   */
+  protected String normalize(String text) {
+    return text;
+  }
+
+  @Override
+  public void reconstruct() {
+    root = new Node("");
+    secondaryKeysByEntity.clear();
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  /**
+   * Puts the entity with its current secondary key.
+   * If the very same instance already is in the index it is moved if the secondary key has changed,
+   * otherwise nothing happens.
+   *
+   * @throws InconsistencyException if an equal entity already is associated with the secondary key
+   */
+  @Override
+  public void put(EntityType entity) {
+    Object secondaryKey = getSecondaryKey(entity);
+    String key = secondaryKey == null ? null : normalize(secondaryKey.toString());
+    if (secondaryKeysByEntity.containsKey(entity)) {
+      String previousKey = secondaryKeysByEntity.get(entity);
+      if (previousKey == null ? key == null : previousKey.equals(key)) {
+        return;
+      }
+      removePosting(previousKey, entity);
+      secondaryKeysByEntity.remove(entity);
+    }
+    if (key == null) {
+      return;
+    }
+    Node node = find(key);
+    if (node != null && node.contains(entity)) {
+      throw new InconsistencyException("Entity " + entity.toString() + " is already known in " + this.toString());
+    }
+    addPosting(key, entity);
+    secondaryKeysByEntity.put(entity, key);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    if (secondaryKeysByEntity.containsKey(entity)) {
+      String key = secondaryKeysByEntity.remove(entity);
+      if (key != null) {
+        removePosting(key, entity);
+      }
+    }
+  }
+
+  private void addPosting(String key, Object entity) {
+    Node node = root;
+    int offset = 0;
+    while (true) {
+      node.size++;
+      if (offset == key.length()) {
+        node.add(entity);
+        return;
+      }
+      int index = node.indexOf(key.charAt(offset));
+      if (index < 0) {
+        Node leaf = new Node(key.substring(offset));
+        leaf.size = 1;
+        leaf.add(entity);
+        node.insert(-index - 1, leaf);
+        return;
+      }
+      Node child = node.children[index];
+      int common = 1;
+      while (common < child.label.length() && offset + common < key.length()
+          && child.label.charAt(common) == key.charAt(offset + common)) {
+        common++;
+      }
+      if (common < child.label.length()) {
+        // split the edge where the key diverges
+        Node split = new Node(child.label.substring(0, common));
+        split.size = child.size;
+        child.label = child.label.substring(common);
+        split.firstChars = new char[]{child.label.charAt(0)};
+        split.children = new Node[]{child};
+        node.children[index] = split;
+        child = split;
+      }
+      node = child;
+      offset += common;
+    }
+  }
+
+  private void removePosting(String key, Object entity) {
+    List<Node> path = new ArrayList<Node>();
+    Node node = root;
+    int offset = 0;
+    path.add(node);
+    while (offset < key.length()) {
+      int index = node.indexOf(key.charAt(offset));
+      if (index < 0) {
+        return;
+      }
+      node = node.children[index];
+      if (!key.startsWith(node.label, offset)) {
+        return;
+      }
+      offset += node.label.length();
+      path.add(node);
+    }
+    if (!node.remove(entity)) {
+      return;
+    }
+    for (Node pathNode : path) {
+      pathNode.size--;
+    }
+    // remove empty nodes and merge nodes left with a single child, bottom up
+    for (int i = path.size() - 1; i > 0; i--) {
+      Node child = path.get(i);
+      Node parent = path.get(i - 1);
+      int index = parent.indexOf(child.label.charAt(0));
+      if (child.size == 0) {
+        parent.delete(index);
+      } else if (child.entities == null && child.children.length == 1) {
+        Node grandChild = child.children[0];
+        grandChild.label = child.label + grandChild.label;
+        parent.children[index] = grandChild;
+      } else {
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return node of the exact key, or null if none
+   */
+  private Node find(String key) {
+    Node node = root;
+    int offset = 0;
+    while (offset < key.length()) {
+      int index = node.indexOf(key.charAt(offset));
+      if (index < 0) {
+        return null;
+      }
+      node = node.children[index];
+      if (!key.startsWith(node.label, offset)) {
+        return null;
+      }
+      offset += node.label.length();
+    }
+    return offset == key.length() ? node : null;
+  }
+
+  /**
+   * @return node of the shortest key starting with the prefix, or null if none
+   */
+  private Node findPrefix(String prefix, StringBuilder key) {
+    Node node = root;
+    int offset = 0;
+    while (offset < prefix.length()) {
+      int index = node.indexOf(prefix.charAt(offset));
+      if (index < 0) {
+        return null;
+      }
+      node = node.children[index];
+      int length = Math.min(node.label.length(), prefix.length() - offset);
+      if (!node.label.regionMatches(0, prefix, offset, length)) {
+        return null;
+      }
+      key.append(node.label);
+      offset += node.label.length();
+    }
+    return node;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<EntityType> list(Object... parameters) {
+    Object secondaryKey = getSecondaryKey(parameters);
+    if (secondaryKey == null) {
+      return null;
+    }
+    Node node = find(normalize(secondaryKey.toString()));
+    if (node == null || node.entities == null) {
+      return null;
+    }
+    if (node.entities instanceof Entities) {
+      return Collections.unmodifiableSet((Set<EntityType>) node.entities);
+    }
+    return Collections.singleton((EntityType) node.entities);
+  }
+
+  /**
+   * @return number of entities with a secondary key starting with the prefix
+   */
+  public int count(String prefix) {
+    Node node = findPrefix(normalize(prefix), new StringBuilder());
+    return node == null ? 0 : node.size;
+  }
+
+  /**
+   * @param prefix prefix of the secondary keys
+   * @param limit  maximum number of entities
+   * @return entities with a secondary key starting with the prefix, ordered by secondary key
+   */
+  @SuppressWarnings("unchecked")
+  public List<EntityType> startsWith(String prefix, int limit) {
+    Node node = findPrefix(normalize(prefix), new StringBuilder());
+    if (node == null) {
+      return Collections.emptyList();
+    }
+    List<Object> results = new ArrayList<Object>(Math.min(limit, node.size));
+    collectEntities(node, results, limit);
+    return (List<EntityType>) results;
+  }
+
+  private void collectEntities(Node node, List<Object> results, int limit) {
+    if (node.entities instanceof Entities) {
+      for (Object entity : (Entities) node.entities) {
+        if (results.size() == limit) {
+          return;
+        }
+        results.add(entity);
+      }
+    } else if (node.entities != null && results.size() < limit) {
+      results.add(node.entities);
+    }
+    for (int i = 0; i < node.children.length && results.size() < limit; i++) {
+      collectEntities(node.children[i], results, limit);
+    }
+  }
+
+  /**
+   * @param prefix prefix of the secondary keys
+   * @param limit  maximum number of secondary keys
+   * @return distinct normalized secondary keys starting with the prefix, in order
+   */
+  public List<String> completions(String prefix, int limit) {
+    List<String> results = new ArrayList<String>();
+    StringBuilder key = new StringBuilder();
+    Node node = findPrefix(normalize(prefix), key);
+    if (node != null) {
+      collectKeys(node, key, results, limit);
+    }
+    return results;
+  }
+
+  private void collectKeys(Node node, StringBuilder key, List<String> results, int limit) {
+    if (node.entities != null && results.size() < limit) {
+      results.add(key.toString());
+    }
+    for (int i = 0; i < node.children.length && results.size() < limit; i++) {
+      Node child = node.children[i];
+      key.append(child.label);
+      collectKeys(child, key, results, limit);
+      key.setLength(key.length() - child.label.length());
+    }
+  }
+
+  /**
+   * Entities of a node with more than one entity.
+   */
+  private static final class Entities extends LinkedHashSet<Object> {
+    private static final long serialVersionUID = 1l;
+
+    private Entities() {
+      super(4);
+    }
+  }
+
+  private static final class Node implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    /** the part of the key between the parent and this node */
+    private String label;
+
+    /** first character of the label of each child, in order */
+    private char[] firstChars = NO_CHARS;
+    private Node[] children = NO_NODES;
+
+    /** null, a single entity or {@link Entities} */
+    private Object entities;
+
+    /** number of entities in this node and below */
+    private int size;
+
+    private Node(String label) {
+      this.label = label;
+    }
+
+    private int indexOf(char firstChar) {
+      return Arrays.binarySearch(firstChars, firstChar);
+    }
+
+    private void insert(int index, Node child) {
+      char[] firstChars = new char[this.firstChars.length + 1];
+      Node[] children = new Node[this.children.length + 1];
+      System.arraycopy(this.firstChars, 0, firstChars, 0, index);
+      System.arraycopy(this.children, 0, children, 0, index);
+      firstChars[index] = child.label.charAt(0);
+      children[index] = child;
+      System.arraycopy(this.firstChars, index, firstChars, index + 1, this.firstChars.length - index);
+      System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+      this.firstChars = firstChars;
+      this.children = children;
+    }
+
+    private void delete(int index) {
+      if (children.length == 1) {
+        firstChars = NO_CHARS;
+        children = NO_NODES;
+        return;
+      }
+      char[] firstChars = new char[this.firstChars.length - 1];
+      Node[] children = new Node[this.children.length - 1];
+      System.arraycopy(this.firstChars, 0, firstChars, 0, index);
+      System.arraycopy(this.children, 0, children, 0, index);
+      System.arraycopy(this.firstChars, index + 1, firstChars, index, firstChars.length - index);
+      System.arraycopy(this.children, index + 1, children, index, children.length - index);
+      this.firstChars = firstChars;
+      this.children = children;
+    }
+
+    private boolean contains(Object entity) {
+      if (entities instanceof Entities) {
+        return ((Entities) entities).contains(entity);
+      }
+      return entities != null && entities.equals(entity);
+    }
+
+    private void add(Object entity) {
+      if (entities == null) {
+        entities = entity;
+      } else if (entities instanceof Entities) {
+        ((Entities) entities).add(entity);
+      } else {
+        Entities set = new Entities();
+        set.add(entities);
+        set.add(entity);
+        entities = set;
+      }
+    }
+
+    private boolean remove(Object entity) {
+      if (entities instanceof Entities) {
+        Entities set = (Entities) entities;
+        if (!set.remove(entity)) {
+          return false;
+        }
+        if (set.size() == 1) {
+          entities = set.iterator().next();
+        }
+        return true;
+      }
+      if (entities != null && entities.equals(entity)) {
+        entities = null;
+        return true;
+      }
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import se.kodapan.lang.reflect.augmentation.BinaryAssociationClassEnd;
+import se.kodapan.lang.reflect.augmentation.BinaryAssociationEnd;
+import se.kodapan.lang.reflect.augmentation.Mirror;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entities referring to other entities through associations that are only navigable from the referring end.
+ * <p/>
+ * A bi-directional association is decoupled using the other end,
+ * but an instance does not know about one-directional associations pointing at it.
+ * This index is kept up to date by the store on put and remove of instances of classes with such associations,
+ * so decoupling such an instance costs time proportional to the number of referrers.
+ * <p/>
+ * Backed by concurrent maps. Writes of the references to a target are serialized by a lock striped on the target,
+ * writes of the same referrer must be serialized by the caller.
+ * <p/>
+ * Qualified associations are not tracked.
+ */
+public class ReverseAssociationIndex {
+
+  private static final BinaryAssociationEnd[] NO_ENDS = new BinaryAssociationEnd[0];
+
+  private final EntityStoreImpl store;
+
+  /** references pointing at each target */
+  private ConcurrentHashMap<InstanceKey, Set<Reference>> referencesByTarget = new ConcurrentHashMap<InstanceKey, Set<Reference>>();
+
+  /** references made by each referrer, in order to unregister them when the referrer changes */
+  private ConcurrentHashMap<InstanceKey, Set<Reference>> referencesByReferrer = new ConcurrentHashMap<InstanceKey, Set<Reference>>();
+
+  /** serializes adding and removing the references to a target with removing the emptied set of the target */
+  private StripedLock targetLocks = new StripedLock(64);
+
+  ReverseAssociationIndex(EntityStoreImpl store) {
+    this.store = store;
+  }
+
+  /**
+   * @return navigable ends of the class with a non navigable other end that might be an entity in the store,
+   *         cached by the route of the class
+   */
+  static BinaryAssociationEnd[] getOneDirectionalEnds(EntityStoreImpl store, Class type) {
+    List<BinaryAssociationEnd> found = new ArrayList<BinaryAssociationEnd>();
+    for (BinaryAssociationEnd end : Mirror.reflect(type).getBinaryAssociationEnds().values()) {
+      if (end.isNavigatable() && !end.getOtherEnd().isNavigatable() && end.getQualification() == null
+          && store.mayBeEntityClass(end.getOtherEnd().getOwnerClass().getType())) {
+        found.add(end);
+      }
+    }
+    return found.isEmpty() ? NO_ENDS : found.toArray(new BinaryAssociationEnd[found.size()]);
+  }
+
+  private static Set<Reference> newReferenceSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<Reference, Boolean>(4));
+  }
+
+  /**
+   * Registers the entities the referrer currently points at, replacing what was registered before.
+   */
+  public void put(Object referrer) {
+    remove(referrer);
+    BinaryAssociationEnd[] ends = store.getRoute(referrer.getClass()).getOneDirectionalEnds();
+    if (ends.length == 0) {
+      return;
+    }
+    Set<Reference> references = newReferenceSet();
+    for (BinaryAssociationEnd end : ends) {
+      Object value = end.getAccessor().get(referrer);
+      if (value == null) {
+        continue;
+      }
+      boolean associationClass = end.getBinaryAssociation().getAssociationClassEnds() != null;
+      Collection values = end.getMultiplicity().isMaximumOne() ? Collections.singleton(value) : (Collection) value;
+      for (Object target : values) {
+        Object associationClassInstance = null;
+        if (associationClass) {
+          associationClassInstance = target;
+          target = end.getOtherEnd().getAssociationClassEnd().getAccessor().get(associationClassInstance);
+        }
+        if (target != null && store.isEntity(target)) {
+          references.add(new Reference(referrer, end, target, associationClassInstance));
+        }
+      }
+    }
+    if (references.isEmpty()) {
+      return;
+    }
+    referencesByReferrer.put(new InstanceKey(referrer), references);
+    for (Reference reference : references) {
+      InstanceKey target = new InstanceKey(reference.target);
+      ReentrantLock lock = targetLocks.get(target);
+      lock.lock();
+      try {
+        Set<Reference> targetReferences = referencesByTarget.get(target);
+        if (targetReferences == null) {
+          targetReferences = newReferenceSet();
+          referencesByTarget.put(target, targetReferences);
+        }
+        targetReferences.add(reference);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Unregisters the references made by the referrer.
+   */
+  public void remove(Object referrer) {
+    Set<Reference> references = referencesByReferrer.remove(new InstanceKey(referrer));
+    if (references != null) {
+      for (Reference reference : references) {
+        unregisterTarget(reference);
+      }
+    }
+  }
+
+  private void unregisterTarget(Reference reference) {
+    InstanceKey target = new InstanceKey(reference.target);
+    ReentrantLock lock = targetLocks.get(target);
+    lock.lock();
+    try {
+      Set<Reference> targetReferences = referencesByTarget.get(target);
+      if (targetReferences != null && targetReferences.remove(reference) && targetReferences.isEmpty()) {
+        referencesByTarget.remove(target);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return distinct entities with a one-directional association to the target
+   */
+  public Set<Object> getReferrers(Object target) {
+    Set<Reference> references = referencesByTarget.get(new InstanceKey(target));
+    if (references == null) {
+      return Collections.emptySet();
+    }
+    Set<Object> referrers = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    for (Reference reference : references) {
+      referrers.add(reference.referrer);
+    }
+    return referrers;
+  }
+
+  /**
+   * Removes the target from the associations of all its referrers.
+   *
+   * @param target instance being decoupled
+   */
+  public void decoupleReferrers(Object target) {
+    InstanceKey targetKey = new InstanceKey(target);
+    Set<Reference> references;
+    ReentrantLock lock = targetLocks.get(targetKey);
+    lock.lock();
+    try {
+      references = referencesByTarget.remove(targetKey);
+    } finally {
+      lock.unlock();
+    }
+    if (references == null) {
+      return;
+    }
+    for (Reference reference : references) {
+      BinaryAssociationEnd end = reference.end;
+      Object removed = reference.associationClassInstance != null ? reference.associationClassInstance : target;
+      if (end.getMultiplicity().isMaximumOne()) {
+        if (end.getAccessor().get(reference.referrer) == removed) {
+          end.getAccessor().set(reference.referrer, null);
+        }
+      } else {
+        Collection values = (Collection) end.getAccessor().get(reference.referrer);
+        if (values != null) {
+          values.removeAll(Collections.singleton(removed));
+        }
+      }
+      if (reference.associationClassInstance != null) {
+        for (BinaryAssociationClassEnd associationClassEnd : end.getBinaryAssociation().getAssociationClassEnds()) {
+          associationClassEnd.getAccessor().set(reference.associationClassInstance, null);
+        }
+      }
+      InstanceKey referrer = new InstanceKey(reference.referrer);
+      Set<Reference> referrerReferences = referencesByReferrer.get(referrer);
+      if (referrerReferences != null && referrerReferences.remove(reference) && referrerReferences.isEmpty()) {
+        // unless the referrer was put again meanwhile
+        referencesByReferrer.remove(referrer, referrerReferences);
+      }
+    }
+  }
+
+  /**
+   * @return number of registered references
+   */
+  public int size() {
+    int size = 0;
+    for (Set<Reference> references : referencesByReferrer.values()) {
+      size += references.size();
+    }
+    return size;
+  }
+
+  /**
+   * A referrer pointing at a target using an association end, possibly through an association class instance.
+   * Instances are compared by identity.
+   */
+  private static final class Reference {
+
+    private final Object referrer;
+    private final BinaryAssociationEnd end;
+    private final Object target;
+    private final Object associationClassInstance;
+
+    private Reference(Object referrer, BinaryAssociationEnd end, Object target, Object associationClassInstance) {
+      this.referrer = referrer;
+      this.end = end;
+      this.target = target;
+      this.associationClassInstance = associationClassInstance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Reference reference = (Reference) o;
+
+      return referrer == reference.referrer
+          && end == reference.end
+          && target == reference.target
+          && associationClassInstance == reference.associationClassInstance;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = System.identityHashCode(referrer);
+      result = 31 * result + System.identityHashCode(end);
+      result = 31 * result + System.identityHashCode(target);
+      result = 31 * result + System.identityHashCode(associationClassInstance);
+      return result;
+    }
+  }
+
+}
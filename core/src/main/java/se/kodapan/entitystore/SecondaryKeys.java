@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Several secondary keys of a single entity.
+ * <p/>
+ * When returned by {@link SecondaryIndex#getSecondaryKey(Object)} of a {@link SimpleMapSetSecondaryIndex}
+ * the entity is available using any of the keys, and not at all if there are none.
+ */
+public final class SecondaryKeys implements Iterable<Object>, Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private final Set<Object> keys;
+
+  /**
+   * @param keys secondary keys, duplicates are ignored
+   */
+  public SecondaryKeys(Collection<?> keys) {
+    this.keys = Collections.unmodifiableSet(new LinkedHashSet<Object>(keys));
+  }
+
+  public Set<Object> getKeys() {
+    return keys;
+  }
+
+  public int size() {
+    return keys.size();
+  }
+
+  @Override
+  public Iterator<Object> iterator() {
+    return keys.iterator();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    SecondaryKeys that = (SecondaryKeys) o;
+
+    return keys.equals(that.keys);
+  }
+
+  @Override
+  public int hashCode() {
+    return keys.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "SecondaryKeys{" +
+        "keys=" + keys +
+        '}';
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.*;
+
+/**
+ * Lower cased terms of letters and digits, split on anything else.
+ */
+public class SimpleAnalyzer implements Analyzer {
+
+  private static final long serialVersionUID = 1l;
+
+  private Set<String> stopWords;
+  private int minimumLength;
+
+  public SimpleAnalyzer() {
+    this(Collections.<String>emptySet(), 1);
+  }
+
+  /**
+   * @param stopWords     lower cased terms that are not indexed
+   * @param minimumLength shortest term that is indexed
+   */
+  public SimpleAnalyzer(Set<String> stopWords, int minimumLength) {
+    this.stopWords = stopWords;
+    this.minimumLength = minimumLength;
+  }
+
+  @Override
+  public List<String> analyze(String text) {
+    List<String> terms = new ArrayList<String>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+        if (start < 0) {
+          start = i;
+        }
+      } else if (start >= 0) {
+        addTerm(terms, text.substring(start, i));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  private void addTerm(List<String> terms, String term) {
+    if (term.length() >= minimumLength) {
+      term = term.toLowerCase(Locale.ROOT);
+      if (!stopWords.contains(term)) {
+        terms.add(term);
+      }
+    }
+  }
+
+  public Set<String> getStopWords() {
+    return stopWords;
+  }
+
+  public int getMinimumLength() {
+    return minimumLength;
+  }
+}
@@ -2,8 +2,19 @@ package se.kodapan.entitystore;
 
 import se.kodapan.collections.SetMap;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Entity type is also the result type
+ * <p/>
+ * The secondary key each entity was put with is recorded,
+ * as the entity might have been modified when removed.
+ * <p/>
+ * If the secondary key is {@link SecondaryKeys} the entity is posted with each of the keys.
+ *
  * @author kalle
  * @since 2010-jul-16 04:24:47
  */
@@ -11,6 +22,9 @@ public abstract class SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, Entit
 
   private static final long serialVersionUID = 1l;
 
+  /** secondary key each instance was put with, null after freeze */
+  private Map<EntityType, Object> secondaryKeysByEntity = createSecondaryKeysByEntity();
+
   protected SimpleMapSetSecondaryIndex() {
   }
 
@@ -22,6 +36,13 @@ public abstract class SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, Entit
     super(name, entityTypePrimaryIndex, objectEntityTypeMapSet);
   }
 
+  /**
+   * @return identity map used to record the secondary key of each entity
+   */
+  protected Map<EntityType, Object> createSecondaryKeysByEntity() {
+    return new IdentityHashMap<EntityType, Object>();
+  }
+
   /**
    *
    * @param entity
@@ -29,14 +50,97 @@ public abstract class SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, Entit
    */
   @Override
   public void remove(EntityType entity) {
-    getMapSet().removeSetValue(entity);
+    assertNotFrozen();
+    if (secondaryKeysByEntity.containsKey(entity)) {
+      removePostings(secondaryKeysByEntity.remove(entity), entity);
+    }
   }
 
+  /**
+   * Puts the entity with its current secondary key.
+   * If the very same instance already is in the index it is moved if the secondary key has changed,
+   * otherwise nothing happens.
+   *
+   * @param object entity to put
+   * @throws InconsistencyException if an equal entity already is associated with the secondary key
+   */
   @Override
   public void put(EntityType object) {
-    if (!getMapSet().add(getSecondaryKey(object), object)) {
+    put(object, getSecondaryKey(object));
+  }
+
+  /**
+   * Puts the entity with a secondary key already computed by the caller.
+   *
+   * @see #put(Object)
+   */
+  protected void put(EntityType object, Object secondaryKey) {
+    assertNotFrozen();
+    if (secondaryKeysByEntity.containsKey(object)) {
+      Object previousSecondaryKey = secondaryKeysByEntity.get(object);
+      if (previousSecondaryKey == null ? secondaryKey == null : previousSecondaryKey.equals(secondaryKey)) {
+        return;
+      }
+      removePostings(previousSecondaryKey, object);
+    }
+    if (!addPostings(secondaryKey, object)) {
+      secondaryKeysByEntity.remove(object);
       throw new InconsistencyException("Entity " + object.toString() + " is already known in " + this.toString());
     }
+    secondaryKeysByEntity.put(object, secondaryKey);
+  }
+
+  /**
+   * @return false if the entity already was posted with any of the secondary keys, in which case none was added
+   */
+  private boolean addPostings(Object secondaryKey, EntityType entity) {
+    if (!(secondaryKey instanceof SecondaryKeys)) {
+      return addPosting(secondaryKey, entity);
+    }
+    List<Object> added = new ArrayList<Object>(((SecondaryKeys) secondaryKey).size());
+    for (Object key : (SecondaryKeys) secondaryKey) {
+      if (!addPosting(key, entity)) {
+        for (Object addedKey : added) {
+          removePosting(addedKey, entity);
+        }
+        return false;
+      }
+      added.add(key);
+    }
+    return true;
+  }
+
+  private void removePostings(Object secondaryKey, EntityType entity) {
+    if (secondaryKey instanceof SecondaryKeys) {
+      for (Object key : (SecondaryKeys) secondaryKey) {
+        removePosting(key, entity);
+      }
+    } else {
+      removePosting(secondaryKey, entity);
+    }
+  }
+
+  /**
+   * A re-put instance is not removed first, so an unchanged secondary key costs a single lookup.
+   */
+  @Override
+  public void update(EntityType previous, EntityType entity) {
+    if (previous != null && previous != entity) {
+      remove(previous);
+    }
+    put(entity);
+  }
+
+  @Override
+  protected void clearPostings() {
+    super.clearPostings();
+    secondaryKeysByEntity.clear();
+  }
+
+  @Override
+  public void freeze() {
+    super.freeze();
+    secondaryKeysByEntity = null;
   }
 
 }
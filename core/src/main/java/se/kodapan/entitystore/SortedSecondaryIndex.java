@@ -0,0 +1,246 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.*;
+
+/**
+ * Secondary index ordered by the secondary key,
+ * that in addition to exact matches supports range queries and ordered iteration.
+ * <p/>
+ * The secondary keys must be {@link Comparable} unless a {@link Comparator} is passed to the constructor.
+ * Entities with a null secondary key are only available using {@link #list(Object...)}
+ * and are not part of any range.
+ * An entity with {@link SecondaryKeys} is available using any of the keys, and is in a range result only once.
+ * <p/>
+ * Bounds of the range queries are secondary keys, not parameters to {@link #getSecondaryKey(Object...)}.
+ * Results are in secondary key order, entities with equal secondary keys are in no particular order.
+ */
+public abstract class SortedSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private TreeMap<Object, Set<EntityType>> postings;
+  private Set<EntityType> nullKeyPostings = new HashSet<EntityType>();
+
+  /** true once any entity was put with {@link SecondaryKeys}, i.e. if range results must be deduplicated */
+  private boolean multipleKeys = false;
+
+  protected SortedSecondaryIndex() {
+    this(null, null, null);
+  }
+
+  protected SortedSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    this(name, primaryIndex, null);
+  }
+
+  /**
+   * @param comparator order of the secondary keys, or null for their natural order
+   */
+  protected SortedSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, Comparator<Object> comparator) {
+    super(name, primaryIndex);
+    postings = new TreeMap<Object, Set<EntityType>>(comparator);
+  }
+
+  @Override
+  protected void put(EntityType object, Object secondaryKey) {
+    if (secondaryKey instanceof SecondaryKeys) {
+      multipleKeys = true;
+    }
+    super.put(object, secondaryKey);
+  }
+
+  @Override
+  protected Set<EntityType> getPostings(Object secondaryKey) {
+    Set<EntityType> entities = secondaryKey == null ? nullKeyPostings : postings.get(secondaryKey);
+    return entities == null ? null : Collections.unmodifiableSet(entities);
+  }
+
+  @Override
+  protected boolean addPosting(Object secondaryKey, EntityType value) {
+    Set<EntityType> entities;
+    if (secondaryKey == null) {
+      entities = nullKeyPostings;
+    } else {
+      entities = postings.get(secondaryKey);
+      if (entities == null) {
+        entities = new HashSet<EntityType>(4);
+        postings.put(secondaryKey, entities);
+      }
+    }
+    return entities.add(value);
+  }
+
+  @Override
+  protected boolean removePosting(Object secondaryKey, EntityType value) {
+    if (secondaryKey == null) {
+      return nullKeyPostings.remove(value);
+    }
+    Set<EntityType> entities = postings.get(secondaryKey);
+    if (entities == null || !entities.remove(value)) {
+      return false;
+    }
+    if (entities.isEmpty()) {
+      postings.remove(secondaryKey);
+    }
+    return true;
+  }
+
+  @Override
+  protected boolean removePostingValue(EntityType value) {
+    boolean removed = nullKeyPostings.remove(value);
+    for (Iterator<Set<EntityType>> it = postings.values().iterator(); it.hasNext();) {
+      Set<EntityType> entities = it.next();
+      if (entities.remove(value)) {
+        removed = true;
+        if (entities.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  protected void clearPostings() {
+    postings.clear();
+    nullKeyPostings.clear();
+    multipleKeys = false;
+    super.clearPostings();
+  }
+
+  /**
+   * Keeps the sorted postings, they are required by the range queries.
+   */
+  @Override
+  public void freeze() {
+  }
+
+  /**
+   * @param from inclusive lower bound, or null if unbounded
+   * @param to   exclusive upper bound, or null if unbounded
+   * @return entities with a secondary key in the range, ordered by secondary key. Empty if from is greater than to.
+   */
+  public List<EntityType> range(Object from, Object to) {
+    return range(from, true, to, false, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param from          lower bound, or null if unbounded
+   * @param fromInclusive if entities with secondary key equal to from are included
+   * @param to            upper bound, or null if unbounded
+   * @param toInclusive   if entities with secondary key equal to to are included
+   * @param limit         maximum number of entities returned
+   * @return entities with a secondary key in the range, ordered by secondary key. Empty if from is greater than to.
+   */
+  public List<EntityType> range(Object from, boolean fromInclusive, Object to, boolean toInclusive, int limit) {
+    if (from != null && to != null && compare(from, to) > 0) {
+      return new ArrayList<EntityType>(0);
+    }
+    NavigableMap<Object, Set<EntityType>> range = postings;
+    if (from != null) {
+      range = range.tailMap(from, fromInclusive);
+    }
+    if (to != null) {
+      range = range.headMap(to, toInclusive);
+    }
+    return collect(range, limit);
+  }
+
+  /**
+   * @return entities with a secondary key greater than key, ordered by secondary key
+   */
+  public List<EntityType> greaterThan(Object key, int limit) {
+    return collect(postings.tailMap(key, false), limit);
+  }
+
+  /**
+   * @return entities with a secondary key less than key, ordered by secondary key
+   */
+  public List<EntityType> lessThan(Object key, int limit) {
+    return collect(postings.headMap(key, false), limit);
+  }
+
+  /**
+   * Requires String secondary keys in natural order.
+   *
+   * @return entities with a secondary key that starts with prefix, ordered by secondary key
+   */
+  public List<EntityType> startsWith(String prefix, int limit) {
+    if (prefix.length() == 0) {
+      return ordered(false, limit);
+    }
+    // the smallest string greater than all strings starting with prefix
+    int last = prefix.length() - 1;
+    while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+      last--;
+    }
+    if (last < 0) {
+      return collect(postings.tailMap(prefix, true), limit);
+    }
+    String to = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    return collect(postings.subMap(prefix, true, to, false), limit);
+  }
+
+  /**
+   * @param descending if the highest secondary key comes first
+   * @param limit      maximum number of entities returned
+   * @return entities with a non null secondary key, ordered by secondary key
+   */
+  public List<EntityType> ordered(boolean descending, int limit) {
+    return collect(descending ? postings.descendingMap() : postings, limit);
+  }
+
+  /**
+   * @return lowest non null secondary key, or null if none
+   */
+  public Object firstKey() {
+    return postings.isEmpty() ? null : postings.firstKey();
+  }
+
+  /**
+   * @return highest non null secondary key, or null if none
+   */
+  public Object lastKey() {
+    return postings.isEmpty() ? null : postings.lastKey();
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compare(Object a, Object b) {
+    Comparator<Object> comparator = (Comparator<Object>) postings.comparator();
+    return comparator != null ? comparator.compare(a, b) : ((Comparable<Object>) a).compareTo(b);
+  }
+
+  private List<EntityType> collect(Map<Object, Set<EntityType>> range, int limit) {
+    List<EntityType> results = new ArrayList<EntityType>(Math.min(limit, 16));
+    Set<EntityType> collected = multipleKeys ? Collections.newSetFromMap(new IdentityHashMap<EntityType, Boolean>()) : null;
+    for (Set<EntityType> entities : range.values()) {
+      for (EntityType entity : entities) {
+        if (results.size() == limit) {
+          return results;
+        }
+        if (collected == null || collected.add(entity)) {
+          results.add(entity);
+        }
+      }
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.kodapan.entitystore;
+
+import java.io.Serializable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks selected by the hash code of a key,
+ * i.e. equal keys always share lock while different keys most probably do not.
+ */
+public class StripedLock implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private final ReentrantLock[] locks;
+
+  /**
+   * @param stripes number of locks, rounded up to a power of two
+   */
+  public StripedLock(int stripes) {
+    if (stripes < 1) {
+      throw new IllegalArgumentException("Must be at least one stripe");
+    }
+    int size = 1;
+    while (size < stripes) {
+      size <<= 1;
+    }
+    locks = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * @param key non null key
+   * @return lock of the stripe the key belongs to
+   */
+  public ReentrantLock get(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return locks[(h ^ (h >>> 16)) & (locks.length - 1)];
+  }
+
+  public int getStripes() {
+    return locks.length;
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary index where each secondary key is associated with at most one entity,
+ * kept in a flat map without a set per key. {@link #get(Object...)} is a single hash probe.
+ * <p/>
+ * Uniqueness is validated by the store before the entity is written to any index,
+ * and enforced again when the entity is put.
+ * Entities with a null secondary key are not indexed,
+ * unless the index is required in which case the put fails.
+ */
+public abstract class UniqueSecondaryIndex<PrimaryIndexIdentityType, EntityType>
+    extends AbstractSecondaryIndex<EntityType, PrimaryIndexIdentityType, EntityType>
+    implements ConstrainedSecondaryIndex<EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private Map<Object, EntityType> entitiesByKey = new HashMap<Object, EntityType>();
+
+  /** secondary key each instance was put with */
+  private Map<EntityType, Object> secondaryKeysByEntity = new IdentityHashMap<EntityType, Object>();
+
+  /** if all entities must have a secondary key, i.e. multiplicity 1 rather than 0..1 */
+  private boolean required;
+
+  protected UniqueSecondaryIndex() {
+  }
+
+  protected UniqueSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex) {
+    this(name, primaryIndex, false);
+  }
+
+  /**
+   * @param required if all entities must have a secondary key
+   */
+  protected UniqueSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, boolean required) {
+    super(name, primaryIndex);
+    this.required = required;
+  }
+
+  @Override
+  public void reconstruct() {
+    entitiesByKey.clear();
+    secondaryKeysByEntity.clear();
+    for (EntityType entity : getPrimaryIndex().getEntitiesById().values()) {
+      put(entity);
+    }
+  }
+
+  /**
+   * @throws InconsistencyException if another entity than previous already is associated with the secondary key of entity,
+   *                                or if the secondary key is null and the index is required.
+   */
+  @Override
+  public void validate(EntityType previous, EntityType entity) throws InconsistencyException {
+    assertUnique(getSecondaryKey(entity), previous, entity);
+  }
+
+  private void assertUnique(Object secondaryKey, EntityType previous, EntityType entity) throws InconsistencyException {
+    if (secondaryKey == null) {
+      if (required) {
+        throw new InconsistencyException("Entity " + entity.toString() + " has no secondary key in required " + this.toString());
+      }
+      return;
+    }
+    EntityType existing = entitiesByKey.get(secondaryKey);
+    if (existing != null && existing != entity && existing != previous) {
+      throw new InconsistencyException("Entity " + entity.toString() + " has the same secondary key as " + existing.toString() + " in unique " + this.toString());
+    }
+  }
+
+  /**
+   * The index is left untouched if the put fails.
+   *
+   * @throws InconsistencyException if another entity already is associated with the secondary key,
+   *                                or if the secondary key is null and the index is required.
+   */
+  @Override
+  public void put(EntityType entity) {
+    Object secondaryKey = getSecondaryKey(entity);
+    assertUnique(secondaryKey, null, entity);
+    if (secondaryKeysByEntity.containsKey(entity)) {
+      Object previousSecondaryKey = secondaryKeysByEntity.get(entity);
+      if (previousSecondaryKey == null ? secondaryKey == null : previousSecondaryKey.equals(secondaryKey)) {
+        return;
+      }
+      remove(entity);
+    }
+    if (secondaryKey != null) {
+      entitiesByKey.put(secondaryKey, entity);
+    }
+    secondaryKeysByEntity.put(entity, secondaryKey);
+  }
+
+  @Override
+  public void remove(EntityType entity) {
+    if (secondaryKeysByEntity.containsKey(entity)) {
+      Object secondaryKey = secondaryKeysByEntity.remove(entity);
+      if (secondaryKey != null && entitiesByKey.get(secondaryKey) == entity) {
+        entitiesByKey.remove(secondaryKey);
+      }
+    }
+  }
+
+  @Override
+  public EntityType get(Object... parameters) {
+    Object secondaryKey = getSecondaryKey(parameters);
+    return secondaryKey == null ? null : entitiesByKey.get(secondaryKey);
+  }
+
+  @Override
+  public Set<EntityType> list(Object... parameters) {
+    EntityType entity = get(parameters);
+    return entity == null ? null : Collections.singleton(entity);
+  }
+
+  public boolean isRequired() {
+    return required;
+  }
+
+  public void setRequired(boolean required) {
+    this.required = required;
+  }
+
+}
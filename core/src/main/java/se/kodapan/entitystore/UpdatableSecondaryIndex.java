@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * A secondary index that replaces an instance in a single step when an entity is put,
+ * rather than the store removing the previous instance and putting the new one,
+ * e.g. in order to leave the index untouched when the secondary key has not changed.
+ */
+public interface UpdatableSecondaryIndex<EntityType> {
+
+  /**
+   * Replaces previous with entity, called by the store when an entity is put.
+   *
+   * @param previous instance previously associated with the identity of entity, or null
+   * @param entity   instance put to the store
+   */
+  public abstract void update(EntityType previous, EntityType entity);
+
+}
@@ -0,0 +1,79 @@
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+import se.kodapan.entitystore.domain.Organization;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Puts per second of distinct identities to {@link ConcurrentEntityStore}
+ * and to {@link EntityStoreImpl} guarded by a single lock, at different number of writer threads.
+ * <p/>
+ * Not a unit test, execute the main method.
+ */
+public class ConcurrentEntityStoreBenchmark {
+
+  private static final int PUTS_PER_THREAD = 200000;
+
+  public static void main(String[] args) throws Exception {
+    int[] threadCounts = new int[]{1, 4, 16};
+
+    // warm up
+    run(new EntityStoreImpl(), 2);
+    run(new ConcurrentEntityStore(), 2);
+
+    System.out.println("threads\tsingle lock puts/s\tstriped puts/s");
+    for (int threads : threadCounts) {
+      double singleLockRate = run(new EntityStoreImpl(), threads);
+      double stripedRate = run(new ConcurrentEntityStore(), threads);
+      System.out.println(threads + "\t" + (long) singleLockRate + "\t" + (long) stripedRate);
+    }
+  }
+
+  /**
+   * @return puts per second
+   */
+  private static double run(final EntityStoreImpl store, int threads) throws InterruptedException {
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    final boolean singleLock = !(store instanceof ConcurrentEntityStore);
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final Organization[] organizations = new Organization[PUTS_PER_THREAD];
+      for (int i = 0; i < PUTS_PER_THREAD; i++) {
+        organizations[i] = new Organization(null, null);
+        organizations[i].setId((long) t * PUTS_PER_THREAD + i);
+      }
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (Organization organization : organizations) {
+            if (singleLock) {
+              synchronized (store) {
+                store.put(organization.getId(), organization);
+              }
+            } else {
+              store.put(organization.getId(), organization);
+            }
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    long started = System.nanoTime();
+    start.countDown();
+    done.await();
+    long nanos = System.nanoTime() - started;
+    return (double) threads * PUTS_PER_THREAD / (nanos / 1000000000d);
+  }
+
+}
@@ -0,0 +1,65 @@
+package se.kodapan.entitystore;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Identities per second created by {@link DeterministicUIDHandler}
+ * and {@link ConcurrentDeterministicUIDHandler} at different number of threads.
+ * <p/>
+ * Not a unit test, execute the main method.
+ */
+public class DeterministicUIDHandlerBenchmark {
+
+  private static final int IDENTITIES_PER_THREAD = 2000000;
+
+  public static void main(String[] args) throws Exception {
+    int[] threadCounts = new int[]{1, 2, 4, 8, 16};
+
+    // warm up
+    run(new DeterministicUIDHandler(), 2);
+    run(new ConcurrentDeterministicUIDHandler(), 2);
+
+    System.out.println("threads\tsynchronized ids/s\tconcurrent ids/s");
+    for (int threads : threadCounts) {
+      double synchronizedRate = run(new DeterministicUIDHandler(), threads);
+      double concurrentRate = run(new ConcurrentDeterministicUIDHandler(), threads);
+      System.out.println(threads + "\t" + (long) synchronizedRate + "\t" + (long) concurrentRate);
+    }
+  }
+
+  /**
+   * @return identities per second
+   */
+  private static double run(final DeterministicUIDHandler handler, int threads) throws InterruptedException {
+    final Date executionTime = new Date();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          int hash = 0;
+          for (int i = 0; i < IDENTITIES_PER_THREAD; i++) {
+            hash += handler.nextIdentity(executionTime).hashCode();
+          }
+          if (hash == 42) {
+            System.out.print("");
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    long started = System.nanoTime();
+    start.countDown();
+    done.await();
+    long nanos = System.nanoTime() - started;
+    return (double) threads * IDENTITIES_PER_THREAD / (nanos / 1000000000d);
+  }
+
+}
@@ -0,0 +1,58 @@
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+/**
+ * Heap used by the indices of {@link EntityStoreImpl} and {@link EntityTableStore}
+ * when storing entities in a three level hierarchy, Identifiable, LegalPerson and Human.
+ * <p/>
+ * Not a unit test, execute the main method.
+ */
+public class EntityTableStoreMemoryBenchmark {
+
+  private static final int ENTITIES = 500000;
+
+  public static void main(String[] args) throws Exception {
+    Human[] humans = new Human[ENTITIES];
+    for (int i = 0; i < ENTITIES; i++) {
+      humans[i] = new Human();
+      humans[i].setId((long) i);
+    }
+
+    System.out.println("store\tbytes per entity");
+    for (int i = 0; i < 2; i++) {
+      System.out.println("EntityStoreImpl\t" + measure(new EntityStoreImpl(), humans));
+      System.out.println("EntityTableStore\t" + measure(new EntityTableStore(), humans));
+    }
+  }
+
+  /**
+   * @return bytes used by the store per entity
+   */
+  private static long measure(EntityStoreImpl store, Human[] humans) throws InterruptedException {
+    long before = usedHeap();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    for (Human human : humans) {
+      store.put(human.getId(), human);
+    }
+    long used = usedHeap() - before;
+    if (store.get(Human.class, 0l) == null) {
+      throw new RuntimeException();
+    }
+    return used / humans.length;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
+}
@@ -0,0 +1,54 @@
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+/**
+ * Heap used by the indices of an {@link EntityStoreImpl} before and after {@link EntityStoreImpl#freeze()}.
+ * <p/>
+ * Not a unit test, execute the main method.
+ */
+public class FrozenEntityStoreMemoryBenchmark {
+
+  private static final int ENTITIES = 500000;
+
+  public static void main(String[] args) throws Exception {
+    Human[] humans = new Human[ENTITIES];
+    for (int i = 0; i < ENTITIES; i++) {
+      humans[i] = new Human();
+      humans[i].setId((long) i);
+      humans[i].setName(String.valueOf(i));
+    }
+
+    long before = usedHeap();
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.registerSecondaryIndex(new LegalPersonsByName("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class)));
+    for (Human human : humans) {
+      store.put(human.getId(), human);
+    }
+    long unfrozen = usedHeap() - before;
+
+    store.freeze();
+    long frozen = usedHeap() - before;
+
+    System.out.println("bytes per entity before freeze\t" + unfrozen / ENTITIES);
+    System.out.println("bytes per entity after freeze\t" + frozen / ENTITIES);
+    if (store.get(Human.class, 0l) == null) {
+      throw new RuntimeException();
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
+}
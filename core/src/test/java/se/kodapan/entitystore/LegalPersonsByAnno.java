@@ -0,0 +1,25 @@
+package se.kodapan.entitystore;
+
+import se.kodapan.entitystore.domain.LegalPerson;
+
+public class LegalPersonsByAnno extends SortedSecondaryIndex<Long, LegalPerson> {
+
+  private static final long serialVersionUID = 1l;
+
+  public LegalPersonsByAnno() {
+  }
+
+  public LegalPersonsByAnno(String name, PrimaryIndex<Long, LegalPerson> longLegalPersonPrimaryIndex) {
+    super(name, longLegalPersonPrimaryIndex);
+  }
+
+  @Override
+  public Object getSecondaryKey(LegalPerson legalPerson) throws UnsupportedOperationException {
+    return legalPerson.getAnno();
+  }
+
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return parameters[0];
+  }
+}
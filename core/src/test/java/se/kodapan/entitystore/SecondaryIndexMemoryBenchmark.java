@@ -0,0 +1,58 @@
+package se.kodapan.entitystore;
+
+import se.kodapan.collections.SetMap;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+/**
+ * Heap used by a high cardinality secondary index with {@link SetMap} postings
+ * compared to {@link AdaptivePostings}.
+ * <p/>
+ * Not a unit test, execute the main method.
+ */
+public class SecondaryIndexMemoryBenchmark {
+
+  private static final int ENTITIES = 500000;
+
+  public static void main(String[] args) throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    for (int i = 0; i < ENTITIES; i++) {
+      Human human = new Human();
+      human.setId((long) i);
+      // mostly unique names, some shared by a handful of entities
+      human.setName(String.valueOf(i % 10 == 0 ? i % 50000 : i));
+      store.put(human.getId(), human);
+    }
+    PrimaryIndex<Long, LegalPerson> primaryIndex = store.getPrimaryIndex(Long.class, LegalPerson.class);
+
+    long before = usedHeap();
+    LegalPersonsByName mapSetIndex = new LegalPersonsByName("mapSet", primaryIndex, new SetMap<Object, LegalPerson>());
+    mapSetIndex.reconstruct();
+    long mapSet = usedHeap() - before;
+
+    before = usedHeap();
+    LegalPersonsByName adaptiveIndex = new LegalPersonsByName("adaptive", primaryIndex);
+    adaptiveIndex.reconstruct();
+    long adaptive = usedHeap() - before;
+
+    System.out.println("bytes per entity with SetMap postings\t" + mapSet / ENTITIES);
+    System.out.println("bytes per entity with adaptive postings\t" + adaptive / ENTITIES);
+    if (mapSetIndex.list("0").size() != adaptiveIndex.list("0").size()) {
+      throw new RuntimeException();
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
+}
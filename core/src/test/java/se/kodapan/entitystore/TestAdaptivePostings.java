@@ -0,0 +1,156 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+import java.util.*;
+
+public class TestAdaptivePostings extends TestCase {
+
+  @Test
+  public void testCompressedBitmap() throws Exception {
+    Random random = new Random(0);
+    CompressedBitmap bitmap = new CompressedBitmap();
+    Set<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 200000; i++) {
+      // dense low values in order to exercise the bitmap containers
+      int value = random.nextBoolean() ? random.nextInt(20000) : random.nextInt(Integer.MAX_VALUE);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(value), bitmap.remove(value));
+      } else {
+        assertEquals(expected.add(value), bitmap.add(value));
+      }
+      assertEquals(expected.size(), bitmap.cardinality());
+    }
+    Iterator<Integer> expectedIterator = expected.iterator();
+    for (CompressedBitmap.Iterator it = TestEntityStore.clone(bitmap).iterator(); it.hasNext();) {
+      assertEquals(expectedIterator.next().intValue(), it.next());
+    }
+    assertFalse(expectedIterator.hasNext());
+  }
+
+  @Test
+  public void testRandomOperations() throws Exception {
+    Random random = new Random(0);
+    AdaptivePostings<Integer> postings = new AdaptivePostings<Integer>();
+    Map<Object, Set<Integer>> expected = new HashMap<Object, Set<Integer>>();
+
+    for (int i = 0; i < 100000; i++) {
+      // few keys with many values and many keys with few values
+      Object key = random.nextBoolean() ? (Object) random.nextInt(5) : (Object) String.valueOf(random.nextInt(1000));
+      if (random.nextInt(50) == 0) {
+        key = null;
+      }
+      Integer value = random.nextInt(200);
+      Set<Integer> values = expected.get(key);
+      switch (random.nextInt(4)) {
+        case 0:
+        case 1:
+          if (values == null) {
+            expected.put(key, values = new HashSet<Integer>());
+          }
+          assertEquals(values.add(value), postings.add(key, value));
+          break;
+        case 2:
+          assertEquals(values != null && values.remove(value), postings.remove(key, value));
+          if (values != null && values.isEmpty()) {
+            expected.remove(key);
+          }
+          break;
+        default:
+          assertEquals(values == null ? null : values, postings.get(key));
+      }
+      assertEquals(expected.size(), postings.size());
+    }
+
+    assertEquals(expected, postings.asMap());
+    assertEquals(expected, TestEntityStore.clone(postings).asMap());
+
+    boolean removed = false;
+    for (Set<Integer> values : expected.values()) {
+      removed |= values.remove(7);
+    }
+    assertEquals(removed, postings.removeValue(7));
+    for (Iterator<Set<Integer>> it = expected.values().iterator(); it.hasNext();) {
+      if (it.next().isEmpty()) {
+        it.remove();
+      }
+    }
+    assertEquals(expected, postings.asMap());
+
+    postings.clear();
+    assertEquals(0, postings.size());
+    assertNull(postings.get(0));
+  }
+
+  /**
+   * Many entities with the same secondary key are kept as a bitmap of entity ordinals.
+   */
+  @Test
+  public void testBitmapPostings() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByLastName humansByLastName = new HumansByLastName("humansByLastName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(humansByLastName);
+
+    Human[] humans = new Human[1000];
+    for (int i = 0; i < humans.length; i++) {
+      humans[i] = new Human(null, "Sven Svensson " + i, "Sven", "Sven", "Svensson");
+      humans[i].setId((long) i);
+      store.put(humans[i].getId(), humans[i]);
+    }
+    assertEquals(1000, store.getEntityOrdinals().size());
+    assertEquals(new HashSet<Human>(Arrays.asList(humans)), humansByLastName.list("Svensson"));
+
+    // members are compared using equals also when kept as a bitmap
+    Human copy = new Human(null, "Sven Svensson 7", "Sven", "Sven", "Svensson");
+    copy.setId(7l);
+    assertTrue(humansByLastName.list("Svensson").contains(copy));
+    copy.setId(7000l);
+    assertFalse(humansByLastName.list("Svensson").contains(copy));
+
+    // replace with new instances, half of them with a new last name
+    Set<Human> svenssons = new HashSet<Human>();
+    Set<Human> anderssons = new HashSet<Human>();
+    for (int i = 0; i < humans.length; i++) {
+      if (i < 500) {
+        Human human = new Human(null, "Sven Svensson " + i, "Sven", "Sven", i % 2 == 0 ? "Andersson" : "Svensson");
+        human.setId((long) i);
+        assertSame(humans[i], store.put(human.getId(), human));
+        humans[i] = human;
+      }
+      (humans[i].getLastName().equals("Andersson") ? anderssons : svenssons).add(humans[i]);
+    }
+    assertEquals(svenssons, humansByLastName.list("Svensson"));
+    assertEquals(anderssons, humansByLastName.list("Andersson"));
+
+    for (Human human : anderssons) {
+      assertSame(human, store.remove(Human.class, human.getId()));
+    }
+    assertNull(humansByLastName.list("Andersson"));
+    assertEquals(750, store.getEntityOrdinals().size());
+    assertEquals(svenssons, humansByLastName.list("Svensson"));
+
+    // removed ordinals are reused
+    Human human = new Human(null, "Anders Andersson", "Anders", "Anders", "Andersson");
+    human.setId(2000l);
+    store.put(human.getId(), human);
+    assertEquals(Collections.singleton(human), humansByLastName.list("Andersson"));
+    assertEquals(750, humansByLastName.list("Svensson").size());
+
+    // there is no map set to expose
+    try {
+      humansByLastName.getMapSet();
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+}
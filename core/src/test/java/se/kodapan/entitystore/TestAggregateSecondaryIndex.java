@@ -0,0 +1,178 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+import java.util.*;
+
+public class TestAggregateSecondaryIndex extends TestCase {
+
+  /**
+   * Length of preferred name and distinct last names per country.
+   */
+  private static class HumansByCountry extends AggregateSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private HumansByCountry(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(Human human) {
+      return human.getContactInformation().getAddress().getCountry();
+    }
+
+    @Override
+    public Object getSecondaryKey(Object... parameters) {
+      return parameters[0];
+    }
+
+    @Override
+    protected Number getValue(Human human) {
+      return human.getPreferredName() == null ? null : human.getPreferredName().length();
+    }
+
+    @Override
+    protected Object getDistinctValue(Human human) {
+      return human.getLastName();
+    }
+  }
+
+  @Test
+  public void testHyperLogLog() throws Exception {
+    HyperLogLog a = new HyperLogLog();
+    HyperLogLog b = new HyperLogLog();
+    assertEquals(0, a.cardinality());
+    for (int i = 0; i < 100000; i++) {
+      a.add("value " + i);
+      // duplicates are not counted
+      a.add("value " + i);
+      b.add("value " + (i + 50000));
+    }
+    assertEquals(100000d, a.cardinality(), 5000d);
+    assertEquals(150000d, HyperLogLog.merge(a, b).cardinality(), 7500d);
+    assertEquals(100000d, a.cardinality(), 5000d);
+
+    HyperLogLog small = new HyperLogLog();
+    for (int i = 0; i < 20; i++) {
+      small.add(i);
+    }
+    assertEquals(20d, small.cardinality(), 1d);
+  }
+
+  @Test
+  public void testAggregates() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByCountry byCountry = new HumansByCountry("byCountry", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byCountry);
+
+    String[] countries = new String[]{"Sweden", "Norway", "Denmark", null};
+    String[] preferredNames = new String[]{"Al", "Bob", "Carl", "Dagny", null};
+    Random random = new Random(0);
+    Map<Long, Human> humans = new HashMap<Long, Human>();
+    for (int operation = 0; operation < 20000; operation++) {
+      long id = random.nextInt(2000);
+      if (random.nextInt(4) == 0) {
+        store.remove(Human.class, id);
+        humans.remove(id);
+      } else if (humans.containsKey(id) && random.nextBoolean()) {
+        // modified instance
+        Human human = humans.get(id);
+        human.getContactInformation().getAddress().setCountry(countries[random.nextInt(countries.length)]);
+        human.setPreferredName(preferredNames[random.nextInt(preferredNames.length)]);
+        store.put(id, human);
+      } else {
+        Human human = new Human(null, null, null, preferredNames[random.nextInt(preferredNames.length)], "Svensson " + random.nextInt(300));
+        human.getContactInformation().getAddress().setCountry(countries[random.nextInt(countries.length)]);
+        human.setId(id);
+        store.put(id, human);
+        humans.put(id, human);
+      }
+    }
+
+    double totalSum = 0;
+    for (String country : countries) {
+      Set<Human> expected = new HashSet<Human>();
+      Set<String> lastNames = new HashSet<String>();
+      double sum = 0;
+      Double min = null;
+      Double max = null;
+      for (Human human : humans.values()) {
+        if (country == null ? human.getContactInformation().getAddress().getCountry() == null : country.equals(human.getContactInformation().getAddress().getCountry())) {
+          expected.add(human);
+          lastNames.add(human.getLastName());
+          if (human.getPreferredName() != null) {
+            double value = human.getPreferredName().length();
+            sum += value;
+            min = min == null ? value : Math.min(min, value);
+            max = max == null ? value : Math.max(max, value);
+          }
+        }
+      }
+      totalSum += sum;
+      AggregateSecondaryIndex<Long, Human>.Aggregate aggregate = byCountry.getAggregate(country);
+      assertEquals(expected, byCountry.list(country));
+      assertEquals(expected.size(), aggregate.getCount());
+      assertEquals(sum, aggregate.getSum(), 0.0001d);
+      assertEquals(min, aggregate.getMin());
+      assertEquals(max, aggregate.getMax());
+      assertEquals(lastNames.size(), aggregate.getDistinctCount(), lastNames.size() * 0.1d);
+    }
+    assertEquals(humans.size(), byCountry.getTotalCount());
+    assertEquals(totalSum, byCountry.getTotalSum(), 0.0001d);
+    assertEquals(300d, byCountry.getTotalDistinctCount(), 30d);
+
+    for (Long id : new ArrayList<Long>(humans.keySet())) {
+      store.remove(Human.class, id);
+    }
+    assertEquals(0, byCountry.getTotalCount());
+    assertTrue(byCountry.getAggregates().isEmpty());
+    assertNull(byCountry.getAggregate("Sweden"));
+  }
+
+  /**
+   * Entities that are equal but not the same instance are counted each on their own.
+   */
+  @Test
+  public void testEqualEntities() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByCountry byCountry = new HumansByCountry("byCountry", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byCountry);
+
+    Human first = new Human(null, null, null, "Al", "Svensson");
+    first.getContactInformation().getAddress().setCountry("Sweden");
+    first.setId(1l);
+    Human second = new Human(null, null, null, "Bob", "Larsson");
+    second.getContactInformation().getAddress().setCountry("Sweden");
+    second.setId(1l);
+    assertEquals(first, second);
+
+    store.put(1l, first);
+    store.put(2l, second);
+    assertEquals(2, byCountry.getAggregate("Sweden").getCount());
+    assertEquals(2, byCountry.list("Sweden").size());
+    assertEquals(5d, byCountry.getAggregate("Sweden").getSum(), 0.0001d);
+
+    store.remove(Human.class, 1l);
+    assertEquals(1, byCountry.getAggregate("Sweden").getCount());
+    assertSame(second, byCountry.list("Sweden").iterator().next());
+    assertEquals(1, byCountry.getAggregate("Sweden").getDistinctCount());
+
+    store.remove(Human.class, 2l);
+    assertEquals(0, byCountry.getTotalCount());
+    assertNull(byCountry.getAggregate("Sweden"));
+  }
+
+}
@@ -0,0 +1,96 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.*;
+
+import java.util.*;
+
+public class TestAssociationPathSecondaryIndex extends TestCase {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testEmployments() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(1l);
+    Organization volvo = new Organization(null, "Volvo");
+    volvo.setId(2l);
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(3l);
+    Human bob = new Human(null, "Robert Gustavsson", "Robert", "Bob", "Gustavsson");
+    bob.setId(4l);
+    Employment.factory(null, null, "Jurist", alice, hd);
+    Employment.factory(null, null, "Häradshövding", alice, hd);
+    Employment.factory(null, null, "Montör", bob, volvo);
+
+    store.put(hd.getId(), hd);
+    store.put(volvo.getId(), volvo);
+    store.put(alice.getId(), alice);
+
+    // registered with entities in the store
+    AssociationPathSecondaryIndex<Long, Human> humansByEmployerName = new AssociationPathSecondaryIndex<Long, Human>("humansByEmployerName", store.getPrimaryIndex(Long.class, Human.class), "employments.name");
+    store.registerSecondaryIndex(humansByEmployerName);
+    AssociationPathSecondaryIndex<Long, Human> humansByEmployer = new AssociationPathSecondaryIndex<Long, Human>("humansByEmployer", store.getPrimaryIndex(Long.class, Human.class), "employments");
+    store.registerSecondaryIndex(humansByEmployer);
+    AssociationPathSecondaryIndex<Long, Organization> organizationsByEmployeeLastName = new AssociationPathSecondaryIndex<Long, Organization>("organizationsByEmployeeLastName", store.getPrimaryIndex(Long.class, Organization.class), "employees.lastName");
+    store.registerSecondaryIndex(organizationsByEmployeeLastName);
+
+    store.put(bob.getId(), bob);
+
+    assertEquals(Collections.singleton(alice), humansByEmployerName.list("Högsta domstolen"));
+    assertEquals(Collections.singleton(bob), humansByEmployerName.list("Volvo"));
+    assertEquals(Collections.singleton(alice), humansByEmployer.list(hd));
+    assertEquals(Collections.singleton(hd), organizationsByEmployeeLastName.list("Tegnér"));
+    assertEquals(Collections.singleton(volvo), organizationsByEmployeeLastName.list("Gustavsson"));
+
+    // attribute at the other end of the path changes
+    volvo.setName("Volvo Cars");
+    store.put(volvo.getId(), volvo);
+    assertNull(humansByEmployerName.list("Volvo"));
+    assertEquals(Collections.singleton(bob), humansByEmployerName.list("Volvo Cars"));
+
+    bob.setLastName("Svensson");
+    store.put(bob.getId(), bob);
+    assertNull(organizationsByEmployeeLastName.list("Gustavsson"));
+    assertEquals(Collections.singleton(volvo), organizationsByEmployeeLastName.list("Svensson"));
+
+    // new association class instance, only the other end is put
+    Employment.factory(null, null, "Nämndeman", bob, hd);
+    store.put(hd.getId(), hd);
+    assertEquals(new HashSet<Human>(Arrays.asList(alice, bob)), humansByEmployerName.list("Högsta domstolen"));
+    assertEquals(new HashSet<Human>(Arrays.asList(alice, bob)), humansByEmployer.list(hd));
+    assertEquals(new HashSet<Object>(Arrays.asList("Högsta domstolen", "Volvo Cars")), humansByEmployerName.getSecondaryKeys(bob));
+
+    // association class instance changes other end
+    Employment employment = alice.getEmployments().get(0);
+    hd.getEmployees().remove(employment);
+    employment.setEmployer(volvo);
+    volvo.getEmployees().add(employment);
+    store.put(volvo.getId(), volvo);
+    assertEquals(new HashSet<Human>(Arrays.asList(alice, bob)), humansByEmployerName.list("Volvo Cars"));
+    assertEquals(new HashSet<Organization>(Arrays.asList(hd, volvo)), organizationsByEmployeeLastName.list("Tegnér"));
+
+    // removing an organization decouples its employments
+    store.remove(Organization.class, volvo.getId());
+    assertNull(humansByEmployerName.list("Volvo Cars"));
+    assertNull(humansByEmployer.list(volvo));
+    assertEquals(Collections.singleton((Object) "Högsta domstolen"), humansByEmployerName.getSecondaryKeys(bob));
+
+    // replacing an organization decouples the previous instance
+    Organization replacement = new Organization(null, "Högsta domstolen");
+    replacement.setId(hd.getId());
+    store.put(replacement.getId(), replacement);
+    assertNull(humansByEmployerName.list("Högsta domstolen"));
+    assertTrue(humansByEmployerName.getSecondaryKeys(alice).isEmpty());
+
+    store.remove(Human.class, bob.getId());
+    assertNull(humansByEmployerName.getSecondaryKeys(bob));
+  }
+
+}
@@ -0,0 +1,213 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+import java.util.*;
+
+public class TestBitmapSecondaryIndex extends TestCase {
+
+  @Test
+  public void testBooleanOperations() throws Exception {
+    Random random = new Random(0);
+    for (int round = 0; round < 8; round++) {
+      // vary density in order to exercise both container types
+      int range = round % 2 == 0 ? 200000 : 20000000;
+      CompressedBitmap a = new CompressedBitmap();
+      CompressedBitmap b = new CompressedBitmap();
+      Set<Integer> expectedA = new TreeSet<Integer>();
+      Set<Integer> expectedB = new TreeSet<Integer>();
+      for (int i = 0; i < 50000; i++) {
+        int value = random.nextInt(range);
+        a.add(value);
+        expectedA.add(value);
+        value = random.nextInt(range / (1 + round % 3));
+        b.add(value);
+        expectedB.add(value);
+      }
+
+      Set<Integer> and = new TreeSet<Integer>(expectedA);
+      and.retainAll(expectedB);
+      Set<Integer> or = new TreeSet<Integer>(expectedA);
+      or.addAll(expectedB);
+      Set<Integer> andNot = new TreeSet<Integer>(expectedA);
+      andNot.removeAll(expectedB);
+
+      assertEquals(and, toSet(CompressedBitmap.and(a, b)));
+      assertEquals(or, toSet(CompressedBitmap.or(a, b)));
+      assertEquals(andNot, toSet(CompressedBitmap.andNot(a, b)));
+      assertEquals(and.size(), CompressedBitmap.andCardinality(a, b));
+      assertEquals(or.size(), CompressedBitmap.orCardinality(a, b));
+      assertEquals(andNot.size(), CompressedBitmap.andNotCardinality(a, b));
+      assertEquals(and.size(), CompressedBitmap.and(a, b).cardinality());
+
+      // operands are not modified
+      assertEquals(expectedA, toSet(a));
+      assertEquals(expectedB, toSet(b));
+    }
+  }
+
+  private static Set<Integer> toSet(CompressedBitmap bitmap) {
+    Set<Integer> set = new TreeSet<Integer>();
+    for (CompressedBitmap.Iterator it = bitmap.iterator(); it.hasNext();) {
+      assertTrue(set.add(it.next()));
+    }
+    return set;
+  }
+
+  private static class HumansByPreferredName extends BitmapSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private HumansByPreferredName(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(Human human) throws UnsupportedOperationException {
+      return human.getPreferredName();
+    }
+
+    @Override
+    public Object getSecondaryKey(Object... parameters) {
+      return parameters[0];
+    }
+  }
+
+  private static class HumansByLastNameBitmap extends BitmapSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private HumansByLastNameBitmap(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(Human human) throws UnsupportedOperationException {
+      return human.getLastName();
+    }
+
+    @Override
+    public Object getSecondaryKey(Object... parameters) {
+      return parameters[0];
+    }
+  }
+
+  @Test
+  public void testBitmapSecondaryIndex() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByPreferredName byPreferredName = new HumansByPreferredName("byPreferredName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byPreferredName);
+
+    String[] preferredNames = new String[]{"Alice", "Bob", "Carl"};
+    String[] lastNames = new String[]{"Andersson", "Gustavsson", "Svensson", "Tegnér", null};
+    Random random = new Random(0);
+    Map<Long, Human> humans = new HashMap<Long, Human>();
+    for (long id = 0; id < 10000; id++) {
+      Human human = new Human(null, null, null, preferredNames[random.nextInt(preferredNames.length)], lastNames[random.nextInt(lastNames.length)]);
+      human.setId(id);
+      store.put(human.getId(), human);
+      humans.put(id, human);
+    }
+
+    // registered after entities are in the store
+    HumansByLastNameBitmap byLastName = new HumansByLastNameBitmap("byLastName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byLastName);
+
+    // replace, modify and remove some
+    for (long id = 0; id < 3000; id++) {
+      if (id % 3 == 0) {
+        Human human = new Human(null, null, null, "Alice", "Svensson");
+        human.setId(id);
+        store.put(human.getId(), human);
+        humans.put(id, human);
+      } else if (id % 3 == 1) {
+        humans.get(id).setLastName("Andersson");
+        store.put(id, humans.get(id));
+      } else {
+        store.remove(Human.class, id);
+        humans.remove(id);
+      }
+    }
+
+    Set<Human> alices = new HashSet<Human>();
+    Set<Human> svenssons = new HashSet<Human>();
+    Set<Human> nulls = new HashSet<Human>();
+    for (Human human : humans.values()) {
+      if ("Alice".equals(human.getPreferredName())) {
+        alices.add(human);
+      }
+      if ("Svensson".equals(human.getLastName())) {
+        svenssons.add(human);
+      }
+      if (human.getLastName() == null) {
+        nulls.add(human);
+      }
+    }
+    assertEquals(alices, byPreferredName.list("Alice"));
+    assertEquals(svenssons, byLastName.list("Svensson"));
+    assertEquals(nulls, byLastName.list((Object) null));
+    assertEquals(svenssons.size(), byLastName.count("Svensson"));
+    assertEquals(0, byLastName.count("Johansson"));
+    assertNull(byLastName.list("Johansson"));
+
+    Set<Human> expected = new HashSet<Human>(alices);
+    expected.retainAll(svenssons);
+    CompressedBitmap aliceSvenssons = CompressedBitmap.and(byPreferredName.getBitmap("Alice"), byLastName.getBitmap("Svensson"));
+    assertEquals(expected, byLastName.getEntities(aliceSvenssons));
+    assertEquals(expected.size(), CompressedBitmap.andCardinality(byPreferredName.getBitmap("Alice"), byLastName.getBitmap("Svensson")));
+
+    expected = new HashSet<Human>(alices);
+    expected.removeAll(svenssons);
+    assertEquals(expected, byLastName.getEntities(CompressedBitmap.andNot(byPreferredName.getBitmap("Alice"), byLastName.getBitmap("Svensson"))));
+
+    expected = new HashSet<Human>(alices);
+    expected.addAll(svenssons);
+    assertEquals(expected.size(), CompressedBitmap.orCardinality(byPreferredName.getBitmap("Alice"), byLastName.getBitmap("Svensson")));
+
+    // returned bitmaps are copies
+    byLastName.getBitmap("Svensson").clear();
+    byLastName.getBitmap("Johansson").add(0);
+    assertEquals(svenssons, byLastName.list("Svensson"));
+    assertEquals(0, byLastName.count("Johansson"));
+    assertTrue(byLastName.getBitmap("Johansson").isEmpty());
+  }
+
+  /**
+   * Entities put and removed using the primitive methods of {@link LongPrimaryIndex} get ordinals too.
+   */
+  @Test
+  public void testPrimitiveLongPrimaryIndex() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    LongPrimaryIndex<Human> humans = (LongPrimaryIndex<Human>) store.getPrimaryIndex(Long.class, Human.class);
+    HumansByLastNameBitmap byLastName = new HumansByLastNameBitmap("byLastName", humans);
+    store.registerSecondaryIndex(byLastName);
+
+    Human alice = new Human(null, null, null, "Alice", "Svensson");
+    alice.setId(1l);
+    humans.put(1l, alice);
+    Human bob = new Human(null, null, null, "Bob", "Svensson");
+    bob.setId(2l);
+    humans.put(2l, bob);
+    assertEquals(new HashSet<Human>(Arrays.asList(alice, bob)), byLastName.list("Svensson"));
+
+    Human carl = new Human(null, null, null, "Carl", "Svensson");
+    carl.setId(2l);
+    humans.put(2l, carl);
+    assertEquals(new HashSet<Human>(Arrays.asList(alice, carl)), byLastName.list("Svensson"));
+    assertEquals(2, byLastName.count("Svensson"));
+
+    humans.remove(1l);
+    assertEquals(Collections.singleton(carl), byLastName.list("Svensson"));
+    assertEquals(-1, store.getEntityOrdinals().ordinalOf(alice));
+    assertTrue(store.getEntityOrdinals().ordinalOf(carl) >= 0);
+  }
+
+}
@@ -0,0 +1,74 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+import java.util.Collections;
+
+public class TestComputedSecondaryIndex extends TestCase {
+
+  public static class HumansByFullName extends ComputedSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private int computations = 0;
+
+    public HumansByFullName(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex, "firstNames", "lastName");
+    }
+
+    @Override
+    protected Object computeSecondaryKey(Object[] inputs) {
+      computations++;
+      return (inputs[0] + " " + inputs[1]).toLowerCase();
+    }
+  }
+
+  @Test
+  public void test() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByFullName humansByFullName = new HumansByFullName("humansByFullName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(humansByFullName);
+
+    Human sven = new Human(null, "Sven Svensson", "Sven", "Sven", "Svensson");
+    sven.setId(1l);
+    store.put(sven.getId(), sven);
+    assertEquals(1, humansByFullName.computations);
+    assertEquals(Collections.singleton(sven), humansByFullName.list("Sven", "Svensson"));
+
+    // re-put with unchanged input properties
+    int computations = humansByFullName.computations;
+    sven.setName("Sven S.");
+    store.put(sven.getId(), sven);
+    assertEquals(computations, humansByFullName.computations);
+
+    // new instance with equal input properties reuses the secondary key
+    Human svenCopy = new Human(null, "Sven Svensson", "Sven", "Sven", "Svensson");
+    svenCopy.setId(1l);
+    assertSame(sven, store.put(svenCopy.getId(), svenCopy));
+    assertEquals(computations, humansByFullName.computations);
+    assertEquals(Collections.singleton(svenCopy), humansByFullName.list("Sven", "Svensson"));
+
+    // changed input property
+    computations = humansByFullName.computations;
+    svenCopy.setLastName("Andersson");
+    store.put(svenCopy.getId(), svenCopy);
+    assertEquals(computations + 1, humansByFullName.computations);
+    assertNull(humansByFullName.list("Sven", "Svensson"));
+    assertEquals(Collections.singleton(svenCopy), humansByFullName.list("Sven", "Andersson"));
+
+    store.remove(Human.class, svenCopy.getId());
+    assertNull(humansByFullName.list("Sven", "Andersson"));
+
+    humansByFullName.reconstruct();
+    assertNull(humansByFullName.list("Sven", "Andersson"));
+  }
+
+}
@@ -0,0 +1,271 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+import se.kodapan.entitystore.domain.Organization;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestConcurrentEntityStore extends TestCase {
+
+  @Test
+  public void testConcurrentWriters() throws Exception {
+
+    final ConcurrentEntityStore store = new ConcurrentEntityStore(4);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    LegalPersonsByName legalPersonsByName = new LegalPersonsByName("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class));
+    store.registerSecondaryIndex(legalPersonsByName);
+
+    final int threads = 8;
+    final int organizationsPerThread = 2000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < organizationsPerThread; i++) {
+              long id = thread * organizationsPerThread + i;
+              Organization organization = new Organization(null, "organization " + id);
+              organization.setId(id);
+              store.put(id, organization);
+              // overwrite every other with a new instance, remove every tenth
+              if (i % 2 == 0) {
+                Organization replacement = new Organization(null, "organization " + id);
+                replacement.setId(id);
+                assertSame(organization, store.put(id, replacement));
+              }
+              if (i % 10 == 0) {
+                assertNotNull(store.remove(Identifiable.class, id));
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    done.await();
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+
+    int expected = threads * organizationsPerThread * 9 / 10;
+    assertEquals(expected, store.getPrimaryIndex(Identifiable.class).getEntitiesById().size());
+    assertEquals(expected, store.getPrimaryIndex(LegalPerson.class).getEntitiesById().size());
+    assertEquals(expected, store.getPrimaryIndex(Organization.class).getEntitiesById().size());
+
+    for (long id = 0; id < threads * organizationsPerThread; id++) {
+      Organization organization = store.get(Organization.class, id);
+      if (id % organizationsPerThread % 10 == 0) {
+        assertNull(organization);
+        assertNull(legalPersonsByName.get("organization " + id));
+      } else {
+        assertSame(organization, store.get(Identifiable.class, id));
+        assertEquals(Long.valueOf(id), store.getPrimaryIndex(Long.class, LegalPerson.class).getIdentity(organization));
+        assertSame(organization, legalPersonsByName.get("organization " + id));
+      }
+    }
+  }
+
+  private static class ConcurrentLegalPersonsByName extends ConcurrentSimpleMapSetSecondaryIndex<Long, LegalPerson> {
+
+    private static final long serialVersionUID = 1l;
+
+    private ConcurrentLegalPersonsByName(String name, PrimaryIndex<Long, LegalPerson> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(LegalPerson legalPerson) throws UnsupportedOperationException {
+      return legalPerson.getName();
+    }
+
+    @Override
+    public Object getSecondaryKey(Object... parameters) {
+      return parameters[0];
+    }
+  }
+
+  /**
+   * Readers iterate lists of the secondary index while writers are active, without locking.
+   */
+  @Test
+  public void testConcurrentSecondaryIndex() throws Exception {
+
+    final ConcurrentEntityStore store = new ConcurrentEntityStore(4);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    final ConcurrentLegalPersonsByName legalPersonsByName = new ConcurrentLegalPersonsByName("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class));
+    store.registerSecondaryIndex(legalPersonsByName);
+
+    final int writers = 4;
+    final int readers = 4;
+    final int organizationsPerWriter = 5000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final CountDownLatch writersDone = new CountDownLatch(writers);
+    final CountDownLatch readersDone = new CountDownLatch(readers);
+    for (int t = 0; t < writers; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < organizationsPerWriter; i++) {
+              long id = thread * organizationsPerWriter + i;
+              // few names shared by many organizations
+              Organization organization = new Organization(null, "organization " + id % 7);
+              organization.setId(id);
+              store.put(id, organization);
+              if (i % 10 == 0) {
+                assertNotNull(store.remove(Identifiable.class, id));
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            writersDone.countDown();
+          }
+        }
+      }).start();
+    }
+    for (int t = 0; t < readers; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (writing.get()) {
+              for (int name = 0; name < 7; name++) {
+                Set<LegalPerson> legalPersons = legalPersonsByName.list("organization " + name);
+                if (legalPersons != null) {
+                  // a snapshot is not affected by writers
+                  int size = legalPersons.size();
+                  int iterated = 0;
+                  for (LegalPerson legalPerson : legalPersons) {
+                    assertEquals("organization " + name, legalPerson.getName());
+                    iterated++;
+                  }
+                  assertEquals(size, iterated);
+                  assertEquals(size, legalPersons.size());
+                }
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            readersDone.countDown();
+          }
+        }
+      }).start();
+    }
+    writersDone.await();
+    writing.set(false);
+    readersDone.await();
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+
+    int total = 0;
+    for (int name = 0; name < 7; name++) {
+      total += legalPersonsByName.list("organization " + name).size();
+    }
+    assertEquals(writers * organizationsPerWriter * 9 / 10, total);
+    for (long id = 0; id < writers * organizationsPerWriter; id++) {
+      Organization organization = store.get(Organization.class, id);
+      if (organization != null) {
+        assertTrue(legalPersonsByName.list(organization.getName()).contains(organization));
+      }
+    }
+
+    assertNull(store.remove(Organization.class, null));
+  }
+
+  /**
+   * Writers of different identities with the same unique secondary key, only one of them may succeed.
+   */
+  @Test
+  public void testConcurrentUniqueSecondaryKey() throws Exception {
+
+    final ConcurrentEntityStore store = new ConcurrentEntityStore(16);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    UniqueSecondaryIndex<Long, LegalPerson> legalPersonByName = new UniqueSecondaryIndex<Long, LegalPerson>("legalPersonByName", store.getPrimaryIndex(Long.class, LegalPerson.class)) {
+      @Override
+      public Object getSecondaryKey(LegalPerson legalPerson) {
+        // widens the window between validation and update
+        Thread.yield();
+        return legalPerson.getName();
+      }
+
+      @Override
+      public Object getSecondaryKey(Object... parameters) {
+        return parameters[0];
+      }
+    };
+    store.registerSecondaryIndex(legalPersonByName);
+
+    final int threads = 8;
+    final int names = 500;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicInteger succeeded = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int name = 0; name < names; name++) {
+              long id = name * threads + thread;
+              Organization organization = new Organization(null, "organization " + name);
+              organization.setId(id);
+              try {
+                store.put(id, organization);
+                succeeded.incrementAndGet();
+              } catch (InconsistencyException e) {
+                // another thread was first
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    start.countDown();
+    done.await();
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+
+    assertEquals(names, succeeded.get());
+    assertEquals(names, store.getPrimaryIndex(Long.class, Organization.class).getEntitiesById().size());
+    for (int name = 0; name < names; name++) {
+      LegalPerson legalPerson = legalPersonByName.get("organization " + name);
+      assertSame(legalPerson, store.get(Organization.class, ((Organization) legalPerson).getId()));
+    }
+  }
+
+}
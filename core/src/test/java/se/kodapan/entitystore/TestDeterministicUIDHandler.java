@@ -19,9 +19,7 @@ package se.kodapan.entitystore;
 import junit.framework.TestCase;
 import org.junit.Test;
 
-import java.util.Date;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author kalle
@@ -85,4 +83,118 @@ public class TestDeterministicUIDHandler extends TestCase {
     }
   }
 
+  @Test
+  public void testDeterministicUID() throws Exception {
+    Date now = new Date();
+    DeterministicUIDHandler handler = new DeterministicUIDHandler();
+    DeterministicUIDFactory factory = new DeterministicUIDFactory(handler);
+
+    String hex = handler.nextIdentity(now);
+    DeterministicUIDHandler.DeterministicUID uid = factory.nextIdentity(now);
+
+    // shares sequence
+    assertEquals(1, DeterministicUIDHandler.decode(hex).getSequence());
+    assertEquals(2, uid.getSequence());
+
+    // same hex representation as the handler
+    assertEquals(hex, new DeterministicUIDHandler.DeterministicUID(now, 1).toHex());
+    assertEquals(uid, DeterministicUIDHandler.decode(uid.toHex()));
+
+    // ordering
+    DeterministicUIDHandler.DeterministicUID uid3 = factory.nextIdentity(now);
+    DeterministicUIDHandler.DeterministicUID later = factory.nextIdentity(new Date(now.getTime() + 1));
+    assertTrue(uid.compareTo(uid3) < 0);
+    assertTrue(uid3.compareTo(later) < 0);
+    assertTrue(later.compareTo(uid) > 0);
+    assertEquals(0, uid.compareTo(new DeterministicUIDHandler.DeterministicUID(now, 2)));
+
+    // hash code survives serialization
+    DeterministicUIDHandler.DeterministicUID clone = TestEntityStore.clone(uid);
+    assertEquals(uid, clone);
+    assertEquals(uid.hashCode(), clone.hashCode());
+  }
+
+  @Test
+  public void testDeterministicUIDHashMap() throws Exception {
+    Random random = new Random(0);
+    DeterministicUIDHashMap<String> map = new DeterministicUIDHashMap<String>();
+    Map<DeterministicUIDHandler.DeterministicUID, String> expected = new HashMap<DeterministicUIDHandler.DeterministicUID, String>();
+
+    for (int i = 0; i < 100000; i++) {
+      DeterministicUIDHandler.DeterministicUID key = new DeterministicUIDHandler.DeterministicUID(random.nextInt(10), random.nextInt(500));
+      switch (random.nextInt(3)) {
+        case 0:
+          assertEquals(expected.put(key, String.valueOf(i)), map.put(key, String.valueOf(i)));
+          break;
+        case 1:
+          assertEquals(expected.remove(key), map.remove(key));
+          break;
+        default:
+          assertEquals(expected.get(key), map.get(key.getExecutionTimeMillis(), key.getSequence()));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+
+    assertEquals(expected, map);
+    assertEquals(expected, TestEntityStore.clone(map));
+  }
+
+  @Test
+  public void testConcurrentHandlerSingleThreaded() throws Exception {
+    Date first = new Date();
+    Date second = new Date(first.getTime() + 1000);
+    DeterministicUIDHandler expected = new DeterministicUIDHandler();
+    ConcurrentDeterministicUIDHandler handler = new ConcurrentDeterministicUIDHandler(16);
+
+    // same output as the synchronized handler when used by a single thread
+    for (int i = 0; i < 100; i++) {
+      assertEquals(expected.nextIdentity(first), handler.nextIdentity(first));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(expected.nextIdentity(second), handler.nextIdentity(second));
+    }
+    assertEquals(expected.nextUID(second), handler.nextUID(second));
+
+    try {
+      handler.nextIdentity(first);
+      fail();
+    } catch (Exception e) {
+    }
+  }
+
+  @Test
+  public void testConcurrentHandlerUniqueness() throws Exception {
+    final Date now = new Date();
+    final ConcurrentDeterministicUIDHandler handler = new ConcurrentDeterministicUIDHandler();
+    final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+    final int threads = 8;
+    final int identitiesPerThread = 20000;
+
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          int previousSequence = 0;
+          for (int i = 0; i < identitiesPerThread; i++) {
+            String identity = handler.nextIdentity(now);
+            int sequence = DeterministicUIDHandler.decode(identity).getSequence();
+            if (sequence <= previousSequence) {
+              throw new RuntimeException("Sequence not increasing within thread");
+            }
+            previousSequence = sequence;
+            if (!seen.add(identity)) {
+              throw new RuntimeException("Duplicate identity " + identity);
+            }
+          }
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(threads * identitiesPerThread, seen.size());
+  }
+
 }
@@ -10,6 +10,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -183,6 +186,285 @@ public class TestEntityStore extends TestCase {
     }
   }
 
+  @Test
+  public void testGetIdentity() {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(1l);
+    store.put(hd.getId(), hd);
+
+    assertTrue(store.getPrimaryIndex(Long.class, Organization.class) instanceof LongPrimaryIndex);
+    assertEquals(hd, ((LongPrimaryIndex<Organization>) store.getPrimaryIndex(Long.class, Organization.class)).get(1l));
+    assertNull(store.getPrimaryIndex(Long.class, Organization.class).get(null));
+    assertNull(store.getPrimaryIndex(Long.class, Organization.class).remove(null));
+    assertNull(store.get(Organization.class, null));
+
+    assertEquals(Long.valueOf(1l), store.getPrimaryIndex(Long.class, Organization.class).getIdentity(hd));
+    assertEquals(Long.valueOf(1l), store.getPrimaryIndex(Long.class, LegalPerson.class).getIdentity(hd));
+
+    // an equal but other instance is not in the index
+    Organization hdCopy = new Organization(null, "Högsta domstolen");
+    hdCopy.setId(1l);
+    assertNull(store.getPrimaryIndex(Long.class, Organization.class).getIdentity(hdCopy));
+
+    // replace with the equal instance
+    store.put(hdCopy.getId(), hdCopy);
+    assertNull(store.getPrimaryIndex(Long.class, Organization.class).getIdentity(hd));
+    assertEquals(Long.valueOf(1l), store.getPrimaryIndex(Long.class, Organization.class).getIdentity(hdCopy));
+
+    // reverse map is rebuilt when deserialized
+    EntityStoreImpl clone = clone(store);
+    Organization clonedHd = clone.get(Organization.class, 1l);
+    assertNotNull(clonedHd);
+    assertEquals(Long.valueOf(1l), clone.getPrimaryIndex(Long.class, Organization.class).getIdentity(clonedHd));
+
+    store.remove(Organization.class, hdCopy.getId());
+    assertNull(store.getPrimaryIndex(Long.class, Organization.class).getIdentity(hdCopy));
+    assertNull(store.getPrimaryIndex(Long.class, LegalPerson.class).getIdentity(hdCopy));
+  }
+
+  @Test
+  public void testRoutesInvalidatedWhenRegistering() {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(1l);
+    store.put(hd.getId(), hd);
+    assertEquals(hd, store.get(LegalPerson.class, 1l));
+    assertFalse(store.isEntityType(Organization.class));
+
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    Organization riksdagen = new Organization(null, "Riksdagen");
+    riksdagen.setId(2l);
+    store.put(riksdagen.getId(), riksdagen);
+    assertEquals(riksdagen, store.get(Organization.class, 2l));
+    assertEquals(riksdagen, store.get(Identifiable.class, 2l));
+
+    store.getEntityTypes().remove(Organization.class);
+    store.remove(Organization.class, 2l);
+    assertNull(store.get(LegalPerson.class, 2l));
+  }
+
+  @Test
+  public void testSingleEventPerMutation() throws Exception {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    final AtomicInteger events = new AtomicInteger(0);
+    final CountDownLatch latch = new CountDownLatch(2);
+    // listeners are notified in other threads, so failures are passed back to the test thread
+    final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+    final ConcurrentLinkedQueue<Thread> notifiers = new ConcurrentLinkedQueue<Thread>();
+    PrimaryIndexListener<Long, Object> listener = new PrimaryIndexListener<Long, Object>() {
+      @Override
+      public void created(Long identity, Object entity) {
+        event();
+      }
+
+      @Override
+      public void updated(Long identity, Object entity) {
+        failures.add("Not expected: updated " + identity);
+        event();
+      }
+
+      @Override
+      public void deleted(Long identity, Object entity) {
+        event();
+      }
+
+      private void event() {
+        notifiers.add(Thread.currentThread());
+        events.incrementAndGet();
+        latch.countDown();
+      }
+    };
+    // same listener on all levels of the hierarchy
+    store.getPrimaryIndex(Long.class, Identifiable.class).getListeners().add((PrimaryIndexListener) listener);
+    store.getPrimaryIndex(Long.class, LegalPerson.class).getListeners().add((PrimaryIndexListener) listener);
+    store.getPrimaryIndex(Long.class, Human.class).getListeners().add((PrimaryIndexListener) listener);
+
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(0l);
+    store.put(alice.getId(), alice);
+    assertEquals(alice, store.remove(Identifiable.class, 0l));
+    assertNull(store.remove(Identifiable.class, 0l));
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    // a listener notified more than once for a mutation would be so by the same thread
+    for (Thread notifier : notifiers) {
+      notifier.join(5000);
+      assertFalse(notifier.isAlive());
+    }
+    assertTrue(failures.toString(), failures.isEmpty());
+    assertEquals(2, events.get());
+    assertNull(store.getPrimaryIndex(Long.class, Human.class).get(0l));
+  }
+
+  /**
+   * Primary indices are validated before any of them is written.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testInconsistentPrimaryIndicesNotModified() throws Exception {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(0l);
+    store.put(alice.getId(), alice);
+
+    Human bob = new Human(null, "Robert Gustavsson", "Robert", "Bob", "Gustavsson");
+    bob.setId(0l);
+    ((PrimaryIndex) store.getPrimaryIndex(Long.class, Human.class)).putToBackingMap(0l, bob);
+
+    Human otherAlice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    otherAlice.setId(0l);
+    try {
+      store.put(otherAlice.getId(), otherAlice);
+      fail("Expected an inconsistency exception");
+    } catch (InconsistencyException e) {
+      // all good
+    }
+    assertSame(alice, store.getPrimaryIndex(Long.class, Identifiable.class).get(0l));
+    assertSame(alice, store.getPrimaryIndex(Long.class, LegalPerson.class).get(0l));
+    assertSame(bob, store.getPrimaryIndex(Long.class, Human.class).get(0l));
+
+    try {
+      store.remove(Identifiable.class, 0l);
+      fail("Expected an inconsistency exception");
+    } catch (InconsistencyException e) {
+      // all good
+    }
+    assertSame(alice, store.getPrimaryIndex(Long.class, Identifiable.class).get(0l));
+    assertSame(alice, store.getPrimaryIndex(Long.class, LegalPerson.class).get(0l));
+  }
+
+  @Test
+  public void testFreeze() throws Exception {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.getPrimaryIndex(String.class, AnInterfaceWithPrimaryIndex.class);
+
+    LegalPersonsByName legalPersonsByName = new LegalPersonsByName("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class));
+    store.registerSecondaryIndex(legalPersonsByName);
+
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(0l);
+    store.put(alice.getId(), alice);
+    Human bob = new Human(null, "Robert Gustavsson", "Robert", "Bob", "Gustavsson");
+    bob.setId(1l);
+    store.put(bob.getId(), bob);
+    Human otherBob = new Human(null, "Robert Gustavsson", "Robert", "Bob", "Gustavsson");
+    otherBob.setId(2l);
+    store.put(otherBob.getId(), otherBob);
+
+    store.freeze();
+    assertTrue(store.isFrozen());
+    assertTrue(legalPersonsByName.isFrozen());
+
+    assertEquals(alice, store.get(Human.class, 0l));
+    assertEquals(bob, store.get(Identifiable.class, 1l));
+    assertEquals(3, store.getPrimaryIndex(LegalPerson.class).getEntitiesById().size());
+    assertEquals(Long.valueOf(1l), store.getPrimaryIndex(Long.class, Human.class).getIdentity(bob));
+    assertEquals(alice, legalPersonsByName.get("Alice Charlotta Tegnér"));
+    assertEquals(2, legalPersonsByName.list("Robert Gustavsson").size());
+    assertNull(legalPersonsByName.list("Charlie"));
+
+    try {
+      store.put(alice.getId(), alice);
+      fail();
+    } catch (FrozenException e) {
+      // all good
+    }
+    try {
+      store.remove(Human.class, 0l);
+      fail();
+    } catch (FrozenException e) {
+      // all good
+    }
+    try {
+      store.getPrimaryIndex(Long.class, Human.class).getEntitiesById().remove(0l);
+      fail();
+    } catch (FrozenException e) {
+      // all good
+    }
+    try {
+      store.getPrimaryIndex(String.class, AnInterfaceWithPrimaryIndex.class).getEntitiesById().put("a", null);
+      fail();
+    } catch (FrozenException e) {
+      // all good
+    }
+    try {
+      legalPersonsByName.put(alice);
+      fail();
+    } catch (FrozenException e) {
+      // all good
+    }
+    assertEquals(alice, store.get(Human.class, 0l));
+
+    EntityStoreImpl clone = clone(store);
+    assertTrue(clone.isFrozen());
+    assertEquals(2, ((LegalPersonsByName) clone.getSecondaryIndicesByName().get("legalPersonsByName")).list("Robert Gustavsson").size());
+  }
+
+  /**
+   * Entities are removed from secondary indices using the key they were put with,
+   * as they might have been modified since.
+   */
+  @Test
+  public void testModifiedSecondaryKey() throws Exception {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    LegalPersonsByName legalPersonsByName = new LegalPersonsByName("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class));
+    store.registerSecondaryIndex(legalPersonsByName);
+
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(0l);
+    store.put(alice.getId(), alice);
+
+    // re-put without modification
+    assertSame(alice, store.put(alice.getId(), alice));
+    assertSame(alice, legalPersonsByName.get("Alice Charlotta Tegnér"));
+
+    // re-put with a modified secondary key
+    alice.setName("Alice Tegnér");
+    store.put(alice.getId(), alice);
+    assertNull(legalPersonsByName.list("Alice Charlotta Tegnér"));
+    assertSame(alice, legalPersonsByName.get("Alice Tegnér"));
+
+    // removed with the key it was put with
+    alice.setName("Alice");
+    assertSame(alice, store.remove(Human.class, alice.getId()));
+    assertNull(legalPersonsByName.list("Alice Tegnér"));
+    assertNull(legalPersonsByName.list("Alice"));
+  }
+
   public static <T> T clone(T object) {
     if (object == null) {
       return null;
@@ -0,0 +1,93 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class TestEntityTableStore extends TestCase {
+
+  @Test
+  public void test() throws Exception {
+
+    EntityTableStore store = new EntityTableStore();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    LegalPersonsByName legalPersonsByName = new LegalPersonsByName("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class));
+    store.registerSecondaryIndex(legalPersonsByName);
+
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(1l);
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(2l);
+    Employment.factory(null, null, "Jurist", alice, hd);
+
+    store.put(hd.getId(), hd);
+    store.put(alice.getId(), alice);
+
+    // each entity once in the table
+    assertEquals(2, store.getTable().size());
+
+    assertEquals(alice, store.get(Human.class, 2l));
+    assertEquals(alice, store.get(LegalPerson.class, 2l));
+    assertEquals(alice, store.get(Identifiable.class, 2l));
+    assertNull(store.get(Organization.class, 2l));
+    assertNull(store.get(Human.class, 1l));
+    assertEquals(hd, store.get(Organization.class, 1l));
+
+    assertEquals(2, store.getPrimaryIndex(Identifiable.class).getEntitiesById().size());
+    assertEquals(1, store.getPrimaryIndex(Human.class).getEntitiesById().size());
+    Set<Object> identifiables = new HashSet<Object>();
+    for (Object identifiable : store.getPrimaryIndex(Identifiable.class)) {
+      identifiables.add(identifiable);
+    }
+    assertEquals(2, identifiables.size());
+    assertTrue(identifiables.contains(alice));
+
+    assertEquals(Long.valueOf(2l), store.getPrimaryIndex(Long.class, LegalPerson.class).getIdentity(alice));
+    assertNull(((PrimaryIndex) store.getPrimaryIndex(Long.class, Organization.class)).getIdentity(alice));
+    assertEquals(alice, legalPersonsByName.get("Alice Charlotta Tegnér"));
+
+    // replace with a new instance
+    Human alice2 = new Human(null, "Alice Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice2.setId(2l);
+    assertSame(alice, store.put(alice2.getId(), alice2));
+    assertSame(alice2, store.get(Identifiable.class, 2l));
+    assertNull(store.getPrimaryIndex(Long.class, Human.class).getIdentity(alice));
+    assertNull(legalPersonsByName.get("Alice Charlotta Tegnér"));
+    assertEquals(alice2, legalPersonsByName.get("Alice Tegnér"));
+
+    // an identity can not move to other primary indices
+    Organization impostor = new Organization(null, "Impostor");
+    impostor.setId(2l);
+    try {
+      store.put(impostor.getId(), impostor);
+      fail();
+    } catch (InconsistencyException e) {
+      // all good
+    }
+
+    assertSame(alice2, store.remove(LegalPerson.class, 2l));
+    assertNull(store.get(Identifiable.class, 2l));
+    assertEquals(1, store.getTable().size());
+    assertEquals(0, store.getPrimaryIndex(Human.class).getEntitiesById().size());
+
+    // ordinal is reused
+    Human bob = new Human(null, "Robert Gustavsson", "Robert", "Bob", "Gustavsson");
+    bob.setId(3l);
+    store.put(bob.getId(), bob);
+    assertEquals(2, store.getTable().getOrdinals());
+
+    EntityTableStore clone = TestEntityStore.clone(store);
+    Human clonedBob = clone.get(Human.class, 3l);
+    assertNotNull(clonedBob);
+    assertEquals(Long.valueOf(3l), clone.getPrimaryIndex(Long.class, Identifiable.class).getIdentity(clonedBob));
+  }
+
+}
@@ -0,0 +1,176 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+import se.kodapan.entitystore.domain.Organization;
+
+import java.util.*;
+
+public class TestFullTextSecondaryIndex extends TestCase {
+
+  private static class HumansByName extends FullTextSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private HumansByName(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(Human human) {
+      return human.getName();
+    }
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByName byName = new HumansByName("byName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byName);
+
+    String[] words = new String[]{"Anders", "Bengt", "Carl", "David", "Erik", "Fredrik", "Gustav", "Svensson", "Tegnér"};
+    Random random = new Random(0);
+    Map<Long, Human> humans = new HashMap<Long, Human>();
+    for (long id = 0; id < 5000; id++) {
+      Human human = new Human(null, randomName(random, words), null, null, null);
+      human.setId(id);
+      store.put(human.getId(), human);
+      humans.put(id, human);
+    }
+
+    // replace, modify and remove some, removed ordinals are reused by new entities
+    for (long id = 0; id < 3000; id++) {
+      if (id % 3 == 0) {
+        Human human = new Human(null, randomName(random, words), null, null, null);
+        human.setId(id);
+        store.put(human.getId(), human);
+        humans.put(id, human);
+      } else if (id % 3 == 1) {
+        humans.get(id).setName(randomName(random, words));
+        store.put(id, humans.get(id));
+      } else {
+        store.remove(Human.class, id);
+        humans.remove(id);
+      }
+    }
+    for (long id = 5000; id < 5500; id++) {
+      Human human = new Human(null, randomName(random, words), null, null, null);
+      human.setId(id);
+      store.put(human.getId(), human);
+      humans.put(id, human);
+    }
+
+    for (int query = 0; query < 50; query++) {
+      String first = words[random.nextInt(words.length)];
+      String second = words[random.nextInt(words.length)];
+      Set<Human> all = new HashSet<Human>();
+      Set<Human> any = new HashSet<Human>();
+      for (Human human : humans.values()) {
+        List<String> terms = new SimpleAnalyzer().analyze(human.getName());
+        boolean firstMatches = terms.contains(first.toLowerCase(Locale.ROOT));
+        boolean secondMatches = terms.contains(second.toLowerCase(Locale.ROOT));
+        if (firstMatches && secondMatches) {
+          all.add(human);
+        }
+        if (firstMatches || secondMatches) {
+          any.add(human);
+        }
+      }
+      assertEquals(all.isEmpty() ? null : all, byName.list(first, second));
+      assertEquals(all.size(), byName.count(first + " " + second, true));
+      assertEquals(any.size(), byName.count(first + " " + second, false));
+
+      Set<Human> found = new HashSet<Human>();
+      float previousScore = Float.MAX_VALUE;
+      for (FullTextSecondaryIndex.Hit<Human> hit : byName.search(first.toUpperCase() + ", " + second, false, Integer.MAX_VALUE)) {
+        assertTrue(hit.getScore() <= previousScore);
+        previousScore = hit.getScore();
+        found.add(hit.getEntity());
+      }
+      assertEquals(any, found);
+      assertEquals(Math.min(10, any.size()), byName.search(first + " " + second, false, 10).size());
+    }
+
+    assertNull(byName.list("Johansson"));
+    assertEquals(0, byName.search("Johansson", false, 10).size());
+    assertEquals(0, byName.count("Anders Johansson", true));
+  }
+
+  @Test
+  public void testScoring() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByName byName = new HumansByName("byName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byName);
+
+    String[] names = new String[]{"Carl Carl Gustav", "Carl Svensson", "Gustav Svensson", "Anders Svensson"};
+    Human[] humans = new Human[names.length];
+    for (int i = 0; i < names.length; i++) {
+      humans[i] = new Human(null, names[i], null, null, null);
+      humans[i].setId((long) i);
+      store.put(humans[i].getId(), humans[i]);
+    }
+
+    // higher term frequency first
+    List<FullTextSecondaryIndex.Hit<Human>> hits = byName.search("carl", true, 10);
+    assertEquals(2, hits.size());
+    assertSame(humans[0], hits.get(0).getEntity());
+    assertSame(humans[1], hits.get(1).getEntity());
+
+    // the rare term weighs more than the common one
+    hits = byName.search("anders svensson", false, 10);
+    assertEquals(3, hits.size());
+    assertSame(humans[3], hits.get(0).getEntity());
+
+    hits = byName.search("gustav svensson", false, 1);
+    assertEquals(1, hits.size());
+    assertSame(humans[2], hits.get(0).getEntity());
+
+    // idf only depends on the entities in the index
+    float score = byName.search("anders", true, 1).get(0).getScore();
+    store.getPrimaryIndex(Long.class, Organization.class);
+    for (long id = 100; id < 1100; id++) {
+      Organization organization = new Organization(null, "Organization " + id);
+      organization.setId(id);
+      store.put(organization.getId(), organization);
+    }
+    assertEquals(score, byName.search("anders", true, 1).get(0).getScore());
+
+    // replaced and re-put instances with the same text are scored the same
+    Human anders = new Human(null, "Anders Svensson", null, null, null);
+    anders.setId(3l);
+    store.put(anders.getId(), anders);
+    store.put(anders.getId(), anders);
+    assertSame(anders, byName.search("anders", true, 1).get(0).getEntity());
+    assertEquals(score, byName.search("anders", true, 1).get(0).getScore());
+
+    // a changed term frequency of a term in both texts
+    anders.setName("Anders Anders Svensson");
+    store.put(anders.getId(), anders);
+    assertTrue(byName.search("anders", true, 1).get(0).getScore() > score);
+    assertEquals(3, byName.count("svensson", true));
+  }
+
+  private static String randomName(Random random, String[] words) {
+    StringBuilder sb = new StringBuilder();
+    int length = 1 + random.nextInt(4);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(words[random.nextInt(words.length)]);
+    }
+    return sb.toString();
+  }
+
+}
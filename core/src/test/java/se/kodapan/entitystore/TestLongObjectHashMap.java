@@ -0,0 +1,105 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.*;
+
+public class TestLongObjectHashMap extends TestCase {
+
+  @Test
+  public void testRandomOperations() throws Exception {
+    Random random = new Random(0);
+    LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+    Map<Long, String> expected = new HashMap<Long, String>();
+
+    for (int i = 0; i < 100000; i++) {
+      long key = random.nextInt(5000) - 2500;
+      switch (random.nextInt(3)) {
+        case 0:
+          assertEquals(expected.put(key, String.valueOf(i)), map.put(key, String.valueOf(i)));
+          break;
+        case 1:
+          assertEquals(expected.remove(key), map.remove(key));
+          break;
+        default:
+          assertEquals(expected.get(key), map.get(key));
+          assertEquals(expected.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+
+    assertEquals(expected, map);
+    assertEquals(expected, TestEntityStore.clone(map));
+
+    // remove using iterator
+    for (Iterator<Map.Entry<Long, String>> it = map.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Long, String> entry = it.next();
+      if (entry.getKey() % 2 == 0) {
+        it.remove();
+        expected.remove(entry.getKey());
+      }
+    }
+    assertEquals(expected, map);
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.values().iterator().hasNext());
+  }
+
+  @Test
+  public void testIdentityLongHashMap() throws Exception {
+    IdentityLongHashMap<Object> map = new IdentityLongHashMap<Object>();
+    String a = new String("a");
+    String equalToA = new String("a");
+    map.put(a, 1l);
+    assertTrue(map.containsKey(a));
+    assertFalse(map.containsKey(equalToA));
+    assertEquals(1l, map.valueAt(map.indexOf(a)));
+
+    List<Object> keys = new ArrayList<Object>();
+    for (int i = 0; i < 10000; i++) {
+      Object key = new Object();
+      keys.add(key);
+      map.put(key, i);
+    }
+    for (int i = 0; i < 10000; i += 2) {
+      assertTrue(map.remove(keys.get(i)));
+    }
+    assertEquals(5001, map.size());
+    for (int i = 0; i < 10000; i++) {
+      int index = map.indexOf(keys.get(i));
+      if (i % 2 == 0) {
+        assertEquals(-1, index);
+      } else {
+        assertEquals(i, map.valueAt(index));
+      }
+    }
+  }
+
+  @Test
+  public void testIdentityDeterministicUIDHashMap() throws Exception {
+    IdentityDeterministicUIDHashMap<Object> map = new IdentityDeterministicUIDHashMap<Object>();
+    List<Object> keys = new ArrayList<Object>();
+    for (int i = 0; i < 10000; i++) {
+      Object key = new Object();
+      keys.add(key);
+      map.put(key, 1000l + i, i);
+    }
+    for (int i = 0; i < 10000; i += 2) {
+      assertTrue(map.remove(keys.get(i)));
+    }
+    assertEquals(5000, map.size());
+    for (int i = 0; i < 10000; i++) {
+      int index = map.indexOf(keys.get(i));
+      if (i % 2 == 0) {
+        assertEquals(-1, index);
+      } else {
+        assertEquals(1000l + i, map.executionTimeAt(index));
+        assertEquals(i, map.sequenceAt(index));
+        assertEquals(new DeterministicUIDHandler.DeterministicUID(1000l + i, i), map.valueAt(index));
+      }
+    }
+  }
+
+}
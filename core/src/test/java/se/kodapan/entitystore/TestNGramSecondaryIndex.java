@@ -0,0 +1,106 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+import java.util.*;
+
+public class TestNGramSecondaryIndex extends TestCase {
+
+  private static class HumansByName extends NGramSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private HumansByName(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(Human human) {
+      return human.getName();
+    }
+
+    @Override
+    protected String normalize(String text) {
+      return text.toLowerCase(Locale.ROOT);
+    }
+  }
+
+  @Test
+  public void testSubstrings() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByName byName = new HumansByName("byName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byName);
+
+    Random random = new Random(0);
+    Map<Long, Human> humans = new HashMap<Long, Human>();
+    for (long id = 0; id < 5000; id++) {
+      Human human = new Human(null, randomName(random), null, null, null);
+      human.setId(id);
+      store.put(human.getId(), human);
+      humans.put(id, human);
+    }
+
+    // replace, modify and remove some
+    for (long id = 0; id < 3000; id++) {
+      if (id % 3 == 0) {
+        Human human = new Human(null, randomName(random), null, null, null);
+        human.setId(id);
+        store.put(human.getId(), human);
+        humans.put(id, human);
+      } else if (id % 3 == 1) {
+        humans.get(id).setName(randomName(random));
+        store.put(id, humans.get(id));
+      } else {
+        store.remove(Human.class, id);
+        humans.remove(id);
+      }
+    }
+
+    for (int query = 0; query < 200; query++) {
+      // substrings of existing names of all lengths, and some that does not exist
+      String name = humans.get(3000l + random.nextInt(2000)).getName().toLowerCase(Locale.ROOT);
+      int start = random.nextInt(name.length());
+      String substring = query % 10 == 0 ? randomName(random) : name.substring(start, start + 1 + random.nextInt(Math.min(6, name.length() - start)));
+
+      Set<Human> contains = new HashSet<Human>();
+      Set<Human> startsWith = new HashSet<Human>();
+      Set<Human> endsWith = new HashSet<Human>();
+      for (Human human : humans.values()) {
+        String text = human.getName().toLowerCase(Locale.ROOT);
+        if (text.contains(substring)) {
+          contains.add(human);
+        }
+        if (text.startsWith(substring)) {
+          startsWith.add(human);
+        }
+        if (text.endsWith(substring)) {
+          endsWith.add(human);
+        }
+      }
+      assertEquals(contains, byName.contains(substring.toUpperCase(Locale.ROOT)));
+      assertEquals(contains.isEmpty() ? null : contains, byName.list(substring));
+      assertEquals(contains.size(), byName.count(substring));
+      assertEquals(startsWith, byName.startsWith(substring));
+      assertEquals(endsWith, byName.endsWith(substring));
+    }
+  }
+
+  private static String randomName(Random random) {
+    String[] syllables = new String[]{"an", "ders", "son", "sven", "gus", "tav", "kal", "le", "er", "ik", "-"};
+    StringBuilder sb = new StringBuilder();
+    int length = 1 + random.nextInt(5);
+    for (int i = 0; i < length; i++) {
+      sb.append(syllables[random.nextInt(syllables.length)]);
+    }
+    return sb.toString();
+  }
+
+}
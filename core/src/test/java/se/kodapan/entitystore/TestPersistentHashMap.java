@@ -0,0 +1,139 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+import se.kodapan.entitystore.domain.Organization;
+
+import java.util.*;
+
+public class TestPersistentHashMap extends TestCase {
+
+  /**
+   * Few distinct hash codes in order to exercise the collision nodes.
+   */
+  private static class Key {
+    private final int value;
+
+    private Key(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value % 97;
+    }
+  }
+
+  @Test
+  public void testRandomOperations() throws Exception {
+    Random random = new Random(0);
+    PersistentHashMap<Object, String> map = PersistentHashMap.empty();
+    Map<Object, String> expected = new HashMap<Object, String>();
+
+    PersistentHashMap<Object, String> snapshot = null;
+    Map<Object, String> expectedSnapshot = null;
+
+    for (int i = 0; i < 100000; i++) {
+      Object key = random.nextBoolean() ? (Object) (random.nextInt(5000) - 2500) : new Key(random.nextInt(1000));
+      switch (random.nextInt(3)) {
+        case 0:
+          assertEquals(expected.get(key), map.get(key));
+          expected.put(key, String.valueOf(i));
+          map = map.plus(key, String.valueOf(i));
+          break;
+        case 1:
+          assertEquals(expected.remove(key), map.get(key));
+          map = map.minus(key);
+          break;
+        default:
+          assertEquals(expected.get(key), map.get(key));
+          assertEquals(expected.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(expected.size(), map.size());
+      if (i == 50000) {
+        snapshot = map;
+        expectedSnapshot = new HashMap<Object, String>(expected);
+      }
+    }
+
+    assertEquals(expected, map);
+    assertEquals(expectedSnapshot, snapshot);
+
+    for (Object key : new ArrayList<Object>(expected.keySet())) {
+      map = map.minus(key);
+    }
+    assertTrue(map.isEmpty());
+    assertFalse(map.entrySet().iterator().hasNext());
+  }
+
+  @Test
+  public void testAtomicPersistentHashMap() throws Exception {
+    AtomicPersistentHashMap<Integer, String> map = new AtomicPersistentHashMap<Integer, String>();
+    for (int i = 0; i < 1000; i++) {
+      assertNull(map.put(i, String.valueOf(i)));
+    }
+    assertEquals("1", map.put(1, "one"));
+
+    // modifying while iterating does not affect the iterator
+    int iterated = 0;
+    for (Iterator<Map.Entry<Integer, String>> it = map.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Integer, String> entry = it.next();
+      map.put(entry.getKey() + 1000, entry.getValue());
+      if (entry.getKey() % 2 == 0) {
+        it.remove();
+      }
+      iterated++;
+    }
+    assertEquals(1000, iterated);
+    assertEquals(1500, map.size());
+    assertEquals("one", map.get(1001));
+
+    assertEquals(map, TestEntityStore.clone(map));
+
+    map.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    PersistentEntityStore store = new PersistentEntityStore();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(1l);
+    store.put(hd.getId(), hd);
+
+    PersistentEntityStore.Snapshot snapshot = store.snapshot();
+
+    Organization riksdagen = new Organization(null, "Riksdagen");
+    riksdagen.setId(2l);
+    store.put(riksdagen.getId(), riksdagen);
+    store.remove(Organization.class, 1l);
+
+    assertEquals(hd, snapshot.get(LegalPerson.class, 1l));
+    assertNull(snapshot.get(Organization.class, 2l));
+    assertEquals(1, snapshot.getEntitiesById(Identifiable.class).size());
+
+    assertNull(store.get(Organization.class, 1l));
+    assertEquals(riksdagen, store.get(LegalPerson.class, 2l));
+    assertEquals(riksdagen, store.getPrimaryIndex(LegalPerson.class).iterator().next());
+
+    assertNull(store.getPrimaryIndex(Long.class, Organization.class).getIdentity(hd));
+    assertEquals(Long.valueOf(2l), store.getPrimaryIndex(Long.class, Organization.class).getIdentity(riksdagen));
+
+    PersistentEntityStore clone = TestEntityStore.clone(store);
+    Organization clonedRiksdagen = clone.get(Organization.class, 2l);
+    assertEquals(riksdagen, clonedRiksdagen);
+    assertEquals(Long.valueOf(2l), clone.getPrimaryIndex(Long.class, LegalPerson.class).getIdentity(clonedRiksdagen));
+  }
+
+}
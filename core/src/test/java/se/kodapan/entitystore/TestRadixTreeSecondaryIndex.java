@@ -0,0 +1,120 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+
+import java.util.*;
+
+public class TestRadixTreeSecondaryIndex extends TestCase {
+
+  private static class HumansByName extends RadixTreeSecondaryIndex<Long, Human> {
+
+    private static final long serialVersionUID = 1l;
+
+    private HumansByName(String name, PrimaryIndex<Long, Human> primaryIndex) {
+      super(name, primaryIndex);
+    }
+
+    @Override
+    public Object getSecondaryKey(Human human) {
+      return human.getName();
+    }
+
+    @Override
+    protected String normalize(String text) {
+      return text.toLowerCase(Locale.ROOT);
+    }
+  }
+
+  @Test
+  public void testPrefixes() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+
+    HumansByName byName = new HumansByName("byName", store.getPrimaryIndex(Long.class, Human.class));
+    store.registerSecondaryIndex(byName);
+
+    Random random = new Random(0);
+    Map<Long, Human> humans = new HashMap<Long, Human>();
+    for (long id = 0; id < 5000; id++) {
+      Human human = new Human(null, randomName(random), null, null, null);
+      human.setId(id);
+      store.put(human.getId(), human);
+      humans.put(id, human);
+    }
+
+    // replace, modify and remove some
+    for (long id = 0; id < 3000; id++) {
+      if (id % 3 == 0) {
+        Human human = new Human(null, randomName(random), null, null, null);
+        human.setId(id);
+        store.put(human.getId(), human);
+        humans.put(id, human);
+      } else if (id % 3 == 1) {
+        humans.get(id).setName(id % 2 == 0 ? null : randomName(random));
+        store.put(id, humans.get(id));
+      } else {
+        store.remove(Human.class, id);
+        humans.remove(id);
+      }
+    }
+
+    for (int query = 0; query < 200; query++) {
+      String name = humans.get(3000l + random.nextInt(2000)).getName().toLowerCase(Locale.ROOT);
+      String prefix = query % 10 == 0 ? randomName(random) : name.substring(0, random.nextInt(name.length() + 1));
+
+      TreeMap<String, Set<Human>> expected = new TreeMap<String, Set<Human>>();
+      int count = 0;
+      for (Human human : humans.values()) {
+        if (human.getName() != null && human.getName().toLowerCase(Locale.ROOT).startsWith(prefix)) {
+          String key = human.getName().toLowerCase(Locale.ROOT);
+          Set<Human> entities = expected.get(key);
+          if (entities == null) {
+            expected.put(key, entities = new HashSet<Human>());
+          }
+          entities.add(human);
+          count++;
+        }
+      }
+      assertEquals(count, byName.count(prefix.toUpperCase(Locale.ROOT)));
+      assertEquals(new ArrayList<String>(expected.keySet()), byName.completions(prefix, Integer.MAX_VALUE));
+      assertEquals(new ArrayList<String>(expected.keySet()).subList(0, Math.min(3, expected.size())), byName.completions(prefix, 3));
+
+      // ordered by secondary key
+      List<Human> results = byName.startsWith(prefix, Integer.MAX_VALUE);
+      assertEquals(count, results.size());
+      int position = 0;
+      for (Map.Entry<String, Set<Human>> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), new HashSet<Human>(results.subList(position, position + entry.getValue().size())));
+        position += entry.getValue().size();
+      }
+      assertEquals(results.subList(0, Math.min(10, count)), byName.startsWith(prefix, 10));
+
+      if (!expected.isEmpty()) {
+        assertEquals(expected.firstEntry().getValue(), byName.list(expected.firstKey()));
+      }
+    }
+
+    for (Long id : new ArrayList<Long>(humans.keySet())) {
+      store.remove(Human.class, id);
+    }
+    assertEquals(0, byName.count(""));
+    assertTrue(byName.completions("", 10).isEmpty());
+  }
+
+  private static String randomName(Random random) {
+    String[] syllables = new String[]{"an", "ders", "son", "sven", "gus", "tav", "kal", "le", "er", "ik", " "};
+    StringBuilder sb = new StringBuilder();
+    int length = 1 + random.nextInt(4);
+    for (int i = 0; i < length; i++) {
+      sb.append(syllables[random.nextInt(syllables.length)]);
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,180 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.Human;
+import se.kodapan.entitystore.domain.Identifiable;
+import se.kodapan.entitystore.domain.LegalPerson;
+import se.kodapan.entitystore.domain.Organization;
+import se.kodapan.lang.reflect.augmentation.annotations.BinaryAssociationEnd;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestReverseAssociationIndex extends TestCase {
+
+  /**
+   * Points at humans and organizations that does not know about it.
+   */
+  public static class Note implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    @BinaryAssociationEnd(otherEndClass = Human.class)
+    private Human author;
+
+    @BinaryAssociationEnd(otherEndClass = Organization.class, multiplicity = "0..*")
+    private List<Organization> mentions = new ArrayList<Organization>();
+
+    public Note() {
+    }
+
+    public Note(Human author, Organization... mentions) {
+      this.author = author;
+      this.mentions.addAll(Arrays.asList(mentions));
+    }
+  }
+
+  @Test
+  public void testDecoupleReferrers() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+    store.getPrimaryIndex(Long.class, Note.class);
+
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(1l);
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(2l);
+    Organization volvo = new Organization(null, "Volvo");
+    volvo.setId(3l);
+    store.put(alice.getId(), alice);
+    store.put(hd.getId(), hd);
+    store.put(volvo.getId(), volvo);
+
+    Note first = new Note(alice, hd, volvo);
+    Note second = new Note(alice, hd);
+    store.put(10l, first);
+    store.put(11l, second);
+
+    assertEquals(new HashSet<Object>(Arrays.asList(first, second)), store.getReferrers(alice));
+    assertEquals(new HashSet<Object>(Arrays.asList(first, second)), store.getReferrers(hd));
+    assertEquals(Collections.singleton((Object) first), store.getReferrers(volvo));
+    assertTrue(store.getReferrers(first).isEmpty());
+    assertEquals(5, store.getReverseAssociationIndex().size());
+
+    // modified referrer
+    first.mentions.remove(volvo);
+    store.put(10l, first);
+    assertTrue(store.getReferrers(volvo).isEmpty());
+
+    // removed targets are removed from the referrers
+    store.remove(Organization.class, hd.getId());
+    assertTrue(first.mentions.isEmpty());
+    assertTrue(second.mentions.isEmpty());
+    assertTrue(store.getReferrers(hd).isEmpty());
+
+    store.remove(Human.class, alice.getId());
+    assertNull(first.author);
+    assertNull(second.author);
+    assertEquals(0, store.getReverseAssociationIndex().size());
+
+    // replaced referrer
+    Note replacement = new Note(null, volvo);
+    second.mentions.add(volvo);
+    store.put(11l, second);
+    assertEquals(Collections.singleton((Object) second), store.getReferrers(volvo));
+    store.put(11l, replacement);
+    assertEquals(Collections.singleton((Object) replacement), store.getReferrers(volvo));
+
+    // rebuilt after deserialization
+    EntityStoreImpl clone = TestEntityStore.clone(store);
+    Organization clonedVolvo = clone.get(Organization.class, volvo.getId());
+    assertEquals(Collections.singleton(clone.get(Note.class, 11l)), clone.getReferrers(clonedVolvo));
+    clone.remove(Organization.class, volvo.getId());
+    assertTrue(((Note) clone.get(Note.class, 11l)).mentions.isEmpty());
+
+    // built when a target is decoupled, even though no referrer was put since deserialization
+    clone = TestEntityStore.clone(store);
+    clone.remove(Organization.class, volvo.getId());
+    assertTrue(((Note) clone.get(Note.class, 11l)).mentions.isEmpty());
+  }
+
+  @Test
+  public void testNoOneDirectionalAssociations() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+    assertFalse(store.hasOneDirectionalEntityTypes());
+    assertFalse(store.getRoute(Organization.class).hasOneDirectionalEnds());
+
+    store.getPrimaryIndex(Long.class, Note.class);
+    assertTrue(store.hasOneDirectionalEntityTypes());
+    assertTrue(store.getRoute(Note.class).hasOneDirectionalEnds());
+  }
+
+  /**
+   * Referrers of shared targets are put and removed by concurrent writers.
+   */
+  @Test
+  public void testConcurrentReferrers() throws Exception {
+    final ConcurrentEntityStore store = new ConcurrentEntityStore(16);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+    store.getPrimaryIndex(Long.class, Note.class);
+
+    final Organization[] organizations = new Organization[4];
+    for (int i = 0; i < organizations.length; i++) {
+      organizations[i] = new Organization(null, "organization " + i);
+      organizations[i].setId((long) i);
+      store.put(organizations[i].getId(), organizations[i]);
+    }
+
+    final int threads = 8;
+    final int notesPerThread = 1000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < notesPerThread; i++) {
+              long id = 100 + thread * notesPerThread + i;
+              store.put(id, new Note(null, organizations[i % organizations.length], organizations[(i + 1) % organizations.length]));
+              if (i % 2 == 1) {
+                store.remove(Note.class, id);
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    done.await();
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+
+    int notes = threads * notesPerThread / 2;
+    assertEquals(notes * 2, store.getReverseAssociationIndex().size());
+    for (Organization organization : organizations) {
+      assertEquals(notes / 2, store.getReferrers(organization).size());
+    }
+
+    store.remove(Organization.class, 0l);
+    assertTrue(store.getReferrers(organizations[0]).isEmpty());
+    assertEquals(notes * 2 - notes / 2, store.getReverseAssociationIndex().size());
+  }
+
+}
@@ -0,0 +1,153 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.*;
+
+import java.util.*;
+
+public class TestSortedSecondaryIndex extends TestCase {
+
+  @Test
+  public void test() throws Exception {
+
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getEntityTypes().add(Human.class);
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    LegalPersonsByAnno legalPersonsByAnno = new LegalPersonsByAnno("legalPersonsByAnno", store.getPrimaryIndex(Long.class, LegalPerson.class));
+    store.registerSecondaryIndex(legalPersonsByAnno);
+
+    List<Organization> organizations = new ArrayList<Organization>();
+    for (int year = 1900; year < 2000; year++) {
+      Organization organization = new Organization(date(year), "organization " + year);
+      organization.setId((long) year);
+      store.put(organization.getId(), organization);
+      organizations.add(organization);
+    }
+    Human alice = new Human(date(1950), "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(1l);
+    store.put(alice.getId(), alice);
+    Human bob = new Human(null, "Robert Gustavsson", "Robert", "Bob", "Gustavsson");
+    bob.setId(2l);
+    store.put(bob.getId(), bob);
+
+    assertEquals(organizations.subList(10, 20), legalPersonsByAnno.range(date(1910), date(1920)));
+    assertEquals(organizations.subList(10, 21), legalPersonsByAnno.range(date(1910), true, date(1920), true, Integer.MAX_VALUE));
+    assertEquals(organizations.subList(11, 14), legalPersonsByAnno.range(date(1910), false, null, false, 3));
+    assertEquals(organizations.subList(0, 5), legalPersonsByAnno.lessThan(date(1905), 100));
+    assertEquals(organizations.subList(96, 100), legalPersonsByAnno.greaterThan(date(1995), 100));
+    assertEquals(organizations.get(99), legalPersonsByAnno.ordered(true, 1).get(0));
+    assertEquals(date(1900), legalPersonsByAnno.firstKey());
+    assertEquals(date(1999), legalPersonsByAnno.lastKey());
+    assertTrue(legalPersonsByAnno.range(date(1920), date(1910)).isEmpty());
+    assertTrue(legalPersonsByAnno.range(date(1920), false, date(1920), false, Integer.MAX_VALUE).isEmpty());
+
+    // equal secondary keys
+    assertEquals(new HashSet<LegalPerson>(Arrays.asList(organizations.get(50), alice)), legalPersonsByAnno.list(date(1950)));
+    assertEquals(3, legalPersonsByAnno.range(date(1949), date(1951)).size());
+
+    // null secondary keys are not in ranges
+    assertEquals(Collections.singleton(bob), legalPersonsByAnno.list((Object) null));
+    assertEquals(101, legalPersonsByAnno.ordered(false, Integer.MAX_VALUE).size());
+
+    // modified secondary key
+    alice.setAnno(date(1850));
+    store.put(alice.getId(), alice);
+    assertEquals(Collections.singleton(organizations.get(50)), legalPersonsByAnno.list(date(1950)));
+    assertEquals(alice, legalPersonsByAnno.ordered(false, 1).get(0));
+
+    store.remove(Identifiable.class, alice.getId());
+    assertEquals(organizations.get(0), legalPersonsByAnno.ordered(false, 1).get(0));
+    assertNull(legalPersonsByAnno.list(date(1850)));
+  }
+
+  @Test
+  public void testStartsWith() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    SortedSecondaryIndex<Long, LegalPerson> legalPersonsByName = new SortedSecondaryIndex<Long, LegalPerson>("legalPersonsByName", store.getPrimaryIndex(Long.class, LegalPerson.class)) {
+      @Override
+      public Object getSecondaryKey(LegalPerson legalPerson) throws UnsupportedOperationException {
+        return legalPerson.getName();
+      }
+
+      @Override
+      public Object getSecondaryKey(Object... parameters) {
+        return parameters[0];
+      }
+    };
+    store.registerSecondaryIndex(legalPersonsByName);
+
+    String[] names = new String[]{"ab", "abc", "abd", "ac", "b", "ab\uffff", "ab\uffffz"};
+    for (int i = 0; i < names.length; i++) {
+      Organization organization = new Organization(null, names[i]);
+      organization.setId((long) i);
+      store.put(organization.getId(), organization);
+    }
+
+    assertEquals(5, legalPersonsByName.startsWith("ab", 100).size());
+    assertEquals(2, legalPersonsByName.startsWith("ab", 2).size());
+    assertEquals("abc", legalPersonsByName.startsWith("abc", 100).get(0).getName());
+    assertEquals(2, legalPersonsByName.startsWith("ab\uffff", 100).size());
+    assertEquals(7, legalPersonsByName.startsWith("", 100).size());
+    assertEquals(0, legalPersonsByName.startsWith("c", 100).size());
+  }
+
+  /**
+   * An entity with several secondary keys is available using any of them, but only once in a range.
+   */
+  @Test
+  public void testSecondaryKeys() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    SortedSecondaryIndex<Long, LegalPerson> legalPersonsByWord = new SortedSecondaryIndex<Long, LegalPerson>("legalPersonsByWord", store.getPrimaryIndex(Long.class, LegalPerson.class)) {
+      @Override
+      public Object getSecondaryKey(LegalPerson legalPerson) throws UnsupportedOperationException {
+        return new SecondaryKeys(Arrays.asList(legalPerson.getName().split(" ")));
+      }
+
+      @Override
+      public Object getSecondaryKey(Object... parameters) {
+        return parameters[0];
+      }
+    };
+    store.registerSecondaryIndex(legalPersonsByWord);
+
+    Organization hd = new Organization(null, "högsta domstolen");
+    hd.setId(1l);
+    store.put(hd.getId(), hd);
+    Organization hfd = new Organization(null, "högsta förvaltningsdomstolen");
+    hfd.setId(2l);
+    store.put(hfd.getId(), hfd);
+
+    assertEquals(new HashSet<LegalPerson>(Arrays.asList(hd, hfd)), legalPersonsByWord.list("högsta"));
+    assertEquals(Collections.singleton(hd), legalPersonsByWord.list("domstolen"));
+    assertEquals(Arrays.asList(hd, hfd), legalPersonsByWord.ordered(false, Integer.MAX_VALUE));
+    assertEquals(Collections.singletonList(hfd), legalPersonsByWord.range("f", "h"));
+
+    hd.setName("riksdagen");
+    store.put(hd.getId(), hd);
+    assertNull(legalPersonsByWord.list("domstolen"));
+    assertEquals(Collections.singleton(hfd), legalPersonsByWord.list("högsta"));
+    assertEquals(Arrays.asList(hfd, hd), legalPersonsByWord.ordered(false, Integer.MAX_VALUE));
+
+    store.remove(Organization.class, hfd.getId());
+    assertNull(legalPersonsByWord.list("högsta"));
+    assertEquals(Collections.singletonList(hd), legalPersonsByWord.ordered(false, Integer.MAX_VALUE));
+  }
+
+  private static Date date(int year) {
+    return new GregorianCalendar(year, 0, 1).getTime();
+  }
+
+}
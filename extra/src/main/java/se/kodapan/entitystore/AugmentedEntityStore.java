@@ -4,8 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author kalle
@@ -30,20 +29,104 @@ public class AugmentedEntityStore extends EntityStoreImpl {
   public <IdentityType, EntityType> PrimaryIndex<IdentityType, EntityType> getPrimaryIndex(Class<IdentityType> identityType, Class<EntityType> entityType) {
     PrimaryIndex primaryIndex = super.getPrimaryIndex(identityType, entityType);
     if (registeredPrimaryIndices.add(entityType)) {
+      // fields sharing index name, in order of appearance
+      Map<String, List<Field>> fieldsByName = new LinkedHashMap<String, List<Field>>();
       for (Field field : entityType.getFields()) {
         if (field.isAnnotationPresent(Index.class)) {
-          Index key = field.getAnnotation(Index.class);
-          String name = key.name();
+          Index index = field.getAnnotation(Index.class);
+          String name = index.name();
           if (name.isEmpty()) {
-            name = entityType.getSimpleName() + " by " + field.getName();
+            name = entityType.getSimpleName() + " by " + field.getName() + (index.path().isEmpty() ? "" : "." + index.path());
           }
-          SecondaryIndex secondaryIndex = new BeanFieldSecondaryIndex(name, primaryIndex, field.getType(), field.getName());
-          if (!registerSecondaryIndex(secondaryIndex)) {
-            throw new RuntimeException("Name for secondary index on " + entityType.getName() + "#" + field.getName() + " is not unique! " + name);
+          List<Field> fields = fieldsByName.get(name);
+          if (fields == null) {
+            fields = new ArrayList<Field>();
+            fieldsByName.put(name, fields);
           }
+          fields.add(field);
+        }
+      }
+      for (Map.Entry<String, List<Field>> entry : fieldsByName.entrySet()) {
+        String name = entry.getKey();
+        List<Field> fields = entry.getValue();
+        SecondaryIndex secondaryIndex = createSecondaryIndex(name, primaryIndex, fields);
+        if (!registerSecondaryIndex(secondaryIndex)) {
+          throw new RuntimeException("Name for secondary index on " + entityType.getName() + "#" + fields.get(0).getName() + " is not unique! " + name);
         }
       }
     }
     return primaryIndex;
   }
+
+  /**
+   * @param fields annotated fields sharing index name
+   * @return a unique index if multiplicity is 0..1 or 1, otherwise a bean field index if a single field,
+   *         otherwise a composite key index
+   * @throws UnsupportedOperationException if a property path is used by a composite, sorted or unique index,
+   *                                       or if a sorted index is unique
+   * @throws IllegalArgumentException      if the fields declare different multiplicities
+   */
+  protected SecondaryIndex createSecondaryIndex(String name, PrimaryIndex primaryIndex, List<Field> fields) {
+    Collections.sort(fields, new Comparator<Field>() {
+      @Override
+      public int compare(Field field, Field field1) {
+        int position = field.getAnnotation(Index.class).position();
+        int position1 = field1.getAnnotation(Index.class).position();
+        if (position != position1) {
+          return position < position1 ? -1 : 1;
+        }
+        return field.getName().compareTo(field1.getName());
+      }
+    });
+    boolean sorted = false;
+    String multiplicity = "0..*";
+    boolean path = false;
+    for (Field field : fields) {
+      Index index = field.getAnnotation(Index.class);
+      sorted |= index.sorted();
+      // the default multiplicity does not conflict with the multiplicity declared by another field
+      if (!"0..*".equals(index.multiplicity())) {
+        if (!"0..*".equals(multiplicity) && !multiplicity.equals(index.multiplicity())) {
+          throw new IllegalArgumentException("Conflicting multiplicities " + multiplicity + " and " + index.multiplicity() + " in secondary index " + name);
+        }
+        multiplicity = index.multiplicity();
+      }
+      path |= !index.path().isEmpty();
+    }
+    boolean unique = "0..1".equals(multiplicity) || "1".equals(multiplicity);
+    if (sorted && unique) {
+      throw new UnsupportedOperationException("Sorted indices can not be unique, multiplicity " + multiplicity + " in secondary index " + name);
+    }
+    if (path) {
+      if (fields.size() > 1 || sorted || unique) {
+        throw new UnsupportedOperationException("Property paths are only supported by single field indices that are neither sorted nor unique: " + name);
+      }
+      Field field = fields.get(0);
+      String propertyPath = field.getName() + "." + field.getAnnotation(Index.class).path();
+      try {
+        return new BeanFieldSecondaryIndex(name, primaryIndex, BeanFieldSecondaryIndex.getPropertyPathType(field.getDeclaringClass(), propertyPath), propertyPath);
+      } catch (NoSuchFieldException e) {
+        throw new RuntimeException(e);
+      } catch (NoSuchMethodException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (fields.size() == 1 && !sorted && !unique) {
+      Field field = fields.get(0);
+      return new BeanFieldSecondaryIndex(name, primaryIndex, field.getType(), field.getName());
+    }
+    Class[] fieldTypes = new Class[fields.size()];
+    String[] fieldNames = new String[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      fieldTypes[i] = fields.get(i).getType();
+      fieldNames[i] = fields.get(i).getName();
+    }
+    if (sorted) {
+      return new SortedBeanFieldsSecondaryIndex(name, primaryIndex, fieldTypes, fieldNames);
+    }
+    if (unique) {
+      return new UniqueBeanFieldsSecondaryIndex(name, primaryIndex, fieldTypes, fieldNames, "1".equals(multiplicity));
+    }
+    return new BeanFieldsSecondaryIndex(name, primaryIndex, fieldTypes, fieldNames);
+  }
 }
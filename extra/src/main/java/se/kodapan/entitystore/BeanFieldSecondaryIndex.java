@@ -22,10 +22,18 @@ import se.kodapan.lang.reflect.ReflectionUtil;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.reflect.*;
+import java.util.*;
 
 /**
+ * Secondary index on a bean field of the entity,
+ * or on a dotted property path below it such as <code>contactInformation.address.city</code>.
+ * <p/>
+ * Collections and arrays in a property path fan out to their elements,
+ * e.g. <code>contactInformation.phoneNumbers.phoneNumber</code> posts the entity with each of its phone numbers.
+ * The secondary key of a property path is {@link SecondaryKeys} of the distinct non null values at the end of it,
+ * an entity without any such value is not in the index.
+ *
  * @author kalle
  * @since 2010-jul-11 17:46:37
  */
@@ -36,6 +44,9 @@ public class BeanFieldSecondaryIndex<PrimaryIndexIdentityType, EntityType, Attri
   private String fieldName;
   private transient Method getter;
 
+  /** getters of each segment in a property path by class, null unless fieldName is a path */
+  private transient List<Map<Class, Method>> pathGetters;
+
   public BeanFieldSecondaryIndex() {
   }
 
@@ -59,9 +70,16 @@ public class BeanFieldSecondaryIndex<PrimaryIndexIdentityType, EntityType, Attri
     return getter;
   }
 
+  public boolean isPropertyPath() {
+    return fieldName.indexOf('.') > -1;
+  }
+
   @Override
   public Object getSecondaryKey(EntityType entity) {
     try {
+      if (isPropertyPath()) {
+        return new SecondaryKeys(getPropertyPathValues(entity));
+      }
       return getGetter().invoke(entity);
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
@@ -74,6 +92,81 @@ public class BeanFieldSecondaryIndex<PrimaryIndexIdentityType, EntityType, Attri
     }
   }
 
+  /**
+   * @return distinct non null values at the end of the property path
+   */
+  private Set<Object> getPropertyPathValues(Object entity) throws NoSuchFieldException, NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    String[] segments = fieldName.split("\\.");
+    if (pathGetters == null) {
+      List<Map<Class, Method>> pathGetters = new ArrayList<Map<Class, Method>>(segments.length);
+      for (String segment : segments) {
+        pathGetters.add(new HashMap<Class, Method>(4));
+      }
+      this.pathGetters = pathGetters;
+    }
+    List<Object> instances = Collections.singletonList(entity);
+    for (int i = 0; i < segments.length && !instances.isEmpty(); i++) {
+      List<Object> values = new ArrayList<Object>();
+      for (Object instance : instances) {
+        Map<Class, Method> getters = pathGetters.get(i);
+        Method getter = getters.get(instance.getClass());
+        if (getter == null) {
+          getter = ReflectionUtil.getGetter(instance.getClass(), segments[i]);
+          getters.put(instance.getClass(), getter);
+        }
+        addElements(getter.invoke(instance), values);
+      }
+      instances = values;
+    }
+    return new LinkedHashSet<Object>(instances);
+  }
+
+  /**
+   * Adds the elements of a collection or an array, or any other non null value as it is.
+   */
+  private static void addElements(Object value, List<Object> values) {
+    if (value instanceof Collection) {
+      for (Object element : (Collection) value) {
+        if (element != null) {
+          values.add(element);
+        }
+      }
+    } else if (value instanceof Object[]) {
+      for (Object element : (Object[]) value) {
+        if (element != null) {
+          values.add(element);
+        }
+      }
+    } else if (value != null) {
+      values.add(value);
+    }
+  }
+
+  /**
+   * Resolves the type at the end of a property path from the getters, using the element type of collections and arrays.
+   *
+   * @param type class of the bean at the start of the path
+   * @param path bean property names separated by dots
+   * @return class of the values at the end of the path
+   */
+  public static Class getPropertyPathType(Class type, String path) throws NoSuchFieldException, NoSuchMethodException {
+    for (String segment : path.split("\\.")) {
+      Method getter = ReflectionUtil.getGetter(type, segment);
+      type = getter.getReturnType();
+      if (type.isArray()) {
+        type = type.getComponentType();
+      } else if (Collection.class.isAssignableFrom(type)) {
+        Type genericType = getter.getGenericReturnType();
+        if (!(genericType instanceof ParameterizedType)
+            || !(((ParameterizedType) genericType).getActualTypeArguments()[0] instanceof Class)) {
+          throw new IllegalArgumentException("Unknown element type of " + segment + " in property path " + path);
+        }
+        type = (Class) ((ParameterizedType) genericType).getActualTypeArguments()[0];
+      }
+    }
+    return type;
+  }
+
   @Override
   public Object getSecondaryKey(Object... parameters) {
     if (parameters.length != 1 || !fieldType.equals(parameters[0].getClass()) ) {
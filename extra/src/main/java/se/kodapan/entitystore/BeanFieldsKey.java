@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import se.kodapan.lang.reflect.ReflectionUtil;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates {@link CompositeKey}s from the values of several bean fields.
+ */
+public class BeanFieldsKey implements Serializable {
+
+  private static final long serialVersionUID = 1l;
+
+  private Class[] fieldTypes;
+  private String[] fieldNames;
+  private transient Method[] getters;
+
+  public BeanFieldsKey() {
+  }
+
+  /**
+   * @param fieldTypes types of the fields, in key order
+   * @param fieldNames names of the fields, in key order
+   */
+  public BeanFieldsKey(Class[] fieldTypes, String[] fieldNames) {
+    if (fieldTypes.length != fieldNames.length) {
+      throw new IllegalArgumentException("Expected as many field types as field names");
+    }
+    this.fieldTypes = fieldTypes;
+    this.fieldNames = fieldNames;
+  }
+
+  private Method[] getGetters(Class entityType) throws NoSuchFieldException, NoSuchMethodException {
+    if (getters == null) {
+      Method[] getters = new Method[fieldNames.length];
+      for (int i = 0; i < fieldNames.length; i++) {
+        getters[i] = ReflectionUtil.getGetter(entityType, fieldNames[i]);
+      }
+      this.getters = getters;
+    }
+    return getters;
+  }
+
+  /**
+   * @return key of the field values of entity
+   */
+  public CompositeKey getKey(Class entityType, Object entity) {
+    try {
+      Method[] getters = getGetters(entityType);
+      Object[] components = new Object[getters.length];
+      for (int i = 0; i < getters.length; i++) {
+        components[i] = getters[i].invoke(entity);
+      }
+      return new CompositeKey(components);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e);
+    } catch (NoSuchMethodException e) {
+      throw new RuntimeException(e);
+    } catch (NoSuchFieldException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param parameters values of the first fields, in key order
+   * @param prefix     if fewer parameters than fields are allowed
+   * @return key of the parameters
+   */
+  public CompositeKey getKey(Object[] parameters, boolean prefix) {
+    if (prefix ? parameters.length > fieldNames.length : parameters.length != fieldNames.length) {
+      throw new RuntimeException("Expected " + (prefix ? "at most " : "") + fieldNames.length + " parameters of types " + toString());
+    }
+    for (int i = 0; i < parameters.length; i++) {
+      if (parameters[i] != null && !fieldTypes[i].isPrimitive() && !fieldTypes[i].isInstance(parameters[i])) {
+        throw new RuntimeException("Expected parameter " + i + " to be of type " + fieldTypes[i].getName());
+      }
+    }
+    return new CompositeKey(parameters);
+  }
+
+  public String[] getFieldNames() {
+    return fieldNames;
+  }
+
+  public Class[] getFieldTypes() {
+    return fieldTypes;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("(");
+    for (int i = 0; i < fieldNames.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(fieldTypes[i].getName()).append(' ').append(fieldNames[i]);
+    }
+    return sb.append(')').toString();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * Secondary index on several bean fields with a {@link CompositeKey},
+ * i.e. a lookup on all fields is a single probe: <code>get(lastName, firstNames)</code>.
+ */
+public class BeanFieldsSecondaryIndex<PrimaryIndexIdentityType, EntityType> extends SimpleMapSetSecondaryIndex<PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private BeanFieldsKey key;
+
+  public BeanFieldsSecondaryIndex() {
+  }
+
+  public BeanFieldsSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, Class[] fieldTypes, String[] fieldNames) {
+    super(name, primaryIndex);
+    this.key = new BeanFieldsKey(fieldTypes, fieldNames);
+  }
+
+  @Override
+  public Object getSecondaryKey(EntityType entity) {
+    return key.getKey(getPrimaryIndex().getEntityType(), entity);
+  }
+
+  /**
+   * @param parameters values of all fields, in key order
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return key.getKey(parameters, false);
+  }
+
+  public BeanFieldsKey getKey() {
+    return key;
+  }
+}
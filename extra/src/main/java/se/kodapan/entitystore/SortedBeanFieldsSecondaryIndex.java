@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+import java.util.List;
+
+/**
+ * Secondary index on several bean fields ordered by a {@link CompositeKey},
+ * that in addition to exact matches supports left prefix queries: <code>listByPrefix(lastName)</code>.
+ * <p/>
+ * All fields must be {@link Comparable}.
+ */
+public class SortedBeanFieldsSecondaryIndex<PrimaryIndexIdentityType, EntityType> extends SortedSecondaryIndex<PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private BeanFieldsKey key;
+
+  public SortedBeanFieldsSecondaryIndex() {
+  }
+
+  public SortedBeanFieldsSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, Class[] fieldTypes, String[] fieldNames) {
+    super(name, primaryIndex);
+    this.key = new BeanFieldsKey(fieldTypes, fieldNames);
+  }
+
+  @Override
+  public Object getSecondaryKey(EntityType entity) {
+    return key.getKey(getPrimaryIndex().getEntityType(), entity);
+  }
+
+  /**
+   * @param parameters values of all fields, in key order
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return key.getKey(parameters, false);
+  }
+
+  /**
+   * @param prefix values of the first fields, in key order
+   * @return entities with fields starting with prefix, ordered by key
+   */
+  public List<EntityType> listByPrefix(Object... prefix) {
+    return listByPrefix(prefix, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param prefix values of the first fields, in key order
+   * @param limit  maximum number of entities returned
+   * @return entities with fields starting with prefix, ordered by key
+   */
+  public List<EntityType> listByPrefix(Object[] prefix, int limit) {
+    return range(key.getKey(prefix, true), true, CompositeKey.upperBound(prefix), false, limit);
+  }
+
+  public BeanFieldsKey getKey() {
+    return key;
+  }
+}
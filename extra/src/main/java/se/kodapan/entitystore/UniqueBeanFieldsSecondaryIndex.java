@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010 Kodapan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.kodapan.entitystore;
+
+/**
+ * Unique secondary index on one or more bean fields.
+ * A single field is used as key as is, several fields are combined in a {@link CompositeKey}.
+ * An entity with a null value in any of the fields has no key.
+ */
+public class UniqueBeanFieldsSecondaryIndex<PrimaryIndexIdentityType, EntityType> extends UniqueSecondaryIndex<PrimaryIndexIdentityType, EntityType> {
+
+  private static final long serialVersionUID = 1l;
+
+  private BeanFieldsKey key;
+
+  public UniqueBeanFieldsSecondaryIndex() {
+  }
+
+  /**
+   * @param required if all entities must have a value in all fields
+   */
+  public UniqueBeanFieldsSecondaryIndex(String name, PrimaryIndex<PrimaryIndexIdentityType, EntityType> primaryIndex, Class[] fieldTypes, String[] fieldNames, boolean required) {
+    super(name, primaryIndex, required);
+    this.key = new BeanFieldsKey(fieldTypes, fieldNames);
+  }
+
+  @Override
+  public Object getSecondaryKey(EntityType entity) {
+    return toSecondaryKey(key.getKey(getPrimaryIndex().getEntityType(), entity));
+  }
+
+  /**
+   * @param parameters values of all fields, in key order
+   */
+  @Override
+  public Object getSecondaryKey(Object... parameters) {
+    return toSecondaryKey(key.getKey(parameters, false));
+  }
+
+  private Object toSecondaryKey(CompositeKey compositeKey) {
+    for (int i = 0; i < compositeKey.size(); i++) {
+      if (compositeKey.get(i) == null) {
+        return null;
+      }
+    }
+    return compositeKey.size() == 1 ? compositeKey.get(0) : compositeKey;
+  }
+
+  public BeanFieldsKey getKey() {
+    return key;
+  }
+}
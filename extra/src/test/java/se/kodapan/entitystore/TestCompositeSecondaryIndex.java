@@ -0,0 +1,158 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.ContactInformation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestCompositeSecondaryIndex extends TestCase {
+
+  @Entity
+  public static class Person {
+
+    @Index(name = "persons by name", position = 1)
+    public String firstNames;
+
+    @Index(name = "persons by name", position = 0)
+    public String lastName;
+
+    @Index(name = "persons by city and birth year", position = 0, sorted = true)
+    public String city;
+
+    @Index(name = "persons by city and birth year", position = 1)
+    public Integer birthYear;
+
+    public Person() {
+    }
+
+    public Person(String firstNames, String lastName, String city, Integer birthYear) {
+      this.firstNames = firstNames;
+      this.lastName = lastName;
+      this.city = city;
+      this.birthYear = birthYear;
+    }
+
+    public String getFirstNames() {
+      return firstNames;
+    }
+
+    public String getLastName() {
+      return lastName;
+    }
+
+    public String getCity() {
+      return city;
+    }
+
+    public Integer getBirthYear() {
+      return birthYear;
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test() throws Exception {
+    AugmentedEntityStore store = new AugmentedEntityStore();
+    store.getPrimaryIndex(Long.class, Person.class);
+
+    Person alice = new Person("Alice Charlotta", "Tegnér", "Stockholm", 1864);
+    Person bob = new Person("Robert", "Gustavsson", "Stockholm", 1964);
+    Person carl = new Person("Carl", "Gustavsson", "Göteborg", 1964);
+    Person dagny = new Person("Dagny", "Gustavsson", "Stockholm", null);
+    store.put(1l, alice);
+    store.put(2l, bob);
+    store.put(3l, carl);
+    store.put(4l, dagny);
+
+    SecondaryIndex<Person, Long, Person> personsByName = store.getSecondaryIndicesByName().get("persons by name");
+    assertTrue(personsByName instanceof BeanFieldsSecondaryIndex);
+    assertSame(bob, personsByName.get("Gustavsson", "Robert"));
+    assertSame(alice, personsByName.get("Tegnér", "Alice Charlotta"));
+    assertNull(personsByName.get("Robert", "Gustavsson"));
+    try {
+      personsByName.get("Gustavsson");
+      fail("Expected all fields");
+    } catch (RuntimeException e) {
+      // all good
+    }
+
+    SortedBeanFieldsSecondaryIndex<Long, Person> personsByCityAndBirthYear = (SortedBeanFieldsSecondaryIndex<Long, Person>) store.getSecondaryIndicesByName().get("persons by city and birth year");
+    assertSame(carl, personsByCityAndBirthYear.get("Göteborg", 1964));
+    assertEquals(Arrays.asList(dagny, alice, bob), personsByCityAndBirthYear.listByPrefix("Stockholm"));
+    assertEquals(Arrays.asList(dagny, alice), personsByCityAndBirthYear.listByPrefix(new Object[]{"Stockholm"}, 2));
+    assertEquals(Arrays.asList(bob), personsByCityAndBirthYear.listByPrefix("Stockholm", 1964));
+    assertEquals(4, personsByCityAndBirthYear.listByPrefix().size());
+    assertTrue(personsByCityAndBirthYear.listByPrefix("Uppsala").isEmpty());
+
+    // modified composite key
+    bob.lastName = "Svensson";
+    store.put(2l, bob);
+    assertNull(personsByName.get("Gustavsson", "Robert"));
+    assertSame(bob, personsByName.get("Svensson", "Robert"));
+    assertEquals(Collections.singleton(carl), personsByName.list("Gustavsson", "Carl"));
+
+    store.remove(Person.class, 2l);
+    assertNull(personsByName.get("Svensson", "Robert"));
+    List<Person> stockholmers = personsByCityAndBirthYear.listByPrefix("Stockholm");
+    assertEquals(Arrays.asList(dagny, alice), stockholmers);
+  }
+
+  @Entity
+  public static class SortedUniquePerson {
+
+    @Index(name = "persons by city and birth year", position = 0, sorted = true)
+    public String city;
+
+    @Index(name = "persons by city and birth year", position = 1, multiplicity = "0..1")
+    public Integer birthYear;
+  }
+
+  @Entity
+  public static class MixedMultiplicityPerson {
+
+    @Index(name = "persons by name", position = 0, multiplicity = "1")
+    public String lastName;
+
+    @Index(name = "persons by name", position = 1, multiplicity = "0..1")
+    public String firstNames;
+  }
+
+  @Entity
+  public static class PathPerson {
+
+    @Index(name = "persons by name and city", position = 0)
+    public String lastName;
+
+    @Index(name = "persons by name and city", position = 1, path = "address.city")
+    public ContactInformation contactInformation;
+  }
+
+  /**
+   * Conflicting annotations of fields sharing an index name are not resolved by guessing.
+   */
+  @Test
+  public void testConflictingAnnotations() throws Exception {
+    try {
+      new AugmentedEntityStore().getPrimaryIndex(Long.class, SortedUniquePerson.class);
+      fail("Sorted indices can not be unique");
+    } catch (UnsupportedOperationException e) {
+      // all good
+    }
+    try {
+      new AugmentedEntityStore().getPrimaryIndex(Long.class, MixedMultiplicityPerson.class);
+      fail("Conflicting multiplicities");
+    } catch (IllegalArgumentException e) {
+      // all good
+    }
+    try {
+      new AugmentedEntityStore().getPrimaryIndex(Long.class, PathPerson.class);
+      fail("Property paths are not supported by composite indices");
+    } catch (UnsupportedOperationException e) {
+      // all good
+    }
+  }
+
+}
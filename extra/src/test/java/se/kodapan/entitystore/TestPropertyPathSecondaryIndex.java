@@ -0,0 +1,139 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import se.kodapan.entitystore.domain.*;
+
+import java.util.*;
+
+public class TestPropertyPathSecondaryIndex extends TestCase {
+
+  @Entity
+  public static class Person {
+
+    @Index(name = "persons by city", path = "address.city")
+    public ContactInformation contactInformation = new ContactInformation();
+
+    @Index(name = "persons by phone number", path = "phoneNumber")
+    public List<PhoneNumber> phoneNumbers = new ArrayList<PhoneNumber>();
+
+    public Person() {
+    }
+
+    public Person(String city, String... phoneNumbers) {
+      contactInformation.getAddress().setCity(city);
+      for (String number : phoneNumbers) {
+        this.phoneNumbers.add(phoneNumber(number));
+      }
+    }
+
+    public ContactInformation getContactInformation() {
+      return contactInformation;
+    }
+
+    public List<PhoneNumber> getPhoneNumbers() {
+      return phoneNumbers;
+    }
+  }
+
+  private static PhoneNumber phoneNumber(String number) {
+    PhoneNumber phoneNumber = new PhoneNumber();
+    phoneNumber.setPhoneNumber(number);
+    return phoneNumber;
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testAnnotatedPaths() throws Exception {
+    AugmentedEntityStore store = new AugmentedEntityStore();
+    store.getPrimaryIndex(Long.class, Person.class);
+
+    Person alice = new Person("Stockholm", "08-123456", "070-111111");
+    Person bob = new Person("Stockholm", "070-222222");
+    Person carl = new Person(null);
+    store.put(1l, alice);
+    store.put(2l, bob);
+    store.put(3l, carl);
+
+    SecondaryIndex<Person, Long, Person> personsByCity = store.getSecondaryIndicesByName().get("persons by city");
+    SecondaryIndex<Person, Long, Person> personsByPhoneNumber = store.getSecondaryIndicesByName().get("persons by phone number");
+
+    assertEquals(new HashSet<Person>(Arrays.asList(alice, bob)), personsByCity.list("Stockholm"));
+    assertSame(alice, personsByPhoneNumber.get("08-123456"));
+    assertSame(alice, personsByPhoneNumber.get("070-111111"));
+    assertSame(bob, personsByPhoneNumber.get("070-222222"));
+    try {
+      personsByPhoneNumber.get(1);
+      fail("Expected a string parameter");
+    } catch (RuntimeException e) {
+      // all good
+    }
+
+    // entities without a value at the end of the path are not indexed
+    assertEquals(new SecondaryKeys(Collections.emptySet()), personsByCity.getSecondaryKey(carl));
+
+    // modified values
+    alice.getContactInformation().getAddress().setCity("Uppsala");
+    alice.getPhoneNumbers().remove(0);
+    alice.getPhoneNumbers().add(phoneNumber("018-333333"));
+    store.put(1l, alice);
+    assertEquals(Collections.singleton(bob), personsByCity.list("Stockholm"));
+    assertSame(alice, personsByCity.get("Uppsala"));
+    assertNull(personsByPhoneNumber.get("08-123456"));
+    assertSame(alice, personsByPhoneNumber.get("070-111111"));
+    assertSame(alice, personsByPhoneNumber.get("018-333333"));
+
+    store.remove(Person.class, 1l);
+    assertNull(personsByCity.get("Uppsala"));
+    assertNull(personsByPhoneNumber.get("070-111111"));
+  }
+
+  @Test
+  public void testUnsupported() throws Exception {
+    try {
+      new AugmentedEntityStore().getPrimaryIndex(Long.class, SortedPerson.class);
+      fail("Property paths are not supported by sorted indices");
+    } catch (UnsupportedOperationException e) {
+      // all good
+    }
+  }
+
+  @Entity
+  public static class SortedPerson {
+
+    @Index(name = "sorted persons by city", path = "address.city", sorted = true)
+    public ContactInformation contactInformation = new ContactInformation();
+
+    public ContactInformation getContactInformation() {
+      return contactInformation;
+    }
+  }
+
+  /**
+   * Property paths on private fields, without annotations.
+   */
+  @Test
+  public void testLegalPersonsByCity() throws Exception {
+    EntityStoreImpl store = new EntityStoreImpl();
+    store.getPrimaryIndex(Long.class, Identifiable.class);
+    store.getPrimaryIndex(Long.class, LegalPerson.class);
+    store.getPrimaryIndex(Long.class, Human.class);
+    store.getPrimaryIndex(Long.class, Organization.class);
+
+    BeanFieldSecondaryIndex<Long, LegalPerson, String> legalPersonsByCity = new BeanFieldSecondaryIndex<Long, LegalPerson, String>("legalPersonsByCity", store.getPrimaryIndex(Long.class, LegalPerson.class), String.class, "contactInformation.address.city");
+    store.registerSecondaryIndex(legalPersonsByCity);
+    assertEquals(String.class, BeanFieldSecondaryIndex.getPropertyPathType(LegalPerson.class, "contactInformation.phoneNumbers.phoneNumber"));
+
+    Human alice = new Human(null, "Alice Charlotta Tegnér", "Alice Charlotta", "Alice", "Tegnér");
+    alice.setId(1l);
+    alice.getContactInformation().getAddress().setCity("Stockholm");
+    Organization hd = new Organization(null, "Högsta domstolen");
+    hd.setId(2l);
+    hd.getContactInformation().getAddress().setCity("Stockholm");
+    store.put(alice.getId(), alice);
+    store.put(hd.getId(), hd);
+
+    assertEquals(new HashSet<LegalPerson>(Arrays.asList(alice, hd)), legalPersonsByCity.list("Stockholm"));
+  }
+
+}
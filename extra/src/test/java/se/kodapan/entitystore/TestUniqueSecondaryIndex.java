@@ -0,0 +1,114 @@
+package se.kodapan.entitystore;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class TestUniqueSecondaryIndex extends TestCase {
+
+  @Entity
+  public static class Account {
+
+    @Index(name = "accounts by number", multiplicity = "1")
+    public String number;
+
+    @Index(name = "accounts by email", multiplicity = "0..1")
+    public String email;
+
+    public Account() {
+    }
+
+    public Account(String number, String email) {
+      this.number = number;
+      this.email = email;
+    }
+
+    public String getNumber() {
+      return number;
+    }
+
+    public String getEmail() {
+      return email;
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test() throws Exception {
+    AugmentedEntityStore store = new AugmentedEntityStore();
+    store.getPrimaryIndex(Long.class, Account.class);
+
+    SecondaryIndex<Account, Long, Account> accountsByNumber = store.getSecondaryIndicesByName().get("accounts by number");
+    SecondaryIndex<Account, Long, Account> accountsByEmail = store.getSecondaryIndicesByName().get("accounts by email");
+    assertTrue(accountsByNumber instanceof UniqueSecondaryIndex);
+    assertTrue(((UniqueSecondaryIndex) accountsByNumber).isRequired());
+    assertFalse(((UniqueSecondaryIndex) accountsByEmail).isRequired());
+
+    Account alice = new Account("1", "alice@example.com");
+    Account bob = new Account("2", null);
+    store.put(1l, alice);
+    store.put(2l, bob);
+
+    assertSame(alice, accountsByNumber.get("1"));
+    assertSame(alice, accountsByEmail.get("alice@example.com"));
+    assertEquals(Collections.singleton(bob), accountsByNumber.list("2"));
+    assertNull(accountsByNumber.list("3"));
+
+    // uniqueness is enforced at put, before anything is written
+    try {
+      store.put(3l, new Account("1", null));
+      fail("Expected unique number");
+    } catch (InconsistencyException e) {
+      // all good
+    }
+    assertNull(store.get(Account.class, 3l));
+    try {
+      store.put(4l, new Account(null, "carl@example.com"));
+      fail("Expected required number");
+    } catch (InconsistencyException e) {
+      // all good
+    }
+    assertNull(store.get(Account.class, 4l));
+
+    // refused replacement leaves the previous instance in all indices
+    try {
+      store.put(2l, new Account("1", null));
+      fail("Expected unique number");
+    } catch (InconsistencyException e) {
+      // all good
+    }
+    assertSame(bob, store.get(Account.class, 2l));
+    assertSame(bob, accountsByNumber.get("2"));
+    assertSame(alice, accountsByNumber.get("1"));
+
+    // refused modified key leaves the entity with its previous key
+    bob.number = "1";
+    try {
+      store.put(2l, bob);
+      fail("Expected unique number");
+    } catch (InconsistencyException e) {
+      // all good
+    }
+    assertSame(bob, accountsByNumber.get("2"));
+    assertSame(alice, accountsByNumber.get("1"));
+    bob.number = "2";
+
+    // replaced instance with the same key
+    Account alice2 = new Account("1", "alice@example.org");
+    store.put(1l, alice2);
+    assertSame(alice2, accountsByNumber.get("1"));
+    assertNull(accountsByEmail.get("alice@example.com"));
+    assertSame(alice2, accountsByEmail.get("alice@example.org"));
+
+    // modified key
+    bob.email = "alice@example.com";
+    store.put(2l, bob);
+    assertSame(bob, accountsByEmail.get("alice@example.com"));
+
+    store.remove(Account.class, 1l);
+    assertNull(accountsByNumber.get("1"));
+    assertNull(accountsByEmail.get("alice@example.org"));
+  }
+
+}